@@ -15,11 +15,17 @@
  */
 package cc.chordflower.desktop.barbara;
 
-import cc.chordflower.desktop.barbara.initial.view.BarbaraEventHandler;
+import cc.chordflower.desktop.barbara.configuration.model.BarbaraConfiguration;
 import cc.chordflower.desktop.barbara.initial.view.BarbaraMainWindow;
 import cc.chordflower.desktop.barbara.initial.view.BarbaraMainWindow.BarbaraMainWindowEvents;
+import cc.chordflower.desktop.barbara.spi.event.EventBus.Delivery;
+import cc.chordflower.desktop.barbara.utilities.ClassDataSharing;
+import cc.chordflower.desktop.barbara.utilities.events.BarbaraEventBus;
+import cc.chordflower.desktop.barbara.utilities.layers.BarbaraPluginManager;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginResourceAccounting;
+import com.google.gson.Gson;
 import javafx.application.Application;
-import javafx.event.Event;
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import org.apache.commons.lang3.SystemUtils;
@@ -27,6 +33,7 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.Objects;
 
 /**
@@ -34,12 +41,16 @@ import java.util.Objects;
  *
  * @author carddamom
  */
-public final class BarbaraApplication extends Application implements BarbaraEventHandler {
+public final class BarbaraApplication extends Application {
 
   private static Logger LOGGER = LoggerFactory.getLogger( BarbaraApplication.class );
 
   private Stage primaryStage;
 
+  private BarbaraConfiguration configuration;
+
+  private BarbaraPluginManager pluginManager;
+
   /**
    * Runs the javafx application.
    *
@@ -48,7 +59,24 @@ public final class BarbaraApplication extends Application implements BarbaraEven
   public static void main( String[] args ) {
 
     Application.launch( args );
+    // The launch returns once stop was called, the exit ends the threads that are still running.
+    System.exit( 0 );
+
+  }
+
+  /**
+   * Creates the plugin manager and loads the configuration, outside the javafx thread, and starts watching its file, the
+   * named parameters override the configuration.
+   */
+  @Override
+  public void init( ) {
 
+    this.pluginManager = new BarbaraPluginManager( new Gson( ) );
+    try {
+      this.configuration = BarbaraConfiguration.Module.provideConfiguration( this.getParameters( ).getNamed( ) );
+    } catch( IllegalStateException ex ) {
+      LOGGER.warn( "Unable to load the configuration, it will not be watched", ex );
+    }
   }
 
   /**
@@ -63,19 +91,82 @@ public final class BarbaraApplication extends Application implements BarbaraEven
 
     String css = Objects.requireNonNull( BarbaraApplication.class.getResource( "/modena_dark.css" ) ).toExternalForm( );
     var root = new BarbaraMainWindow( );
-    root.addListener( this );
+    BarbaraEventBus.getCurrentEventBus( ).subscribe( BarbaraMainWindow.ACTIONS, Delivery.PUBLISHER, this::handle );
+    root.monitorPluginResources( PluginResourceAccounting.getCurrentAccounting( ) );
 
     var scene = new Scene( root, 1280, 1024 );
     scene.getStylesheets( ).add( css );
+    scene.addPostLayoutPulseListener( new Runnable( ) {
+
+      private boolean shown;
+
+      @Override
+      public void run( ) {
+
+        if( !this.shown ) {
+          this.shown = true;
+          Platform.runLater( ( ) -> scene.removePostLayoutPulseListener( this ) );
+          BarbaraApplication.this.firstFrameShown( );
+        }
+      }
+    } );
+    if( ClassDataSharing.isTrainingRun( ) ) {
+      // The training run only has to load the classes, the window does not need to be seen.
+      primaryStage.setOpacity( 0 );
+    }
     primaryStage.setScene( scene );
     primaryStage.show( );
     primaryStage.setTitle( "Barbara" );
   }
 
+  /**
+   * Writes the pending configuration changes, as the writer thread does not keep the jvm running, and stops watching the
+   * configuration file.
+   */
   @Override
-  public void handle( Event event ) {
+  public void stop( ) {
+
+    if( this.configuration != null ) {
+      try {
+        this.configuration.close( );
+      } catch( IOException ex ) {
+        LOGGER.warn( "Unable to stop watching the configuration file", ex );
+      }
+    }
+  }
+
+  /**
+   * Records the time to the first frame, and then keeps the shared archive up to date with the active plugins, or in a
+   * training run, loads the plugins and exits, so the jvm writes the shared archive.
+   */
+  private void firstFrameShown( ) {
+
+    ClassDataSharing.getCurrentClassDataSharing( ).recordFirstFrame( );
+    if( !ClassDataSharing.isTrainingRun( ) ) {
+      ClassDataSharing.getCurrentClassDataSharing( ).track( this.pluginManager );
+      return;
+    }
+    var training = new Thread( ( ) -> {
+      try {
+        ClassDataSharing.runTrainingWorkload( );
+      } catch( IOException | RuntimeException ex ) {
+        LOGGER.error( "Unable to load the plugins of the training run", ex );
+      } catch( InterruptedException ex ) {
+        Thread.currentThread( ).interrupt( );
+      } finally {
+        Platform.runLater( Platform::exit );
+      }
+    }, "barbara-cds-training" );
+    training.setDaemon( true );
+    training.start( );
+  }
+
+  /**
+   * Handles the actions of the main window, they are published from the javafx thread.
+   */
+  private void handle( BarbaraMainWindowEvents event ) {
 
-    switch( BarbaraMainWindowEvents.fromString( Objects.requireNonNull( event ).getEventType( ).getName( ) ) ) {
+    switch( Objects.requireNonNull( event ) ) {
       case ENTER_EXIT_FULL_SCREEN -> {
         if( SystemUtils.IS_OS_MAC_OSX ) {
           this.primaryStage.setFullScreen( !this.primaryStage.isFullScreen( ) );
@@ -87,16 +178,17 @@ public final class BarbaraApplication extends Application implements BarbaraEven
         this.primaryStage.setIconified( true );
       }
       case QUIT -> {
+        // Exiting through javafx calls stop, so the pending configuration changes are written.
         this.primaryStage.close( );
-        System.exit( 0 );
+        Platform.exit( );
       }
       case SERVICES -> {
         if( SystemUtils.IS_OS_MAC_OSX ) {
           LOGGER.debug( "Please write something useful on the MacOS" );
         }
       }
-      case UNKNOWN -> {
-        LOGGER.warn( "I do not know which event this was..." );
+      default -> {
+        LOGGER.debug( "Nothing to do for the {} action", event.EventName( ) );
       }
     }
   }
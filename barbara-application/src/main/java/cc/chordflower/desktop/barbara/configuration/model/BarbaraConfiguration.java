@@ -15,7 +15,12 @@
  */
 package cc.chordflower.desktop.barbara.configuration.model;
 
+import cc.chordflower.desktop.barbara.configuration.model.LayeredConfiguration.Layer;
 import cc.chordflower.desktop.barbara.utilities.UserPathConfiguration;
+import cc.chordflower.desktop.barbara.utilities.events.BarbaraEventBus;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
 import com.machinezoo.noexception.Exceptions;
 import dagger.Provides;
 import jakarta.validation.ConstraintViolation;
@@ -25,91 +30,155 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongepowered.configurate.BasicConfigurationNode;
 import org.spongepowered.configurate.ScopedConfigurationNode;
 import org.spongepowered.configurate.gson.GsonConfigurationLoader;
+import org.spongepowered.configurate.loader.ConfigurationLoader;
 import org.spongepowered.configurate.serialize.SerializationException;
 import org.spongepowered.configurate.xml.XmlConfigurationLoader;
 import org.spongepowered.configurate.yaml.NodeStyle;
 import org.spongepowered.configurate.yaml.YamlConfigurationLoader;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Set;
 
 /**
  * This is the root of the barbara configuration.
  *
  * @author carddamom
  */
-public final class BarbaraConfiguration implements ILoadableConfiguration {
+public final class BarbaraConfiguration implements ILoadableConfiguration, Closeable {
 
   @dagger.Module
   public static class Module {
 
-    @SuppressWarnings( "ResultOfMethodCallIgnored" )
     @Contract( " -> new" )
     @Provides
     public static @NotNull BarbaraConfiguration provideConfiguration( ) {
 
-      Path jsonConfigFile = Paths.get( UserPathConfiguration.getCurrentUserPathConfiguration( ).ApplicationConfiguration( ).normalize( ).toAbsolutePath( ).toString( ),
-          "config.json" );
-
-      Path yamlConfigFile = Paths.get( UserPathConfiguration.getCurrentUserPathConfiguration( ).ApplicationConfiguration( ).normalize( ).toAbsolutePath( ).toString( ),
-          "config.yaml" );
-
-      Path tomlConfigFile = Paths.get( UserPathConfiguration.getCurrentUserPathConfiguration( ).ApplicationConfiguration( ).normalize( ).toAbsolutePath( ).toString( ),
-          "config.toml" );
-
-      Path xmlConfigFile = Paths.get( UserPathConfiguration.getCurrentUserPathConfiguration( ).ApplicationConfiguration( ).normalize( ).toAbsolutePath( ).toString( ),
-          "config.xml" );
-
-      AtomicReference< BarbaraConfiguration > configuration = new AtomicReference<>( null );
-
-      if( jsonConfigFile.toFile( ).exists( ) && jsonConfigFile.toFile( ).isFile( ) && jsonConfigFile.toFile( ).canRead( ) ) {
-        Exceptions.wrap( ).runnable( ( ) -> {
-          GsonConfigurationLoader configurationLoader = GsonConfigurationLoader.builder( )
-              .indent( 2 )
-              .lenient( true )
-              .build( );
-          configuration.set( new BarbaraConfiguration( ) );
-          configuration.get( ).loadFrom( configurationLoader.load( ) );
-        } );
-      } else if( yamlConfigFile.toFile( ).exists( ) && yamlConfigFile.toFile( ).isFile( ) && yamlConfigFile.toFile( ).canRead( ) ) {
-        Exceptions.wrap( ).runnable( ( ) -> {
-          YamlConfigurationLoader configurationLoader = YamlConfigurationLoader.builder( )
-              .indent( 2 )
-              .nodeStyle( NodeStyle.BLOCK )
-              .build( );
-          configuration.set( new BarbaraConfiguration( ) );
-          configuration.get( ).loadFrom( configurationLoader.load( ) );
-        } );
-      } else if( xmlConfigFile.toFile( ).exists( ) && xmlConfigFile.toFile( ).isFile( ) && xmlConfigFile.toFile( ).canRead( ) ) {
-        Exceptions.wrap( ).runnable( ( ) -> {
-          XmlConfigurationLoader configurationLoader = XmlConfigurationLoader.builder( )
-              .indent( 2 )
-              .includesXmlDeclaration( true )
-              .build( );
-          configuration.set( new BarbaraConfiguration( ) );
-          configuration.get( ).loadFrom( configurationLoader.load( ) );
-        } );
+      return Module.provideConfiguration( Map.of( ) );
+
+    }
+
+    /**
+     * Loads the configuration file of the user, as the user layer over the built-in defaults and the system-wide
+     * configuration file, and under the environment variables and the given named command line parameters.
+     *
+     * @param arguments The named command line parameters.
+     * @return The configuration, already watching the configuration file of the user.
+     *
+     * @throws IllegalStateException If the user has no configuration file.
+     */
+    @Contract( "_ -> new" )
+    public static @NotNull BarbaraConfiguration provideConfiguration( Map< String, String > arguments ) {
+
+      Path directory = UserPathConfiguration.getCurrentUserPathConfiguration( ).ApplicationConfiguration( ).toAbsolutePath( ).normalize( );
+      ConfigurationSnapshot snapshot = ConfigurationSnapshot.getCurrentConfigurationSnapshot( );
+      LayeredConfiguration layers = Module.layersOf( arguments );
+
+      for( String fileName : BarbaraConfiguration.FILE_NAMES ) {
+        Path source = directory.resolve( fileName );
+        BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes( source, BasicFileAttributes.class );
+        } catch( IOException ex ) {
+          continue;
+        }
+        if( attributes.isRegularFile( ) && Files.isReadable( source ) ) {
+          BarbaraConfiguration configuration = BarbaraConfiguration.load( source, attributes, BarbaraConfiguration.loaderOf( source ), snapshot, layers );
+          try {
+            configuration.watch( BarbaraConfiguration.WATCH_DEBOUNCE );
+          } catch( IOException ex ) {
+            LOGGER.warn( "Unable to watch the configuration file {}, it will not be reloaded", source, ex );
+          }
+          return configuration;
+        }
+      }
+      throw new IllegalStateException( "Unable to load the configuration" );
+    }
+
+    /**
+     * Returns every layer but the user one, which is loaded from the configuration file of the user.
+     */
+    private static @NotNull LayeredConfiguration layersOf( Map< String, String > arguments ) {
+
+      Path directory = UserPathConfiguration.getCurrentUserPathConfiguration( ).SystemConfiguration( ).toAbsolutePath( ).normalize( );
+      Path systemFile = BarbaraConfiguration.FILE_NAMES.stream( ).map( directory::resolve ).filter( Files::isRegularFile ).findFirst( ).orElse( null );
+      try {
+        return LayeredConfiguration.of( systemFile, null, System.getenv( ), arguments );
+      } catch( IOException ex ) {
+        LOGGER.warn( "Unable to read the system configuration file {}, it will be ignored", systemFile, ex );
+        return Exceptions.wrap( ).get( ( ) -> LayeredConfiguration.of( null, null, System.getenv( ), arguments ) );
       }
 
-      return Objects.requireNonNull( configuration.get( ), "Unable to load the configuration" );
     }
 
   }
 
-  @SuppressWarnings( "unused" )
   private static final Logger LOGGER = LoggerFactory.getLogger( BarbaraConfiguration.class );
 
-  private static final String PATHS_PROPERTY = "paths";
+  static final String PATHS_PROPERTY = "paths";
+
+  private static final BarbaraConfigurationTypeAdapter JSON_ADAPTER = new BarbaraConfigurationTypeAdapter( );
+
+  /**
+   * Streams the configuration from and to json, as lenient as the configurate json loader.
+   */
+  static final Gson JSON = new GsonBuilder( )
+      .setLenient( )
+      .registerTypeAdapter( BarbaraConfiguration.class, BarbaraConfiguration.JSON_ADAPTER )
+      .registerTypeAdapter( PathConfiguration.class, new PathConfigurationTypeAdapter( ) )
+      .registerTypeAdapter( ConfigurationValuesTypeAdapter.VALUES.getType( ), new ConfigurationValuesTypeAdapter( ) )
+      .create( );
+
+  /**
+   * The names of the configuration files, by order of preference.
+   */
+  static final List< String > FILE_NAMES = List.of( "config.json", "config.yaml", "config.xml" );
+
+  /**
+   * How long the persister waits for more saves before writing the configuration file.
+   */
+  private static final Duration SAVE_DEBOUNCE = Duration.ofMillis( 250 );
+
+  /**
+   * How long the configuration file must be quiet before the watcher parses it.
+   */
+  private static final Duration WATCH_DEBOUNCE = Duration.ofMillis( 500 );
 
   private ScopedConfigurationNode< ? > defaultNode;
 
+  private transient ConfigurationLoader< ? extends ScopedConfigurationNode< ? > > loader;
+
+  private transient Path source;
+
+  private transient ConfigurationPersister persister;
+
+  private transient ConfigurationWatcher watcher;
+
+  /**
+   * The layers this configuration is merged from, or null when it is only loaded from its own node.
+   */
+  private transient LayeredConfiguration layers;
+
+  /**
+   * The values of the configuration when it was last built from the layers, the values changed since are the ones saved
+   * to the user layer.
+   */
+  private transient Map< String, Object > applied;
+
   @Valid
   private final PathConfiguration paths = new PathConfiguration( );
 
@@ -123,25 +192,327 @@ public final class BarbaraConfiguration implements ILoadableConfiguration {
 
   }
 
-  @Contract( pure = true )
+  /**
+   * Returns the node this configuration is saved to, reading it from the configuration file on first use when the
+   * configuration was loaded from its snapshot.
+   */
   public Optional< ScopedConfigurationNode< ? > > defaultNode( ) {
 
+    if( this.defaultNode == null && this.loader != null ) {
+      this.defaultNode = Exceptions.wrap( ).get( ( ) -> this.loader.load( ) );
+    }
     return Optional.ofNullable( this.defaultNode );
 
   }
 
+  /**
+   * Returns the loader of the configuration file, built for the given path from its extension.
+   *
+   * @param source The configuration file.
+   * @return The configuration loader.
+   */
+  static @NotNull ConfigurationLoader< ? extends ScopedConfigurationNode< ? > > loaderOf( Path source ) {
+
+    String fileName = source.getFileName( ).toString( );
+    if( fileName.endsWith( ".yaml" ) ) {
+      return YamlConfigurationLoader.builder( )
+          .path( source )
+          .indent( 2 )
+          .nodeStyle( NodeStyle.BLOCK )
+          .build( );
+    } else if( fileName.endsWith( ".xml" ) ) {
+      return XmlConfigurationLoader.builder( )
+          .path( source )
+          .indent( 2 )
+          .includesXmlDeclaration( true )
+          .build( );
+    }
+    return GsonConfigurationLoader.builder( )
+        .path( source )
+        .indent( 2 )
+        .lenient( true )
+        .build( );
+
+  }
+
+  /**
+   * Loads the configuration from its snapshot, or when the configuration file changed since the snapshot was written,
+   * parses the file and writes a new snapshot.
+   *
+   * A json file is streamed straight into the configuration, without building its node, which is then read by the loader
+   * on first use, like after a snapshot.
+   */
+  static @NotNull BarbaraConfiguration load( Path source, BasicFileAttributes attributes, ConfigurationLoader< ? extends ScopedConfigurationNode< ? > > loader,
+      ConfigurationSnapshot snapshot ) {
+
+    BarbaraConfiguration configuration = new BarbaraConfiguration( );
+    configuration.loader = loader;
+    configuration.source = source.toAbsolutePath( ).normalize( );
+    if( snapshot.loadInto( source, attributes, configuration ) ) {
+      // The snapshot node is not backed by the configuration file, so the default node is read on first use.
+      configuration.defaultNode = null;
+      return configuration;
+    }
+
+    long start = System.nanoTime( );
+    if( source.getFileName( ).toString( ).endsWith( ".json" ) ) {
+      Exceptions.wrap( ).run( ( ) -> configuration.readJson( source ) );
+    } else {
+      configuration.loadFrom( Exceptions.wrap( ).get( ( ) -> loader.load( ) ) );
+    }
+    long loadTime = System.nanoTime( ) - start;
+    LOGGER.info( "Parsed the configuration in {} in {} us", source, loadTime / 1000 );
+    try {
+      snapshot.save( source, attributes, configuration, loadTime );
+    } catch( IOException ex ) {
+      LOGGER.warn( "Unable to write the configuration snapshot of {}", source, ex );
+    }
+    return configuration;
+
+  }
+
+  /**
+   * Loads the user layer of the given layers from its snapshot, or when the configuration file changed since the snapshot
+   * was written, parses the file and writes a new snapshot, and then builds the configuration from the merged values.
+   *
+   * The snapshot only keeps the user layer, so the other layers are never written to the cache nor to the configuration
+   * file of the user.
+   */
+  static @NotNull BarbaraConfiguration load( Path source, BasicFileAttributes attributes, ConfigurationLoader< ? extends ScopedConfigurationNode< ? > > loader,
+      ConfigurationSnapshot snapshot, LayeredConfiguration layers ) {
+
+    BarbaraConfiguration configuration = new BarbaraConfiguration( );
+    configuration.loader = loader;
+    configuration.source = source.toAbsolutePath( ).normalize( );
+    configuration.layers = Objects.requireNonNull( layers );
+    if( snapshot.loadInto( source, attributes, configuration.UserLayer( ) ) ) {
+      // The snapshot node is not backed by the configuration file, so the default node is read on first use.
+      configuration.defaultNode = null;
+      return configuration;
+    }
+
+    long start = System.nanoTime( );
+    if( source.getFileName( ).toString( ).endsWith( ".json" ) ) {
+      layers.setLayer( Layer.USER, Exceptions.wrap( ).get( ( ) -> LayeredConfiguration.valuesOf( source ) ) );
+    } else {
+      ScopedConfigurationNode< ? > node = Exceptions.wrap( ).get( ( ) -> loader.load( ) );
+      layers.setLayer( Layer.USER, Exceptions.wrap( ).get( ( ) -> ConfigurationSnapshot.valuesOf( node ) ) );
+      configuration.defaultNode = node;
+    }
+    long loadTime = System.nanoTime( ) - start;
+    LOGGER.info( "Parsed the configuration in {} in {} us", source, loadTime / 1000 );
+    Exceptions.wrap( ).run( configuration::apply );
+    try {
+      snapshot.save( source, attributes, configuration.UserLayer( ), loadTime );
+    } catch( IOException ex ) {
+      LOGGER.warn( "Unable to write the configuration snapshot of {}", source, ex );
+    }
+    return configuration;
+
+  }
+
+  private void readJson( Path source ) throws IOException {
+
+    try( JsonReader in = BarbaraConfiguration.JSON.newJsonReader( Files.newBufferedReader( source, StandardCharsets.UTF_8 ) ) ) {
+      BarbaraConfiguration.JSON_ADAPTER.read( in, this );
+    }
+
+  }
+
+  /**
+   * Loads the configuration from the given node, when the configuration is layered the node replaces the user layer.
+   */
   @Override
   public void loadFrom( @NotNull ScopedConfigurationNode< ? > node ) {
 
     Objects.requireNonNull( node );
+    if( this.layers != null ) {
+      Exceptions.wrap( ).run( ( ) -> this.loadUserLayer( node ) );
+      return;
+    }
     this.paths.loadFrom( node.node( BarbaraConfiguration.PATHS_PROPERTY ) );
     this.defaultNode = node;
 
   }
 
+  private @NotNull List< ConfigurationChange > loadUserLayer( ScopedConfigurationNode< ? > node ) throws SerializationException {
+
+    List< ConfigurationChange > changes = this.layers.setLayer( Layer.USER, ConfigurationSnapshot.valuesOf( node ) );
+    this.defaultNode = node;
+    this.apply( );
+    return changes;
+
+  }
+
+  /**
+   * Builds the configuration from the merged values of the layers.
+   */
+  private void apply( ) throws SerializationException {
+
+    BasicConfigurationNode node = BasicConfigurationNode.root( );
+    this.layers.saveTo( node );
+    this.paths.loadFrom( node.node( BarbaraConfiguration.PATHS_PROPERTY ) );
+    this.applied = this.values( );
+
+  }
+
+  /**
+   * Returns the part of the configuration that is kept in the configuration file and in its snapshot, the user layer when
+   * the configuration is layered, or else the whole configuration.
+   */
+  @NotNull ILoadableConfiguration UserLayer( ) {
+
+    if( this.layers == null ) {
+      return this;
+    }
+    return new ILoadableConfiguration( ) {
+
+      @Override
+      public void loadFrom( ScopedConfigurationNode< ? > node ) {
+
+        BarbaraConfiguration.this.loadFrom( node );
+
+      }
+
+      @Override
+      public void saveTo( ScopedConfigurationNode< ? > node ) {
+
+        for( var value : BarbaraConfiguration.this.layers.layer( Layer.USER ).entrySet( ) ) {
+          node.node( ( Object[ ] ) value.getKey( ).split( "\\." ) ).raw( value.getValue( ) );
+        }
+
+      }
+
+    };
+
+  }
+
+  /**
+   * Reloads the configuration from the given node.
+   *
+   * @param node The node to load the configuration from.
+   * @return The changes of the keys whose effective value is different after the reload.
+   *
+   * @throws SerializationException If the configuration cannot be saved to a node, to be compared.
+   */
+  synchronized @NotNull List< ConfigurationChange > reload( @NotNull ScopedConfigurationNode< ? > node ) throws SerializationException {
+
+    if( this.layers != null ) {
+      // Only the keys of the user layer are merged again.
+      return this.loadUserLayer( node );
+    }
+    Map< String, Object > before = this.values( );
+    this.loadFrom( node );
+    Map< String, Object > after = this.values( );
+
+    List< ConfigurationChange > changes = new ArrayList<>( );
+    Set< String > keys = new LinkedHashSet<>( before.keySet( ) );
+    keys.addAll( after.keySet( ) );
+    for( String key : keys ) {
+      if( !Objects.equals( before.get( key ), after.get( key ) ) ) {
+        changes.add( ConfigurationChange.of( key, before.get( key ), after.get( key ) ) );
+      }
+    }
+    return changes;
+
+  }
+
+  /**
+   * Returns the effective values of the configuration, by key.
+   */
+  private @NotNull Map< String, Object > values( ) throws SerializationException {
+
+    BasicConfigurationNode node = BasicConfigurationNode.root( );
+    this.saveTo( node );
+    return ConfigurationSnapshot.valuesOf( node );
+
+  }
+
+  /**
+   * Returns the file the configuration was loaded from, if it was loaded from a file.
+   */
+  @Contract( pure = true )
+  public Optional< Path > Source( ) {
+
+    return Optional.ofNullable( this.source );
+
+  }
+
+  /**
+   * Watches the file this configuration was loaded from, and reloads the configuration when the file changes, publishing
+   * the changed keys on the event bus of the application.
+   *
+   * @param debounce How long the file must be quiet before it is parsed, ignored if the file is already watched.
+   * @return The watcher, already started, it is closed by {@link #close()}.
+   *
+   * @throws IOException If the file cannot be watched.
+   */
+  public synchronized @NotNull ConfigurationWatcher watch( Duration debounce ) throws IOException {
+
+    if( this.watcher == null ) {
+      ConfigurationWatcher watcher = new ConfigurationWatcher( this, this.Source( ).orElseThrow( ( ) -> new IOException( "The configuration was not loaded from a file" ) ),
+          debounce, BarbaraEventBus.getCurrentEventBus( ), ConfigurationSnapshot.getCurrentConfigurationSnapshot( ) );
+      watcher.start( );
+      this.watcher = watcher;
+    }
+    return this.watcher;
+
+  }
+
+  /**
+   * Returns true if the given attributes are the ones of the configuration file last written by the persister, so the
+   * file holds this configuration and does not need to be reloaded.
+   */
+  synchronized boolean isPersisted( @NotNull BasicFileAttributes attributes ) {
+
+    return this.persister != null && this.persister.isOwnWrite( attributes );
+
+  }
+
+  /**
+   * Returns the persister that writes this configuration to the file it was loaded from, creating it on first use.
+   *
+   * @throws IllegalStateException If the configuration was not loaded from a file.
+   */
+  public synchronized @NotNull ConfigurationPersister Persister( ) {
+
+    if( this.persister == null ) {
+      this.persister = new ConfigurationPersister( this, this.Source( ).orElseThrow( ( ) -> new IllegalStateException( "The configuration was not loaded from a file" ) ),
+          BarbaraConfiguration.SAVE_DEBOUNCE );
+    }
+    return this.persister;
+
+  }
+
+  /**
+   * Writes the pending save to the configuration file, and stops the persister and the watcher.
+   *
+   * @throws IOException If the watcher cannot be closed.
+   */
+  @Override
+  public void close( ) throws IOException {
+
+    ConfigurationPersister persister;
+    ConfigurationWatcher watcher;
+    synchronized( this ) {
+      persister = this.persister;
+      watcher = this.watcher;
+      this.persister = null;
+      this.watcher = null;
+    }
+    // The persister writes under the lock of this configuration, so it is closed outside of it.
+    if( persister != null ) {
+      persister.close( );
+    }
+    if( watcher != null ) {
+      watcher.close( );
+    }
+
+  }
+
   public void loadFromDefault( ) {
 
-    this.loadFrom( Objects.requireNonNull( this.defaultNode, "The default node must not be null" ) );
+    this.loadFrom( Objects.requireNonNull( this.defaultNode( ).orElse( null ), "The default node must not be null" ) );
 
   }
 
@@ -153,9 +524,28 @@ public final class BarbaraConfiguration implements ILoadableConfiguration {
 
   }
 
-  public void saveToDefault( ) throws SerializationException {
-
-    this.saveTo( Objects.requireNonNull( this.defaultNode, "The default node must not be null" ) );
+  /**
+   * Saves the configuration to its default node, the node is only kept in memory, {@link #Persister()} writes it to the
+   * configuration file.
+   *
+   * When the configuration is layered, only the user layer is saved, after moving into it the values changed since the
+   * configuration was built from the layers, so the values of the other layers are never written to the file of the user.
+   */
+  public synchronized void saveToDefault( ) throws SerializationException {
+
+    ScopedConfigurationNode< ? > node = Objects.requireNonNull( this.defaultNode( ).orElse( null ), "The default node must not be null" );
+    if( this.layers == null ) {
+      this.saveTo( node );
+      return;
+    }
+    Map< String, Object > current = this.values( );
+    for( var value : current.entrySet( ) ) {
+      if( !Objects.equals( value.getValue( ), this.applied.get( value.getKey( ) ) ) ) {
+        this.layers.set( Layer.USER, value.getKey( ), value.getValue( ) );
+      }
+    }
+    this.applied = current;
+    this.UserLayer( ).saveTo( node );
 
   }
 
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Reads and writes the barbara configuration straight from a json stream, without reflection.
+ *
+ * The configuration read has no default node, since it was not loaded by a configurate loader. The paths are streamed by
+ * the {@link PathConfigurationTypeAdapter} generated from {@link PathConfiguration}.
+ *
+ * @author carddamom
+ */
+public final class BarbaraConfigurationTypeAdapter extends TypeAdapter< BarbaraConfiguration > {
+
+  private final PathConfigurationTypeAdapter pathsAdapter;
+
+  /**
+   * Creates a new barbara configuration type adapter.
+   */
+  public BarbaraConfigurationTypeAdapter( ) {
+
+    this.pathsAdapter = new PathConfigurationTypeAdapter( );
+
+  }
+
+  @Override
+  public void write( JsonWriter out, BarbaraConfiguration configuration ) throws IOException {
+
+    if( configuration == null ) {
+      out.nullValue( );
+      return;
+    }
+    out.beginObject( );
+    out.name( BarbaraConfiguration.PATHS_PROPERTY );
+    this.pathsAdapter.write( out, configuration.Paths( ) );
+    out.endObject( );
+
+  }
+
+  @Override
+  public BarbaraConfiguration read( JsonReader in ) throws IOException {
+
+    if( in.peek( ) == JsonToken.NULL ) {
+      in.nextNull( );
+      return null;
+    }
+    return this.read( in, new BarbaraConfiguration( ) );
+
+  }
+
+  /**
+   * Reads the configuration into the given one, only replacing the values that are present.
+   *
+   * @param in The reader positioned at the configuration object.
+   * @param configuration The configuration to update.
+   * @return The given configuration.
+   *
+   * @throws IOException If the stream cannot be read, or is not valid json.
+   */
+  @Contract( "_, _ -> param2" )
+  public @NotNull BarbaraConfiguration read( JsonReader in, BarbaraConfiguration configuration ) throws IOException {
+
+    Objects.requireNonNull( configuration );
+    in.beginObject( );
+    while( in.hasNext( ) ) {
+      if( in.nextName( ).equals( BarbaraConfiguration.PATHS_PROPERTY ) && in.peek( ) == JsonToken.BEGIN_OBJECT ) {
+        this.pathsAdapter.read( in, configuration.Paths( ) );
+      } else {
+        in.skipValue( );
+      }
+    }
+    in.endObject( );
+    return configuration;
+
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * A change of the effective value of a configuration key, this is an immutable class aka a value class.
+ *
+ * The key is the path of the value in the configuration tree, with its segments joined by dots, like paths.email.
+ *
+ * @author carddamom
+ */
+public final class ConfigurationChange {
+
+  private final String key;
+
+  private final Object oldValue;
+
+  private final Object newValue;
+
+  @Contract( pure = true )
+  private ConfigurationChange( String key, Object oldValue, Object newValue ) {
+
+    this.key = key;
+    this.oldValue = oldValue;
+    this.newValue = newValue;
+
+  }
+
+  /**
+   * Creates a new configuration change.
+   *
+   * @param key The changed key.
+   * @param oldValue The previous value of the key, or null if it had none.
+   * @param newValue The new value of the key, or null if it has none.
+   * @return A new configuration change.
+   */
+  @Contract( "_, _, _ -> new" )
+  public static @NotNull ConfigurationChange of( String key, Object oldValue, Object newValue ) {
+
+    return new ConfigurationChange( Objects.requireNonNull( key ), oldValue, newValue );
+
+  }
+
+  /**
+   * Returns the changed key.
+   */
+  @Contract( pure = true )
+  public String Key( ) {
+
+    return this.key;
+
+  }
+
+  /**
+   * Returns the previous value of the key, or null if it had none.
+   */
+  @Contract( pure = true )
+  public Object OldValue( ) {
+
+    return this.oldValue;
+
+  }
+
+  /**
+   * Returns the new value of the key, or null if it has none.
+   */
+  @Contract( pure = true )
+  public Object NewValue( ) {
+
+    return this.newValue;
+
+  }
+
+  /**
+   * Returns true if the changed key is the given key, or is inside it.
+   *
+   * @param key A key, like paths or paths.email.
+   * @return True if the given key is affected by this change.
+   */
+  @Contract( pure = true )
+  public boolean isUnder( String key ) {
+
+    return this.key.equals( key ) || this.key.startsWith( key + "." );
+
+  }
+
+  @Override
+  public String toString( ) {
+
+    return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "key", this.key ).append( "oldValue", this.oldValue )
+        .append( "newValue", this.newValue ).build( );
+
+  }
+
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongepowered.configurate.ConfigurationNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the configuration to its file behind the callers, so saving never blocks the javafx thread.
+ *
+ * The saves requested while the persister waits for the debounce period are merged into a single write. The write
+ * serializes the configuration into a temporary file next to the configuration file, forces it to the disk and renames it
+ * over the configuration file, so the file is always either the previous or the new configuration, never a partial one.
+ * A layered configuration only writes its user layer, see {@link BarbaraConfiguration#saveToDefault()}.
+ *
+ * @author carddamom
+ */
+public final class ConfigurationPersister implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( ConfigurationPersister.class );
+
+  /**
+   * The statistics of the persister, this is an immutable class aka a value class.
+   */
+  public static final class Statistics {
+
+    private final long requests;
+
+    private final long writes;
+
+    private final long failures;
+
+    private final Duration writeTime;
+
+    @Contract( pure = true )
+    private Statistics( long requests, long writes, long failures, Duration writeTime ) {
+
+      this.requests = requests;
+      this.writes = writes;
+      this.failures = failures;
+      this.writeTime = writeTime;
+
+    }
+
+    /**
+     * Returns the number of saves requested.
+     */
+    @Contract( pure = true )
+    public long Requests( ) {
+
+      return this.requests;
+
+    }
+
+    /**
+     * Returns the number of times the configuration file was written.
+     */
+    @Contract( pure = true )
+    public long Writes( ) {
+
+      return this.writes;
+
+    }
+
+    /**
+     * Returns the number of writes that failed.
+     */
+    @Contract( pure = true )
+    public long Failures( ) {
+
+      return this.failures;
+
+    }
+
+    /**
+     * Returns the time spent writing the configuration file, without the debounce period.
+     */
+    @Contract( pure = true )
+    public Duration WriteTime( ) {
+
+      return this.writeTime;
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "requests", this.requests ).append( "writes", this.writes )
+          .append( "failures", this.failures ).append( "writeTime", this.writeTime ).build( );
+
+    }
+
+  }
+
+  private final BarbaraConfiguration configuration;
+
+  private final Path target;
+
+  private final Duration debounce;
+
+  private final ScheduledExecutorService writer;
+
+  private final LongAdder requests;
+
+  private final LongAdder writes;
+
+  private final LongAdder failures;
+
+  private final LongAdder writeTime;
+
+  private CompletableFuture< Duration > pendingSave;
+
+  private ScheduledFuture< ? > pendingWrite;
+
+  private long firstRequest;
+
+  private volatile FileTime writtenTime;
+
+  private volatile long writtenSize;
+
+  private volatile Object writtenKey;
+
+  /**
+   * Creates a new configuration persister.
+   *
+   * @param configuration The configuration to write.
+   * @param target The configuration file.
+   * @param debounce How long the persister waits for more saves before writing.
+   */
+  public ConfigurationPersister( BarbaraConfiguration configuration, Path target, Duration debounce ) {
+
+    this.configuration = Objects.requireNonNull( configuration );
+    this.target = Objects.requireNonNull( target ).toAbsolutePath( ).normalize( );
+    this.debounce = Objects.requireNonNull( debounce );
+    this.writer = Executors.newSingleThreadScheduledExecutor( new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-configuration-writer-%d" )
+        .daemon( true )
+        .build( ) );
+    this.requests = new LongAdder( );
+    this.writes = new LongAdder( );
+    this.failures = new LongAdder( );
+    this.writeTime = new LongAdder( );
+
+  }
+
+  /**
+   * Requests the configuration to be written, once the debounce period passes without other requests.
+   *
+   * @return A future completed with the time from the first merged request until the configuration file was replaced, or
+   *     completed exceptionally if the file could not be written. The requests merged into the same write share the same
+   *     future.
+   */
+  public synchronized @NotNull CompletableFuture< Duration > save( ) {
+
+    this.requests.increment( );
+    if( this.pendingSave == null ) {
+      this.pendingSave = new CompletableFuture<>( );
+      this.firstRequest = System.nanoTime( );
+    }
+    if( this.pendingWrite != null ) {
+      this.pendingWrite.cancel( false );
+    }
+    this.pendingWrite = this.writer.schedule( this::write, this.debounce.toMillis( ), TimeUnit.MILLISECONDS );
+    return this.pendingSave;
+
+  }
+
+  /**
+   * Returns true if the given attributes are the ones the configuration file had right after the last write, which means
+   * the file was not changed by anyone else since.
+   *
+   * @param attributes The current attributes of the configuration file.
+   */
+  boolean isOwnWrite( @NotNull BasicFileAttributes attributes ) {
+
+    return Objects.equals( this.writtenTime, attributes.lastModifiedTime( ) ) && this.writtenSize == attributes.size( )
+        && Objects.equals( this.writtenKey, attributes.fileKey( ) );
+
+  }
+
+  /**
+   * Returns the written configuration file.
+   */
+  @Contract( pure = true )
+  public @NotNull Path Target( ) {
+
+    return this.target;
+
+  }
+
+  /**
+   * Returns the current statistics of the persister.
+   */
+  @Contract( " -> new" )
+  public @NotNull Statistics Statistics( ) {
+
+    return new Statistics( this.requests.sum( ), this.writes.sum( ), this.failures.sum( ), Duration.ofNanos( this.writeTime.sum( ) ) );
+
+  }
+
+  /**
+   * Writes the pending save at once, and stops the persister.
+   */
+  @Override
+  public void close( ) {
+
+    synchronized( this ) {
+      if( this.pendingWrite != null ) {
+        this.pendingWrite.cancel( false );
+        this.writer.execute( this::write );
+      }
+    }
+    this.writer.shutdown( );
+    try {
+      if( !this.writer.awaitTermination( 10, TimeUnit.SECONDS ) ) {
+        LOGGER.warn( "The configuration file {} was not written before closing", this.target );
+      }
+    } catch( InterruptedException ex ) {
+      Thread.currentThread( ).interrupt( );
+    }
+
+  }
+
+  private void write( ) {
+
+    CompletableFuture< Duration > save;
+    long requested;
+    synchronized( this ) {
+      save = this.pendingSave;
+      requested = this.firstRequest;
+      this.pendingSave = null;
+      this.pendingWrite = null;
+    }
+    if( save == null ) {
+      return;
+    }
+
+    long start = System.nanoTime( );
+    try {
+      this.persist( );
+      long end = System.nanoTime( );
+      this.writes.increment( );
+      this.writeTime.add( end - start );
+      LOGGER.debug( "Wrote the configuration file {} in {} us", this.target, ( end - start ) / 1000 );
+      save.complete( Duration.ofNanos( end - requested ) );
+    } catch( IOException | RuntimeException ex ) {
+      this.failures.increment( );
+      LOGGER.warn( "Unable to write the configuration file {}", this.target, ex );
+      save.completeExceptionally( ex );
+    }
+
+  }
+
+  private void persist( ) throws IOException {
+
+    ConfigurationNode node;
+    synchronized( this.configuration ) {
+      this.configuration.saveToDefault( );
+      // The copy is serialized outside the lock, so the configuration can change meanwhile.
+      node = this.configuration.defaultNode( ).orElseThrow( ).copy( );
+    }
+
+    Path directory = this.target.getParent( );
+    Files.createDirectories( directory );
+    // The temporary file keeps the extension of the configuration file, so it is written by the same loader.
+    Path temporary = Files.createTempFile( directory, ".", "-" + this.target.getFileName( ) );
+    try {
+      BarbaraConfiguration.loaderOf( temporary ).save( node );
+      try( FileChannel channel = FileChannel.open( temporary, StandardOpenOption.WRITE ) ) {
+        channel.force( true );
+      }
+      Files.move( temporary, this.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    } catch( IOException | RuntimeException ex ) {
+      Files.deleteIfExists( temporary );
+      throw ex;
+    }
+    ConfigurationPersister.forceDirectory( directory );
+
+    // The watcher sees the rename as a new file, these attributes let it know the file already holds the configuration.
+    BasicFileAttributes attributes = Files.readAttributes( this.target, BasicFileAttributes.class );
+    this.writtenSize = attributes.size( );
+    this.writtenKey = attributes.fileKey( );
+    this.writtenTime = attributes.lastModifiedTime( );
+
+  }
+
+  /**
+   * Forces the rename to the disk, on the file systems that allow directories to be opened.
+   */
+  private static void forceDirectory( Path directory ) {
+
+    try( FileChannel channel = FileChannel.open( directory, StandardOpenOption.READ ) ) {
+      channel.force( true );
+    } catch( IOException ex ) {
+      LOGGER.trace( "Unable to force the directory {} to the disk", directory, ex );
+    }
+
+  }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a field of a {@link ConfigurationSection} to a child of the configuration node.
+ *
+ * The field must have a getter and a setter, and be a String, a Path, a boolean, an int, a long or a double.
+ *
+ * @author carddamom
+ */
+@Documented
+@Retention( RetentionPolicy.SOURCE )
+@Target( ElementType.FIELD )
+public @interface ConfigurationProperty {
+
+  /**
+   * The key of the child node.
+   */
+  String value( );
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a configuration class whose {@link ConfigurationProperty} fields are bound at compile time.
+ *
+ * For a class named Foo, the barbara-processor generates FooBinding, with the loadFrom and saveTo code of the fields, and
+ * when {@link #properties()} is true, FooProperties, with a javafx property for each field, for the view models, and when
+ * {@link #typeAdapter()} is true, FooTypeAdapter, a gson type adapter that streams the fields as a json object. The
+ * generated code uses the getters and setters of the fields, without reflection.
+ *
+ * @author carddamom
+ */
+@Documented
+@Retention( RetentionPolicy.SOURCE )
+@Target( ElementType.TYPE )
+public @interface ConfigurationSection {
+
+  /**
+   * If the javafx properties class is generated.
+   */
+  boolean properties( ) default true;
+
+  /**
+   * If the gson type adapter is generated, the class must then have a public constructor without parameters.
+   */
+  boolean typeAdapter( ) default false;
+
+}
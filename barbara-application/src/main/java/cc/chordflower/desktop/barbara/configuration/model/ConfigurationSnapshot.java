@@ -0,0 +1,473 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import cc.chordflower.desktop.barbara.utilities.UserPathConfiguration;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongepowered.configurate.BasicConfigurationNode;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.serialize.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A compiled binary snapshot of the effective configuration, kept in the application cache, so the configuration is
+ * loaded with a single mapped read instead of parsing its source file on every start.
+ *
+ * The snapshot is valid while its source file has the same size and modification time, or, when only the modification
+ * time changed, the same sha-256 hash. It holds the scalar values of the configuration, by node path, together with the
+ * time the text loader took to parse the source, so every start that uses the snapshot records the time it saved.
+ *
+ * @author carddamom
+ */
+public final class ConfigurationSnapshot {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( ConfigurationSnapshot.class );
+
+  /**
+   * The first bytes of every snapshot file, "BCSS".
+   */
+  private static final int MAGIC = 0x42435353;
+
+  /**
+   * The version of the snapshot file.
+   */
+  private static final int FORMAT_VERSION = 1;
+
+  private static final byte STRING = 0;
+
+  private static final byte BOOLEAN = 1;
+
+  private static final byte LONG = 2;
+
+  private static final byte DOUBLE = 3;
+
+  private static volatile ConfigurationSnapshot currentConfigurationSnapshot;
+
+  /**
+   * The statistics of the snapshot, this is an immutable class aka a value class.
+   */
+  public static final class Statistics {
+
+    private final long hits;
+
+    private final long misses;
+
+    private final Duration savedTime;
+
+    @Contract( pure = true )
+    private Statistics( long hits, long misses, Duration savedTime ) {
+
+      this.hits = hits;
+      this.misses = misses;
+      this.savedTime = savedTime;
+
+    }
+
+    /**
+     * Returns the number of configurations loaded from the snapshot.
+     */
+    @Contract( pure = true )
+    public long Hits( ) {
+
+      return this.hits;
+
+    }
+
+    /**
+     * Returns the number of configurations that had to be parsed from their source file.
+     */
+    @Contract( pure = true )
+    public long Misses( ) {
+
+      return this.misses;
+
+    }
+
+    /**
+     * Returns the parsing time saved by loading the snapshots, compared with the time the text loader took when each
+     * snapshot was written.
+     */
+    @Contract( pure = true )
+    public Duration SavedTime( ) {
+
+      return this.savedTime;
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "hits", this.hits ).append( "misses", this.misses )
+          .append( "savedTime", this.savedTime ).build( );
+
+    }
+
+  }
+
+  /**
+   * The header of a snapshot file.
+   */
+  private static final class Header {
+
+    private final String source;
+
+    private final long size;
+
+    private final long modified;
+
+    private final byte[ ] hash;
+
+    private final long loadTime;
+
+    private Header( String source, long size, long modified, byte[ ] hash, long loadTime ) {
+
+      this.source = source;
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+      this.loadTime = loadTime;
+
+    }
+
+  }
+
+  private final Path snapshotFile;
+
+  private final LongAdder hits;
+
+  private final LongAdder misses;
+
+  private final LongAdder savedTime;
+
+  @Contract( pure = true )
+  private ConfigurationSnapshot( Path snapshotFile ) {
+
+    this.snapshotFile = snapshotFile;
+    this.hits = new LongAdder( );
+    this.misses = new LongAdder( );
+    this.savedTime = new LongAdder( );
+
+  }
+
+  /**
+   * Creates a new configuration snapshot, kept in the given file.
+   *
+   * @param snapshotFile The file of the snapshot, it does not need to exist.
+   * @return A new configuration snapshot.
+   */
+  @Contract( "_ -> new" )
+  public static @NotNull ConfigurationSnapshot of( Path snapshotFile ) {
+
+    return new ConfigurationSnapshot( Objects.requireNonNull( snapshotFile ).toAbsolutePath( ).normalize( ) );
+
+  }
+
+  /**
+   * Returns the snapshot of the barbara configuration, kept in the application cache.
+   */
+  public static @NotNull ConfigurationSnapshot getCurrentConfigurationSnapshot( ) {
+
+    if( ConfigurationSnapshot.currentConfigurationSnapshot == null ) {
+      synchronized( ConfigurationSnapshot.class ) {
+        if( ConfigurationSnapshot.currentConfigurationSnapshot == null ) {
+          ConfigurationSnapshot.currentConfigurationSnapshot = ConfigurationSnapshot.of(
+              UserPathConfiguration.getCurrentUserPathConfiguration( ).ApplicationCache( ).resolve( "configuration.snapshot" ) );
+        }
+      }
+    }
+    return ConfigurationSnapshot.currentConfigurationSnapshot;
+
+  }
+
+  /**
+   * Loads the given configuration from the snapshot, if the snapshot was written for the given source file and the file
+   * did not change since.
+   *
+   * @param source The source file of the configuration.
+   * @param attributes The attributes of the source file.
+   * @param configuration The configuration to load.
+   * @return True if the configuration was loaded, false if it must be parsed from its source file.
+   */
+  public boolean loadInto( Path source, BasicFileAttributes attributes, ILoadableConfiguration configuration ) {
+
+    long start = System.nanoTime( );
+    String key = ConfigurationSnapshot.keyOf( source );
+    BasicConfigurationNode node = BasicConfigurationNode.root( );
+    Header header;
+    boolean touched = false;
+
+    try( FileChannel channel = FileChannel.open( this.snapshotFile, StandardOpenOption.READ ) ) {
+      MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size( ) );
+      header = ConfigurationSnapshot.readHeader( buffer );
+      if( header == null || !header.source.equals( key ) || header.size != attributes.size( ) ) {
+        this.misses.increment( );
+        return false;
+      }
+      if( header.modified != attributes.lastModifiedTime( ).toMillis( ) ) {
+        if( !Arrays.equals( header.hash, ConfigurationSnapshot.hashOf( source ) ) ) {
+          this.misses.increment( );
+          return false;
+        }
+        touched = true;
+      }
+      ConfigurationSnapshot.readValues( buffer, node );
+    } catch( NoSuchFileException ex ) {
+      this.misses.increment( );
+      return false;
+    } catch( IOException | BufferUnderflowException | IllegalArgumentException ex ) {
+      LOGGER.warn( "Discarding the configuration snapshot in {}, it cannot be read", this.snapshotFile, ex );
+      this.misses.increment( );
+      return false;
+    }
+
+    configuration.loadFrom( node );
+    long elapsed = System.nanoTime( ) - start;
+    long saved = Math.max( 0, header.loadTime - elapsed );
+    this.hits.increment( );
+    this.savedTime.add( saved );
+    LOGGER.info( "Loaded the configuration from its snapshot in {} us, saving {} us of parsing", elapsed / 1000, saved / 1000 );
+
+    if( touched ) {
+      try {
+        this.write( new Header( key, attributes.size( ), attributes.lastModifiedTime( ).toMillis( ), header.hash, header.loadTime ), node );
+      } catch( IOException ex ) {
+        LOGGER.warn( "Unable to update the configuration snapshot in {}", this.snapshotFile, ex );
+      }
+    }
+    return true;
+
+  }
+
+  /**
+   * Writes the snapshot of the given configuration, which was just parsed from the given source file.
+   *
+   * @param source The source file of the configuration.
+   * @param attributes The attributes the source file had when it was parsed.
+   * @param configuration The configuration.
+   * @param loadTime The time the text loader took to parse the source file, in nanoseconds.
+   * @throws IOException If the source file cannot be hashed or the snapshot cannot be written.
+   */
+  public void save( Path source, BasicFileAttributes attributes, ILoadableConfiguration configuration, long loadTime ) throws IOException {
+
+    BasicConfigurationNode node = BasicConfigurationNode.root( );
+    configuration.saveTo( node );
+    this.write( new Header( ConfigurationSnapshot.keyOf( source ), attributes.size( ), attributes.lastModifiedTime( ).toMillis( ), ConfigurationSnapshot.hashOf( source ),
+        loadTime ), node );
+
+  }
+
+  /**
+   * Returns the current statistics of the snapshot.
+   */
+  @Contract( " -> new" )
+  public @NotNull Statistics Statistics( ) {
+
+    return new Statistics( this.hits.sum( ), this.misses.sum( ), Duration.ofNanos( this.savedTime.sum( ) ) );
+
+  }
+
+  private void write( Header header, ConfigurationNode node ) throws IOException {
+
+    List< Map.Entry< List< String >, Object > > values = new ArrayList<>( );
+    ConfigurationSnapshot.flatten( node, new ArrayList<>( ), values );
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream( );
+    try( DataOutputStream output = new DataOutputStream( bytes ) ) {
+      output.writeInt( ConfigurationSnapshot.MAGIC );
+      output.writeInt( ConfigurationSnapshot.FORMAT_VERSION );
+      ConfigurationSnapshot.writeString( output, header.source );
+      output.writeLong( header.size );
+      output.writeLong( header.modified );
+      output.write( header.hash );
+      output.writeLong( header.loadTime );
+      output.writeInt( values.size( ) );
+      for( var value : values ) {
+        output.writeShort( value.getKey( ).size( ) );
+        for( String segment : value.getKey( ) ) {
+          ConfigurationSnapshot.writeString( output, segment );
+        }
+        ConfigurationSnapshot.writeValue( output, value.getValue( ) );
+      }
+    }
+
+    Files.createDirectories( this.snapshotFile.getParent( ) );
+    Path temporary = Files.createTempFile( this.snapshotFile.getParent( ), "configuration", ".tmp" );
+    try {
+      Files.write( temporary, bytes.toByteArray( ) );
+      Files.move( temporary, this.snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    } catch( IOException ex ) {
+      Files.deleteIfExists( temporary );
+      throw ex;
+    }
+
+  }
+
+  /**
+   * Returns the scalar values of the given node, by key, with the segments of their path joined by dots.
+   *
+   * @throws SerializationException If the node has a list.
+   */
+  static @NotNull Map< String, Object > valuesOf( ConfigurationNode node ) throws SerializationException {
+
+    List< Map.Entry< List< String >, Object > > values = new ArrayList<>( );
+    ConfigurationSnapshot.flatten( node, new ArrayList<>( ), values );
+    Map< String, Object > keys = new LinkedHashMap<>( );
+    for( var value : values ) {
+      keys.put( String.join( ".", value.getKey( ) ), value.getValue( ) );
+    }
+    return keys;
+
+  }
+
+  /**
+   * Collects the scalar values of the given node, with the keys of their path, lists are not supported since no
+   * configuration uses them.
+   */
+  private static void flatten( ConfigurationNode node, List< String > path, List< Map.Entry< List< String >, Object > > values ) throws SerializationException {
+
+    if( node.isMap( ) ) {
+      for( var child : node.childrenMap( ).entrySet( ) ) {
+        path.add( String.valueOf( child.getKey( ) ) );
+        ConfigurationSnapshot.flatten( child.getValue( ), path, values );
+        path.remove( path.size( ) - 1 );
+      }
+    } else if( node.isList( ) ) {
+      throw new SerializationException( "The configuration list %s cannot be kept in a snapshot".formatted( String.join( ".", path ) ) );
+    } else if( node.rawScalar( ) != null ) {
+      values.add( Map.entry( List.copyOf( path ), node.rawScalar( ) ) );
+    }
+
+  }
+
+  private static Header readHeader( ByteBuffer buffer ) {
+
+    if( buffer.remaining( ) < 8 || buffer.getInt( ) != ConfigurationSnapshot.MAGIC || buffer.getInt( ) != ConfigurationSnapshot.FORMAT_VERSION ) {
+      return null;
+    }
+    String source = ConfigurationSnapshot.readString( buffer );
+    long size = buffer.getLong( );
+    long modified = buffer.getLong( );
+    byte[ ] hash = new byte[ 32 ];
+    buffer.get( hash );
+    return new Header( source, size, modified, hash, buffer.getLong( ) );
+
+  }
+
+  private static void readValues( ByteBuffer buffer, ConfigurationNode root ) throws SerializationException {
+
+    int count = buffer.getInt( );
+    for( int index = 0; index < count; index++ ) {
+      int segments = buffer.getShort( );
+      Object[ ] path = new Object[ segments ];
+      for( int segment = 0; segment < segments; segment++ ) {
+        path[ segment ] = ConfigurationSnapshot.readString( buffer );
+      }
+      Object value = switch( buffer.get( ) ) {
+        case ConfigurationSnapshot.STRING -> ConfigurationSnapshot.readString( buffer );
+        case ConfigurationSnapshot.BOOLEAN -> buffer.get( ) != 0;
+        case ConfigurationSnapshot.LONG -> buffer.getLong( );
+        case ConfigurationSnapshot.DOUBLE -> buffer.getDouble( );
+        default -> throw new IllegalArgumentException( "Unknown configuration snapshot value type" );
+      };
+      root.node( path ).raw( value );
+    }
+
+  }
+
+  private static void writeValue( DataOutputStream output, Object value ) throws IOException {
+
+    if( value instanceof Boolean bool ) {
+      output.writeByte( ConfigurationSnapshot.BOOLEAN );
+      output.writeBoolean( bool );
+    } else if( value instanceof Float || value instanceof Double ) {
+      output.writeByte( ConfigurationSnapshot.DOUBLE );
+      output.writeDouble( ( ( Number ) value ).doubleValue( ) );
+    } else if( value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long ) {
+      output.writeByte( ConfigurationSnapshot.LONG );
+      output.writeLong( ( ( Number ) value ).longValue( ) );
+    } else {
+      output.writeByte( ConfigurationSnapshot.STRING );
+      ConfigurationSnapshot.writeString( output, value.toString( ) );
+    }
+
+  }
+
+  private static void writeString( DataOutputStream output, String string ) throws IOException {
+
+    byte[ ] bytes = string.getBytes( StandardCharsets.UTF_8 );
+    output.writeInt( bytes.length );
+    output.write( bytes );
+
+  }
+
+  private static String readString( ByteBuffer buffer ) {
+
+    int length = buffer.getInt( );
+    if( length < 0 || length > buffer.remaining( ) ) {
+      throw new IllegalArgumentException( "Invalid configuration snapshot string length" );
+    }
+    byte[ ] bytes = new byte[ length ];
+    buffer.get( bytes );
+    return new String( bytes, StandardCharsets.UTF_8 );
+
+  }
+
+  private static @NotNull String keyOf( Path source ) {
+
+    return Objects.requireNonNull( source ).toAbsolutePath( ).normalize( ).toString( );
+
+  }
+
+  private static byte[ ] hashOf( Path source ) throws IOException {
+
+    try {
+      return MessageDigest.getInstance( "SHA-256" ).digest( Files.readAllBytes( source ) );
+    } catch( NoSuchAlgorithmException ex ) {
+      throw new IOException( "The sha-256 algorithm is not available", ex );
+    }
+
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the scalar values of a json configuration file, by key, straight from a json stream, with the same keys as
+ * {@link ConfigurationSnapshot#valuesOf}, without building a configuration node.
+ *
+ * The values are written as a single json object, with the keys as the names, which is read back to the same values.
+ *
+ * @author carddamom
+ */
+public final class ConfigurationValuesTypeAdapter extends TypeAdapter< Map< String, Object > > {
+
+  /**
+   * The type of the values, to register and look up this adapter.
+   */
+  public static final TypeToken< Map< String, Object > > VALUES = new TypeToken<>( ) {
+  };
+
+  @Override
+  public void write( JsonWriter out, Map< String, Object > values ) throws IOException {
+
+    if( values == null ) {
+      out.nullValue( );
+      return;
+    }
+    out.beginObject( );
+    for( var value : values.entrySet( ) ) {
+      out.name( value.getKey( ) );
+      if( value.getValue( ) instanceof Boolean flag ) {
+        out.value( flag );
+      } else if( value.getValue( ) instanceof Number number ) {
+        out.value( number );
+      } else {
+        out.value( value.getValue( ) == null ? null : value.getValue( ).toString( ) );
+      }
+    }
+    out.endObject( );
+
+  }
+
+  @Override
+  public Map< String, Object > read( JsonReader in ) throws IOException {
+
+    if( in.peek( ) == JsonToken.NULL ) {
+      in.nextNull( );
+      return null;
+    }
+    Map< String, Object > values = new LinkedHashMap<>( );
+    this.read( in, new ArrayList<>( ), values );
+    return values;
+
+  }
+
+  private void read( JsonReader in, List< String > path, Map< String, Object > values ) throws IOException {
+
+    in.beginObject( );
+    while( in.hasNext( ) ) {
+      path.add( in.nextName( ) );
+      String key = String.join( ".", path );
+      switch( in.peek( ) ) {
+        case BEGIN_OBJECT -> this.read( in, path, values );
+        case BEGIN_ARRAY -> throw new IOException( "The configuration list %s is not supported".formatted( key ) );
+        case BOOLEAN -> values.put( key, in.nextBoolean( ) );
+        case NUMBER -> values.put( key, ConfigurationValuesTypeAdapter.numberOf( in.nextString( ) ) );
+        case NULL -> in.nextNull( );
+        default -> values.put( key, in.nextString( ) );
+      }
+      path.remove( path.size( ) - 1 );
+    }
+    in.endObject( );
+
+  }
+
+  /**
+   * Returns the given json number as an int when it fits, otherwise as a long, and as a double when it has a fraction.
+   */
+  private static Object numberOf( String number ) {
+
+    try {
+      long value = Long.parseLong( number );
+      return value == ( int ) value ? ( Object ) ( int ) value : ( Object ) value;
+    } catch( NumberFormatException ex ) {
+      return Double.parseDouble( number );
+    }
+
+  }
+
+}
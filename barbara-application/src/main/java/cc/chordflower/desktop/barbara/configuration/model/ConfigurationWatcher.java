@@ -0,0 +1,252 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import cc.chordflower.desktop.barbara.spi.event.EventBus;
+import cc.chordflower.desktop.barbara.spi.event.EventBus.Delivery;
+import cc.chordflower.desktop.barbara.spi.event.EventBus.Subscription;
+import cc.chordflower.desktop.barbara.spi.event.EventType;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ScopedConfigurationNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the configuration file, and reloads the configuration when the file is edited outside the application.
+ *
+ * The file is parsed on the reload thread, never on the javafx thread, and the new configuration is compared key by key
+ * with the current one. Only the keys whose effective value changed are published, as {@link #CHANGES} events, so each
+ * consumer can react to its own keys instead of rebuilding on every reload. A file that cannot be parsed keeps the
+ * current configuration, and a file that was just written by the {@link ConfigurationPersister} is not parsed at all.
+ *
+ * @author carddamom
+ */
+public final class ConfigurationWatcher implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( ConfigurationWatcher.class );
+
+  /**
+   * The changes of the configuration keys, published once for each changed key after a reload.
+   */
+  public static final EventType< ConfigurationChange > CHANGES = EventType.of( "ConfigurationChanges", ConfigurationChange.class );
+
+  private final BarbaraConfiguration configuration;
+
+  private final Path source;
+
+  private final Duration debounce;
+
+  private final EventBus events;
+
+  private final ConfigurationSnapshot snapshot;
+
+  private final WatchService watchService;
+
+  private final ExecutorService watcher;
+
+  private final ScheduledExecutorService reloader;
+
+  private ScheduledFuture< ? > pendingReload;
+
+  /**
+   * Creates a new configuration watcher, it only starts watching when {@link #start()} is called.
+   *
+   * @param configuration The configuration to reload.
+   * @param source The configuration file.
+   * @param debounce How long the file must be quiet before it is parsed.
+   * @param events The event bus where the changes are published.
+   * @param snapshot The snapshot that is updated after each reload.
+   *
+   * @throws IOException If the directory of the file cannot be watched.
+   */
+  public ConfigurationWatcher( BarbaraConfiguration configuration, Path source, Duration debounce, EventBus events, ConfigurationSnapshot snapshot ) throws IOException {
+
+    this.configuration = Objects.requireNonNull( configuration );
+    this.source = Objects.requireNonNull( source ).toAbsolutePath( ).normalize( );
+    this.debounce = Objects.requireNonNull( debounce );
+    this.events = Objects.requireNonNull( events );
+    this.snapshot = Objects.requireNonNull( snapshot );
+    this.watchService = this.source.getFileSystem( ).newWatchService( );
+    this.watcher = Executors.newSingleThreadExecutor( new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-configuration-watcher-%d" )
+        .daemon( true )
+        .build( ) );
+    this.reloader = Executors.newSingleThreadScheduledExecutor( new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-configuration-reloader-%d" )
+        .daemon( true )
+        .build( ) );
+
+  }
+
+  /**
+   * Subscribes to the changes of the given key, and of every key inside it.
+   *
+   * @param events The event bus where the changes are published.
+   * @param key The key, like paths or paths.email.
+   * @param delivery Where the subscriber is called.
+   * @param subscriber The subscriber.
+   * @return The subscription.
+   */
+  public static @NotNull Subscription subscribe( EventBus events, String key, Delivery delivery, Consumer< ConfigurationChange > subscriber ) {
+
+    Objects.requireNonNull( key );
+    Objects.requireNonNull( subscriber );
+    return events.subscribe( ConfigurationWatcher.CHANGES, delivery, change -> {
+      if( change.isUnder( key ) ) {
+        subscriber.accept( change );
+      }
+    } );
+
+  }
+
+  /**
+   * Starts watching the configuration file.
+   *
+   * @throws IOException If the directory of the file cannot be registered with the watch service.
+   */
+  public void start( ) throws IOException {
+
+    // Editors usually save by replacing the file, so the directory is watched for new files as well.
+    this.source.getParent( ).register( this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY );
+    this.watcher.execute( this::watch );
+    LOGGER.info( "Watching the configuration file {}", this.source );
+
+  }
+
+  /**
+   * Returns the watched configuration file.
+   */
+  public @NotNull Path Source( ) {
+
+    return this.source;
+
+  }
+
+  @Override
+  public void close( ) throws IOException {
+
+    this.watchService.close( );
+    this.watcher.shutdownNow( );
+    this.reloader.shutdownNow( );
+
+  }
+
+  private void watch( ) {
+
+    try {
+      while( !Thread.currentThread( ).isInterrupted( ) ) {
+        WatchKey key = this.watchService.take( );
+        for( WatchEvent< ? > event : key.pollEvents( ) ) {
+          if( event.kind( ) == StandardWatchEventKinds.OVERFLOW
+              || event.context( ) instanceof Path name && name.getFileName( ).equals( this.source.getFileName( ) ) ) {
+            this.schedule( );
+          }
+        }
+        if( !key.reset( ) ) {
+          LOGGER.warn( "The configuration file {} can no longer be watched", this.source );
+          return;
+        }
+      }
+    } catch( InterruptedException ex ) {
+      Thread.currentThread( ).interrupt( );
+    } catch( ClosedWatchServiceException ex ) {
+      LOGGER.debug( "Stopped watching the configuration file {}", this.source );
+    }
+
+  }
+
+  private synchronized void schedule( ) {
+
+    if( this.pendingReload != null ) {
+      this.pendingReload.cancel( false );
+    }
+    this.pendingReload = this.reloader.schedule( this::reload, this.debounce.toMillis( ), TimeUnit.MILLISECONDS );
+
+  }
+
+  private void reload( ) {
+
+    synchronized( this ) {
+      this.pendingReload = null;
+    }
+
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes( this.source, BasicFileAttributes.class );
+    } catch( NoSuchFileException ex ) {
+      LOGGER.info( "The configuration file {} was removed, keeping the current configuration", this.source );
+      return;
+    } catch( IOException ex ) {
+      LOGGER.warn( "Unable to read the configuration file {}", this.source, ex );
+      return;
+    }
+    if( this.configuration.isPersisted( attributes ) ) {
+      LOGGER.debug( "The configuration file {} was written by the application, skipping the reload", this.source );
+      return;
+    }
+
+    List< ConfigurationChange > changes;
+    long loadTime;
+    try {
+      long start = System.nanoTime( );
+      ScopedConfigurationNode< ? > node = BarbaraConfiguration.loaderOf( this.source ).load( );
+      loadTime = System.nanoTime( ) - start;
+      changes = this.configuration.reload( node );
+    } catch( ConfigurateException ex ) {
+      LOGGER.warn( "Unable to parse the configuration file {}, keeping the current configuration", this.source, ex );
+      return;
+    } catch( RuntimeException ex ) {
+      LOGGER.error( "Unable to reload the configuration file {}", this.source, ex );
+      return;
+    }
+
+    try {
+      this.snapshot.save( this.source, attributes, this.configuration.UserLayer( ), loadTime );
+    } catch( IOException ex ) {
+      LOGGER.warn( "Unable to write the configuration snapshot of {}", this.source, ex );
+    }
+
+    LOGGER.info( "Reloaded the configuration file {}, the changed keys are {}", this.source, changes.stream( ).map( ConfigurationChange::Key ).toList( ) );
+    for( ConfigurationChange change : changes ) {
+      this.events.publish( ConfigurationWatcher.CHANGES, change );
+    }
+
+  }
+
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import com.google.gson.stream.JsonReader;
+import com.machinezoo.noexception.Exceptions;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.spongepowered.configurate.BasicConfigurationNode;
+import org.spongepowered.configurate.ScopedConfigurationNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The configuration merged from several layers: the built-in defaults, the system-wide file, the user file, the
+ * environment variables and the command line, each layer overriding the ones before it.
+ *
+ * The layers are merged once into a flat, immutable table of values, indexed by interned {@link Key}s, so reading a value
+ * is an array access, without walking any node tree. When a layer changes, only the keys it touched are merged again, and
+ * a new table is published for the readers.
+ *
+ * The {@link BarbaraConfiguration} loaded by the application is built from the merged values, and only the user layer is
+ * kept in the configuration file of the user and in its snapshot.
+ *
+ * @author carddamom
+ */
+public final class LayeredConfiguration implements ILoadableConfiguration {
+
+  /**
+   * The prefix of the environment variables that are part of the configuration.
+   */
+  public static final String ENVIRONMENT_PREFIX = "BARBARA_";
+
+  /**
+   * The configuration layers, from the lowest to the highest precedence.
+   */
+  public enum Layer {
+    /**
+     * The values built into the configuration models.
+     */
+    DEFAULTS,
+    /**
+     * The system-wide configuration file.
+     */
+    SYSTEM,
+    /**
+     * The configuration file of the user.
+     */
+    USER,
+    /**
+     * The environment variables starting with {@link #ENVIRONMENT_PREFIX}.
+     */
+    ENVIRONMENT,
+    /**
+     * The named command line parameters.
+     */
+    COMMAND_LINE
+  }
+
+  /**
+   * A configuration key, there is a single instance for each key name, and its index in the value table never changes,
+   * this is an immutable class aka a value class.
+   */
+  public static final class Key {
+
+    private final String name;
+
+    private final int index;
+
+    @Contract( pure = true )
+    private Key( String name, int index ) {
+
+      this.name = name;
+      this.index = index;
+
+    }
+
+    /**
+     * Returns the name of the key, like paths.email.
+     */
+    @Contract( pure = true )
+    public String Name( ) {
+
+      return this.name;
+
+    }
+
+    /**
+     * Returns the index of the key in the value table.
+     */
+    @Contract( pure = true )
+    public int Index( ) {
+
+      return this.index;
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return this.name;
+
+    }
+
+  }
+
+  /**
+   * The merged values, by key index, it is never changed once published.
+   */
+  private static final class Table {
+
+    private final Key[ ] keys;
+
+    private final Object[ ] values;
+
+    private final Layer[ ] origins;
+
+    @Contract( pure = true )
+    private Table( Key[ ] keys, Object[ ] values, Layer[ ] origins ) {
+
+      this.keys = keys;
+      this.values = values;
+      this.origins = origins;
+
+    }
+
+  }
+
+  private static final Layer[ ] LAYERS = Layer.values( );
+
+  private final Map< String, Key > keys;
+
+  private final EnumMap< Layer, Map< String, Object > > layers;
+
+  private volatile Table table;
+
+  /**
+   * Creates a new layered configuration, with every layer empty.
+   */
+  public LayeredConfiguration( ) {
+
+    this.keys = new ConcurrentHashMap<>( );
+    this.layers = new EnumMap<>( Layer.class );
+    for( Layer layer : Layer.values( ) ) {
+      this.layers.put( layer, new HashMap<>( ) );
+    }
+    this.table = new Table( new Key[ 0 ], new Object[ 0 ], new Layer[ 0 ] );
+
+  }
+
+  /**
+   * Creates a new layered configuration, with the defaults of the barbara configuration and the values of the given
+   * files, environment variables and command line parameters.
+   *
+   * @param systemFile The system-wide configuration file, it does not need to exist.
+   * @param userFile The configuration file of the user, it does not need to exist.
+   * @param environment The environment variables.
+   * @param arguments The named command line parameters.
+   * @return A new layered configuration.
+   *
+   * @throws IOException If one of the files cannot be parsed.
+   */
+  public static @NotNull LayeredConfiguration of( Path systemFile, Path userFile, Map< String, String > environment, Map< String, String > arguments ) throws IOException {
+
+    BasicConfigurationNode defaults = BasicConfigurationNode.root( );
+    new BarbaraConfiguration( ).saveTo( defaults );
+
+    LayeredConfiguration configuration = new LayeredConfiguration( );
+    configuration.setLayer( Layer.DEFAULTS, ConfigurationSnapshot.valuesOf( defaults ) );
+    configuration.setLayer( Layer.SYSTEM, LayeredConfiguration.valuesOf( systemFile ) );
+    configuration.setLayer( Layer.USER, LayeredConfiguration.valuesOf( userFile ) );
+    configuration.setLayer( Layer.ENVIRONMENT, LayeredConfiguration.fromEnvironment( environment ) );
+    configuration.setLayer( Layer.COMMAND_LINE, LayeredConfiguration.fromArguments( arguments ) );
+    return configuration;
+
+  }
+
+  /**
+   * Returns the values of the given configuration file, by key, a json file is streamed without building its node.
+   *
+   * @param file The configuration file.
+   * @return The values, empty if the file does not exist.
+   *
+   * @throws IOException If the file cannot be parsed.
+   */
+  public static @NotNull Map< String, Object > valuesOf( Path file ) throws IOException {
+
+    if( file == null || !Files.isRegularFile( file ) ) {
+      return Map.of( );
+    }
+    if( file.getFileName( ).toString( ).endsWith( ".json" ) ) {
+      try( JsonReader in = BarbaraConfiguration.JSON.newJsonReader( Files.newBufferedReader( file, StandardCharsets.UTF_8 ) ) ) {
+        Map< String, Object > values = BarbaraConfiguration.JSON.getAdapter( ConfigurationValuesTypeAdapter.VALUES ).read( in );
+        return values == null ? Map.of( ) : values;
+      } catch( IllegalStateException ex ) {
+        throw new IOException( "The configuration file %s is not a json object".formatted( file ), ex );
+      }
+    }
+    return ConfigurationSnapshot.valuesOf( BarbaraConfiguration.loaderOf( file ).load( ) );
+
+  }
+
+  /**
+   * Returns the configuration values of the given environment variables, each variable starting with
+   * {@link #ENVIRONMENT_PREFIX} is a key, lower cased and with the underscores replaced by dots, so BARBARA_PATHS_EMAIL is
+   * paths.email.
+   *
+   * @param environment The environment variables.
+   * @return The values, by key.
+   */
+  public static @NotNull Map< String, Object > fromEnvironment( Map< String, String > environment ) {
+
+    Map< String, Object > values = new HashMap<>( );
+    for( var variable : environment.entrySet( ) ) {
+      String name = variable.getKey( );
+      if( name.length( ) > LayeredConfiguration.ENVIRONMENT_PREFIX.length( ) && name.startsWith( LayeredConfiguration.ENVIRONMENT_PREFIX ) ) {
+        values.put( name.substring( LayeredConfiguration.ENVIRONMENT_PREFIX.length( ) ).toLowerCase( Locale.ROOT ).replace( '_', '.' ), variable.getValue( ) );
+      }
+    }
+    return values;
+
+  }
+
+  /**
+   * Returns the configuration values of the given named command line parameters, like --paths.email=/some/folder.
+   *
+   * @param arguments The named command line parameters.
+   * @return The values, by key.
+   */
+  public static @NotNull Map< String, Object > fromArguments( Map< String, String > arguments ) {
+
+    Map< String, Object > values = new HashMap<>( );
+    for( var argument : arguments.entrySet( ) ) {
+      if( !argument.getKey( ).isBlank( ) ) {
+        values.put( argument.getKey( ), argument.getValue( ) );
+      }
+    }
+    return values;
+
+  }
+
+  /**
+   * Returns the key with the given name, if any layer has ever had it.
+   *
+   * @param name The key name, like paths.email.
+   * @return The key.
+   */
+  public @NotNull Optional< Key > keyOf( String name ) {
+
+    return Optional.ofNullable( this.keys.get( name ) );
+
+  }
+
+  /**
+   * Returns the merged value of the given key.
+   *
+   * @param key The key.
+   * @return The value, or null if no layer has it.
+   */
+  public Object get( Key key ) {
+
+    Table current = this.table;
+    return key.index < current.values.length ? current.values[ key.index ] : null;
+
+  }
+
+  /**
+   * Returns the merged value of the key with the given name.
+   *
+   * @param name The key name.
+   * @return The value, empty if no layer has it.
+   */
+  public @NotNull Optional< Object > get( String name ) {
+
+    Key key = this.keys.get( name );
+    return key == null ? Optional.empty( ) : Optional.ofNullable( this.get( key ) );
+
+  }
+
+  /**
+   * Returns the layer the merged value of the given key comes from.
+   *
+   * @param key The key.
+   * @return The layer, empty if no layer has the key.
+   */
+  public @NotNull Optional< Layer > originOf( Key key ) {
+
+    Table current = this.table;
+    return key.index < current.origins.length ? Optional.ofNullable( current.origins[ key.index ] ) : Optional.empty( );
+
+  }
+
+  /**
+   * Returns the values of the given layer, by key.
+   *
+   * @param layer The layer.
+   * @return A copy of the values.
+   */
+  public synchronized @NotNull Map< String, Object > layer( Layer layer ) {
+
+    return Collections.unmodifiableMap( new HashMap<>( this.layers.get( layer ) ) );
+
+  }
+
+  /**
+   * Replaces every value of the given layer, and merges again the keys that the layer added, changed or removed.
+   *
+   * @param layer The layer.
+   * @param values The new values of the layer, by key.
+   * @return The changes of the merged values.
+   */
+  public synchronized @NotNull List< ConfigurationChange > setLayer( Layer layer, Map< String, ? > values ) {
+
+    Map< String, Object > current = this.layers.get( layer );
+    Set< String > affected = new LinkedHashSet<>( );
+    for( var value : current.entrySet( ) ) {
+      if( !values.containsKey( value.getKey( ) ) || !Objects.equals( value.getValue( ), values.get( value.getKey( ) ) ) ) {
+        affected.add( value.getKey( ) );
+      }
+    }
+    for( String name : values.keySet( ) ) {
+      if( !current.containsKey( name ) ) {
+        affected.add( name );
+      }
+    }
+    this.layers.put( layer, new HashMap<>( values ) );
+    return this.merge( affected );
+
+  }
+
+  /**
+   * Changes a single value of the given layer, and merges again only that key.
+   *
+   * @param layer The layer.
+   * @param name The key name.
+   * @param value The new value, or null to remove the key from the layer.
+   * @return The changes of the merged values.
+   */
+  public synchronized @NotNull List< ConfigurationChange > set( Layer layer, String name, Object value ) {
+
+    Map< String, Object > current = this.layers.get( layer );
+    if( Objects.equals( current.get( Objects.requireNonNull( name ) ), value ) ) {
+      return List.of( );
+    }
+    if( value == null ) {
+      current.remove( name );
+    } else {
+      current.put( name, value );
+    }
+    return this.merge( List.of( name ) );
+
+  }
+
+  /**
+   * Replaces the user layer with the values of the given node.
+   *
+   * @param node The node to load the configuration from.
+   */
+  @Override
+  public void loadFrom( ScopedConfigurationNode< ? > node ) {
+
+    Objects.requireNonNull( node, "The given node is null" );
+    this.setLayer( Layer.USER, Exceptions.wrap( ).get( ( ) -> ConfigurationSnapshot.valuesOf( node ) ) );
+
+  }
+
+  /**
+   * Saves every merged value to the given node.
+   *
+   * @param node The node to save the configuration to.
+   */
+  @Override
+  public void saveTo( ScopedConfigurationNode< ? > node ) {
+
+    Objects.requireNonNull( node, "The given node is null" );
+    Table current = this.table;
+    for( int index = 0; index < current.keys.length; index++ ) {
+      if( current.values[ index ] != null ) {
+        node.node( ( Object[ ] ) current.keys[ index ].name.split( "\\." ) ).raw( current.values[ index ] );
+      }
+    }
+
+  }
+
+  private @NotNull List< ConfigurationChange > merge( Collection< String > names ) {
+
+    if( names.isEmpty( ) ) {
+      return List.of( );
+    }
+
+    List< Key > affected = new ArrayList<>( names.size( ) );
+    for( String name : names ) {
+      affected.add( this.keys.computeIfAbsent( name.intern( ), interned -> new Key( interned, this.keys.size( ) ) ) );
+    }
+
+    Table current = this.table;
+    int size = this.keys.size( );
+    Key[ ] keys = Arrays.copyOf( current.keys, size );
+    Object[ ] values = Arrays.copyOf( current.values, size );
+    Layer[ ] origins = Arrays.copyOf( current.origins, size );
+
+    List< ConfigurationChange > changes = new ArrayList<>( );
+    for( Key key : affected ) {
+      keys[ key.index ] = key;
+      Object before = values[ key.index ];
+      values[ key.index ] = null;
+      origins[ key.index ] = null;
+      for( int layer = LayeredConfiguration.LAYERS.length - 1; layer >= 0; layer-- ) {
+        Map< String, Object > layerValues = this.layers.get( LayeredConfiguration.LAYERS[ layer ] );
+        if( layerValues.containsKey( key.name ) ) {
+          values[ key.index ] = layerValues.get( key.name );
+          origins[ key.index ] = LayeredConfiguration.LAYERS[ layer ];
+          break;
+        }
+      }
+      if( !Objects.equals( before, values[ key.index ] ) ) {
+        changes.add( ConfigurationChange.of( key.name, before, values[ key.index ] ) );
+      }
+    }
+
+    this.table = new Table( keys, values, origins );
+    return changes;
+
+  }
+
+}
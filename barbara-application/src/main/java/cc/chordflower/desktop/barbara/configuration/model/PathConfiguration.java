@@ -34,49 +34,58 @@ import java.util.Objects;
  *
  * @author carddamom
  */
+@ConfigurationSection( typeAdapter = true )
 public final class PathConfiguration implements ILoadableConfiguration {
 
   @SuppressWarnings( "unused" )
   private static final Logger LOGGER = LoggerFactory.getLogger( BarbaraConfiguration.class );
 
-  private static final String VIDEOS_PROPERTY = "videos";
+  static final String VIDEOS_PROPERTY = "videos";
 
-  private static final String MUSIC_PROPERTY = "music";
+  static final String MUSIC_PROPERTY = "music";
 
-  private static final String IMAGES_PROPERTY = "images";
+  static final String IMAGES_PROPERTY = "images";
 
-  private static final String FILES_PROPERTY = "files";
+  static final String FILES_PROPERTY = "files";
 
-  private static final String CONTACTS_PROPERTY = "contacts";
+  static final String CONTACTS_PROPERTY = "contacts";
 
-  private static final String NOTES_PROPERTY = "notes";
+  static final String NOTES_PROPERTY = "notes";
 
-  private static final String EMAIL_PROPERTY = "email";
+  static final String EMAIL_PROPERTY = "email";
 
-  private static final String CALENDAR_PROPERTY = "calendar";
+  static final String CALENDAR_PROPERTY = "calendar";
 
   @Directory
+  @ConfigurationProperty( PathConfiguration.EMAIL_PROPERTY )
   private Path emailPath;
 
   @Directory
+  @ConfigurationProperty( PathConfiguration.NOTES_PROPERTY )
   private Path notesPath;
 
   @Directory
+  @ConfigurationProperty( PathConfiguration.CALENDAR_PROPERTY )
   private Path calendarPath;
 
   @Directory
+  @ConfigurationProperty( PathConfiguration.CONTACTS_PROPERTY )
   private Path contactsPath;
 
   @Directory
+  @ConfigurationProperty( PathConfiguration.FILES_PROPERTY )
   private Path filesPath;
 
   @Directory
+  @ConfigurationProperty( PathConfiguration.MUSIC_PROPERTY )
   private Path musicPath;
 
   @Directory
+  @ConfigurationProperty( PathConfiguration.IMAGES_PROPERTY )
   private Path imagesPath;
 
   @Directory
+  @ConfigurationProperty( PathConfiguration.VIDEOS_PROPERTY )
   private Path videosPath;
 
   public PathConfiguration( ) {
@@ -101,54 +110,7 @@ public final class PathConfiguration implements ILoadableConfiguration {
   public void loadFrom( ScopedConfigurationNode< ? > node ) {
 
     Objects.requireNonNull( node, "The given node is null" );
-
-    if( node.hasChild( PathConfiguration.EMAIL_PROPERTY ) ) {
-
-      this.emailPath = Paths.get( node.node( PathConfiguration.EMAIL_PROPERTY ).getString( "" ) );
-
-    }
-
-    if( node.hasChild( PathConfiguration.NOTES_PROPERTY ) ) {
-
-      this.notesPath = Paths.get( node.node( PathConfiguration.NOTES_PROPERTY ).getString( "" ) );
-
-    }
-
-    if( node.hasChild( PathConfiguration.CALENDAR_PROPERTY ) ) {
-
-      this.calendarPath = Paths.get( node.node( PathConfiguration.CALENDAR_PROPERTY ).getString( "" ) );
-
-    }
-
-    if( node.hasChild( PathConfiguration.CONTACTS_PROPERTY ) ) {
-
-      this.contactsPath = Paths.get( node.node( PathConfiguration.CONTACTS_PROPERTY ).getString( "" ) );
-
-    }
-
-    if( node.hasChild( PathConfiguration.FILES_PROPERTY ) ) {
-
-      this.filesPath = Paths.get( node.node( PathConfiguration.FILES_PROPERTY ).getString( "" ) );
-
-    }
-
-    if( node.hasChild( PathConfiguration.MUSIC_PROPERTY ) ) {
-
-      this.musicPath = Paths.get( node.node( PathConfiguration.MUSIC_PROPERTY ).getString( "" ) );
-
-    }
-
-    if( node.hasChild( PathConfiguration.IMAGES_PROPERTY ) ) {
-
-      this.imagesPath = Paths.get( node.node( PathConfiguration.IMAGES_PROPERTY ).getString( "" ) );
-
-    }
-
-    if( node.hasChild( PathConfiguration.VIDEOS_PROPERTY ) ) {
-
-      this.videosPath = Paths.get( node.node( PathConfiguration.VIDEOS_PROPERTY ).getString( "" ) );
-
-    }
+    PathConfigurationBinding.loadFrom( this, node );
 
   }
 
@@ -162,14 +124,7 @@ public final class PathConfiguration implements ILoadableConfiguration {
 
     Objects.requireNonNull( node, "The given node is null" );
 
-    node.node( PathConfiguration.CALENDAR_PROPERTY ).set( String.class, this.calendarPath.toString( ) );
-    node.node( PathConfiguration.CONTACTS_PROPERTY ).set( String.class, this.contactsPath.toString( ) );
-    node.node( PathConfiguration.EMAIL_PROPERTY ).set( String.class, this.emailPath.toString( ) );
-    node.node( PathConfiguration.FILES_PROPERTY ).set( String.class, this.filesPath.toString( ) );
-    node.node( PathConfiguration.IMAGES_PROPERTY ).set( String.class, this.imagesPath.toString( ) );
-    node.node( PathConfiguration.MUSIC_PROPERTY ).set( String.class, this.musicPath.toString( ) );
-    node.node( PathConfiguration.NOTES_PROPERTY ).set( String.class, this.notesPath.toString( ) );
-    node.node( PathConfiguration.VIDEOS_PROPERTY ).set( String.class, this.videosPath.toString( ) );
+    PathConfigurationBinding.saveTo( this, node );
 
   }
 
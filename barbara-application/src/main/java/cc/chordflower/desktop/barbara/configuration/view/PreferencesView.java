@@ -23,16 +23,20 @@ import com.dlsc.preferencesfx.PreferencesFx;
 import com.dlsc.preferencesfx.PreferencesFxEvent;
 import com.dlsc.preferencesfx.model.Category;
 import com.dlsc.preferencesfx.model.Setting;
-import com.machinezoo.noexception.Exceptions;
+import javafx.application.Platform;
 import javafx.event.EventHandler;
+import javafx.scene.control.Alert;
 import org.jetbrains.annotations.Contract;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongepowered.configurate.serialize.SerializationException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.CompletionException;
 
 /**
  * This is the view that contains the PreferencesFX dialog.
@@ -121,7 +125,28 @@ public final class PreferencesView implements EventHandler< PreferencesFxEvent >
 
     private void handleSave( ) {
 
-        Exceptions.log( PreferencesView.LOGGER, "Unable to save the configuration" ).passing( ).run( Exceptions.wrap( ).runnable( this.configVM::save ) ); //$NON-NLS-1$
+        try {
+            this.configVM.save( ).whenCompleteAsync( this::handleSaved, Platform::runLater );
+        } catch( SerializationException ex ) {
+            this.handleSaved( null, ex );
+        }
+
+    }
+
+    /**
+     * Reports the result of a save to the user, on the javafx thread.
+     */
+    private void handleSaved( Duration latency, Throwable failure ) {
+
+        if( failure == null ) {
+            PreferencesView.LOGGER.info( "Saved the configuration in {} ms", latency.toMillis( ) ); //$NON-NLS-1$
+            return;
+        }
+        PreferencesView.LOGGER.error( "Unable to save the configuration", failure ); //$NON-NLS-1$
+        Throwable cause = failure instanceof CompletionException && failure.getCause( ) != null ? failure.getCause( ) : failure;
+        var alert = new Alert( Alert.AlertType.ERROR, cause.getLocalizedMessage( ) );
+        alert.setHeaderText( "Unable to save the configuration" ); //$NON-NLS-1$
+        alert.show( );
 
     }
 
@@ -22,7 +22,9 @@ import org.spongepowered.configurate.serialize.SerializationException;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.io.File;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This is the viewmodel for the barbara configuration.
@@ -32,7 +34,7 @@ import java.util.Objects;
 @Named( "BarbaraConfigurationVM" )
 public class BarbaraConfigurationVM {
 
-  private PathConfigurationVM paths;
+  private final PathConfigurationVM paths;
 
   private final BarbaraConfiguration configuration;
 
@@ -54,19 +56,34 @@ public class BarbaraConfigurationVM {
 
   }
 
+  /**
+   * Discards the changes of the viewmodel, setting it back to the current configuration.
+   */
   public void reset( ) {
 
-    this.paths = new PathConfigurationVM( this.configuration.Paths( ) );
+    synchronized( this.configuration ) {
+      this.paths.reset( );
+    }
 
   }
 
-  public void save( ) throws SerializationException {
+  /**
+   * Updates the configuration with the values of the viewmodel, and requests it to be written to the configuration file.
+   *
+   * @return A future completed with the time taken to write the configuration, or completed exceptionally if it could
+   *     not be written, it is not completed on the javafx thread.
+   *
+   * @throws SerializationException If the new configuration is not valid.
+   */
+  public CompletableFuture< Duration > save( ) throws SerializationException {
 
-    this.paths.save( );
+    synchronized( this.configuration ) {
+      this.paths.save( );
+    }
     if( !this.configuration.validate( ).isEmpty( ) ) {
       throw new SerializationException( "There are validation errors!" );
     }
-    this.configuration.saveToDefault( );
+    return this.configuration.Persister( ).save( );
 
   }
 
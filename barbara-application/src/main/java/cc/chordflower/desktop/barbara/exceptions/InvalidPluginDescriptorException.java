@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.exceptions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Exception thrown when a plugin descriptor does not follow the plugin schema, or breaks one of its constraints.
+ *
+ * @author carddamom
+ */
+public class InvalidPluginDescriptorException extends IOException {
+
+  private final List< String > violations;
+
+  public InvalidPluginDescriptorException( Path plugin, List< String > violations ) {
+
+    super( "The plugin descriptor of %s is not valid: %s".formatted( plugin.getFileName( ), String.join( ", ", violations ) ) );
+    this.violations = List.copyOf( violations );
+
+  }
+
+  /**
+   * Returns every violation found in the plugin descriptor.
+   */
+  public @NotNull @UnmodifiableView List< String > Violations( ) {
+
+    return this.violations;
+
+  }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.exceptions;
+
+import java.util.Collection;
+
+/**
+ * Exception thrown when the plugin to remove is still a dependency of other active plugins.
+ *
+ * @author carddamom
+ */
+public class PluginInUseException extends Exception {
+
+  public PluginInUseException( String name, Collection< String > dependents ) {
+
+    super( "The plugin %s cannot be removed, the plugins %s depend on it".formatted( name, String.join( ", ", dependents ) ) );
+
+  }
+
+}
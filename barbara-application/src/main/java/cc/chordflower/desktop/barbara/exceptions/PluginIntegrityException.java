@@ -0,0 +1,51 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.exceptions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Exception thrown when the jars inside a plugin do not match the checksums of its integrity manifest, or when the plugin
+ * has no integrity manifest and one is required.
+ *
+ * @author carddamom
+ */
+public class PluginIntegrityException extends IOException {
+
+  private final List< String > mismatches;
+
+  public PluginIntegrityException( Path plugin, List< String > mismatches ) {
+
+    super( "The plugin %s failed the integrity check: %s".formatted( plugin.getFileName( ), String.join( ", ", mismatches ) ) );
+    this.mismatches = List.copyOf( mismatches );
+
+  }
+
+  /**
+   * Returns every mismatch found while checking the plugin.
+   */
+  public @NotNull @UnmodifiableView List< String > Mismatches( ) {
+
+    return this.mismatches;
+
+  }
+
+}
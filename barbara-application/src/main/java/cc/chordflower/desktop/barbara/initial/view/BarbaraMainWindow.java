@@ -15,11 +15,18 @@
  */
 package cc.chordflower.desktop.barbara.initial.view;
 
+import cc.chordflower.desktop.barbara.spi.event.EventBus;
+import cc.chordflower.desktop.barbara.spi.event.EventType;
+import cc.chordflower.desktop.barbara.utilities.events.BarbaraEventBus;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginResourceAccounting;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginResourceAccounting.Usage;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
-import javafx.event.Event;
 import javafx.event.EventHandler;
-import javafx.event.EventType;
 import javafx.geometry.Orientation;
 import javafx.geometry.Side;
 import javafx.scene.control.*;
@@ -32,7 +39,9 @@ import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
-import org.apache.commons.lang3.event.EventListenerSupport;
+import javafx.stage.FileChooser;
+import javafx.stage.FileChooser.ExtensionFilter;
+import javafx.util.Duration;
 import org.apache.commons.lang3.tuple.Pair;
 import org.controlsfx.control.StatusBar;
 import org.controlsfx.control.TaskProgressView;
@@ -41,6 +50,10 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 
 /**
@@ -62,8 +75,7 @@ public class BarbaraMainWindow extends VBox {
     HIDE_OTHERS( "HideOthers" ),
     QUIT( "Quit" ),
     SERVICES( "Services" ),
-    SHOW_ALL( "ShowAll" ),
-    UNKNOWN( "Unknown" );
+    SHOW_ALL( "ShowAll" );
 
     private final String eventName;
 
@@ -78,19 +90,14 @@ public class BarbaraMainWindow extends VBox {
 
       return this.eventName;
     }
-
-    public static BarbaraMainWindowEvents fromString( String event ) {
-
-      for( BarbaraMainWindowEvents item : BarbaraMainWindowEvents.values( ) ) {
-        if( Objects.equals( item.eventName, event ) ) {
-          return item;
-        }
-      }
-      return BarbaraMainWindowEvents.UNKNOWN;
-    }
   }
 
-  private EventListenerSupport< BarbaraEventHandler > actionListeners = EventListenerSupport.create( BarbaraEventHandler.class );
+  /**
+   * The event type of the window actions, they are published on the application event bus, from the javafx thread.
+   */
+  public static final EventType< BarbaraMainWindowEvents > ACTIONS = EventType.of( "BarbaraMainWindowAction", BarbaraMainWindowEvents.class );
+
+  private final EventBus events = BarbaraEventBus.getCurrentEventBus( );
 
   private MenuItem findMenuOption;
 
@@ -178,6 +185,12 @@ public class BarbaraMainWindow extends VBox {
 
   private TableColumn< Pair< String, String >, String > propertiesValueColumn;
 
+  private MenuItem exportResourceUsageMenuEntry;
+
+  private PluginResourceAccounting resourceAccounting;
+
+  private Timeline resourceTimeline;
+
   private MenuItem quitBarbaraMenuEntry;
 
   private MenuItem redoMenuEntry;
@@ -322,6 +335,14 @@ public class BarbaraMainWindow extends VBox {
     this.propertiesValueColumn.setOnEditStart( this::onPropertiesValueColumnEditStart );
     this.propertiesValueColumn.setOnEditCommit( this::onPropertiesValueColumnEditCommit );
 
+    this.propertiesNameColumn.setCellValueFactory( cell -> new ReadOnlyStringWrapper( cell.getValue( ).getKey( ) ) );
+    this.propertiesValueColumn.setCellValueFactory( cell -> new ReadOnlyStringWrapper( cell.getValue( ).getValue( ) ) );
+
+    this.exportResourceUsageMenuEntry = BarbaraMainWindow.createMenuItem( "exportResourceUsageMenuEntry", "Export Plugin Resource Usage...", null,
+        this::onExportResourceUsageAction );
+    this.exportResourceUsageMenuEntry.setDisable( true );
+    this.propertiesTableView.setContextMenu( new ContextMenu( this.exportResourceUsageMenuEntry ) );
+
     this.propertiesTableView.getColumns( ).addAll( this.propertiesNameColumn, this.propertiesValueColumn );
     this.propertiesScrollPane.setContent( this.propertiesTableView );
     tab.setContent( this.propertiesScrollPane );
@@ -649,7 +670,7 @@ public class BarbaraMainWindow extends VBox {
 
     LOGGER.info( "Calling enter/exit full screen action" );
     Objects.requireNonNull( event );
-    this.actionListeners.fire( ).handle( new Event( event.getSource( ), event.getTarget( ), new EventType<>( BarbaraMainWindowEvents.ENTER_EXIT_FULL_SCREEN.EventName( ) ) ) );
+    this.events.publish( BarbaraMainWindow.ACTIONS, BarbaraMainWindowEvents.ENTER_EXIT_FULL_SCREEN );
   }
 
   private void onErrorsTableSort( ActionEvent event ) {
@@ -662,6 +683,41 @@ public class BarbaraMainWindow extends VBox {
     LOGGER.info( "Calling export as action" );
   }
 
+  private void onExportResourceUsageAction( ActionEvent event ) {
+
+    LOGGER.info( "Calling export resource usage action" );
+    if( this.resourceAccounting == null ) {
+      return;
+    }
+
+    var chooser = new FileChooser( );
+    chooser.setTitle( "Export Plugin Resource Usage" );
+    chooser.setInitialFileName( "plugin-resources.csv" );
+    chooser.getExtensionFilters( ).add( new ExtensionFilter( "CSV files", "*.csv" ) );
+    File file = chooser.showSaveDialog( this.getScene( ).getWindow( ) );
+    if( file == null ) {
+      return;
+    }
+
+    PluginResourceAccounting accounting = this.resourceAccounting;
+    Task< Void > task = new Task<>( ) {
+
+      @Override
+      protected Void call( ) throws Exception {
+
+        this.updateTitle( "Exporting the plugin resource usage" );
+        accounting.export( file.toPath( ) );
+        return null;
+      }
+    };
+    task.setOnFailed( failed -> LOGGER.error( "Unable to export the plugin resource usage to {}", file, task.getException( ) ) );
+    this.progressTaskProgressView.getTasks( ).add( task );
+
+    var thread = new Thread( task, "barbara-resource-export" );
+    thread.setDaemon( true );
+    thread.start( );
+  }
+
   private void onFindAction( ActionEvent event ) {
 
     LOGGER.info( "Calling find action" );
@@ -691,14 +747,14 @@ public class BarbaraMainWindow extends VBox {
 
     LOGGER.info( "Calling hide app action" );
     Objects.requireNonNull( event );
-    this.actionListeners.fire( ).handle( new Event( event.getSource( ), event.getTarget( ), new EventType<>( BarbaraMainWindowEvents.HIDE_APP.EventName( ) ) ) );
+    this.events.publish( BarbaraMainWindow.ACTIONS, BarbaraMainWindowEvents.HIDE_APP );
   }
 
   private void onHideOthersAction( ActionEvent event ) {
 
     LOGGER.info( "Calling hide others action" );
     Objects.requireNonNull( event );
-    this.actionListeners.fire( ).handle( new Event( event.getSource( ), event.getTarget( ), new EventType<>( BarbaraMainWindowEvents.HIDE_OTHERS.EventName( ) ) ) );
+    this.events.publish( BarbaraMainWindow.ACTIONS, BarbaraMainWindowEvents.HIDE_OTHERS );
   }
 
   private void onNewAction( ActionEvent event ) {
@@ -750,7 +806,7 @@ public class BarbaraMainWindow extends VBox {
 
     LOGGER.info( "Calling quit app action" );
     Objects.requireNonNull( event );
-    this.actionListeners.fire( ).handle( new Event( event.getSource( ), event.getTarget( ), new EventType<>( BarbaraMainWindowEvents.QUIT.EventName( ) ) ) );
+    this.events.publish( BarbaraMainWindow.ACTIONS, BarbaraMainWindowEvents.QUIT );
   }
 
   private void onRedoAction( ActionEvent event ) {
@@ -767,14 +823,14 @@ public class BarbaraMainWindow extends VBox {
 
     LOGGER.info( "Calling services action" );
     Objects.requireNonNull( event );
-    this.actionListeners.fire( ).handle( new Event( event.getSource( ), event.getTarget( ), new EventType<>( BarbaraMainWindowEvents.SERVICES.EventName( ) ) ) );
+    this.events.publish( BarbaraMainWindow.ACTIONS, BarbaraMainWindowEvents.SERVICES );
   }
 
   private void onShowAllAction( ActionEvent event ) {
 
     LOGGER.info( "Calling show all action" );
     Objects.requireNonNull( event );
-    this.actionListeners.fire( ).handle( new Event( event.getSource( ), event.getTarget( ), new EventType<>( BarbaraMainWindowEvents.SHOW_ALL.EventName( ) ) ) );
+    this.events.publish( BarbaraMainWindow.ACTIONS, BarbaraMainWindowEvents.SHOW_ALL );
   }
 
   private void onShowHideToolbarAction( ActionEvent event ) {
@@ -1127,14 +1183,51 @@ public class BarbaraMainWindow extends VBox {
     return this.sidebarTabPane;
   }
 
-  public void addListener( BarbaraEventHandler listener ) {
+  /**
+   * Shows the rolling resource usage of every plugin in the properties tab, refreshing it every second.
+   *
+   * @param accounting The resource accounting of the plugins.
+   */
+  public void monitorPluginResources( PluginResourceAccounting accounting ) {
 
-    this.actionListeners.addListener( listener );
+    this.resourceAccounting = Objects.requireNonNull( accounting );
+    this.exportResourceUsageMenuEntry.setDisable( false );
+    if( this.resourceTimeline == null ) {
+      this.resourceTimeline = new Timeline( new KeyFrame( Duration.seconds( 1 ), event -> this.refreshPluginResources( ) ) );
+      this.resourceTimeline.setCycleCount( Animation.INDEFINITE );
+      this.resourceTimeline.play( );
+    }
+    this.refreshPluginResources( );
   }
 
-  public void removeListener( BarbaraEventHandler listener ) {
+  private void refreshPluginResources( ) {
 
-    this.actionListeners.removeListener( listener );
+    List< Pair< String, String > > rows = new ArrayList<>( );
+    for( Usage usage : this.resourceAccounting.Usage( ) ) {
+      rows.add( Pair.of( usage.Name( ) + " - CPU", "%.1f %% (%d ms in total)".formatted( usage.CpuLoad( ) * 100, usage.CpuTime( ).toMillis( ) ) ) );
+      if( usage.AllocatedBytes( ) >= 0 ) {
+        rows.add( Pair.of( usage.Name( ) + " - Allocations", "%s/s (%s in total)".formatted( BarbaraMainWindow.formatBytes( usage.AllocationRate( ) ),
+            BarbaraMainWindow.formatBytes( usage.AllocatedBytes( ) ) ) ) );
+      }
+      rows.add( Pair.of( usage.Name( ) + " - Threads", "%d live, %d queued, %d completed tasks".formatted( usage.LiveThreads( ), usage.QueueDepth( ),
+          usage.CompletedTasks( ) ) ) );
+      usage.Executor( ).ifPresent( executor -> rows.add( Pair.of( usage.Name( ) + " - Executor", "%.0f %% saturated, %d rejected, %d failed, circuit %s"
+          .formatted( executor.Saturation( ) * 100, executor.Rejected( ) + executor.ShortCircuited( ), executor.Failed( ),
+              executor.State( ).name( ).toLowerCase( Locale.ROOT ).replace( '_', ' ' ) ) ) ) );
+    }
+    this.propertiesTableView.getItems( ).setAll( rows );
+  }
+
+  private static @NotNull String formatBytes( double bytes ) {
+
+    if( bytes < 1024 ) {
+      return "%.0f B".formatted( bytes );
+    } else if( bytes < 1024 * 1024 ) {
+      return "%.1f KiB".formatted( bytes / 1024 );
+    } else if( bytes < 1024 * 1024 * 1024 ) {
+      return "%.1f MiB".formatted( bytes / ( 1024 * 1024 ) );
+    }
+    return "%.1f GiB".formatted( bytes / ( 1024 * 1024 * 1024 ) );
   }
 
 }
@@ -0,0 +1,559 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities;
+
+import cc.chordflower.desktop.barbara.utilities.layers.BarbaraPluginManager;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginActivationReport;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginActivationScheduler;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginDescriptor;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginRegistry;
+import com.google.gson.Gson;
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.module.ResolvedModule;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates the dynamic AppCDS archive of the application, with the classes of the application modules and of the
+ * active plugins, so later starts map them from the archive instead of loading and verifying them again.
+ *
+ * The archive is generated by a training run, that is a second jvm running the application with
+ * {@code -XX:ArchiveClassesAtExit}, that loads and activates the given plugins, shows the main window once and exits.
+ * Each archive is named after a fingerprint of the jvm, the application modules and the plugin jars, and when it is
+ * ready the {@link #ArgumentsFile()} is rewritten to point to it, so the launcher only has to pass that file to the
+ * jvm, as in {@code java @barbara.jvmargs ...}. A jvm started with an outdated archive just ignores the classes that
+ * no longer match, so the archive is only an optimization.
+ *
+ * The time to the first frame of every start is recorded, with and without the archive, so the gain can be checked
+ * with {@link #StartupStatistics()}.
+ *
+ * @author carddamom
+ */
+public final class ClassDataSharing {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( ClassDataSharing.class );
+
+  /**
+   * The system property that makes the application do a training run, its value is the file with the paths of the
+   * plugins to load, one per line.
+   */
+  public static final String TRAINING_PROPERTY = "barbara.cds.training";
+
+  private static final String MAIN_CLASS = "cc.chordflower.desktop.barbara.BarbaraApplication";
+
+  private static final String MAIN_MODULE = "barbara.application";
+
+  private static final String ARGUMENTS_FILE = "barbara.jvmargs";
+
+  private static final String STARTUP_FILE = "startup.csv";
+
+  private static final String TRAINING_LOG_FILE = "training.log";
+
+  private static final Duration TRAINING_TIMEOUT = Duration.ofMinutes( 5 );
+
+  private static volatile ClassDataSharing currentClassDataSharing;
+
+  /**
+   * The times to the first frame recorded so far, this is an immutable class aka a value class.
+   */
+  public static final class StartupStatistics {
+
+    private final int coldStarts;
+
+    private final Duration coldMedian;
+
+    private final int sharedStarts;
+
+    private final Duration sharedMedian;
+
+    @Contract( pure = true )
+    private StartupStatistics( int coldStarts, Duration coldMedian, int sharedStarts, Duration sharedMedian ) {
+
+      this.coldStarts = coldStarts;
+      this.coldMedian = coldMedian;
+      this.sharedStarts = sharedStarts;
+      this.sharedMedian = sharedMedian;
+
+    }
+
+    /**
+     * Returns the number of starts without an archive.
+     */
+    @Contract( pure = true )
+    public int ColdStarts( ) {
+
+      return this.coldStarts;
+
+    }
+
+    /**
+     * Returns the median time to the first frame without an archive, or zero if there were none.
+     */
+    @Contract( pure = true )
+    public @NotNull Duration ColdMedian( ) {
+
+      return this.coldMedian;
+
+    }
+
+    /**
+     * Returns the number of starts with an archive.
+     */
+    @Contract( pure = true )
+    public int SharedStarts( ) {
+
+      return this.sharedStarts;
+
+    }
+
+    /**
+     * Returns the median time to the first frame with an archive, or zero if there were none.
+     */
+    @Contract( pure = true )
+    public @NotNull Duration SharedMedian( ) {
+
+      return this.sharedMedian;
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "coldStarts", this.coldStarts ).append( "coldMedian", this.coldMedian.toMillis( ) )
+          .append( "sharedStarts", this.sharedStarts ).append( "sharedMedian", this.sharedMedian.toMillis( ) ).build( );
+
+    }
+
+  }
+
+  private final Path directory;
+
+  private final Duration debounce;
+
+  private final ScheduledExecutorService trainer;
+
+  private ScheduledFuture< ? > pendingTraining;
+
+  /**
+   * Creates a new class data sharing, that keeps its archives in the given directory.
+   *
+   * @param directory The directory of the archives.
+   * @param debounce How long the plugin set must be stable before a new archive is generated.
+   */
+  public ClassDataSharing( Path directory, Duration debounce ) {
+
+    this.directory = Objects.requireNonNull( directory );
+    this.debounce = Objects.requireNonNull( debounce );
+    this.trainer = Executors.newSingleThreadScheduledExecutor( new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-cds-trainer-%d" )
+        .daemon( true )
+        .build( ) );
+
+  }
+
+  /**
+   * Returns the class data sharing of the application, keeping its archives in the cds directory of the application
+   * cache, and waiting for the plugin set to be stable for half a minute.
+   */
+  public static @NotNull ClassDataSharing getCurrentClassDataSharing( ) {
+
+    if( ClassDataSharing.currentClassDataSharing == null ) {
+      synchronized( ClassDataSharing.class ) {
+        if( ClassDataSharing.currentClassDataSharing == null ) {
+          ClassDataSharing.currentClassDataSharing = new ClassDataSharing(
+              UserPathConfiguration.getCurrentUserPathConfiguration( ).ApplicationCache( ).resolve( "cds" ), Duration.ofSeconds( 30 ) );
+        }
+      }
+    }
+    return ClassDataSharing.currentClassDataSharing;
+
+  }
+
+  /**
+   * Returns true if this jvm is a training run.
+   */
+  public static boolean isTrainingRun( ) {
+
+    return System.getProperty( ClassDataSharing.TRAINING_PROPERTY ) != null;
+
+  }
+
+  /**
+   * Returns the plugins that a training run must load.
+   *
+   * @throws IOException If the file with the plugins cannot be read.
+   */
+  public static @NotNull List< Path > TrainingPlugins( ) throws IOException {
+
+    String plugins = System.getProperty( ClassDataSharing.TRAINING_PROPERTY );
+    if( plugins == null || plugins.isBlank( ) ) {
+      return List.of( );
+    }
+    return Files.readAllLines( Path.of( plugins ), StandardCharsets.UTF_8 ).stream( ).filter( line -> !line.isBlank( ) ).map( Path::of ).toList( );
+
+  }
+
+  /**
+   * Loads and activates the plugins of the training run, so their classes end up in the archive.
+   *
+   * @return The activation report.
+   *
+   * @throws IOException If the file with the plugins cannot be read.
+   * @throws InterruptedException If the thread is interrupted while the plugins are loaded.
+   */
+  public static @NotNull PluginActivationReport runTrainingWorkload( ) throws IOException, InterruptedException {
+
+    BarbaraPluginManager manager = new BarbaraPluginManager( new Gson( ) );
+    manager.addPlugins( ClassDataSharing.TrainingPlugins( ) );
+    PluginActivationReport report = new PluginActivationScheduler( manager, Duration.ofMinutes( 1 ) ).activate( );
+    LOGGER.info( "Training run activated the plugins: {}", report );
+    return report;
+
+  }
+
+  /**
+   * Returns the archive this jvm is using, if any.
+   */
+  public static @NotNull Optional< Path > SharedArchive( ) {
+
+    HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean( HotSpotDiagnosticMXBean.class );
+    if( hotSpot == null || !Boolean.parseBoolean( hotSpot.getVMOption( "UseSharedSpaces" ).getValue( ) ) ) {
+      return Optional.empty( );
+    }
+    String archive = hotSpot.getVMOption( "SharedArchiveFile" ).getValue( );
+    return archive.isBlank( ) ? Optional.empty( ) : Optional.of( Path.of( archive ) );
+
+  }
+
+  /**
+   * Returns the file with the jvm arguments that use the current archive, it is empty until the first archive is
+   * generated.
+   */
+  public @NotNull Path ArgumentsFile( ) {
+
+    return this.directory.resolve( ClassDataSharing.ARGUMENTS_FILE );
+
+  }
+
+  /**
+   * Generates a new archive every time the active plugins of the given plugin manager change, and the archive of the
+   * new plugin set does not exist yet.
+   */
+  public void track( BarbaraPluginManager manager ) {
+
+    if( ClassDataSharing.isTrainingRun( ) ) {
+      return;
+    }
+    manager.addPluginSetListener( this::pluginSetChanged );
+    this.pluginSetChanged( manager.Snapshot( ) );
+
+  }
+
+  /**
+   * Generates the archive of the given plugins, in a training run.
+   *
+   * @param plugins The active plugins.
+   * @return The archive, when the training run ends.
+   */
+  public @NotNull CompletableFuture< Path > train( Collection< PluginDescriptor > plugins ) {
+
+    List< PluginDescriptor > copy = List.copyOf( plugins );
+    return CompletableFuture.supplyAsync( ( ) -> {
+      try {
+        return this.generate( copy );
+      } catch( IOException ex ) {
+        throw new UncheckedIOException( ex );
+      } catch( InterruptedException ex ) {
+        Thread.currentThread( ).interrupt( );
+        throw new IllegalStateException( "The training run was interrupted", ex );
+      }
+    }, this.trainer );
+
+  }
+
+  /**
+   * Records the time from the start of the jvm until now, that must be when the first frame is shown.
+   *
+   * @return The time to the first frame.
+   */
+  public @NotNull Duration recordFirstFrame( ) {
+
+    Duration elapsed = Duration.ofMillis( System.currentTimeMillis( ) - ManagementFactory.getRuntimeMXBean( ).getStartTime( ) );
+    if( ClassDataSharing.isTrainingRun( ) ) {
+      return elapsed;
+    }
+    String archive = ClassDataSharing.SharedArchive( ).map( path -> path.getFileName( ).toString( ) ).orElse( "" );
+    try {
+      Files.createDirectories( this.directory );
+      Files.writeString( this.directory.resolve( ClassDataSharing.STARTUP_FILE ), "%s,%d,%s%n".formatted( Instant.now( ), elapsed.toMillis( ), archive ),
+          StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+    } catch( IOException ex ) {
+      LOGGER.warn( "Unable to record the time to the first frame", ex );
+    }
+    LOGGER.info( "First frame after {} ms, {}: {}", elapsed.toMillis( ), archive.isEmpty( ) ? "without a shared archive" : "with the shared archive " + archive,
+        this.StartupStatistics( ) );
+    return elapsed;
+
+  }
+
+  /**
+   * Returns the times to the first frame recorded so far, with and without an archive.
+   */
+  public @NotNull StartupStatistics StartupStatistics( ) {
+
+    List< Long > cold = new ArrayList<>( );
+    List< Long > shared = new ArrayList<>( );
+    Path file = this.directory.resolve( ClassDataSharing.STARTUP_FILE );
+    try {
+      if( Files.isRegularFile( file ) ) {
+        for( String line : Files.readAllLines( file, StandardCharsets.UTF_8 ) ) {
+          String[ ] fields = line.split( ",", -1 );
+          if( fields.length == 3 && fields[ 1 ].chars( ).allMatch( Character::isDigit ) && !fields[ 1 ].isEmpty( ) ) {
+            ( fields[ 2 ].isBlank( ) ? cold : shared ).add( Long.parseLong( fields[ 1 ] ) );
+          }
+        }
+      }
+    } catch( IOException ex ) {
+      LOGGER.warn( "Unable to read the times to the first frame", ex );
+    }
+    return new StartupStatistics( cold.size( ), ClassDataSharing.median( cold ), shared.size( ), ClassDataSharing.median( shared ) );
+
+  }
+
+  /**
+   * Stops the pending and running training runs.
+   */
+  public void close( ) {
+
+    this.trainer.shutdownNow( );
+
+  }
+
+  private synchronized void pluginSetChanged( PluginRegistry.Snapshot snapshot ) {
+
+    List< PluginDescriptor > plugins = List.copyOf( snapshot.Active( ).values( ) );
+    if( Files.isRegularFile( this.archive( ClassDataSharing.fingerprint( plugins ) ) ) ) {
+      return;
+    }
+    if( this.pendingTraining != null ) {
+      this.pendingTraining.cancel( false );
+    }
+    this.pendingTraining = this.trainer.schedule( ( ) -> {
+      try {
+        this.generate( plugins );
+      } catch( IOException | RuntimeException ex ) {
+        LOGGER.warn( "Unable to generate the shared archive of {} plugins", plugins.size( ), ex );
+      } catch( InterruptedException ex ) {
+        Thread.currentThread( ).interrupt( );
+      }
+    }, this.debounce.toMillis( ), TimeUnit.MILLISECONDS );
+
+  }
+
+  private @NotNull Path generate( List< PluginDescriptor > plugins ) throws IOException, InterruptedException {
+
+    Path archive = this.archive( ClassDataSharing.fingerprint( plugins ) );
+    if( Files.isRegularFile( archive ) ) {
+      this.publish( archive );
+      return archive;
+    }
+
+    Files.createDirectories( this.directory );
+    Path pluginList = Files.createTempFile( this.directory, "plugins", ".list" );
+    Path partial = archive.resolveSibling( archive.getFileName( ) + ".part" );
+    try {
+      Files.write( pluginList, plugins.stream( ).map( plugin -> plugin.Path( ).toAbsolutePath( ).toString( ) ).toList( ), StandardCharsets.UTF_8 );
+      Files.deleteIfExists( partial );
+
+      long start = System.nanoTime( );
+      Process process = new ProcessBuilder( ClassDataSharing.trainingCommand( partial, pluginList ) )
+          .redirectErrorStream( true )
+          .redirectOutput( this.directory.resolve( ClassDataSharing.TRAINING_LOG_FILE ).toFile( ) )
+          .start( );
+      if( !process.waitFor( ClassDataSharing.TRAINING_TIMEOUT.toMillis( ), TimeUnit.MILLISECONDS ) ) {
+        process.destroyForcibly( );
+        throw new IOException( "The training run did not end in %d minutes".formatted( ClassDataSharing.TRAINING_TIMEOUT.toMinutes( ) ) );
+      }
+      if( process.exitValue( ) != 0 || !Files.isRegularFile( partial ) ) {
+        throw new IOException( "The training run failed with the exit code %d, see %s".formatted( process.exitValue( ),
+            this.directory.resolve( ClassDataSharing.TRAINING_LOG_FILE ) ) );
+      }
+      Files.move( partial, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      LOGGER.info( "Generated the shared archive {} with {} plugins in {} ms", archive, plugins.size( ),
+          TimeUnit.NANOSECONDS.toMillis( System.nanoTime( ) - start ) );
+    } finally {
+      Files.deleteIfExists( pluginList );
+      Files.deleteIfExists( partial );
+    }
+
+    this.publish( archive );
+    return archive;
+
+  }
+
+  /**
+   * Points the arguments file to the given archive, and deletes the other archives.
+   */
+  private void publish( Path archive ) throws IOException {
+
+    Path temporary = this.directory.resolve( ClassDataSharing.ARGUMENTS_FILE + ".tmp" );
+    // The arguments file quotes its arguments, and backslashes are escapes inside quotes.
+    Files.writeString( temporary, "-XX:SharedArchiveFile=\"%s\"%n-Xshare:auto%n".formatted( archive.toAbsolutePath( ).toString( ).replace( "\\", "\\\\" ) ),
+        StandardCharsets.UTF_8 );
+    Files.move( temporary, this.ArgumentsFile( ), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+    Optional< Path > inUse = ClassDataSharing.SharedArchive( );
+    try( DirectoryStream< Path > stream = Files.newDirectoryStream( this.directory, "barbara-*.jsa" ) ) {
+      for( Path old : stream ) {
+        // The archive of this jvm is mapped, so it is left for the next generation to delete.
+        if( !old.equals( archive ) && inUse.map( path -> !ClassDataSharing.isSameFile( path, old ) ).orElse( true ) ) {
+          Files.deleteIfExists( old );
+        }
+      }
+    }
+
+  }
+
+  private @NotNull Path archive( String fingerprint ) {
+
+    return this.directory.resolve( "barbara-" + fingerprint + ".jsa" );
+
+  }
+
+  /**
+   * Returns the command of a training run, that runs this application in the same way as this jvm.
+   */
+  private static @NotNull List< String > trainingCommand( Path archive, Path pluginList ) {
+
+    List< String > command = new ArrayList<>( );
+    command.add( ProcessHandle.current( ).info( ).command( ).orElse( Path.of( System.getProperty( "java.home" ), "bin", "java" ).toString( ) ) );
+    command.add( "-XX:ArchiveClassesAtExit=" + archive.toAbsolutePath( ) );
+    command.add( "-D" + ClassDataSharing.TRAINING_PROPERTY + "=" + pluginList.toAbsolutePath( ) );
+    String modulePath = System.getProperty( "jdk.module.path" );
+    if( modulePath != null && !modulePath.isBlank( ) ) {
+      command.add( "--module-path" );
+      command.add( modulePath );
+      command.add( "--module" );
+      command.add( ClassDataSharing.MAIN_MODULE + "/" + ClassDataSharing.MAIN_CLASS );
+    } else {
+      command.add( "--class-path" );
+      command.add( System.getProperty( "java.class.path" ) );
+      command.add( ClassDataSharing.MAIN_CLASS );
+    }
+    return command;
+
+  }
+
+  /**
+   * Returns the fingerprint of the jvm, the application modules and the given plugins, an archive is only valid for
+   * the same fingerprint.
+   */
+  static @NotNull String fingerprint( Collection< PluginDescriptor > plugins ) {
+
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance( "SHA-256" );
+    } catch( NoSuchAlgorithmException ex ) {
+      throw new IllegalStateException( "The SHA-256 algorithm is always available", ex );
+    }
+    digest.update( ( System.getProperty( "java.vm.version" ) + '\n' + System.getProperty( "java.home" ) + '\n' ).getBytes( StandardCharsets.UTF_8 ) );
+
+    List< Path > files = new ArrayList<>( );
+    ModuleLayer.boot( ).configuration( ).modules( ).stream( ).map( ResolvedModule::reference ).forEach( reference -> reference.location( )
+        .filter( location -> "file".equals( location.getScheme( ) ) ).map( Path::of ).ifPresent( files::add ) );
+    for( String entry : System.getProperty( "java.class.path", "" ).split( File.pathSeparator ) ) {
+      if( !entry.isBlank( ) ) {
+        files.add( Path.of( entry ) );
+      }
+    }
+    files.sort( Comparator.naturalOrder( ) );
+    files.forEach( file -> ClassDataSharing.update( digest, file ) );
+
+    plugins.stream( ).sorted( Comparator.comparing( PluginDescriptor::Id ) ).forEach( plugin -> {
+      digest.update( ( plugin.Id( ) + "@" + plugin.Version( ) + '\n' ).getBytes( StandardCharsets.UTF_8 ) );
+      ClassDataSharing.update( digest, plugin.Path( ) );
+    } );
+    return HexFormat.of( ).formatHex( digest.digest( ), 0, 8 );
+
+  }
+
+  private static void update( MessageDigest digest, Path file ) {
+
+    String stamp;
+    try {
+      BasicFileAttributes attributes = Files.readAttributes( file, BasicFileAttributes.class );
+      stamp = "%s:%d:%d%n".formatted( file.toAbsolutePath( ), attributes.size( ), attributes.lastModifiedTime( ).toMillis( ) );
+    } catch( IOException ex ) {
+      stamp = "%s:missing%n".formatted( file.toAbsolutePath( ) );
+    }
+    digest.update( stamp.getBytes( StandardCharsets.UTF_8 ) );
+
+  }
+
+  private static boolean isSameFile( Path first, Path second ) {
+
+    try {
+      return Files.isSameFile( first, second );
+    } catch( IOException ex ) {
+      return false;
+    }
+
+  }
+
+  private static @NotNull Duration median( List< Long > values ) {
+
+    if( values.isEmpty( ) ) {
+      return Duration.ZERO;
+    }
+    List< Long > sorted = values.stream( ).sorted( ).toList( );
+    return Duration.ofMillis( sorted.get( sorted.size( ) / 2 ) );
+
+  }
+
+}
@@ -20,8 +20,10 @@ import org.apache.commons.lang3.SystemUtils;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -30,6 +32,7 @@ import java.util.Optional;
  *
  * - Application Cache;
  * - Application Configuration;
+ * - System-wide Application Configuration;
  * - Application Data;
  * - Application Log Directory;
  * - User Home Directory;
@@ -82,6 +85,8 @@ public abstract class UserPathConfiguration {
 
     private final Path applicationConfiguration;
 
+    private final Path systemConfiguration;
+
     private final Path applicationCache;
 
     public LinuxUserPathConfiguration( ) {
@@ -91,6 +96,7 @@ public abstract class UserPathConfiguration {
       var tmpdir = Objects.requireNonNull( SystemUtils.JAVA_IO_TMPDIR, "Unable to determine temporary directory location" );
       var xdg_datahome = System.getenv( "XDG_DATA_HOME" );
       var xdg_confighome = System.getenv( "XDG_CONFIG_HOME" );
+      var xdg_configdirs = System.getenv( "XDG_CONFIG_DIRS" );
       var xdg_cachehome = System.getenv( "XDG_CACHE_HOME" );
       var xdg_statehome = System.getenv( "XDG_STATE_HOME" );
       var xdg_desktop_dir = System.getenv( "XDG_DESKTOP_DIR" );
@@ -104,6 +110,7 @@ public abstract class UserPathConfiguration {
 
       this.applicationData = xdg_datahome != null ? Paths.get( xdg_datahome, "barbara" ) : Paths.get( homedir, ".local", "share", "barbara" );
       this.applicationConfiguration = xdg_confighome != null ? Paths.get( xdg_confighome, "barbara" ) : Paths.get( homedir, ".config", "barbara" );
+      this.systemConfiguration = UserPathConfiguration.firstDirectory( xdg_configdirs ).map( directory -> Paths.get( directory, "barbara" ) ).orElse( Paths.get( "/etc", "xdg", "barbara" ) );
       this.applicationCache = xdg_cachehome != null ? Paths.get( xdg_cachehome, "barbara" ) : Paths.get( homedir, ".cache", "barbara" );
       this.applicationLogsDirectory = xdg_statehome != null ? Paths.get( xdg_statehome, "barbara" ) : Paths.get( homedir, ".local", "state", "barbara" );
       this.temporaryDirectory = Paths.get( tmpdir, username, "barbara" );
@@ -135,6 +142,14 @@ public abstract class UserPathConfiguration {
 
     }
 
+    @Contract( pure = true )
+    @Override
+    public Path SystemConfiguration( ) {
+
+      return this.systemConfiguration;
+
+    }
+
     @Contract( pure = true )
     @Override
     public Path ApplicationData( ) {
@@ -261,6 +276,8 @@ public abstract class UserPathConfiguration {
 
     private final Path applicationConfiguration;
 
+    private final Path systemConfiguration;
+
     private final Path applicationCache;
 
     public MacOSUserPathConfiguration( ) {
@@ -270,6 +287,7 @@ public abstract class UserPathConfiguration {
       var tmpdir = Objects.requireNonNull( SystemUtils.JAVA_IO_TMPDIR, "Unable to determine temporary directory location" );
       var xdg_datahome = System.getenv( "XDG_DATA_HOME" );
       var xdg_confighome = System.getenv( "XDG_CONFIG_HOME" );
+      var xdg_configdirs = System.getenv( "XDG_CONFIG_DIRS" );
       var xdg_cachehome = System.getenv( "XDG_CACHE_HOME" );
       var xdg_statehome = System.getenv( "XDG_STATE_HOME" );
       var xdg_desktop_dir = System.getenv( "XDG_DESKTOP_DIR" );
@@ -283,6 +301,7 @@ public abstract class UserPathConfiguration {
 
       this.applicationData = xdg_datahome != null ? Paths.get( xdg_datahome, "barbara" ) : Paths.get( library, "Application Support", "barbara" );
       this.applicationConfiguration = xdg_confighome != null ? Paths.get( xdg_confighome, "barbara" ) : Paths.get( library, "Preferences", "barbara" );
+      this.systemConfiguration = UserPathConfiguration.firstDirectory( xdg_configdirs ).map( directory -> Paths.get( directory, "barbara" ) ).orElse( Paths.get( "/Library", "Preferences", "barbara" ) );
       this.applicationCache = xdg_cachehome != null ? Paths.get( xdg_cachehome, "barbara" ) : Paths.get( library, "Caches", "barbara" );
       this.applicationLogsDirectory = xdg_statehome != null ? Paths.get( xdg_statehome, "barbara" ) : Paths.get( library, "Logs", "barbara" );
       this.temporaryDirectory = Paths.get( tmpdir, "barbara" );
@@ -314,6 +333,14 @@ public abstract class UserPathConfiguration {
 
     }
 
+    @Contract( pure = true )
+    @Override
+    public Path SystemConfiguration( ) {
+
+      return this.systemConfiguration;
+
+    }
+
     @Contract( pure = true )
     @Override
     public Path ApplicationData( ) {
@@ -440,6 +467,8 @@ public abstract class UserPathConfiguration {
 
     private final Path applicationConfiguration;
 
+    private final Path systemConfiguration;
+
     private final Path applicationCache;
 
     public WindowsUserPathConfiguration( ) {
@@ -447,9 +476,11 @@ public abstract class UserPathConfiguration {
       var homedir = Objects.requireNonNull( SystemUtils.USER_HOME, "Unable to determine user homedir" );
       var appData = Optional.of( System.getenv( "APPDATA" ) ).orElse( Paths.get( homedir, "AppData", "Roaming" ).toString( ) );
       var localAppData = Optional.of( System.getenv( "LOCALAPPDATA" ) ).orElse( Paths.get( homedir, "AppData", "Local" ).toString( ) );
+      var programData = Optional.ofNullable( System.getenv( "PROGRAMDATA" ) ).orElse( "C:\\ProgramData" );
       var tmpdir = Objects.requireNonNull( SystemUtils.JAVA_IO_TMPDIR, "Unable to determine temporary directory location" );
       var xdg_datahome = System.getenv( "XDG_DATA_HOME" );
       var xdg_confighome = System.getenv( "XDG_CONFIG_HOME" );
+      var xdg_configdirs = System.getenv( "XDG_CONFIG_DIRS" );
       var xdg_cachehome = System.getenv( "XDG_CACHE_HOME" );
       var xdg_statehome = System.getenv( "XDG_STATE_HOME" );
       var xdg_desktop_dir = System.getenv( "XDG_DESKTOP_DIR" );
@@ -464,6 +495,7 @@ public abstract class UserPathConfiguration {
 
       this.applicationData = xdg_datahome != null ? Paths.get( xdg_datahome, "barbara" ) : Paths.get( localAppData, "barbara", "Data" );
       this.applicationConfiguration = xdg_confighome != null ? Paths.get( xdg_confighome, "barbara" ) : Paths.get( appData, "barbara", "Config" );
+      this.systemConfiguration = UserPathConfiguration.firstDirectory( xdg_configdirs ).map( directory -> Paths.get( directory, "barbara" ) ).orElse( Paths.get( programData, "barbara", "Config" ) );
       this.applicationCache = xdg_cachehome != null ? Paths.get( xdg_cachehome, "barbara" ) : Paths.get( localAppData, "barbara", "Cache" );
       this.applicationLogsDirectory = xdg_statehome != null ? Paths.get( xdg_statehome, "barbara" ) : Paths.get( localAppData, "barbara", "Log" );
       this.temporaryDirectory = Paths.get( tmpdir, "barbara" );
@@ -495,6 +527,14 @@ public abstract class UserPathConfiguration {
 
     }
 
+    @Contract( pure = true )
+    @Override
+    public Path SystemConfiguration( ) {
+
+      return this.systemConfiguration;
+
+    }
+
     @Contract( pure = true )
     @Override
     public Path ApplicationData( ) {
@@ -616,6 +656,15 @@ public abstract class UserPathConfiguration {
 
   }
 
+  /**
+   * Returns the first directory of the given list of directories, like XDG_CONFIG_DIRS, if it has any.
+   */
+  private static @NotNull Optional< String > firstDirectory( String directories ) {
+
+    return Optional.ofNullable( directories ).flatMap( list -> Arrays.stream( list.split( File.pathSeparator ) ).filter( directory -> !directory.isBlank( ) ).findFirst( ) );
+
+  }
+
   /**
    * Gets the path for the user application cache directory.
    */
@@ -626,6 +675,11 @@ public abstract class UserPathConfiguration {
    */
   public abstract Path ApplicationConfiguration( );
 
+  /**
+   * Gets the path for the system-wide application configuration directory, shared by every user.
+   */
+  public abstract Path SystemConfiguration( );
+
   /**
    * Gets the path for the user application data directory.
    */
@@ -0,0 +1,519 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.events;
+
+import cc.chordflower.desktop.barbara.spi.PluginExecutor;
+import cc.chordflower.desktop.barbara.spi.event.EventBus;
+import cc.chordflower.desktop.barbara.spi.event.EventType;
+import javafx.application.Platform;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * The event bus of the application.
+ *
+ * The subscribers are kept in a table per event type, indexed by the event type slot, that is replaced when a
+ * subscriber is added or removed, so publishing only reads an array. A subscriber that is not called on the publisher
+ * thread has a bounded queue, backed by an array, and a single drain task that is only handed to its executor when the
+ * queue stops being empty, so a burst of events costs a single task, and a batch subscriber gets the whole burst at once.
+ *
+ * @author carddamom
+ */
+public final class BarbaraEventBus implements EventBus {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( BarbaraEventBus.class );
+
+  /**
+   * The default capacity of the queue of each subscriber that is not called on the publisher thread.
+   */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /**
+   * How many events a subscriber gets in a single drain, so a busy subscriber does not hold its thread forever.
+   */
+  private static final int DRAIN_LIMIT = 256;
+
+  private static volatile BarbaraEventBus currentEventBus;
+
+  /**
+   * The statistics of the event bus, this is an immutable class aka a value class.
+   */
+  public static final class Statistics {
+
+    private final long published;
+
+    private final long dropped;
+
+    private final long failures;
+
+    private final int subscribers;
+
+    @Contract( pure = true )
+    private Statistics( long published, long dropped, long failures, int subscribers ) {
+
+      this.published = published;
+      this.dropped = dropped;
+      this.failures = failures;
+      this.subscribers = subscribers;
+
+    }
+
+    /**
+     * Returns the number of events published.
+     */
+    @Contract( pure = true )
+    public long Published( ) {
+
+      return this.published;
+
+    }
+
+    /**
+     * Returns the number of events dropped, because the queue of a subscriber was full.
+     */
+    @Contract( pure = true )
+    public long Dropped( ) {
+
+      return this.dropped;
+
+    }
+
+    /**
+     * Returns the number of times a subscriber failed.
+     */
+    @Contract( pure = true )
+    public long Failures( ) {
+
+      return this.failures;
+
+    }
+
+    /**
+     * Returns the number of open subscriptions.
+     */
+    @Contract( pure = true )
+    public int Subscribers( ) {
+
+      return this.subscribers;
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "published", this.published ).append( "dropped", this.dropped )
+          .append( "failures", this.failures ).append( "subscribers", this.subscribers ).build( );
+
+    }
+
+  }
+
+  /**
+   * A subscriber of an event type, that is also the task that drains its queue.
+   */
+  private final class Subscriber< E > implements Subscription, Runnable {
+
+    private final EventType< E > type;
+
+    private final Object owner;
+
+    private final Consumer< ? super E > consumer;
+
+    private final Consumer< ? super List< E > > batchConsumer;
+
+    private final Executor executor;
+
+    private final ArrayBlockingQueue< E > queue;
+
+    private final List< E > batch;
+
+    private final List< E > batchView;
+
+    private final AtomicBoolean scheduled;
+
+    private volatile boolean closed;
+
+    private Subscriber( EventType< E > type, Object owner, Executor executor, int capacity, Consumer< ? super E > consumer, Consumer< ? super List< E > > batchConsumer ) {
+
+      this.type = type;
+      this.owner = owner;
+      this.consumer = consumer;
+      this.batchConsumer = batchConsumer;
+      this.executor = executor;
+      this.queue = executor == null ? null : new ArrayBlockingQueue<>( capacity );
+      this.batch = batchConsumer == null ? null : new ArrayList<>( );
+      this.batchView = batchConsumer == null ? null : Collections.unmodifiableList( this.batch );
+      this.scheduled = new AtomicBoolean( false );
+      this.closed = false;
+
+    }
+
+    private void deliver( E event ) {
+
+      if( this.executor == null ) {
+        try {
+          this.consumer.accept( event );
+        } catch( RuntimeException ex ) {
+          BarbaraEventBus.this.failures.increment( );
+          LOGGER.warn( "A subscriber of {} failed", this.type, ex );
+        }
+        return;
+      }
+
+      if( !this.queue.offer( event ) ) {
+        BarbaraEventBus.this.dropped.increment( );
+        return;
+      }
+      this.schedule( );
+
+    }
+
+    private void schedule( ) {
+
+      if( this.scheduled.compareAndSet( false, true ) ) {
+        try {
+          if( this.executor instanceof PluginExecutor pluginExecutor ) {
+            // The executor of a plugin may discard the task without running it, and then nothing else would reset the flag.
+            pluginExecutor.submit( Executors.callable( this ) ).whenComplete( ( result, error ) -> {
+              if( error instanceof CancellationException ) {
+                this.scheduled.set( false );
+              }
+            } );
+          } else {
+            this.executor.execute( this );
+          }
+        } catch( RuntimeException ex ) {
+          // The events stay queued, and are delivered when the next event is published.
+          this.scheduled.set( false );
+          LOGGER.warn( "Unable to deliver the events of {}", this.type, ex );
+        }
+      }
+
+    }
+
+    @Override
+    public void run( ) {
+
+      try {
+        if( this.closed ) {
+          return;
+        }
+        if( this.batchConsumer != null ) {
+          this.queue.drainTo( this.batch );
+          if( !this.batch.isEmpty( ) ) {
+            this.batchConsumer.accept( this.batchView );
+          }
+        } else {
+          E event;
+          for( int count = 0; count < BarbaraEventBus.DRAIN_LIMIT && ( event = this.queue.poll( ) ) != null; count++ ) {
+            this.consumer.accept( event );
+          }
+        }
+      } catch( RuntimeException ex ) {
+        BarbaraEventBus.this.failures.increment( );
+        LOGGER.warn( "A subscriber of {} failed", this.type, ex );
+      } finally {
+        if( this.batch != null ) {
+          this.batch.clear( );
+        }
+        this.scheduled.set( false );
+        if( !this.closed && !this.queue.isEmpty( ) ) {
+          this.schedule( );
+        }
+      }
+
+    }
+
+    @Override
+    public void close( ) {
+
+      if( !this.closed ) {
+        this.closed = true;
+        BarbaraEventBus.this.remove( this );
+        if( this.queue != null ) {
+          this.queue.clear( );
+        }
+      }
+
+    }
+
+    @Override
+    public boolean isClosed( ) {
+
+      return this.closed;
+
+    }
+
+  }
+
+  /**
+   * A view of the event bus for a single owner, whose subscriptions are closed together.
+   */
+  private final class ScopedEventBus implements EventBus {
+
+    private final Object owner;
+
+    private final Executor background;
+
+    private ScopedEventBus( Object owner, Executor background ) {
+
+      this.owner = owner;
+      this.background = background;
+
+    }
+
+    @Override
+    public < E > void publish( EventType< E > type, E event ) {
+
+      BarbaraEventBus.this.publish( type, event );
+
+    }
+
+    @Override
+    public < E > Subscription subscribe( EventType< E > type, Delivery delivery, Consumer< ? super E > subscriber ) {
+
+      return BarbaraEventBus.this.add( type, this.owner, BarbaraEventBus.this.executorOf( delivery, this.background ), Objects.requireNonNull( subscriber ), null );
+
+    }
+
+    @Override
+    public < E > Subscription subscribeBatches( EventType< E > type, Delivery delivery, Consumer< ? super List< E > > subscriber ) {
+
+      return BarbaraEventBus.this.add( type, this.owner, BarbaraEventBus.this.batchExecutorOf( delivery, this.background ), null, Objects.requireNonNull( subscriber ) );
+
+    }
+
+  }
+
+  private final ExecutorService background;
+
+  private final int capacity;
+
+  private volatile Executor uiExecutor;
+
+  /**
+   * The subscribers of each event type, by event type slot, the arrays are never modified once published.
+   */
+  private volatile Subscriber< ? >[ ][ ] tables;
+
+  private final LongAdder published;
+
+  private final LongAdder dropped;
+
+  private final LongAdder failures;
+
+  /**
+   * Creates a new event bus.
+   *
+   * @param threads The number of threads that call the background subscribers.
+   * @param capacity The capacity of the queue of each subscriber that is not called on the publisher thread.
+   */
+  public BarbaraEventBus( int threads, int capacity ) {
+
+    if( threads < 1 || capacity < 1 ) {
+      throw new IllegalArgumentException( "The event bus must have at least one thread and a queue capacity of at least one" );
+    }
+    this.background = Executors.newFixedThreadPool( threads, new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-events-%d" )
+        .daemon( true )
+        .build( ) );
+    this.capacity = capacity;
+    this.uiExecutor = Platform::runLater;
+    this.tables = new Subscriber< ? >[ 0 ][ ];
+    this.published = new LongAdder( );
+    this.dropped = new LongAdder( );
+    this.failures = new LongAdder( );
+
+  }
+
+  /**
+   * Returns the event bus shared by the whole application.
+   */
+  public static @NotNull BarbaraEventBus getCurrentEventBus( ) {
+
+    if( BarbaraEventBus.currentEventBus == null ) {
+      synchronized( BarbaraEventBus.class ) {
+        if( BarbaraEventBus.currentEventBus == null ) {
+          BarbaraEventBus.currentEventBus = new BarbaraEventBus( Math.max( 2, Runtime.getRuntime( ).availableProcessors( ) / 2 ), BarbaraEventBus.DEFAULT_CAPACITY );
+        }
+      }
+    }
+    return BarbaraEventBus.currentEventBus;
+
+  }
+
+  /**
+   * Sets the executor of the user interface thread, by default {@link Platform#runLater(Runnable)}. It only applies to
+   * subscriptions made afterwards.
+   */
+  public void setUiExecutor( Executor uiExecutor ) {
+
+    this.uiExecutor = Objects.requireNonNull( uiExecutor );
+
+  }
+
+  @Override
+  @SuppressWarnings( "unchecked" )
+  public < E > void publish( EventType< E > type, E event ) {
+
+    Objects.requireNonNull( event );
+    this.published.increment( );
+    Subscriber< ? >[ ][ ] tables = this.tables;
+    if( type.Index( ) >= tables.length || tables[ type.Index( ) ] == null ) {
+      return;
+    }
+    for( Subscriber< ? > subscriber : tables[ type.Index( ) ] ) {
+      ( ( Subscriber< E > ) subscriber ).deliver( event );
+    }
+
+  }
+
+  @Override
+  public < E > Subscription subscribe( EventType< E > type, Delivery delivery, Consumer< ? super E > subscriber ) {
+
+    return this.add( type, this, this.executorOf( delivery, this.background ), Objects.requireNonNull( subscriber ), null );
+
+  }
+
+  @Override
+  public < E > Subscription subscribeBatches( EventType< E > type, Delivery delivery, Consumer< ? super List< E > > subscriber ) {
+
+    return this.add( type, this, this.batchExecutorOf( delivery, this.background ), null, Objects.requireNonNull( subscriber ) );
+
+  }
+
+  /**
+   * Returns a view of this event bus for the given owner, whose background subscribers are called on the given executor.
+   *
+   * @param owner The owner of the subscriptions made through the view.
+   * @param background The executor of the background subscribers.
+   * @return The view, that publishes on this event bus.
+   * @see #unsubscribeAll(Object)
+   */
+  @Contract( "_, _ -> new" )
+  public @NotNull EventBus scope( Object owner, Executor background ) {
+
+    return new ScopedEventBus( Objects.requireNonNull( owner ), Objects.requireNonNull( background ) );
+
+  }
+
+  /**
+   * Closes every subscription made through the views of the given owner.
+   *
+   * @param owner The owner.
+   * @return The number of subscriptions closed.
+   */
+  public int unsubscribeAll( Object owner ) {
+
+    int closed = 0;
+    for( Subscriber< ? >[ ] table : this.tables ) {
+      if( table == null ) {
+        continue;
+      }
+      for( Subscriber< ? > subscriber : table ) {
+        if( subscriber.owner == owner && !subscriber.isClosed( ) ) {
+          subscriber.close( );
+          closed++;
+        }
+      }
+    }
+    return closed;
+
+  }
+
+  /**
+   * Returns the current statistics of the event bus.
+   */
+  @Contract( " -> new" )
+  public @NotNull Statistics Statistics( ) {
+
+    int subscribers = Arrays.stream( this.tables ).filter( Objects::nonNull ).mapToInt( table -> table.length ).sum( );
+    return new Statistics( this.published.sum( ), this.dropped.sum( ), this.failures.sum( ), subscribers );
+
+  }
+
+  private Executor executorOf( Delivery delivery, Executor background ) {
+
+    return switch( Objects.requireNonNull( delivery ) ) {
+      case PUBLISHER -> null;
+      case UI -> this.uiExecutor;
+      case BACKGROUND -> background;
+    };
+
+  }
+
+  private Executor batchExecutorOf( Delivery delivery, Executor background ) {
+
+    if( delivery == Delivery.PUBLISHER ) {
+      throw new IllegalArgumentException( "The batch subscribers cannot be called on the publisher thread" );
+    }
+    return this.executorOf( delivery, background );
+
+  }
+
+  private synchronized < E > @NotNull Subscriber< E > add( EventType< E > type, Object owner, Executor executor, Consumer< ? super E > consumer,
+      Consumer< ? super List< E > > batchConsumer ) {
+
+    Subscriber< E > subscriber = new Subscriber<>( type, owner, executor, this.capacity, consumer, batchConsumer );
+    Subscriber< ? >[ ][ ] tables = this.tables;
+    if( type.Index( ) >= tables.length ) {
+      tables = Arrays.copyOf( tables, type.Index( ) + 1 );
+    } else {
+      tables = tables.clone( );
+    }
+    Subscriber< ? >[ ] table = tables[ type.Index( ) ] == null ? new Subscriber< ? >[ 0 ] : tables[ type.Index( ) ];
+    table = Arrays.copyOf( table, table.length + 1 );
+    table[ table.length - 1 ] = subscriber;
+    tables[ type.Index( ) ] = table;
+    this.tables = tables;
+    return subscriber;
+
+  }
+
+  private synchronized void remove( Subscriber< ? > subscriber ) {
+
+    Subscriber< ? >[ ][ ] tables = this.tables;
+    int index = subscriber.type.Index( );
+    if( index >= tables.length || tables[ index ] == null ) {
+      return;
+    }
+    Subscriber< ? >[ ] table = Arrays.stream( tables[ index ] ).filter( other -> other != subscriber ).toArray( Subscriber< ? >[ ]::new );
+    tables = tables.clone( );
+    tables[ index ] = table.length == 0 ? null : table;
+    this.tables = tables;
+
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import cc.chordflower.desktop.barbara.spi.PluginContext;
+import cc.chordflower.desktop.barbara.spi.PluginExecutor;
+import cc.chordflower.desktop.barbara.spi.event.EventBus;
+import cc.chordflower.desktop.barbara.utilities.events.BarbaraEventBus;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+/**
+ * The context handed to the entry classes of a plugin when they are started.
+ *
+ * @author carddamom
+ */
+final class BarbaraPluginContext implements PluginContext {
+
+  private final PluginDescriptor descriptor;
+
+  private final PluginResourceAccounting resources;
+
+  private volatile EventBus events;
+
+  @Contract( pure = true )
+  private BarbaraPluginContext( PluginDescriptor descriptor, PluginResourceAccounting resources ) {
+
+    this.descriptor = descriptor;
+    this.resources = resources;
+
+  }
+
+  /**
+   * Creates the context of the given plugin.
+   *
+   * @param descriptor The plugin.
+   * @param resources The resource accounting that owns the executor of the plugin.
+   */
+  @Contract( value = "_, _ -> new", pure = true )
+  static @NotNull BarbaraPluginContext of( PluginDescriptor descriptor, PluginResourceAccounting resources ) {
+
+    return new BarbaraPluginContext( descriptor, resources );
+
+  }
+
+  @Override
+  public UUID Id( ) {
+
+    return this.descriptor.Id( );
+
+  }
+
+  @Override
+  public String Name( ) {
+
+    return this.descriptor.Name( );
+
+  }
+
+  /**
+   * Returns the executor of the plugin, it is only created when first used.
+   */
+  @Override
+  public PluginExecutor Executor( ) {
+
+    return this.resources.bulkhead( this.descriptor );
+
+  }
+
+  /**
+   * Returns the view of the application event bus owned by the plugin, it is only created when first used.
+   */
+  @Override
+  public EventBus Events( ) {
+
+    if( this.events == null ) {
+      synchronized( this ) {
+        if( this.events == null ) {
+          this.events = BarbaraEventBus.getCurrentEventBus( ).scope( this.descriptor, this.Executor( ) );
+        }
+      }
+    }
+    return this.events;
+
+  }
+
+}
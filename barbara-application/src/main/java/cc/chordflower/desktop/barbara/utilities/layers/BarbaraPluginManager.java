@@ -17,25 +17,71 @@ package cc.chordflower.desktop.barbara.utilities.layers;
 
 import cc.chordflower.desktop.barbara.exceptions.DuplicatedPluginException;
 import cc.chordflower.desktop.barbara.exceptions.InvalidDependencyException;
+import cc.chordflower.desktop.barbara.exceptions.InvalidPluginDescriptorException;
+import cc.chordflower.desktop.barbara.exceptions.PluginInUseException;
+import cc.chordflower.desktop.barbara.exceptions.PluginIntegrityException;
+import cc.chordflower.desktop.barbara.spi.index.ExtensionIndex;
+import cc.chordflower.desktop.barbara.utilities.UserPathConfiguration;
+import cc.chordflower.desktop.barbara.utilities.events.BarbaraEventBus;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginLoadReport.Problem;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginLoadReport.ProblemKind;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
-import java.io.File;
+import java.io.EOFException;
 import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.module.FindException;
+import java.lang.module.ResolutionException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Class that manages the barbara plugins.
@@ -46,87 +92,1107 @@ import java.util.concurrent.ConcurrentMap;
 @Singleton
 public class BarbaraPluginManager {
 
-  private final ConcurrentMap< UUID, PluginDescriptor > plugins;
+  private static final Logger LOGGER = LoggerFactory.getLogger( BarbaraPluginManager.class );
 
-  private final Gson gayson;
+  private final PluginRegistry registry;
+
+  private final PluginDescriptorCache descriptorCache;
+
+  private final PluginIntegrity integrity;
+
+  private final PluginResolver resolver;
+
+  private final PluginJarStore jarStore;
+
+  private final Cache< PluginDescriptor, ExtensionIndex > extensionIndexes;
+
+  private final PluginDescriptorValidator validator;
+
+  private final PluginDescriptorTypeAdapter descriptorAdapter;
+
+  private final PluginResourceAccounting resources;
+
+  private final List< Consumer< PluginRegistry.Snapshot > > pluginSetListeners;
+
+  private final AtomicReference< Map< UUID, PluginDescriptor > > publishedPluginSet;
+
+  private final PluginLeakDetector leakDetector;
+
+  /**
+   * The outcome of applying a batch of registrations, it is built again each time the batch is applied, so nothing
+   * outside of the batch is changed by an attempt that is not published.
+   */
+  private static final class Registration {
+
+    private final List< PluginDescriptor > registered = new ArrayList<>( );
+
+    private final List< Problem > problems = new ArrayList<>( );
+
+    private final Set< PluginDescriptor > unextracted = new LinkedHashSet<>( );
+
+    private final List< PluginDescriptor > removed = new ArrayList<>( );
+
+    private final Set< UUID > unloaded = new LinkedHashSet<>( );
+
+    private final List< PluginLayer > replaced = new ArrayList<>( );
+
+  }
+
+  /**
+   * The outcome of applying the removal of a plugin, it is built again each time the batch is applied.
+   */
+  private static final class Removal {
+
+    private final List< UUID > dependents = new ArrayList<>( );
+
+    private final List< PluginDescriptor > removed = new ArrayList<>( );
+
+    private PluginLayer layer;
+
+  }
+
+  /**
+   * The jars extracted while applying a batch of registrations, they are only changed between attempts.
+   */
+  private static final class ExtractedJars {
+
+    private final Map< PluginDescriptor, List< Path > > paths = new HashMap<>( );
+
+    private final Map< PluginDescriptor, IOException > failures = new HashMap<>( );
+
+  }
 
-  @Contract( pure = true )
   @Inject
   public BarbaraPluginManager( Gson gson ) {
 
-    this.plugins = new ConcurrentHashMap<>( );
-    this.gayson = gson;
+    this( gson, UserPathConfiguration.getCurrentUserPathConfiguration( ).ApplicationCache( ) );
+  }
+
+  /**
+   * Creates a new plugin manager that keeps its caches in the given directory.
+   *
+   * @param gson The gson instance used to persist the plugin descriptor cache.
+   * @param cacheDirectory The directory where the plugin caches are kept.
+   */
+  public BarbaraPluginManager( Gson gson, Path cacheDirectory ) {
+
+    this( gson, cacheDirectory, PluginResourceAccounting.getCurrentAccounting( ) );
+  }
+
+  /**
+   * Creates a new plugin manager that keeps its caches in the given directory, and accounts the plugin resources with the
+   * given accounting.
+   *
+   * @param gson The gson instance used to persist the plugin descriptor cache.
+   * @param cacheDirectory The directory where the plugin caches are kept.
+   * @param resources The resource accounting of the plugins.
+   */
+  public BarbaraPluginManager( Gson gson, Path cacheDirectory, PluginResourceAccounting resources ) {
+
+    this.registry = new PluginRegistry( );
+    this.descriptorAdapter = new PluginDescriptorTypeAdapter( );
+    Gson gayson = Objects.requireNonNull( gson ).newBuilder( )
+        .registerTypeAdapter( PluginDescriptor.class, this.descriptorAdapter )
+        .registerTypeAdapter( PluginDependency.class, new PluginDependencyTypeAdapter( ) )
+        .create( );
+    this.descriptorCache = new PluginDescriptorCache( cacheDirectory.resolve( "plugins" ).resolve( "descriptors.json" ), gayson );
+    this.integrity = new PluginIntegrity( cacheDirectory.resolve( "plugins" ).resolve( "integrity.json" ), gayson );
+    this.resolver = new PluginResolver( );
+    this.jarStore = new PluginJarStore( cacheDirectory.resolve( "jars" ), gayson );
+    this.extensionIndexes = Caffeine.newBuilder( ).weakKeys( ).build( );
+    this.validator = new PluginDescriptorValidator( );
+    this.resources = Objects.requireNonNull( resources );
+    this.pluginSetListeners = new CopyOnWriteArrayList<>( );
+    this.publishedPluginSet = new AtomicReference<>( Map.of( ) );
+    this.leakDetector = new PluginLeakDetector( Duration.ofSeconds( 10 ) );
   }
 
   /**
    * Tries to add the plugin in the given path to the plugin manager.
    *
+   * If another version of the same plugin is already active, the plugin is only installed side by side with it.
+   *
    * @param plugin The path of the plugin to add.
    *
-   * @throws IOException If an error happens while manipulating the plugin file.
+   * @throws IOException If an error happens while manipulating the plugin file, its jars are corrupted, or its modules
+   *     cannot be resolved.
    * @throws InvalidDependencyException If there is an problem with the dependencies of the plugin.
-   * @throws DuplicatedPluginException If the plugin is already installed.
+   * @throws DuplicatedPluginException If the same version of the plugin is already installed.
+   * @see #exceptionOf(PluginDescriptor, Problem)
    */
   public void addPlugin( Path plugin ) throws IOException, InvalidDependencyException, DuplicatedPluginException {
 
-    // Check if the parameter is not null.
-    File pluginFile = Objects.requireNonNull( plugin ).toFile( );
+    PluginDescriptor pluginDescritor = this.readDescriptor( plugin );
 
-    // Check if the path represents a existing file that ends with the zip extension, ie. is a zip file.
-    if( !pluginFile.exists( ) || !pluginFile.isFile( ) || !pluginFile.getName( ).endsWith( "*.zip" ) ) {
-      throw new IOException( "Unable to use the given plugin file" );
+    // Check of plugin already exists...
+    if( this.registry.Snapshot( ).isInstalled( pluginDescritor ) ) {
+      throw new DuplicatedPluginException( pluginDescritor.Name( ) );
     }
 
-    PluginDescriptor pluginDescritor;
+    List< Problem > problems = new ArrayList<>( );
+    this.register( List.of( pluginDescritor ), problems );
+    this.saveCaches( );
+    this.publishPluginSet( );
 
-    // Opens the plugin zip file, and tries to parse the plugin descriptor (in plugin.json on the root
-    // of the zip) using Gson into a PluginDescriptor class.
-    try {
+    if( !problems.isEmpty( ) ) {
+      // The first problem decides the exception, the others are kept as suppressed exceptions.
+      Exception exception = BarbaraPluginManager.exceptionOf( pluginDescritor, problems.get( 0 ) );
+      problems.stream( ).skip( 1 ).map( problem -> BarbaraPluginManager.exceptionOf( pluginDescritor, problem ) ).forEach( exception::addSuppressed );
+      if( exception instanceof IOException ioException ) {
+        throw ioException;
+      }
+      if( exception instanceof DuplicatedPluginException duplicatedException ) {
+        throw duplicatedException;
+      }
+      throw ( InvalidDependencyException ) exception;
+    }
+
+  }
+
+  /**
+   * Returns the exception that reports the given problem of the given plugin, from {@link #addPlugin(Path)}.
+   *
+   * @return A {@link DuplicatedPluginException} for duplicated plugins, an {@link InvalidDependencyException} for the
+   *     dependency problems, and an {@link IOException} for the plugins that cannot be read, verified or resolved.
+   */
+  private static @NotNull Exception exceptionOf( PluginDescriptor descriptor, Problem problem ) {
 
-      URI uri = new URI( "jar:file:%s".formatted( plugin.toString( ) ) );
+    return switch( problem.Kind( ) ) {
+      case DUPLICATED -> new DuplicatedPluginException( descriptor.Name( ) );
+      case SELF_DEPENDENCY, MISSING_DEPENDENCY, VERSION_MISMATCH, CYCLIC_DEPENDENCY, REJECTED_DEPENDENCY -> new InvalidDependencyException( problem.Message( ) );
+      case INVALID_DESCRIPTOR -> new InvalidPluginDescriptorException( descriptor.Path( ), List.of( problem.Message( ) ) );
+      case CORRUPTED -> new PluginIntegrityException( descriptor.Path( ), List.of( problem.Message( ) ) );
+      case UNREADABLE, UNRESOLVABLE_MODULES -> new IOException( problem.Message( ) );
+    };
 
-      String lines;
-      try( FileSystem fileSystem = FileSystems.newFileSystem( uri, Collections.emptyMap( ) ) ) {
+  }
 
-        Path path = fileSystem.getPath( "/", "plugin.json" );
-        if( !path.toFile( ).exists( ) || !path.toFile( ).isFile( ) ) {
-          throw new IOException( "Unable to open the plugin.json file" );
+  /**
+   * Tries to add every plugin zip file in the given directory to the plugin manager.
+   *
+   * @param directory The directory that contains the plugins.
+   * @return A report with the plugins that were registered and every problem found.
+   *
+   * @throws IOException If the directory cannot be listed.
+   * @throws InterruptedException If the thread is interrupted while waiting for the plugins to be parsed.
+   * @see #addPlugins(Collection)
+   */
+  public @NotNull PluginLoadReport addPlugins( Path directory ) throws IOException, InterruptedException {
+
+    if( !Files.isDirectory( Objects.requireNonNull( directory ) ) ) {
+      throw new IOException( "Unable to use the given plugin directory" );
+    }
+
+    List< Path > pluginPaths = new ArrayList<>( );
+    try( DirectoryStream< Path > stream = Files.newDirectoryStream( directory, "*.zip" ) ) {
+      for( Path path : stream ) {
+        if( Files.isRegularFile( path ) ) {
+          pluginPaths.add( path );
         }
+      }
+    }
 
-        lines = String.join( "\n", Files.readAllLines( path ) );
+    return this.addPlugins( pluginPaths );
 
+  }
+
+  /**
+   * Tries to add all the plugins in the given paths to the plugin manager.
+   *
+   * The plugin descriptors are parsed in parallel, and the plugins are registered in dependency order, so the given
+   * paths can be in any order. Several versions of the same plugin can be installed side by side, and the
+   * {@link PluginResolver} selects the highest version of each plugin that satisfies every dependency range. Instead
+   * of stopping at the first problem, every unsatisfied or cyclic dependency is collected in the returned report, and
+   * only the plugins whose whole dependency tree is valid are registered, the others stay installed until their
+   * dependencies are added.
+   *
+   * @param pluginPaths The paths of the plugins to add.
+   * @return A report with the plugins that were registered and every problem found.
+   *
+   * @throws InterruptedException If the thread is interrupted while waiting for the plugins to be parsed.
+   */
+  public @NotNull PluginLoadReport addPlugins( Collection< Path > pluginPaths ) throws InterruptedException {
+
+    List< Path > paths = new ArrayList<>( Objects.requireNonNull( pluginPaths ) );
+    List< Problem > problems = new ArrayList<>( );
+
+    List< PluginDescriptor > registered = this.register( this.readDescriptors( paths, problems ), problems );
+    this.saveCaches( );
+    this.publishPluginSet( );
+
+    var report = PluginLoadReport.of( registered, problems );
+    if( !report.isSuccessful( ) ) {
+      LOGGER.warn( "Unable to register {} of {} plugins: {}", paths.size( ) - registered.size( ), paths.size( ), report.Problems( ) );
+    }
+    return report;
+
+  }
+
+  /**
+   * Reloads the plugins in the given paths, after their files were created, changed or deleted.
+   *
+   * Only the plugins installed from the given paths, and the active plugins that depend on them, directly or not, are
+   * unloaded; every other plugin stays active, pinned to its version, so the resolution only has to choose versions for
+   * the affected subgraph. The changed files that still exist are then installed again, and the unloaded plugins are
+   * registered again with whatever versions are now available.
+   *
+   * @param pluginPaths The paths of the plugins that changed.
+   * @return A report with the plugins that were registered and every problem found.
+   *
+   * @throws InterruptedException If the thread is interrupted while waiting for the plugins to be parsed.
+   */
+  public @NotNull PluginLoadReport reloadPlugins( Collection< Path > pluginPaths ) throws InterruptedException {
+
+    Set< Path > paths = Objects.requireNonNull( pluginPaths ).stream( ).map( path -> path.toAbsolutePath( ).normalize( ) ).collect( Collectors.toCollection( LinkedHashSet::new ) );
+    List< Problem > problems = new ArrayList<>( );
+    List< PluginDescriptor > descriptors = new ArrayList<>( this.readDescriptors( paths.stream( ).filter( Files::isRegularFile ).toList( ), problems ) );
+    // A file that is still there but cannot be read, like a plugin being copied or a bad edit, keeps its installed version.
+    Set< Path > unreadable = problems.stream( ).map( Problem::Path ).filter( path -> path != null && Files.exists( path ) ).collect( Collectors.toSet( ) );
+
+    Registration registration = this.update( ( batch, jars ) -> {
+      Registration result = new Registration( );
+
+      // The descriptor cache returns the installed descriptor when a file was only touched, those are left alone.
+      Set< Path > stale = new HashSet<>( paths );
+      stale.removeAll( unreadable );
+      descriptors.stream( ).filter( batch.Installed( )::contains ).forEach( descriptor -> stale.remove( descriptor.Path( ).toAbsolutePath( ).normalize( ) ) );
+      List< PluginDescriptor > changed = descriptors.stream( ).filter( descriptor -> !batch.Installed( ).contains( descriptor ) ).toList( );
+
+      // Forget the old contents of the changed files.
+      List< PluginDescriptor > removed = batch.Installed( ).stream( ).filter( descriptor -> stale.contains( descriptor.Path( ).toAbsolutePath( ).normalize( ) ) ).toList( );
+
+      // Unload the active plugins that were removed, and every active plugin that depends on them.
+      Set< UUID > unloaded = batch.Base( ).withDependents( removed.stream( ).filter( descriptor -> batch.Active( ).get( descriptor.Id( ) ) == descriptor )
+          .map( PluginDescriptor::Id ).toList( ) );
+      removed.forEach( batch::uninstall );
+      unloaded.forEach( batch::deactivate );
+      result.removed.addAll( removed );
+      result.unloaded.addAll( unloaded );
+
+      this.register( batch, changed, unloaded, jars, result );
+      // The plugins that were unloaded and came back with another version, or did not come back at all.
+      unloaded.stream( ).filter( id -> !Objects.equals( batch.Active( ).get( id ), batch.Base( ).Active( ).get( id ) ) )
+          .forEach( id -> batch.Base( ).layer( id ).ifPresent( result.replaced::add ) );
+      return result;
+    } );
+    if( !registration.unloaded.isEmpty( ) ) {
+      LOGGER.info( "Unloaded the plugins {} to reload them", registration.unloaded );
+    }
+    List< PluginDescriptor > registered = registration.registered;
+    problems.addAll( registration.problems );
+    this.saveCaches( );
+    this.publishPluginSet( );
+    this.releaseJars( registration.removed );
+    this.resources.retain( this.registry.Snapshot( ).Active( ).keySet( ) );
+    registration.replaced.forEach( layer -> this.resources.release( layer.Descriptor( ).Id( ) ) );
+    registration.replaced.forEach( layer -> BarbaraEventBus.getCurrentEventBus( ).unsubscribeAll( layer.Descriptor( ) ) );
+    for( PluginLayer layer : registration.replaced ) {
+      this.unload( layer ).thenAccept( unload -> LOGGER.debug( "Unloaded the replaced plugin: {}", unload ) );
+    }
+
+    var report = PluginLoadReport.of( registered, problems );
+    if( !report.isSuccessful( ) ) {
+      LOGGER.warn( "Problems while reloading the plugins {}: {}", paths, report.Problems( ) );
+    }
+    return report;
+
+  }
+
+  /**
+   * Removes every installed version of the given plugin, unloading it if it is active.
+   *
+   * The plugin set listeners are told first, so the plugin entries are stopped, then the executor of the plugin is shut
+   * down, and finally it is checked, for a bounded time, that the class loaders of the plugin were collected.
+   *
+   * @param id The id of the plugin to remove.
+   * @return The unload report, that tells if the class loaders of the plugin were collected, and if not, what holds them.
+   *
+   * @throws PluginInUseException If other active plugins depend on the plugin.
+   * @throws InterruptedException If the thread is interrupted while waiting for the class loaders to be collected.
+   */
+  public @NotNull PluginUnloadReport removePlugin( UUID id ) throws PluginInUseException, InterruptedException {
+
+    Objects.requireNonNull( id );
+    Removal removal = this.registry.update( batch -> {
+      Removal result = new Removal( );
+      result.dependents.addAll( batch.Base( ).dependents( id ) );
+      if( !result.dependents.isEmpty( ) ) {
+        return result;
       }
-      pluginDescritor = this.gayson.fromJson( lines, PluginDescriptor.class ).withPath( plugin );
+      result.layer = batch.Base( ).layer( id ).orElse( null );
+      result.removed.addAll( batch.Base( ).versions( id ) );
+      result.removed.forEach( batch::uninstall );
+      return result;
+    } );
 
-    } catch( URISyntaxException ex ) {
-      throw new IOException( "Unable to open the plugin file", ex );
+    List< PluginDescriptor > removed = removal.removed;
+    if( !removal.dependents.isEmpty( ) ) {
+      PluginRegistry.Snapshot snapshot = this.registry.Snapshot( );
+      throw new PluginInUseException( snapshot.active( id ).map( PluginDescriptor::Name ).orElse( id.toString( ) ),
+          removal.dependents.stream( ).map( dependent -> snapshot.active( dependent ).map( PluginDescriptor::Name ).orElse( dependent.toString( ) ) ).toList( ) );
+    }
+    if( removed.isEmpty( ) ) {
+      throw new IllegalArgumentException( "The plugin %s is not installed".formatted( id ) );
     }
 
-    // Check of plugin already exists...
-    if( this.plugins.containsKey( pluginDescritor.Id( ) ) ) {
-      throw new DuplicatedPluginException( pluginDescritor.Name( ) );
+    this.extensionIndexes.invalidateAll( removed );
+    this.saveCaches( );
+    this.publishPluginSet( );
+    this.releaseJars( removed );
+    this.resources.release( id );
+    removed.forEach( BarbaraEventBus.getCurrentEventBus( )::unsubscribeAll );
+    LOGGER.info( "Removed the plugin {} with the versions {}", removed.get( 0 ).Name( ), removed.stream( ).map( PluginDescriptor::Version ).toList( ) );
+
+    PluginLayer layer = removal.layer;
+    removal.layer = null;
+    if( layer == null ) {
+      return PluginUnloadReport.of( removed.get( 0 ), true, Duration.ZERO, List.of( ), null );
+    }
+    CompletableFuture< PluginUnloadReport > unload = this.unload( layer );
+    // The layer must not be reachable from this frame while waiting for it to be collected.
+    layer = null;
+    try {
+      return unload.get( );
+    } catch( ExecutionException ex ) {
+      throw new IllegalStateException( "Unable to check if the plugin %s was collected".formatted( removed.get( 0 ).Name( ) ), ex.getCause( ) );
     }
 
-    // Check of all the dependencies are present...
-    for( PluginDependency dependency : pluginDescritor.Dependencies( ) ) {
+  }
 
-      if( dependency.Id( ).equals( pluginDescritor.Id( ) ) ) {
-        throw new InvalidDependencyException( "A plugin cannot have a dependency on itself" );
-      } else if( this.plugins.containsKey( dependency.Id( ) ) ) {
-        var existingPlugin = this.plugins.get( dependency.Id( ) );
-        if( !existingPlugin.SemverVersion( ).satisfies( dependency.Version( ) ) ) {
-          throw new InvalidDependencyException( "Unable to satisfy the dependency on %s of the plugin %s - Version mismatch".formatted(
-              existingPlugin.Name( ), pluginDescritor.Name( ) ) );
+  /**
+   * Starts watching the given plugin directory, reloading the plugins whose files change.
+   *
+   * @param directory The plugin directory.
+   * @param debounce How long the directory must be quiet before the changed plugins are reloaded.
+   * @param listener Receives the report of each reload.
+   * @return The started watcher, it must be closed to stop watching.
+   *
+   * @throws IOException If the directory cannot be watched.
+   */
+  public @NotNull PluginDirectoryWatcher watch( Path directory, Duration debounce, Consumer< PluginLoadReport > listener ) throws IOException {
+
+    PluginDirectoryWatcher watcher = new PluginDirectoryWatcher( this, directory, debounce, listener );
+    watcher.start( );
+    return watcher;
+
+  }
+
+  /**
+   * Returns the paths of every installed plugin.
+   */
+  public @NotNull Set< Path > installedPaths( ) {
+
+    return this.registry.Snapshot( ).Installed( ).stream( ).map( descriptor -> descriptor.Path( ).toAbsolutePath( ).normalize( ) ).collect( Collectors.toUnmodifiableSet( ) );
+
+  }
+
+  /**
+   * Installs the given plugins, resolves them together with every installed plugin, and registers the selected ones in
+   * dependency order. The versions of the active plugins are kept, since their layers may already be in use.
+   *
+   * @param descriptors The descriptors of the plugins to install.
+   * @param problems The list where to add the problems found.
+   * @return The plugins that were registered, in registration order.
+   */
+  private @NotNull List< PluginDescriptor > register( List< PluginDescriptor > descriptors, List< Problem > problems ) {
+
+    Registration registration = this.update( ( batch, jars ) -> {
+      Registration result = new Registration( );
+      this.register( batch, descriptors, Collections.emptySet( ), jars, result );
+      return result;
+    } );
+    problems.addAll( registration.problems );
+    return registration.registered;
+
+  }
+
+  /**
+   * Applies the given registrations to the registry, extracting the jars of the plugins they select between attempts.
+   *
+   * Extracting jars is slow and writes to the jar store, so it is never done inside a batch: when a batch selects
+   * plugins whose jars were not extracted yet, it is discarded, the jars are extracted, and the batch is applied again
+   * on the current snapshot. The jars extracted by an attempt are kept for the next ones, so each plugin is extracted
+   * at most once, however many times the batch is applied.
+   *
+   * @param changes The function that applies the registrations to a batch, with the jars extracted so far.
+   * @return The registration of the published batch.
+   */
+  private @NotNull Registration update( BiFunction< PluginRegistry.Batch, ExtractedJars, Registration > changes ) {
+
+    ExtractedJars jars = new ExtractedJars( );
+    while( true ) {
+      Registration registration = this.registry.update( batch -> {
+        Registration result = changes.apply( batch, jars );
+        if( !result.unextracted.isEmpty( ) ) {
+          batch.discard( );
         }
+        return result;
+      } );
+      if( registration.unextracted.isEmpty( ) ) {
+        return registration;
+      }
+      jars.paths.putAll( this.jarStore.extractAll( registration.unextracted, jars.failures ) );
+    }
+
+  }
+
+  /**
+   * Installs the given plugins in the given batch, and registers the selected ones, also reporting the resolution
+   * problems of the given plugins that are already installed.
+   *
+   * The batch is applied again if another writer publishes a snapshot first, so this only changes the batch and the
+   * given registration. The plugins that would be registered, but whose jars are not among the given extracted jars, are
+   * added to the unextracted plugins of the registration instead.
+   */
+  private void register( PluginRegistry.Batch batch, List< PluginDescriptor > descriptors, Set< UUID > reported, ExtractedJars jars, Registration registration ) {
+
+    List< Problem > problems = registration.problems;
+
+    // Discard the versions that are already installed or repeated.
+    List< PluginDescriptor > accepted = new ArrayList<>( );
+    for( PluginDescriptor descriptor : descriptors ) {
+      if( batch.isInstalled( descriptor ) || accepted.stream( ).anyMatch( other -> PluginRegistry.isSameVersion( descriptor, other ) ) ) {
+        problems.add( Problem.of( ProblemKind.DUPLICATED, descriptor.Path( ), descriptor.Id( ),
+            "The version %s of the plugin %s is already in the plugin list".formatted( descriptor.Version( ), descriptor.Name( ) ) ) );
       } else {
-        throw new InvalidDependencyException( "Unable to satisfy the dependency on %s of the plugin %s - Non-existing plugin".formatted(
-            dependency.Id( ).toString( ), pluginDescritor.Name( ) ) );
+        accepted.add( descriptor );
+      }
+    }
+    accepted.forEach( batch::install );
+
+    // Select a version of each plugin, the active plugins are pinned to their current version.
+    Map< UUID, PluginDescriptor > active = batch.Active( );
+    List< PluginDescriptor > candidates = batch.Installed( ).stream( )
+        .filter( descriptor -> !active.containsKey( descriptor.Id( ) ) || active.get( descriptor.Id( ) ) == descriptor )
+        .toList( );
+    PluginResolution resolution = this.resolver.resolve( candidates );
+    Set< UUID > batchIds = accepted.stream( ).map( PluginDescriptor::Id ).collect( Collectors.toCollection( HashSet::new ) );
+    batchIds.addAll( reported );
+    resolution.Problems( ).stream( ).filter( problem -> batchIds.contains( problem.Id( ) ) ).forEach( problems::add );
+
+    // Build the dependency graph between the newly selected plugins.
+    Map< UUID, PluginDescriptor > selected = new LinkedHashMap<>( );
+    resolution.Selected( ).forEach( ( id, descriptor ) -> {
+      if( !active.containsKey( id ) ) {
+        selected.put( id, descriptor );
+      }
+    } );
+    Set< UUID > rejected = new HashSet<>( );
+    Map< UUID, List< UUID > > dependencies = new HashMap<>( );
+    Map< UUID, List< UUID > > dependents = new HashMap<>( );
+    for( PluginDescriptor descriptor : selected.values( ) ) {
+      dependencies.put( descriptor.Id( ), new ArrayList<>( ) );
+      dependents.putIfAbsent( descriptor.Id( ), new ArrayList<>( ) );
+      for( PluginDependency dependency : descriptor.Dependencies( ) ) {
+        if( selected.containsKey( dependency.Id( ) ) ) {
+          dependencies.get( descriptor.Id( ) ).add( dependency.Id( ) );
+          dependents.computeIfAbsent( dependency.Id( ), key -> new ArrayList<>( ) ).add( descriptor.Id( ) );
+        }
+      }
+    }
+
+    // Sort the graph topologically, anything left over is part of, or depends on, a cycle.
+    List< UUID > order = BarbaraPluginManager.sortTopologically( selected.keySet( ), dependencies, dependents );
+    if( order.size( ) < selected.size( ) ) {
+      Set< UUID > unsorted = new HashSet<>( selected.keySet( ) );
+      order.forEach( unsorted::remove );
+      for( List< UUID > cycle : BarbaraPluginManager.findCycles( unsorted, dependencies ) ) {
+        List< String > names = cycle.stream( ).map( id -> selected.get( id ).Name( ) ).toList( );
+        for( UUID id : cycle ) {
+          problems.add( Problem.of( ProblemKind.CYCLIC_DEPENDENCY, selected.get( id ).Path( ), id,
+              "The plugin %s is part of the dependency cycle %s".formatted( selected.get( id ).Name( ), names ) ) );
+          rejected.add( id );
+        }
+      }
+      // The remaining ones only depend on a cycle, so they are handled below like any other rejected dependency.
+      order = BarbaraPluginManager.sortTopologically( selected.keySet( ), dependencies, dependents, rejected );
+    }
+
+    // The jars of every plugin that can still be registered must be extracted first, outside of the batch.
+    order.stream( ).filter( id -> !rejected.contains( id ) ).map( selected::get )
+        .filter( descriptor -> !jars.paths.containsKey( descriptor ) && !jars.failures.containsKey( descriptor ) )
+        .forEach( registration.unextracted::add );
+    if( !registration.unextracted.isEmpty( ) ) {
+      return;
+    }
+
+    // Register every plugin whose dependencies were all accepted, in dependency order.
+    for( UUID id : order ) {
+      PluginDescriptor descriptor = selected.get( id );
+      if( rejected.contains( id ) ) {
+        continue;
+      }
+      var rejectedDependency = dependencies.get( id ).stream( ).filter( rejected::contains ).findFirst( );
+      if( rejectedDependency.isPresent( ) ) {
+        problems.add( Problem.of( ProblemKind.REJECTED_DEPENDENCY, descriptor.Path( ), id,
+            "Unable to satisfy the dependency on %s of the plugin %s - Rejected plugin".formatted( selected.get( rejectedDependency.get( ) ).Name( ),
+                descriptor.Name( ) ) ) );
+        rejected.add( id );
+        continue;
+      }
+
+      PluginLayer layer;
+      try {
+        if( jars.failures.containsKey( descriptor ) ) {
+          throw jars.failures.get( descriptor );
+        }
+        layer = this.resolveLayer( batch, descriptor, jars.paths.get( descriptor ) );
+      } catch( IOException | FindException | ResolutionException ex ) {
+        problems.add( Problem.of( ProblemKind.UNRESOLVABLE_MODULES, descriptor.Path( ), id,
+            "Unable to resolve the modules of the plugin %s - %s".formatted( descriptor.Name( ), ex.getMessage( ) ) ) );
+        rejected.add( id );
+        continue;
       }
 
+      batch.activate( descriptor, layer );
+      registration.registered.add( descriptor );
     }
 
-    // Add the plugin to the list of known installed plugins.
-    this.plugins.putIfAbsent( pluginDescritor.Id( ), pluginDescritor );
+  }
+
+  /**
+   * Adds a listener that is called, on the thread that made the change, every time the set of active plugins changes.
+   *
+   * @param listener Receives the snapshot with the new set of active plugins.
+   */
+  public void addPluginSetListener( Consumer< PluginRegistry.Snapshot > listener ) {
+
+    this.pluginSetListeners.add( Objects.requireNonNull( listener ) );
+
+  }
+
+  /**
+   * Removes a listener added with {@link #addPluginSetListener(Consumer)}.
+   */
+  public void removePluginSetListener( Consumer< PluginRegistry.Snapshot > listener ) {
+
+    this.pluginSetListeners.remove( listener );
+
+  }
+
+  /**
+   * Returns the current snapshot of the installed and active plugins, without locking.
+   */
+  public @NotNull PluginRegistry.Snapshot Snapshot( ) {
+
+    return this.registry.Snapshot( );
+
+  }
+
+  /**
+   * Returns every installed version of the given plugin, from the highest to the lowest.
+   *
+   * @param id The id of the plugin.
+   * @return The installed versions, including the active one.
+   */
+  public @NotNull List< PluginDescriptor > installedVersions( UUID id ) {
+
+    return this.registry.Snapshot( ).versions( Objects.requireNonNull( id ) );
+
+  }
+
+  /**
+   * Returns the active version of the given plugin.
+   *
+   * @param id The id of the plugin.
+   * @return The active version, or empty if no version of the plugin is active.
+   */
+  public @NotNull Optional< PluginDescriptor > activeVersion( UUID id ) {
+
+    return this.registry.Snapshot( ).active( Objects.requireNonNull( id ) );
+
+  }
+
+  /**
+   * Resolves every installed plugin again, without activating anything.
+   *
+   * @return The resolution, it is cached until the installed plugins change.
+   */
+  public @NotNull PluginResolution resolve( ) {
+
+    return this.resolver.resolve( this.registry.Snapshot( ).Installed( ) );
+
+  }
+
+
+  /**
+   * Returns the module layer of the given plugin, its {@link ModuleLayer} is only created when first requested.
+   *
+   * @param id The id of the plugin.
+   * @return The layer of the plugin, or empty if the plugin is not installed.
+   */
+  public @NotNull Optional< PluginLayer > layerOf( UUID id ) {
+
+    return this.registry.Snapshot( ).layer( Objects.requireNonNull( id ) );
+
+  }
+
+  /**
+   * Returns the service loader of the given service for the given plugin, creating the plugin module layer, and the
+   * layers of its dependencies, the first time it is called.
+   *
+   * @param id The id of the plugin.
+   * @param service The service interface, the application module must declare that it uses it.
+   * @return The service loader, or empty if the plugin is not installed.
+   */
+  public < S > @NotNull Optional< ServiceLoader< S > > services( UUID id, Class< S > service ) {
+
+    return this.layerOf( id ).map( layer -> layer.services( service ) );
+
+  }
+
+  /**
+   * Returns the extension index of the given plugin, read from the plugin zip file without loading any class.
+   *
+   * @param id The id of the plugin.
+   * @return The extension index, that is empty if the plugin does not have one, or empty if the plugin is not active.
+   */
+  public @NotNull Optional< ExtensionIndex > extensionIndex( UUID id ) {
+
+    return this.activeVersion( id ).map( this::extensionIndexOf );
+
+  }
+
+  /**
+   * Returns the extensions of the given extension point provided by every active plugin, from the highest to the lowest
+   * priority, the extensions are only loaded when they are chosen.
+   *
+   * @param service The extension point, the application module must declare that it uses it.
+   * @return The extensions.
+   */
+  public < S > @NotNull List< PluginExtension< S > > extensions( Class< S > service ) {
+
+    List< PluginExtension< S > > result = new ArrayList<>( );
+    for( PluginDescriptor descriptor : this.registry.Snapshot( ).Active( ).values( ) ) {
+      for( ExtensionIndex.Entry entry : this.extensionIndexOf( descriptor ).entries( service.getName( ) ) ) {
+        result.add( PluginExtension.of( descriptor, service, entry, id -> this.registry.Snapshot( ).layer( id ).orElse( null ) ) );
+      }
+    }
+    result.sort( Comparator.comparingInt( PluginExtension< S >::Priority ).reversed( ) );
+    return result;
+
+  }
+
+  /**
+   * Returns the executor of the given plugin, the same one its entry classes get through their
+   * {@link cc.chordflower.desktop.barbara.spi.PluginContext}.
+   *
+   * @param id The id of the plugin.
+   * @return The executor of the plugin, or empty if the plugin is not active.
+   */
+  public @NotNull Optional< PluginBulkhead > executorOf( UUID id ) {
+
+    return this.activeVersion( id ).map( this.resources::bulkhead );
+
+  }
+
+  /**
+   * Returns the leak detector that checks that the class loaders of the unloaded plugins are collected.
+   */
+  public @NotNull PluginLeakDetector LeakDetector( ) {
+
+    return this.leakDetector;
+
+  }
+
+  /**
+   * Returns the statistics of the plugin descriptor cache.
+   */
+  public PluginDescriptorCache.@NotNull Statistics DescriptorCacheStatistics( ) {
+
+    return this.descriptorCache.Statistics( );
+
+  }
+
+  /**
+   * Returns the integrity verifier of the plugins, where the integrity manifest can be made mandatory.
+   */
+  public @NotNull PluginIntegrity Integrity( ) {
+
+    return this.integrity;
+
+  }
+
+  /**
+   * Returns the statistics of the plugin integrity verifier.
+   */
+  public PluginIntegrity.@NotNull Statistics IntegrityStatistics( ) {
+
+    return this.integrity.Statistics( );
+
+  }
+
+  /**
+   * Returns the resource accounting of the plugins, that also owns their executors.
+   */
+  public @NotNull PluginResourceAccounting ResourceAccounting( ) {
+
+    return this.resources;
+
+  }
+
+  /**
+   * Returns the statistics of the plugin jar store.
+   */
+  public PluginJarStore.@NotNull Statistics JarStoreStatistics( ) {
+
+    return this.jarStore.Statistics( );
+
+  }
+
+  private @NotNull CompletableFuture< PluginUnloadReport > unload( PluginLayer layer ) {
+
+    return this.leakDetector.watch( layer );
+
+  }
+
+  /**
+   * Calls the plugin set listeners, if the active plugins changed since they were last called.
+   */
+  private void publishPluginSet( ) {
+
+    PluginRegistry.Snapshot snapshot = this.registry.Snapshot( );
+    Map< UUID, PluginDescriptor > previous = this.publishedPluginSet.get( );
+    if( previous.equals( snapshot.Active( ) ) || !this.publishedPluginSet.compareAndSet( previous, snapshot.Active( ) ) ) {
+      return;
+    }
+    for( Consumer< PluginRegistry.Snapshot > listener : this.pluginSetListeners ) {
+      try {
+        listener.accept( snapshot );
+      } catch( RuntimeException ex ) {
+        LOGGER.warn( "A plugin set listener failed", ex );
+      }
+    }
+
+  }
+
+  /**
+   * Deletes the jar links of the given plugins that are no longer installed, and then the stored jars that are no longer
+   * linked from any plugin.
+   */
+  private void releaseJars( Collection< PluginDescriptor > removed ) {
+
+    PluginRegistry.Snapshot snapshot = this.registry.Snapshot( );
+    for( PluginDescriptor descriptor : removed ) {
+      if( snapshot.isInstalled( descriptor ) ) {
+        continue;
+      }
+      try {
+        this.jarStore.remove( descriptor );
+      } catch( IOException ex ) {
+        LOGGER.warn( "Unable to delete the jars of the plugin {} {}", descriptor.Name( ), descriptor.Version( ), ex );
+      }
+    }
+    try {
+      int pruned = this.jarStore.prune( );
+      LOGGER.debug( "Pruned {} jars from the plugin jar store", pruned );
+    } catch( IOException ex ) {
+      LOGGER.warn( "Unable to prune the plugin jar store", ex );
+    }
+
+  }
+
+  private void saveCaches( ) {
+
+    try {
+      this.descriptorCache.save( );
+    } catch( IOException ex ) {
+      LOGGER.warn( "Unable to save the plugin descriptor cache", ex );
+    }
+    try {
+      this.integrity.save( );
+    } catch( IOException ex ) {
+      LOGGER.warn( "Unable to save the plugin integrity cache", ex );
+    }
+    try {
+      this.jarStore.save( );
+    } catch( IOException ex ) {
+      LOGGER.warn( "Unable to save the plugin jar store index", ex );
+    }
+    LOGGER.debug( "Plugin descriptor cache statistics: {}", this.descriptorCache.Statistics( ) );
+    LOGGER.debug( "Plugin integrity statistics: {}", this.integrity.Statistics( ) );
+    LOGGER.debug( "Plugin metadata interner statistics: {}", PluginMetadataInterner.Statistics( ) );
+
+  }
+
+  /**
+   * Resolves the module configuration of the given plugin on top of the configurations of its dependencies, that must
+   * already be registered.
+   */
+  private @NotNull PluginLayer resolveLayer( PluginRegistry.Batch batch, PluginDescriptor descriptor, List< Path > modulePath ) {
+
+    List< PluginLayer > parents = new ArrayList<>( );
+    for( PluginDependency dependency : descriptor.Dependencies( ) ) {
+      batch.layer( dependency.Id( ) ).filter( parent -> !parents.contains( parent ) ).ifPresent( parents::add );
+    }
+    return PluginLayer.resolve( descriptor, parents, modulePath );
+
+  }
+
+  /**
+   * Parses and validates the descriptors of the given plugins in parallel, on a bounded executor.
+   *
+   * @param paths The paths of the plugins.
+   * @param problems The list where to add the plugins that could not be read, or whose descriptors are not valid.
+   * @return The parsed descriptors, in the same order as the given paths.
+   */
+  private @NotNull List< PluginDescriptor > readDescriptors( List< Path > paths, List< Problem > problems ) throws InterruptedException {
+
+    if( paths.isEmpty( ) ) {
+      return Collections.emptyList( );
+    }
+
+    int threads = Math.max( 1, Math.min( Runtime.getRuntime( ).availableProcessors( ), paths.size( ) ) );
+    ExecutorService executor = Executors.newFixedThreadPool( threads, new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-plugin-discovery-%d" )
+        .daemon( true )
+        .build( ) );
+
+    try {
+      List< Future< PluginDescriptor > > futures = new ArrayList<>( paths.size( ) );
+      for( Path path : paths ) {
+        futures.add( executor.submit( ( ) -> this.readDescriptor( path ) ) );
+      }
+
+      List< PluginDescriptor > descriptors = new ArrayList<>( paths.size( ) );
+      for( int index = 0; index < futures.size( ); index++ ) {
+        try {
+          descriptors.add( futures.get( index ).get( ) );
+        } catch( ExecutionException ex ) {
+          ProblemKind kind;
+          if( ex.getCause( ) instanceof InvalidPluginDescriptorException ) {
+            kind = ProblemKind.INVALID_DESCRIPTOR;
+          } else if( ex.getCause( ) instanceof PluginIntegrityException ) {
+            kind = ProblemKind.CORRUPTED;
+          } else {
+            kind = ProblemKind.UNREADABLE;
+          }
+          problems.add( Problem.of( kind, paths.get( index ), null, String.valueOf( ex.getCause( ).getMessage( ) ) ) );
+        }
+      }
+      return descriptors;
+    } finally {
+      executor.shutdownNow( );
+    }
+
+  }
+
+  private @NotNull ExtensionIndex extensionIndexOf( PluginDescriptor descriptor ) {
+
+    return this.extensionIndexes.get( descriptor, key -> {
+      try( PluginArchive archive = PluginArchive.open( key.Path( ) ) ) {
+        var entry = archive.entry( ExtensionIndex.FILE_NAME );
+        if( entry.isEmpty( ) ) {
+          return ExtensionIndex.empty( );
+        }
+        try( InputStream input = archive.open( entry.get( ) ) ) {
+          return ExtensionIndex.readFrom( input );
+        }
+      } catch( IOException ex ) {
+        LOGGER.warn( "Unable to read the extension index of the plugin {}", key.Name( ), ex );
+        return ExtensionIndex.empty( );
+      }
+    } );
+
+  }
+
+  /**
+   * Returns the descriptor of the given plugin, from the descriptor cache if the plugin did not change, or by parsing
+   * the plugin descriptor otherwise, after verifying the plugin jars against its integrity manifest.
+   *
+   * @param plugin The path of the plugin.
+   * @return The plugin descriptor.
+   *
+   * @throws IOException If the file is not a plugin, or the plugin descriptor cannot be read.
+   * @throws InvalidPluginDescriptorException If the plugin descriptor is not valid.
+   * @throws PluginIntegrityException If the plugin jars do not match the integrity manifest.
+   */
+  private @NotNull PluginDescriptor readDescriptor( Path plugin ) throws IOException {
+
+    // Check if the path represents a existing file that ends with the zip extension, ie. is a zip file.
+    if( !Files.isRegularFile( Objects.requireNonNull( plugin ) ) || !plugin.getFileName( ).toString( ).endsWith( ".zip" ) ) {
+      throw new IOException( "Unable to use the given plugin file" );
+    }
+
+    // Both caches are checked against the same attributes, so an unchanged plugin costs a single stat.
+    BasicFileAttributes attributes = Files.readAttributes( plugin, BasicFileAttributes.class );
+    var cached = this.descriptorCache.get( plugin, attributes );
+    PluginDescriptor descriptor;
+    if( cached.isPresent( ) ) {
+      descriptor = cached.get( );
+    } else {
+      descriptor = this.parseDescriptor( plugin );
+      this.descriptorCache.put( descriptor );
+    }
+    this.integrity.verify( descriptor, attributes );
+    return descriptor;
+
+  }
+
+  /**
+   * Opens the given plugin zip file, and tries to parse the plugin descriptor (in plugin.json on the root of the zip),
+   * reading the jar entries from the same central directory.
+   *
+   * The descriptor is streamed from the zip entry straight into the final plugin descriptor, by a strict reader that only
+   * accepts what the plugin schema accepts, and is then checked against its constraints, so an invalid plugin is rejected
+   * before its jars are walked. Only when the reader rejects the descriptor, is it parsed again into a tree, so that the
+   * schema can explain what is wrong with it.
+   */
+  private @NotNull PluginDescriptor parseDescriptor( Path plugin ) throws IOException {
+
+    try( PluginArchive archive = PluginArchive.open( plugin ) ) {
+
+      var entry = archive.entry( "plugin.json" ).orElseThrow( ( ) -> new IOException( "Unable to open the plugin.json file" ) );
+
+      PluginDescriptor parsed;
+      try( JsonReader reader = new JsonReader( new InputStreamReader( archive.open( entry ), StandardCharsets.UTF_8 ) ) ) {
+        parsed = this.descriptorAdapter.read( reader, plugin, PluginDescriptor.jarEntriesOf( archive ) );
+      } catch( JsonParseException ex ) {
+        throw this.explainDescriptor( plugin, archive, entry, ex );
+      } catch( EOFException | MalformedJsonException ex ) {
+        throw new IOException( "Unable to parse the plugin.json file", ex );
+      }
+
+      List< String > violations = this.validator.validate( parsed );
+      if( !violations.isEmpty( ) ) {
+        throw new InvalidPluginDescriptorException( plugin, violations );
+      }
+      return parsed;
+
+    }
+
+  }
+
+  /**
+   * Parses the given rejected descriptor into a tree, and validates it against the plugin schema, to find out why it was
+   * rejected.
+   */
+  private @NotNull IOException explainDescriptor( Path plugin, PluginArchive archive, PluginArchive.Entry entry, JsonParseException cause ) {
+
+    try( Reader reader = new InputStreamReader( archive.open( entry ), StandardCharsets.UTF_8 ) ) {
+      JsonElement document = new JsonParser( ).parse( reader );
+      List< String > violations = this.validator.validate( document );
+      return new InvalidPluginDescriptorException( plugin, violations.isEmpty( ) ? List.of( cause.getMessage( ) ) : violations );
+    } catch( IOException | JsonParseException ex ) {
+      cause.addSuppressed( ex );
+      return new IOException( "Unable to parse the plugin.json file", cause );
+    }
+
+  }
+
+  /**
+   * Sorts the given plugins topologically (Kahn's algorithm), so that every plugin comes after its dependencies.
+   *
+   * @return The sorted plugins, the ones that are part of or depend on a cycle are left out.
+   */
+  private static @NotNull List< UUID > sortTopologically( Collection< UUID > nodes, Map< UUID, List< UUID > > dependencies, Map< UUID, List< UUID > > dependents ) {
+
+    return BarbaraPluginManager.sortTopologically( nodes, dependencies, dependents, Collections.emptySet( ) );
+
+  }
+
+  /**
+   * Sorts the given plugins topologically (Kahn's algorithm), ignoring the edges that point to the given ignored plugins.
+   */
+  private static @NotNull List< UUID > sortTopologically( Collection< UUID > nodes, Map< UUID, List< UUID > > dependencies, Map< UUID, List< UUID > > dependents,
+      Set< UUID > ignored ) {
+
+    Map< UUID, Integer > pending = new HashMap<>( );
+    Deque< UUID > ready = new ArrayDeque<>( );
+    for( UUID node : nodes ) {
+      int count = ignored.contains( node ) ? 0 : ( int ) dependencies.get( node ).stream( ).filter( dependency -> !ignored.contains( dependency ) ).count( );
+      pending.put( node, count );
+      if( count == 0 ) {
+        ready.add( node );
+      }
+    }
+
+    List< UUID > order = new ArrayList<>( nodes.size( ) );
+    while( !ready.isEmpty( ) ) {
+      UUID node = ready.poll( );
+      order.add( node );
+      if( ignored.contains( node ) ) {
+        continue;
+      }
+      for( UUID dependent : dependents.getOrDefault( node, Collections.emptyList( ) ) ) {
+        if( pending.merge( dependent, -1, Integer::sum ) == 0 ) {
+          ready.add( dependent );
+        }
+      }
+    }
+    return order;
+
+  }
+
+  /**
+   * Finds the dependency cycles among the given plugins, using Tarjan's strongly connected components algorithm.
+   *
+   * @return Every strongly connected component with more than one plugin.
+   */
+  private static @NotNull List< List< UUID > > findCycles( Set< UUID > nodes, Map< UUID, List< UUID > > dependencies ) {
+
+    Map< UUID, Integer > index = new HashMap<>( );
+    Map< UUID, Integer > lowLink = new HashMap<>( );
+    Deque< UUID > stack = new ArrayDeque<>( );
+    Set< UUID > onStack = new HashSet<>( );
+    List< List< UUID > > cycles = new ArrayList<>( );
+
+    // The edges inside the given plugins are computed once, a frame only keeps the position of its next edge.
+    Map< UUID, List< UUID > > adjacency = new HashMap<>( );
+    for( UUID node : nodes ) {
+      adjacency.put( node, dependencies.get( node ).stream( ).filter( nodes::contains ).toList( ) );
+    }
+
+    for( UUID root : nodes ) {
+      if( index.containsKey( root ) ) {
+        continue;
+      }
+
+      // Iterative version of the algorithm, since dependency chains can be long.
+      Deque< Map.Entry< UUID, Integer > > work = new ArrayDeque<>( );
+      work.push( Map.entry( root, 0 ) );
+      while( !work.isEmpty( ) ) {
+        var frame = work.pop( );
+        UUID node = frame.getKey( );
+        int edge = frame.getValue( );
+        if( edge == 0 ) {
+          index.put( node, index.size( ) );
+          lowLink.put( node, index.get( node ) );
+          stack.push( node );
+          onStack.add( node );
+        }
+
+        List< UUID > edges = adjacency.get( node );
+        if( edge < edges.size( ) ) {
+          UUID next = edges.get( edge );
+          work.push( Map.entry( node, edge + 1 ) );
+          if( !index.containsKey( next ) ) {
+            work.push( Map.entry( next, 0 ) );
+          } else if( onStack.contains( next ) ) {
+            lowLink.put( node, Math.min( lowLink.get( node ), index.get( next ) ) );
+          }
+          continue;
+        }
+
+        if( lowLink.get( node ).equals( index.get( node ) ) ) {
+          List< UUID > component = new ArrayList<>( );
+          UUID member;
+          do {
+            member = stack.pop( );
+            onStack.remove( member );
+            component.add( member );
+          } while( !member.equals( node ) );
+          if( component.size( ) > 1 ) {
+            cycles.add( component );
+          }
+        }
+        if( !work.isEmpty( ) ) {
+          UUID parent = work.peek( ).getKey( );
+          lowLink.put( parent, Math.min( lowLink.get( parent ), lowLink.get( node ) ) );
+        }
+      }
+    }
+    return cycles;
 
   }
 
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The result of activating the registered plugins, with the outcome and timing of each plugin, and the chain of
+ * plugins that gated the time until every plugin was ready.
+ *
+ * @author carddamom
+ */
+public final class PluginActivationReport {
+
+  /**
+   * The outcome of activating a plugin.
+   */
+  public enum Outcome {
+    /**
+     * Every entry class of the plugin was started.
+     */
+    ACTIVATED,
+    /**
+     * An entry class of the plugin could not be loaded or threw while starting.
+     */
+    FAILED,
+    /**
+     * The plugin took longer than the activation timeout, and was cancelled.
+     */
+    TIMED_OUT,
+    /**
+     * The activation was cancelled before the plugin finished starting.
+     */
+    CANCELLED,
+    /**
+     * The plugin was not started, because one of its dependencies was not activated.
+     */
+    SKIPPED
+  }
+
+  /**
+   * The activation of a single plugin, this is an immutable class aka a value class.
+   */
+  public static final class Activation {
+
+    private final PluginDescriptor descriptor;
+
+    private final Outcome outcome;
+
+    private final Duration started;
+
+    private final Duration latency;
+
+    private final UUID gatedBy;
+
+    private final Throwable error;
+
+    @Contract( pure = true )
+    private Activation( PluginDescriptor descriptor, Outcome outcome, Duration started, Duration latency, UUID gatedBy, Throwable error ) {
+
+      this.descriptor = descriptor;
+      this.outcome = outcome;
+      this.started = started;
+      this.latency = latency;
+      this.gatedBy = gatedBy;
+      this.error = error;
+
+    }
+
+    /**
+     * Creates a new plugin activation.
+     *
+     * @param descriptor The plugin.
+     * @param outcome The outcome of the activation.
+     * @param started When the plugin started activating, since the start of the whole activation.
+     * @param latency How long the plugin took to activate.
+     * @param gatedBy The dependency that was the last to be activated before this plugin could start, or null.
+     * @param error The reason why the plugin was not activated, or null.
+     * @return A new plugin activation.
+     */
+    @Contract( "_, _, _, _, _, _ -> new" )
+    public static @NotNull Activation of( PluginDescriptor descriptor, Outcome outcome, Duration started, Duration latency, UUID gatedBy, Throwable error ) {
+
+      return new Activation( descriptor, outcome, started, latency, gatedBy, error );
+
+    }
+
+    /**
+     * Returns the plugin.
+     */
+    @Contract( pure = true )
+    public PluginDescriptor Descriptor( ) {
+
+      return this.descriptor;
+
+    }
+
+    /**
+     * Returns the outcome of the activation.
+     */
+    @Contract( pure = true )
+    public Outcome Outcome( ) {
+
+      return this.outcome;
+
+    }
+
+    /**
+     * Returns when the plugin started activating, since the start of the whole activation.
+     */
+    @Contract( pure = true )
+    public Duration Started( ) {
+
+      return this.started;
+
+    }
+
+    /**
+     * Returns how long the plugin took to activate, or until it failed or was cancelled.
+     */
+    @Contract( pure = true )
+    public Duration Latency( ) {
+
+      return this.latency;
+
+    }
+
+    /**
+     * Returns when the plugin finished activating, since the start of the whole activation.
+     */
+    public Duration Finished( ) {
+
+      return this.started.plus( this.latency );
+
+    }
+
+    /**
+     * Returns the dependency that was the last to be activated before this plugin could start.
+     */
+    public @NotNull Optional< UUID > GatedBy( ) {
+
+      return Optional.ofNullable( this.gatedBy );
+
+    }
+
+    /**
+     * Returns the reason why the plugin was not activated.
+     */
+    public @NotNull Optional< Throwable > Error( ) {
+
+      return Optional.ofNullable( this.error );
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "plugin", this.descriptor.Name( ) ).append( "outcome", this.outcome )
+          .append( "started", this.started.toMillis( ) ).append( "latency", this.latency.toMillis( ) ).build( );
+
+    }
+
+  }
+
+  private final Map< UUID, Activation > activations;
+
+  private final Duration elapsed;
+
+  @Contract( pure = true )
+  private PluginActivationReport( Map< UUID, Activation > activations, Duration elapsed ) {
+
+    this.activations = activations;
+    this.elapsed = elapsed;
+
+  }
+
+  /**
+   * Creates a new plugin activation report.
+   *
+   * @param activations The activation of each plugin.
+   * @param elapsed How long the whole activation took.
+   * @return A new plugin activation report.
+   */
+  @Contract( "_, _ -> new" )
+  public static @NotNull PluginActivationReport of( List< Activation > activations, Duration elapsed ) {
+
+    Map< UUID, Activation > byId = new LinkedHashMap<>( );
+    activations.stream( ).sorted( Comparator.comparing( Activation::Started ) ).forEach( activation -> byId.put( activation.descriptor.Id( ), activation ) );
+    return new PluginActivationReport( byId, elapsed );
+
+  }
+
+  /**
+   * Returns the activation of each plugin, in the order they started.
+   */
+  public @NotNull @UnmodifiableView List< Activation > Activations( ) {
+
+    return List.copyOf( this.activations.values( ) );
+
+  }
+
+  /**
+   * Returns the activation of the given plugin.
+   */
+  public @NotNull Optional< Activation > activation( UUID id ) {
+
+    return Optional.ofNullable( this.activations.get( id ) );
+
+  }
+
+  /**
+   * Returns how long the whole activation took.
+   */
+  @Contract( pure = true )
+  public Duration Elapsed( ) {
+
+    return this.elapsed;
+
+  }
+
+  /**
+   * Returns true if every plugin was activated.
+   */
+  public boolean isSuccessful( ) {
+
+    return this.activations.values( ).stream( ).allMatch( activation -> activation.outcome == Outcome.ACTIVATED );
+
+  }
+
+  /**
+   * Returns the critical path, the chain of plugins that ends with the last plugin to finish, where each plugin could only
+   * start after the previous one. Making any other plugin faster does not make the whole activation faster.
+   *
+   * @return The plugins of the critical path, from the first to start to the last to finish.
+   */
+  public @NotNull List< Activation > CriticalPath( ) {
+
+    List< Activation > path = new ArrayList<>( );
+    Activation current = this.activations.values( ).stream( ).filter( activation -> activation.outcome != Outcome.SKIPPED )
+        .max( Comparator.comparing( Activation::Finished ) ).orElse( null );
+    while( current != null ) {
+      path.add( current );
+      current = current.gatedBy == null ? null : this.activations.get( current.gatedBy );
+    }
+    Collections.reverse( path );
+    return path;
+
+  }
+
+  @Override
+  public String toString( ) {
+
+    return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "elapsed", this.elapsed.toMillis( ) ).append( "activations", this.activations.values( ) )
+        .append( "criticalPath", this.CriticalPath( ).stream( ).map( activation -> activation.descriptor.Name( ) ).toList( ) ).build( );
+
+  }
+
+}
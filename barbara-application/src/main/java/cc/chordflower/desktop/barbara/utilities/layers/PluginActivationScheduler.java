@@ -0,0 +1,322 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import cc.chordflower.desktop.barbara.spi.PluginEntry;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginActivationReport.Activation;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginActivationReport.Outcome;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.ServiceConfigurationError;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Activates the registered plugins, starting their entry classes, in waves over the plugin dependency graph.
+ *
+ * Every plugin whose dependencies are already active is started at the same time on a bounded pool, and each plugin
+ * that finishes releases the dependents that were only waiting for it, so independent branches of the graph never wait
+ * for each other. A plugin that fails, or takes longer than the timeout, is cancelled and its dependents are skipped.
+ *
+ * @author carddamom
+ */
+public final class PluginActivationScheduler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( PluginActivationScheduler.class );
+
+  private final BarbaraPluginManager manager;
+
+  private final Duration timeout;
+
+  private final int parallelism;
+
+  private final ConcurrentMap< PluginDescriptor, List< PluginEntry > > started;
+
+  /**
+   * Creates a new plugin activation scheduler.
+   *
+   * @param manager The plugin manager whose active plugins are activated.
+   * @param timeout How long each plugin may take to start.
+   * @param parallelism How many plugins may be starting at the same time.
+   */
+  public PluginActivationScheduler( BarbaraPluginManager manager, Duration timeout, int parallelism ) {
+
+    this.manager = Objects.requireNonNull( manager );
+    this.timeout = Objects.requireNonNull( timeout );
+    if( parallelism < 1 ) {
+      throw new IllegalArgumentException( "The parallelism must be at least one" );
+    }
+    this.parallelism = parallelism;
+    this.started = new ConcurrentHashMap<>( );
+    this.manager.addPluginSetListener( this::stopInactive );
+
+  }
+
+  /**
+   * Creates a new plugin activation scheduler, that uses one thread per processor.
+   *
+   * @param manager The plugin manager whose active plugins are activated.
+   * @param timeout How long each plugin may take to start.
+   */
+  public PluginActivationScheduler( BarbaraPluginManager manager, Duration timeout ) {
+
+    this( manager, timeout, Runtime.getRuntime( ).availableProcessors( ) );
+
+  }
+
+  /**
+   * Activates every active plugin that was not activated yet, waiting until all of them are started, failed or were
+   * cancelled.
+   *
+   * @return The outcome and timing of each plugin, and the critical path.
+   *
+   * @throws InterruptedException If the thread is interrupted, every plugin that is still starting is cancelled.
+   */
+  public @NotNull PluginActivationReport activate( ) throws InterruptedException {
+
+    PluginRegistry.Snapshot snapshot = this.manager.Snapshot( );
+    Map< UUID, PluginDescriptor > pending = new LinkedHashMap<>( );
+    snapshot.Active( ).values( ).stream( ).filter( descriptor -> !this.started.containsKey( descriptor ) ).forEach( descriptor -> pending.put( descriptor.Id( ), descriptor ) );
+    Map< UUID, List< PluginExtension< PluginEntry > > > entries = this.manager.extensions( PluginEntry.class ).stream( )
+        .filter( extension -> pending.get( extension.Plugin( ).Id( ) ) == extension.Plugin( ) )
+        .collect( Collectors.groupingBy( extension -> extension.Plugin( ).Id( ) ) );
+
+    // The number of dependencies that each plugin is still waiting for.
+    Map< UUID, Integer > waiting = new HashMap<>( );
+    for( PluginDescriptor descriptor : pending.values( ) ) {
+      waiting.put( descriptor.Id( ), ( int ) descriptor.Dependencies( ).stream( ).map( PluginDependency::Id ).distinct( ).filter( pending::containsKey ).count( ) );
+    }
+
+    long begin = System.nanoTime( );
+    List< Activation > activations = new ArrayList<>( );
+    if( pending.isEmpty( ) ) {
+      return PluginActivationReport.of( activations, Duration.ZERO );
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool( Math.min( this.parallelism, pending.size( ) ), new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-plugin-activator-%d" )
+        .daemon( true )
+        .build( ) );
+    CompletionService< UUID > completion = new ExecutorCompletionService<>( executor );
+    Map< Future< UUID >, UUID > running = new HashMap<>( );
+    Map< UUID, Long > startedAt = new ConcurrentHashMap<>( );
+    Map< UUID, Long > finishedAt = new ConcurrentHashMap<>( );
+    Map< UUID, UUID > gatedBy = new HashMap<>( );
+    List< UUID > timedOut = new ArrayList<>( );
+
+    try {
+      for( var entry : waiting.entrySet( ) ) {
+        if( entry.getValue( ) == 0 ) {
+          UUID id = entry.getKey( );
+          running.put( completion.submit( ( ) -> this.start( pending.get( id ), entries.getOrDefault( id, List.of( ) ), startedAt, finishedAt ) ), id );
+        }
+      }
+
+      while( !running.isEmpty( ) ) {
+        Future< UUID > future = completion.poll( this.nextDeadline( running.values( ), startedAt ), TimeUnit.NANOSECONDS );
+        if( future == null ) {
+          this.cancelExpired( running, startedAt, timedOut );
+          continue;
+        }
+
+        UUID id = running.remove( future );
+        PluginDescriptor descriptor = pending.get( id );
+        long start = startedAt.getOrDefault( id, begin );
+        long end = finishedAt.getOrDefault( id, System.nanoTime( ) );
+        Outcome outcome;
+        Throwable error = null;
+        try {
+          future.get( );
+          outcome = Outcome.ACTIVATED;
+        } catch( CancellationException ex ) {
+          outcome = timedOut.contains( id ) ? Outcome.TIMED_OUT : Outcome.CANCELLED;
+        } catch( ExecutionException ex ) {
+          outcome = Outcome.FAILED;
+          error = ex.getCause( );
+        }
+        activations.add( Activation.of( descriptor, outcome, Duration.ofNanos( start - begin ), Duration.ofNanos( end - start ), gatedBy.get( id ), error ) );
+
+        if( outcome == Outcome.ACTIVATED ) {
+          for( UUID dependent : snapshot.dependents( id ) ) {
+            if( waiting.containsKey( dependent ) && waiting.merge( dependent, -1, Integer::sum ) == 0 ) {
+              gatedBy.put( dependent, id );
+              running.put( completion.submit( ( ) -> this.start( pending.get( dependent ), entries.getOrDefault( dependent, List.of( ) ), startedAt, finishedAt ) ),
+                  dependent );
+            }
+          }
+        } else {
+          LOGGER.warn( "The plugin {} was not activated: {}", descriptor.Name( ), outcome, error );
+          this.skipDependents( snapshot, id, pending, waiting, activations, Duration.ofNanos( System.nanoTime( ) - begin ) );
+        }
+      }
+    } catch( InterruptedException ex ) {
+      running.keySet( ).forEach( future -> future.cancel( true ) );
+      throw ex;
+    } finally {
+      executor.shutdownNow( );
+    }
+
+    PluginActivationReport report = PluginActivationReport.of( activations, Duration.ofNanos( System.nanoTime( ) - begin ) );
+    LOGGER.info( "Activated {} of {} plugins in {} ms, critical path: {}", report.Activations( ).stream( ).filter( activation -> activation.Outcome( ) == Outcome.ACTIVATED ).count( ),
+        pending.size( ), report.Elapsed( ).toMillis( ), report.CriticalPath( ).stream( )
+            .map( activation -> "%s (%d ms)".formatted( activation.Descriptor( ).Name( ), activation.Latency( ).toMillis( ) ) ).toList( ) );
+    return report;
+
+  }
+
+  /**
+   * Returns the entry classes that were started for the given plugin version.
+   */
+  public @NotNull List< PluginEntry > entries( PluginDescriptor descriptor ) {
+
+    return this.started.getOrDefault( descriptor, List.of( ) );
+
+  }
+
+  /**
+   * Starts the entry classes of the given plugin, stopping the ones already started if another one fails, or the
+   * activation is cancelled. The work done by the entry classes is charged to the plugin, and each of them gets the
+   * context of the plugin, with its executor.
+   */
+  private UUID start( PluginDescriptor descriptor, List< PluginExtension< PluginEntry > > extensions, Map< UUID, Long > startedAt, Map< UUID, Long > finishedAt ) {
+
+    startedAt.put( descriptor.Id( ), System.nanoTime( ) );
+    List< PluginEntry > entries = new ArrayList<>( );
+    BarbaraPluginContext context = BarbaraPluginContext.of( descriptor, this.manager.ResourceAccounting( ) );
+    try {
+      for( PluginExtension< PluginEntry > extension : extensions ) {
+        PluginEntry entry = extension.load( );
+        this.manager.ResourceAccounting( ).attribute( descriptor, ( ) -> entry.start( context ) );
+        entries.add( entry );
+      }
+      if( Thread.currentThread( ).isInterrupted( ) ) {
+        throw new CancellationException( "The activation of the plugin %s was cancelled".formatted( descriptor.Name( ) ) );
+      }
+    } catch( RuntimeException | ServiceConfigurationError ex ) {
+      this.stop( descriptor, entries );
+      throw ex;
+    } finally {
+      finishedAt.put( descriptor.Id( ), System.nanoTime( ) );
+    }
+    this.started.put( descriptor, List.copyOf( entries ) );
+    return descriptor.Id( );
+
+  }
+
+  /**
+   * Returns how long to wait until the first running plugin exceeds the timeout.
+   */
+  private long nextDeadline( Collection< UUID > running, Map< UUID, Long > startedAt ) {
+
+    long now = System.nanoTime( );
+    long wait = this.timeout.toNanos( );
+    for( UUID id : running ) {
+      Long start = startedAt.get( id );
+      if( start != null ) {
+        wait = Math.min( wait, start + this.timeout.toNanos( ) - now );
+      }
+    }
+    return Math.max( wait, TimeUnit.MILLISECONDS.toNanos( 1 ) );
+
+  }
+
+  private void cancelExpired( Map< Future< UUID >, UUID > running, Map< UUID, Long > startedAt, List< UUID > timedOut ) {
+
+    long now = System.nanoTime( );
+    for( var entry : running.entrySet( ) ) {
+      Long start = startedAt.get( entry.getValue( ) );
+      if( start != null && now - start >= this.timeout.toNanos( ) && !timedOut.contains( entry.getValue( ) ) ) {
+        timedOut.add( entry.getValue( ) );
+        entry.getKey( ).cancel( true );
+      }
+    }
+
+  }
+
+  /**
+   * Skips every plugin that depends, directly or not, on the given plugin.
+   */
+  private void skipDependents( PluginRegistry.Snapshot snapshot, UUID id, Map< UUID, PluginDescriptor > pending, Map< UUID, Integer > waiting,
+      List< Activation > activations, Duration now ) {
+
+    Deque< UUID > queue = new ArrayDeque<>( snapshot.dependents( id ) );
+    while( !queue.isEmpty( ) ) {
+      UUID dependent = queue.poll( );
+      if( waiting.remove( dependent ) != null ) {
+        activations.add( Activation.of( pending.get( dependent ), Outcome.SKIPPED, now, Duration.ZERO, id, null ) );
+        queue.addAll( snapshot.dependents( dependent ) );
+      }
+    }
+
+  }
+
+  /**
+   * Stops the entry classes of the started plugins that are no longer active, because they were removed or replaced by
+   * another version, so nothing keeps their classes loaded.
+   */
+  private void stopInactive( PluginRegistry.Snapshot snapshot ) {
+
+    for( PluginDescriptor descriptor : List.copyOf( this.started.keySet( ) ) ) {
+      if( !descriptor.equals( snapshot.Active( ).get( descriptor.Id( ) ) ) ) {
+        List< PluginEntry > entries = this.started.remove( descriptor );
+        if( entries != null ) {
+          LOGGER.info( "Stopping the plugin {} {}, it is no longer active", descriptor.Name( ), descriptor.Version( ) );
+          this.stop( descriptor, entries );
+        }
+      }
+    }
+
+  }
+
+  private void stop( PluginDescriptor descriptor, List< PluginEntry > entries ) {
+
+    List< PluginEntry > reversed = new ArrayList<>( entries );
+    Collections.reverse( reversed );
+    for( PluginEntry entry : reversed ) {
+      try {
+        this.manager.ResourceAccounting( ).attribute( descriptor, entry::stop );
+      } catch( RuntimeException ex ) {
+        LOGGER.warn( "Unable to stop the plugin {}", descriptor.Name( ), ex );
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A lightweight, read only, plugin archive (zip file) reader.
+ *
+ * Instead of building a full file system, this only memory maps the end of central directory and central directory
+ * records, to build an index of the entries, the contents of each entry are then read directly from their offset in
+ * the archive without copying the whole archive.
+ *
+ * @author carddamom
+ */
+public final class PluginArchive implements Closeable {
+
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+
+  private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+  private static final int ZIP64_LOCATOR_SIZE = 20;
+
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+
+  private static final int LOCAL_HEADER_SIZE = 30;
+
+  private static final int MAXIMUM_COMMENT_SIZE = 0xFFFF;
+
+  private static final int ZIP64_EXTRA_FIELD = 0x0001;
+
+  private static final int UTF8_FLAG = 0x0800;
+
+  private static final int STORED = 0;
+
+  private static final int DEFLATED = 8;
+
+  /**
+   * An entry of the archive, as described in the central directory, this is an immutable class aka a value class.
+   */
+  public static final class Entry {
+
+    private final String name;
+
+    private final int method;
+
+    private final long crc;
+
+    private final long compressedSize;
+
+    private final long size;
+
+    private final long localHeaderOffset;
+
+    @Contract( pure = true )
+    private Entry( String name, int method, long crc, long compressedSize, long size, long localHeaderOffset ) {
+
+      this.name = name;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+
+    }
+
+    /**
+     * Returns the name of the entry, relative to the root of the archive.
+     */
+    @Contract( pure = true )
+    public String Name( ) {
+
+      return this.name;
+
+    }
+
+    /**
+     * Returns the crc32 of the uncompressed entry contents.
+     */
+    @Contract( pure = true )
+    public long Crc( ) {
+
+      return this.crc;
+
+    }
+
+    /**
+     * Returns the size of the entry contents inside the archive.
+     */
+    @Contract( pure = true )
+    public long CompressedSize( ) {
+
+      return this.compressedSize;
+
+    }
+
+    /**
+     * Returns the size of the uncompressed entry contents.
+     */
+    @Contract( pure = true )
+    public long Size( ) {
+
+      return this.size;
+
+    }
+
+    /**
+     * Returns true if the entry is stored without compression.
+     */
+    @Contract( pure = true )
+    public boolean isStored( ) {
+
+      return this.method == PluginArchive.STORED;
+
+    }
+
+    /**
+     * Returns true if the entry is a directory.
+     */
+    @Contract( pure = true )
+    public boolean isDirectory( ) {
+
+      return this.name.endsWith( "/" );
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "name", this.name ).append( "method", this.method )
+          .append( "compressedSize", this.compressedSize ).append( "size", this.size ).build( );
+
+    }
+
+  }
+
+  private final Path path;
+
+  private final FileChannel channel;
+
+  private final List< Entry > entries;
+
+  private final Map< String, Entry > index;
+
+  private PluginArchive( Path path, FileChannel channel, List< Entry > entries ) {
+
+    this.path = path;
+    this.channel = channel;
+    this.entries = entries;
+    this.index = new HashMap<>( entries.size( ) * 2 );
+    for( Entry entry : entries ) {
+      this.index.putIfAbsent( entry.name, entry );
+    }
+
+  }
+
+  /**
+   * Opens the given plugin archive, and reads its central directory.
+   *
+   * @param path The path of the archive.
+   * @return The opened archive, that must be closed after use.
+   *
+   * @throws IOException If the file cannot be opened, or it is not a valid zip file.
+   */
+  public static @NotNull PluginArchive open( Path path ) throws IOException {
+
+    FileChannel channel = FileChannel.open( Objects.requireNonNull( path ), StandardOpenOption.READ );
+    try {
+      return new PluginArchive( path, channel, PluginArchive.readCentralDirectory( channel ) );
+    } catch( IOException | RuntimeException ex ) {
+      channel.close( );
+      throw ex;
+    }
+
+  }
+
+  /**
+   * Returns the path of the archive.
+   */
+  @Contract( pure = true )
+  public Path Path( ) {
+
+    return this.path;
+
+  }
+
+  /**
+   * Returns all the entries of the archive, in central directory order.
+   */
+  @Contract( pure = true )
+  public @NotNull @UnmodifiableView List< Entry > Entries( ) {
+
+    return Collections.unmodifiableList( this.entries );
+
+  }
+
+  /**
+   * Returns the entry with the given name, the name may start with a slash.
+   *
+   * @param name The entry name.
+   * @return The entry, or empty if there is no such entry.
+   */
+  public @NotNull Optional< Entry > entry( String name ) {
+
+    String key = Objects.requireNonNull( name ).startsWith( "/" ) ? name.substring( 1 ) : name;
+    return Optional.ofNullable( this.index.get( key ) );
+
+  }
+
+  /**
+   * Returns the entries (excluding directories) that match the given glob, the glob is matched against the entry
+   * names prefixed with a slash, so {@code glob:**}{@code /*.jar} matches the jars in every directory, including the root.
+   *
+   * @param glob The glob pattern, without the {@code glob:} prefix.
+   * @return The matching entries, in central directory order.
+   */
+  public @NotNull List< Entry > find( String glob ) {
+
+    PathMatcher matcher = FileSystems.getDefault( ).getPathMatcher( "glob:" + Objects.requireNonNull( glob ) );
+    List< Entry > result = new ArrayList<>( );
+    for( Entry entry : this.entries ) {
+      if( !entry.isDirectory( ) && matcher.matches( Paths.get( "/" + entry.name ) ) ) {
+        result.add( entry );
+      }
+    }
+    return result;
+
+  }
+
+  /**
+   * Returns the raw (possibly compressed) contents of the given entry, memory mapped from the archive.
+   *
+   * @param entry The entry, it must belong to this archive.
+   * @return A read only buffer with the entry data, as stored in the archive.
+   *
+   * @throws IOException If the entry local header is invalid.
+   */
+  public @NotNull ByteBuffer data( Entry entry ) throws IOException {
+
+    ByteBuffer header = this.channel.map( FileChannel.MapMode.READ_ONLY, entry.localHeaderOffset, PluginArchive.LOCAL_HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+    if( header.getInt( 0 ) != PluginArchive.LOCAL_HEADER_SIGNATURE ) {
+      throw new ZipException( "Invalid local header for the entry %s in %s".formatted( entry.name, this.path ) );
+    }
+    long start = entry.localHeaderOffset + PluginArchive.LOCAL_HEADER_SIZE + Short.toUnsignedInt( header.getShort( 26 ) ) + Short.toUnsignedInt( header.getShort( 28 ) );
+    if( start + entry.compressedSize > this.channel.size( ) ) {
+      throw new ZipException( "The entry %s goes beyond the end of %s".formatted( entry.name, this.path ) );
+    }
+    return this.channel.map( FileChannel.MapMode.READ_ONLY, start, entry.compressedSize );
+
+  }
+
+  /**
+   * Opens a stream over the uncompressed contents of the given entry.
+   *
+   * @param entry The entry, it must belong to this archive.
+   * @return A stream with the entry contents.
+   *
+   * @throws IOException If the entry cannot be read, or uses an unsupported compression method.
+   */
+  public @NotNull InputStream open( Entry entry ) throws IOException {
+
+    ByteBuffer data = this.data( Objects.requireNonNull( entry ) );
+    return switch( entry.method ) {
+      case PluginArchive.STORED -> new ByteBufferInputStream( data );
+      case PluginArchive.DEFLATED -> new EntryInflaterInputStream( data );
+      default -> throw new ZipException( "Unsupported compression method %d for the entry %s".formatted( entry.method, entry.name ) );
+    };
+
+  }
+
+  @Override
+  public void close( ) throws IOException {
+
+    this.channel.close( );
+
+  }
+
+  private static @NotNull List< Entry > readCentralDirectory( FileChannel channel ) throws IOException {
+
+    long fileSize = channel.size( );
+    if( fileSize < PluginArchive.END_OF_CENTRAL_DIRECTORY_SIZE ) {
+      throw new ZipException( "The file is too small to be a zip file" );
+    }
+
+    // The end of central directory record is at the end of the file, followed by a comment of up to 64k.
+    long tailStart = Math.max( 0, fileSize - PluginArchive.END_OF_CENTRAL_DIRECTORY_SIZE - PluginArchive.MAXIMUM_COMMENT_SIZE );
+    ByteBuffer tail = channel.map( FileChannel.MapMode.READ_ONLY, tailStart, fileSize - tailStart ).order( ByteOrder.LITTLE_ENDIAN );
+    int end = -1;
+    for( int position = tail.limit( ) - PluginArchive.END_OF_CENTRAL_DIRECTORY_SIZE; position >= 0; position-- ) {
+      if( tail.getInt( position ) == PluginArchive.END_OF_CENTRAL_DIRECTORY_SIGNATURE
+          && position + PluginArchive.END_OF_CENTRAL_DIRECTORY_SIZE + Short.toUnsignedInt( tail.getShort( position + 20 ) ) <= tail.limit( ) ) {
+        end = position;
+        break;
+      }
+    }
+    if( end < 0 ) {
+      throw new ZipException( "Unable to find the end of central directory record" );
+    }
+
+    long count = Short.toUnsignedInt( tail.getShort( end + 10 ) );
+    long directorySize = Integer.toUnsignedLong( tail.getInt( end + 12 ) );
+    long directoryOffset = Integer.toUnsignedLong( tail.getInt( end + 16 ) );
+
+    // Zip64 archives keep the real values in the zip64 end of central directory record.
+    long locator = tailStart + end - PluginArchive.ZIP64_LOCATOR_SIZE;
+    if( ( count == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL ) && locator >= 0 ) {
+      ByteBuffer locatorBuffer = channel.map( FileChannel.MapMode.READ_ONLY, locator, PluginArchive.ZIP64_LOCATOR_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+      if( locatorBuffer.getInt( 0 ) == PluginArchive.ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE ) {
+        ByteBuffer zip64 = channel.map( FileChannel.MapMode.READ_ONLY, locatorBuffer.getLong( 8 ), 56 ).order( ByteOrder.LITTLE_ENDIAN );
+        if( zip64.getInt( 0 ) != PluginArchive.ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE ) {
+          throw new ZipException( "Invalid zip64 end of central directory record" );
+        }
+        count = zip64.getLong( 32 );
+        directorySize = zip64.getLong( 40 );
+        directoryOffset = zip64.getLong( 48 );
+      }
+    }
+
+    if( directoryOffset + directorySize > fileSize || directorySize > Integer.MAX_VALUE ) {
+      throw new ZipException( "Invalid central directory location" );
+    }
+
+    ByteBuffer directory = channel.map( FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize ).order( ByteOrder.LITTLE_ENDIAN );
+    List< Entry > entries = new ArrayList<>( ( int ) Math.min( count, 1 << 16 ) );
+    int position = 0;
+    while( position + PluginArchive.CENTRAL_DIRECTORY_HEADER_SIZE <= directory.limit( ) && directory.getInt( position ) == PluginArchive.CENTRAL_DIRECTORY_SIGNATURE ) {
+      int flags = Short.toUnsignedInt( directory.getShort( position + 8 ) );
+      int method = Short.toUnsignedInt( directory.getShort( position + 10 ) );
+      long crc = Integer.toUnsignedLong( directory.getInt( position + 16 ) );
+      long compressedSize = Integer.toUnsignedLong( directory.getInt( position + 20 ) );
+      long size = Integer.toUnsignedLong( directory.getInt( position + 24 ) );
+      int nameLength = Short.toUnsignedInt( directory.getShort( position + 28 ) );
+      int extraLength = Short.toUnsignedInt( directory.getShort( position + 30 ) );
+      int commentLength = Short.toUnsignedInt( directory.getShort( position + 32 ) );
+      long localHeaderOffset = Integer.toUnsignedLong( directory.getInt( position + 42 ) );
+
+      int next = position + PluginArchive.CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+      if( next > directory.limit( ) ) {
+        throw new ZipException( "Truncated central directory entry" );
+      }
+
+      byte[ ] nameBytes = new byte[ nameLength ];
+      directory.get( position + PluginArchive.CENTRAL_DIRECTORY_HEADER_SIZE, nameBytes );
+      String name = new String( nameBytes, ( flags & PluginArchive.UTF8_FLAG ) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1 );
+
+      // The zip64 extra field contains, in order, only the values that overflowed in the header.
+      int extra = position + PluginArchive.CENTRAL_DIRECTORY_HEADER_SIZE + nameLength;
+      int extraEnd = extra + extraLength;
+      while( extra + 4 <= extraEnd ) {
+        int tag = Short.toUnsignedInt( directory.getShort( extra ) );
+        int length = Short.toUnsignedInt( directory.getShort( extra + 2 ) );
+        if( tag == PluginArchive.ZIP64_EXTRA_FIELD ) {
+          int field = extra + 4;
+          if( size == 0xFFFFFFFFL && field + 8 <= extraEnd ) {
+            size = directory.getLong( field );
+            field += 8;
+          }
+          if( compressedSize == 0xFFFFFFFFL && field + 8 <= extraEnd ) {
+            compressedSize = directory.getLong( field );
+            field += 8;
+          }
+          if( localHeaderOffset == 0xFFFFFFFFL && field + 8 <= extraEnd ) {
+            localHeaderOffset = directory.getLong( field );
+          }
+          break;
+        }
+        extra += 4 + length;
+      }
+
+      entries.add( new Entry( name, method, crc, compressedSize, size, localHeaderOffset ) );
+      position = next;
+    }
+
+    if( entries.size( ) != count ) {
+      throw new ZipException( "Expected %d entries in the central directory, but found %d".formatted( count, entries.size( ) ) );
+    }
+    return entries;
+
+  }
+
+  /**
+   * A stream over a byte buffer.
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream( ByteBuffer buffer ) {
+
+      this.buffer = buffer;
+
+    }
+
+    @Override
+    public int read( ) {
+
+      return this.buffer.hasRemaining( ) ? Byte.toUnsignedInt( this.buffer.get( ) ) : -1;
+
+    }
+
+    @Override
+    public int read( byte @NotNull [ ] bytes, int offset, int length ) {
+
+      if( length == 0 ) {
+        return 0;
+      }
+      if( !this.buffer.hasRemaining( ) ) {
+        return -1;
+      }
+      int count = Math.min( length, this.buffer.remaining( ) );
+      this.buffer.get( bytes, offset, count );
+      return count;
+
+    }
+
+    @Override
+    public long skip( long count ) {
+
+      int skipped = ( int ) Math.max( 0, Math.min( count, this.buffer.remaining( ) ) );
+      this.buffer.position( this.buffer.position( ) + skipped );
+      return skipped;
+
+    }
+
+    @Override
+    public int available( ) {
+
+      return this.buffer.remaining( );
+
+    }
+
+  }
+
+  /**
+   * A stream that inflates a deflated entry, feeding the inflater directly from the mapped buffer.
+   */
+  private static final class EntryInflaterInputStream extends InflaterInputStream {
+
+    private final ByteBuffer data;
+
+    private boolean finished;
+
+    private boolean closed;
+
+    private EntryInflaterInputStream( ByteBuffer data ) {
+
+      super( InputStream.nullInputStream( ), new Inflater( true ), 1 );
+      this.data = data;
+
+    }
+
+    @Override
+    protected void fill( ) throws IOException {
+
+      if( this.data.hasRemaining( ) ) {
+        this.inf.setInput( this.data );
+      } else if( !this.finished ) {
+        // The inflater may need an extra dummy byte when used without the zlib wrapper.
+        this.finished = true;
+        this.inf.setInput( new byte[ 1 ] );
+      } else {
+        throw new EOFException( "Unexpected end of the deflated entry" );
+      }
+
+    }
+
+    @Override
+    public void close( ) throws IOException {
+
+      if( !this.closed ) {
+        this.closed = true;
+        super.close( );
+        this.inf.end( );
+      }
+
+    }
+
+  }
+
+}
@@ -0,0 +1,619 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import cc.chordflower.desktop.barbara.spi.PluginExecutor;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginBulkheadPolicy.RejectionPolicy;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The executor of a single plugin, that isolates its work from the application and from the other plugins.
+ *
+ * It runs at most a fixed number of tasks at the same time, on threads owned by the plugin, and keeps at most a fixed
+ * number of tasks waiting, applying the rejection policy of the plugin to the rest. It also works as a circuit breaker,
+ * when too many tasks in a row fail or take too long, the circuit opens and every task is rejected for a while, after
+ * which a single task is let through to decide if the circuit closes again. When that task is discarded before it runs,
+ * the next one is let through instead, and when it takes longer than the slow call threshold the circuit opens again
+ * without waiting for it.
+ *
+ * @author carddamom
+ */
+public final class PluginBulkhead implements PluginExecutor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( PluginBulkhead.class );
+
+  private static final String FX_APPLICATION_THREAD = "JavaFX Application Thread";
+
+  /**
+   * The state of the circuit breaker.
+   */
+  public enum CircuitState {
+    /**
+     * Every task is accepted.
+     */
+    CLOSED,
+    /**
+     * Every task is rejected, until the open duration of the policy elapses.
+     */
+    OPEN,
+    /**
+     * A single task was let through, every other task is rejected until it finishes, or takes longer than the slow call
+     * threshold.
+     */
+    HALF_OPEN
+  }
+
+  /**
+   * The statistics of a plugin bulkhead, this is an immutable class aka a value class.
+   */
+  public static final class Statistics {
+
+    private final CircuitState state;
+
+    private final int activeTasks;
+
+    private final int queuedTasks;
+
+    private final int peakQueuedTasks;
+
+    private final double saturation;
+
+    private final long submitted;
+
+    private final long completed;
+
+    private final long failed;
+
+    private final long slow;
+
+    private final long rejected;
+
+    private final long discarded;
+
+    private final long shortCircuited;
+
+    @Contract( pure = true )
+    private Statistics( CircuitState state, int activeTasks, int queuedTasks, int peakQueuedTasks, double saturation, long submitted, long completed,
+        long failed, long slow, long rejected, long discarded, long shortCircuited ) {
+
+      this.state = state;
+      this.activeTasks = activeTasks;
+      this.queuedTasks = queuedTasks;
+      this.peakQueuedTasks = peakQueuedTasks;
+      this.saturation = saturation;
+      this.submitted = submitted;
+      this.completed = completed;
+      this.failed = failed;
+      this.slow = slow;
+      this.rejected = rejected;
+      this.discarded = discarded;
+      this.shortCircuited = shortCircuited;
+
+    }
+
+    /**
+     * Returns the state of the circuit breaker.
+     */
+    @Contract( pure = true )
+    public CircuitState State( ) {
+
+      return this.state;
+
+    }
+
+    /**
+     * Returns the number of tasks running.
+     */
+    @Contract( pure = true )
+    public int ActiveTasks( ) {
+
+      return this.activeTasks;
+
+    }
+
+    /**
+     * Returns the number of tasks waiting to run.
+     */
+    @Contract( pure = true )
+    public int QueuedTasks( ) {
+
+      return this.queuedTasks;
+
+    }
+
+    /**
+     * Returns the highest number of tasks that were waiting to run at the same time.
+     */
+    @Contract( pure = true )
+    public int PeakQueuedTasks( ) {
+
+      return this.peakQueuedTasks;
+
+    }
+
+    /**
+     * Returns how full the bulkhead is, from 0 when idle to 1 when every thread is busy and the queue is full.
+     */
+    @Contract( pure = true )
+    public double Saturation( ) {
+
+      return this.saturation;
+
+    }
+
+    /**
+     * Returns the number of tasks submitted.
+     */
+    @Contract( pure = true )
+    public long Submitted( ) {
+
+      return this.submitted;
+
+    }
+
+    /**
+     * Returns the number of tasks that completed normally.
+     */
+    @Contract( pure = true )
+    public long Completed( ) {
+
+      return this.completed;
+
+    }
+
+    /**
+     * Returns the number of tasks that failed.
+     */
+    @Contract( pure = true )
+    public long Failed( ) {
+
+      return this.failed;
+
+    }
+
+    /**
+     * Returns the number of tasks that took longer than the slow call threshold.
+     */
+    @Contract( pure = true )
+    public long Slow( ) {
+
+      return this.slow;
+
+    }
+
+    /**
+     * Returns the number of tasks rejected because the bulkhead was saturated or stopped.
+     */
+    @Contract( pure = true )
+    public long Rejected( ) {
+
+      return this.rejected;
+
+    }
+
+    /**
+     * Returns the number of queued tasks discarded to make room for newer ones, or because the bulkhead was stopped.
+     */
+    @Contract( pure = true )
+    public long Discarded( ) {
+
+      return this.discarded;
+
+    }
+
+    /**
+     * Returns the number of tasks rejected because the circuit was open.
+     */
+    @Contract( pure = true )
+    public long ShortCircuited( ) {
+
+      return this.shortCircuited;
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "state", this.state ).append( "activeTasks", this.activeTasks )
+          .append( "queuedTasks", this.queuedTasks ).append( "peakQueuedTasks", this.peakQueuedTasks ).append( "saturation", this.saturation )
+          .append( "submitted", this.submitted ).append( "completed", this.completed ).append( "failed", this.failed ).append( "slow", this.slow )
+          .append( "rejected", this.rejected ).append( "discarded", this.discarded ).append( "shortCircuited", this.shortCircuited ).build( );
+
+    }
+
+  }
+
+  /**
+   * A submitted task, with the future of its result.
+   */
+  private final class BulkheadTask< T > implements Runnable {
+
+    private final Callable< T > task;
+
+    private final CompletableFuture< T > future;
+
+    private BulkheadTask( Callable< T > task ) {
+
+      this.task = task;
+      this.future = new CompletableFuture<>( );
+
+    }
+
+    @Override
+    public void run( ) {
+
+      if( this.future.isDone( ) ) {
+        // It was cancelled or discarded before it ran, so it says nothing about the plugin.
+        PluginBulkhead.this.abandon( this );
+        return;
+      }
+      long start = System.nanoTime( );
+      try {
+        T result = this.task.call( );
+        PluginBulkhead.this.onSuccess( this, System.nanoTime( ) - start );
+        this.future.complete( result );
+      } catch( Throwable ex ) {
+        PluginBulkhead.this.onFailure( this, ex );
+        this.future.completeExceptionally( ex );
+      }
+
+    }
+
+    private void discard( String reason ) {
+
+      if( this.future.completeExceptionally( new CancellationException( reason ) ) ) {
+        PluginBulkhead.this.discarded.increment( );
+      }
+      PluginBulkhead.this.abandon( this );
+
+    }
+
+  }
+
+  private final String name;
+
+  private final PluginBulkheadPolicy policy;
+
+  private final ThreadPoolExecutor executor;
+
+  private final AtomicReference< CircuitState > state;
+
+  private final AtomicInteger consecutiveFailures;
+
+  private volatile long openedAt;
+
+  private final AtomicReference< BulkheadTask< ? > > trial;
+
+  private volatile long trialStartedAt;
+
+  private final LongAdder submitted;
+
+  private final LongAdder completed;
+
+  private final LongAdder failed;
+
+  private final LongAdder slow;
+
+  private final LongAdder rejected;
+
+  private final LongAdder discarded;
+
+  private final LongAdder shortCircuited;
+
+  private final LongAccumulator peakQueuedTasks;
+
+  private PluginBulkhead( PluginDescriptor descriptor, PluginBulkheadPolicy policy, ThreadFactory threadFactory ) {
+
+    this.name = descriptor.Name( );
+    this.policy = policy;
+    this.executor = new ThreadPoolExecutor( policy.MaxConcurrency( ), policy.MaxConcurrency( ), 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>( policy.QueueCapacity( ) ), threadFactory, new ThreadPoolExecutor.AbortPolicy( ) );
+    this.executor.allowCoreThreadTimeOut( true );
+    this.state = new AtomicReference<>( CircuitState.CLOSED );
+    this.consecutiveFailures = new AtomicInteger( );
+    this.openedAt = 0;
+    this.trial = new AtomicReference<>( );
+    this.trialStartedAt = 0;
+    this.submitted = new LongAdder( );
+    this.completed = new LongAdder( );
+    this.failed = new LongAdder( );
+    this.slow = new LongAdder( );
+    this.rejected = new LongAdder( );
+    this.discarded = new LongAdder( );
+    this.shortCircuited = new LongAdder( );
+    this.peakQueuedTasks = new LongAccumulator( Math::max, 0 );
+
+  }
+
+  /**
+   * Creates a new bulkhead for the given plugin.
+   *
+   * @param descriptor The plugin.
+   * @param policy The limits of the bulkhead.
+   * @param threadFactory The factory of the threads of the plugin.
+   * @return A new plugin bulkhead.
+   */
+  @Contract( "_, _, _ -> new" )
+  public static @NotNull PluginBulkhead of( PluginDescriptor descriptor, PluginBulkheadPolicy policy, ThreadFactory threadFactory ) {
+
+    return new PluginBulkhead( Objects.requireNonNull( descriptor ), Objects.requireNonNull( policy ), Objects.requireNonNull( threadFactory ) );
+
+  }
+
+  @Override
+  public < T > @NotNull CompletableFuture< T > submit( Callable< T > task ) {
+
+    Objects.requireNonNull( task );
+    this.submitted.increment( );
+    CircuitState permission = this.acquirePermission( );
+    if( permission == CircuitState.OPEN ) {
+      this.shortCircuited.increment( );
+      throw new RejectedExecutionException( "The plugin %s is failing, its tasks are rejected for now".formatted( this.name ) );
+    }
+
+    BulkheadTask< T > bulkheadTask = new BulkheadTask<>( task );
+    if( permission == CircuitState.HALF_OPEN ) {
+      this.trial.set( bulkheadTask );
+    }
+    try {
+      this.enqueue( bulkheadTask );
+    } catch( RejectedExecutionException ex ) {
+      this.abandon( bulkheadTask );
+      throw ex;
+    }
+    return bulkheadTask.future;
+
+  }
+
+  @Override
+  public void execute( Runnable command ) {
+
+    this.submit( Executors.callable( Objects.requireNonNull( command ) ) ).whenComplete( ( result, error ) -> {
+      if( error != null && !( error instanceof CancellationException ) ) {
+        LOGGER.warn( "A task of the plugin {} failed", this.name, error );
+      }
+    } );
+
+  }
+
+  @Override
+  public boolean isAvailable( ) {
+
+    return !this.executor.isShutdown( ) && ( this.state.get( ) == CircuitState.CLOSED || this.state.get( ) == CircuitState.OPEN && this.isOpenDurationOver( ) );
+
+  }
+
+  /**
+   * Returns the limits of this bulkhead.
+   */
+  @Contract( pure = true )
+  public @NotNull PluginBulkheadPolicy Policy( ) {
+
+    return this.policy;
+
+  }
+
+  /**
+   * Returns the current statistics of this bulkhead.
+   */
+  @Contract( " -> new" )
+  public @NotNull Statistics Statistics( ) {
+
+    int active = this.executor.getActiveCount( );
+    int queued = this.executor.getQueue( ).size( );
+    double saturation = ( double ) ( active + queued ) / ( this.policy.MaxConcurrency( ) + this.policy.QueueCapacity( ) );
+    return new Statistics( this.state.get( ), active, queued, ( int ) this.peakQueuedTasks.get( ), saturation, this.submitted.sum( ), this.completed.sum( ),
+        this.failed.sum( ), this.slow.sum( ), this.rejected.sum( ), this.discarded.sum( ), this.shortCircuited.sum( ) );
+
+  }
+
+  /**
+   * Stops the bulkhead, interrupting the running tasks and discarding the queued ones.
+   */
+  public void shutdown( ) {
+
+    for( Runnable pending : this.executor.shutdownNow( ) ) {
+      if( pending instanceof BulkheadTask< ? > task ) {
+        task.discard( "The plugin %s was stopped".formatted( this.name ) );
+      }
+    }
+
+  }
+
+  /**
+   * Returns true if the bulkhead was stopped.
+   */
+  public boolean isShutdown( ) {
+
+    return this.executor.isShutdown( );
+
+  }
+
+  /**
+   * Decides if a task can be submitted.
+   *
+   * @return {@link CircuitState#CLOSED} if the task can be submitted, {@link CircuitState#HALF_OPEN} if it can be
+   *     submitted as the trial task, or {@link CircuitState#OPEN} if it must be rejected.
+   */
+  private @NotNull CircuitState acquirePermission( ) {
+
+    while( true ) {
+      switch( this.state.get( ) ) {
+        case CLOSED -> {
+          return CircuitState.CLOSED;
+        }
+        case HALF_OPEN -> {
+          if( !this.isTrialOverdue( ) ) {
+            return CircuitState.OPEN;
+          }
+          // The trial already counts as a slow call, so the circuit opens again without waiting for it to finish.
+          BulkheadTask< ? > overdue = this.trial.get( );
+          if( this.trial.compareAndSet( overdue, null ) ) {
+            this.openedAt = System.nanoTime( );
+            if( this.state.compareAndSet( CircuitState.HALF_OPEN, CircuitState.OPEN ) ) {
+              LOGGER.warn( "The trial task of the plugin {} is taking too long, rejecting its tasks for {} ms", this.name, this.policy.OpenDuration( ).toMillis( ) );
+            }
+          }
+        }
+        case OPEN -> {
+          if( !this.isOpenDurationOver( ) ) {
+            return CircuitState.OPEN;
+          }
+          this.trialStartedAt = System.nanoTime( );
+          if( this.state.compareAndSet( CircuitState.OPEN, CircuitState.HALF_OPEN ) ) {
+            return CircuitState.HALF_OPEN;
+          }
+        }
+      }
+    }
+
+  }
+
+  private boolean isOpenDurationOver( ) {
+
+    return System.nanoTime( ) - this.openedAt >= this.policy.OpenDuration( ).toNanos( );
+
+  }
+
+  private boolean isTrialOverdue( ) {
+
+    return System.nanoTime( ) - this.trialStartedAt > this.policy.SlowCallThreshold( ).toNanos( );
+
+  }
+
+  /**
+   * Called when a task will never run, if it was the trial task the circuit opens again, so the next task gets to be the
+   * trial, without waiting for the open duration again.
+   */
+  private void abandon( BulkheadTask< ? > task ) {
+
+    if( this.trial.compareAndSet( task, null ) ) {
+      this.state.compareAndSet( CircuitState.HALF_OPEN, CircuitState.OPEN );
+    }
+
+  }
+
+  private void enqueue( BulkheadTask< ? > task ) {
+
+    try {
+      this.executor.execute( task );
+    } catch( RejectedExecutionException ex ) {
+      if( this.executor.isShutdown( ) ) {
+        this.rejected.increment( );
+        throw new RejectedExecutionException( "The plugin %s was stopped".formatted( this.name ), ex );
+      }
+      this.reject( task, ex );
+    }
+    this.peakQueuedTasks.accumulate( this.executor.getQueue( ).size( ) );
+
+  }
+
+  /**
+   * Applies the rejection policy to a task submitted while the bulkhead is saturated.
+   */
+  private void reject( BulkheadTask< ? > task, RejectedExecutionException cause ) {
+
+    RejectionPolicy rejection = this.policy.RejectionPolicy( );
+    if( rejection == RejectionPolicy.DISCARD_OLDEST ) {
+      List< Runnable > oldest = new ArrayList<>( 1 );
+      this.executor.getQueue( ).drainTo( oldest, 1 );
+      oldest.stream( ).filter( BulkheadTask.class::isInstance ).forEach( pending -> ( ( BulkheadTask< ? > ) pending ).discard(
+          "The task was discarded to make room for a newer task of the plugin %s".formatted( this.name ) ) );
+      try {
+        this.executor.execute( task );
+        return;
+      } catch( RejectedExecutionException ex ) {
+        cause = ex;
+      }
+    } else if( rejection == RejectionPolicy.CALLER_RUNS && !PluginBulkhead.isFxApplicationThread( ) ) {
+      task.run( );
+      return;
+    }
+    this.rejected.increment( );
+    throw new RejectedExecutionException( "The plugin %s is saturated, with %d running and %d queued tasks".formatted( this.name,
+        this.executor.getActiveCount( ), this.executor.getQueue( ).size( ) ), cause );
+
+  }
+
+  private void onSuccess( BulkheadTask< ? > task, long elapsed ) {
+
+    this.completed.increment( );
+    if( elapsed > this.policy.SlowCallThreshold( ).toNanos( ) ) {
+      this.slow.increment( );
+      this.recordFailure( task );
+    } else {
+      this.consecutiveFailures.set( 0 );
+      // Only the trial task decides if the circuit closes, the tasks that were running before it opened do not.
+      if( this.trial.compareAndSet( task, null ) && this.state.compareAndSet( CircuitState.HALF_OPEN, CircuitState.CLOSED ) ) {
+        LOGGER.info( "The plugin {} recovered, accepting its tasks again", this.name );
+      }
+    }
+
+  }
+
+  private void onFailure( BulkheadTask< ? > task, Throwable error ) {
+
+    this.failed.increment( );
+    LOGGER.debug( "A task of the plugin {} failed", this.name, error );
+    this.recordFailure( task );
+
+  }
+
+  private void recordFailure( BulkheadTask< ? > task ) {
+
+    int failures = this.consecutiveFailures.incrementAndGet( );
+    if( this.trial.compareAndSet( task, null ) ) {
+      this.openedAt = System.nanoTime( );
+      this.state.compareAndSet( CircuitState.HALF_OPEN, CircuitState.OPEN );
+    } else if( failures >= this.policy.FailureThreshold( ) && this.state.get( ) == CircuitState.CLOSED ) {
+      this.openedAt = System.nanoTime( );
+      if( this.state.compareAndSet( CircuitState.CLOSED, CircuitState.OPEN ) ) {
+        LOGGER.warn( "The plugin {} failed {} tasks in a row, rejecting its tasks for {} ms", this.name, failures, this.policy.OpenDuration( ).toMillis( ) );
+      }
+    }
+
+  }
+
+  private static boolean isFxApplicationThread( ) {
+
+    // Platform.isFxApplicationThread() starts the toolkit when it is not running yet, so the thread name is checked instead.
+    return PluginBulkhead.FX_APPLICATION_THREAD.equals( Thread.currentThread( ).getName( ) );
+
+  }
+
+}
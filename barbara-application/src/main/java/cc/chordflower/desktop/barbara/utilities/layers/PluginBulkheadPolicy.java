@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * The limits of the executor of a plugin, this is an immutable class aka a value class.
+ *
+ * @author carddamom
+ */
+public final class PluginBulkheadPolicy {
+
+  /**
+   * What to do with a task submitted when every thread is busy and the queue is full.
+   */
+  public enum RejectionPolicy {
+    /**
+     * Rejects the task with a {@link java.util.concurrent.RejectedExecutionException}.
+     */
+    ABORT,
+    /**
+     * Discards the oldest queued task, completing its future with a {@link java.util.concurrent.CancellationException},
+     * and queues the new one.
+     */
+    DISCARD_OLDEST,
+    /**
+     * Runs the task on the submitting thread, slowing down the submitter, except on the JavaFX application thread, where
+     * the task is rejected as with {@link #ABORT}.
+     */
+    CALLER_RUNS
+  }
+
+  private static final PluginBulkheadPolicy DEFAULTS = PluginBulkheadPolicy.of( Math.max( 2, Runtime.getRuntime( ).availableProcessors( ) / 2 ), 256,
+      RejectionPolicy.ABORT, 5, Duration.ofSeconds( 10 ), Duration.ofSeconds( 30 ) );
+
+  private final int maxConcurrency;
+
+  private final int queueCapacity;
+
+  private final RejectionPolicy rejectionPolicy;
+
+  private final int failureThreshold;
+
+  private final Duration slowCallThreshold;
+
+  private final Duration openDuration;
+
+  @Contract( pure = true )
+  private PluginBulkheadPolicy( int maxConcurrency, int queueCapacity, RejectionPolicy rejectionPolicy, int failureThreshold, Duration slowCallThreshold,
+      Duration openDuration ) {
+
+    this.maxConcurrency = maxConcurrency;
+    this.queueCapacity = queueCapacity;
+    this.rejectionPolicy = rejectionPolicy;
+    this.failureThreshold = failureThreshold;
+    this.slowCallThreshold = slowCallThreshold;
+    this.openDuration = openDuration;
+
+  }
+
+  /**
+   * Creates a new bulkhead policy.
+   *
+   * @param maxConcurrency The maximum number of tasks of the plugin running at the same time.
+   * @param queueCapacity The maximum number of tasks of the plugin waiting to run.
+   * @param rejectionPolicy What to do when the plugin submits a task and the queue is full.
+   * @param failureThreshold How many tasks in a row must fail, or be slow, for the executor to stop accepting work.
+   * @param slowCallThreshold How long a task can take before it counts as a failure.
+   * @param openDuration How long the executor stops accepting work, before trying a single task again.
+   * @return A new bulkhead policy.
+   */
+  @Contract( "_, _, _, _, _, _ -> new" )
+  public static @NotNull PluginBulkheadPolicy of( int maxConcurrency, int queueCapacity, RejectionPolicy rejectionPolicy, int failureThreshold,
+      Duration slowCallThreshold, Duration openDuration ) {
+
+    if( maxConcurrency < 1 || queueCapacity < 1 || failureThreshold < 1 ) {
+      throw new IllegalArgumentException( "The concurrency, queue capacity and failure threshold must be positive" );
+    }
+    return new PluginBulkheadPolicy( maxConcurrency, queueCapacity, Objects.requireNonNull( rejectionPolicy ), failureThreshold,
+        Objects.requireNonNull( slowCallThreshold ), Objects.requireNonNull( openDuration ) );
+
+  }
+
+  /**
+   * Returns the policy used by the plugins without a policy of their own.
+   */
+  @Contract( pure = true )
+  public static @NotNull PluginBulkheadPolicy defaults( ) {
+
+    return PluginBulkheadPolicy.DEFAULTS;
+
+  }
+
+  /**
+   * Returns the maximum number of tasks of the plugin running at the same time.
+   */
+  @Contract( pure = true )
+  public int MaxConcurrency( ) {
+
+    return this.maxConcurrency;
+
+  }
+
+  /**
+   * Returns the maximum number of tasks of the plugin waiting to run.
+   */
+  @Contract( pure = true )
+  public int QueueCapacity( ) {
+
+    return this.queueCapacity;
+
+  }
+
+  /**
+   * Returns what to do when the plugin submits a task and the queue is full.
+   */
+  @Contract( pure = true )
+  public RejectionPolicy RejectionPolicy( ) {
+
+    return this.rejectionPolicy;
+
+  }
+
+  /**
+   * Returns how many tasks in a row must fail, or be slow, for the executor to stop accepting work.
+   */
+  @Contract( pure = true )
+  public int FailureThreshold( ) {
+
+    return this.failureThreshold;
+
+  }
+
+  /**
+   * Returns how long a task can take before it counts as a failure.
+   */
+  @Contract( pure = true )
+  public Duration SlowCallThreshold( ) {
+
+    return this.slowCallThreshold;
+
+  }
+
+  /**
+   * Returns how long the executor stops accepting work, before trying a single task again.
+   */
+  @Contract( pure = true )
+  public Duration OpenDuration( ) {
+
+    return this.openDuration;
+
+  }
+
+  @Override
+  public String toString( ) {
+
+    return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "maxConcurrency", this.maxConcurrency ).append( "queueCapacity", this.queueCapacity )
+        .append( "rejectionPolicy", this.rejectionPolicy ).append( "failureThreshold", this.failureThreshold )
+        .append( "slowCallThreshold", this.slowCallThreshold.toMillis( ) ).append( "openDuration", this.openDuration.toMillis( ) ).build( );
+
+  }
+
+}
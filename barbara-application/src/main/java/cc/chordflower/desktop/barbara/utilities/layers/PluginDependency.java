@@ -17,17 +17,10 @@ package cc.chordflower.desktop.barbara.utilities.layers;
 
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
-import com.machinezoo.noexception.Exceptions;
+import jakarta.validation.constraints.NotNull;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
-import org.apache.commons.lang3.concurrent.Computable;
-import org.apache.commons.lang3.concurrent.Memoizer;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 import org.jetbrains.annotations.Contract;
-import org.jetbrains.annotations.NotNull;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.Serial;
 import java.io.Serializable;
@@ -41,14 +34,13 @@ import java.util.UUID;
  */
 public final class PluginDependency implements Serializable {
 
-  private static final Logger LOGGER = LoggerFactory.getLogger( PluginDependency.class );
-
   /**
    * The id of the plugin dependency
    *
    */
   @SerializedName( "$id" )
   @Expose
+  @NotNull
   private UUID id;
 
   /**
@@ -57,13 +49,12 @@ public final class PluginDependency implements Serializable {
    */
   @SerializedName( "version" )
   @Expose
+  @NotNull
   private String version;
 
   @Serial
   private final static long serialVersionUID = 2122204548688377365L;
 
-  private static final Memoizer< Pair< UUID, String >, PluginDependency > MEMOIZER = new Memoizer<>( new MemoizableOperation( ), true );
-
   /**
    * For gson usage...
    */
@@ -78,15 +69,16 @@ public final class PluginDependency implements Serializable {
   /**
    * Creates a new immutable instance of plugin dependency.
    *
-   * Note: This method uses memoize, so any repeated parameters will return the same immutable instance.
+   * Note: The instances are interned by {@link PluginMetadataInterner}, so any repeated parameters will usually return the
+   * same immutable instance.
    *
    * @param id The id of the plugin dependency.
    * @param version The version of the plugin dependency.
    * @return A immutable instance of plugin dependency.
    */
-  public static PluginDependency of( UUID id, String version ) throws InterruptedException {
+  public static PluginDependency of( UUID id, String version ) {
 
-    return Exceptions.log( PluginDependency.LOGGER ).passing( ).function( Exceptions.wrap( ).function( PluginDependency.MEMOIZER::compute ) ).apply( new ImmutablePair<>( id, version ) );
+    return PluginMetadataInterner.dependency( new PluginDependency( PluginMetadataInterner.id( id ), PluginMetadataInterner.version( version ) ) );
 
   }
 
@@ -150,16 +142,4 @@ public final class PluginDependency implements Serializable {
 
   }
 
-  private static final class MemoizableOperation implements Computable< Pair< UUID, String >, PluginDependency > {
-
-    @Contract( "_ -> new" )
-    @Override
-    public @NotNull PluginDependency compute( @NotNull Pair< UUID, String > val ) {
-
-      return new PluginDependency( val.getKey( ), val.getRight( ) );
-
-    }
-
-  }
-
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Reads and writes plugin dependencies straight from a json stream, without reflection.
+ *
+ * The reader is strict, every value must have the type required by the plugin schema, so any descriptor it accepts would
+ * also be accepted by the schema.
+ *
+ * @author carddamom
+ */
+public final class PluginDependencyTypeAdapter extends TypeAdapter< PluginDependency > {
+
+  @Override
+  public void write( JsonWriter out, PluginDependency dependency ) throws IOException {
+
+    if( dependency == null ) {
+      out.nullValue( );
+      return;
+    }
+    out.beginObject( );
+    out.name( "$id" ).value( dependency.Id( ).toString( ) );
+    out.name( "version" ).value( dependency.Version( ) );
+    out.endObject( );
+
+  }
+
+  @Override
+  public PluginDependency read( JsonReader in ) throws IOException {
+
+    if( in.peek( ) == JsonToken.NULL ) {
+      in.nextNull( );
+      return null;
+    }
+
+    UUID id = null;
+    String version = null;
+    PluginDependencyTypeAdapter.expect( in, JsonToken.BEGIN_OBJECT );
+    in.beginObject( );
+    while( in.hasNext( ) ) {
+      switch( in.nextName( ) ) {
+        case "$id" -> id = PluginDependencyTypeAdapter.nextUuid( in );
+        case "version" -> version = PluginDependencyTypeAdapter.nextString( in );
+        default -> in.skipValue( );
+      }
+    }
+    in.endObject( );
+
+    if( id == null || version == null ) {
+      throw new JsonParseException( "The plugin dependency at %s must have an $id and a version".formatted( in.getPath( ) ) );
+    }
+    return PluginDependency.of( id, version );
+
+  }
+
+  /**
+   * Reads the next value, that must be a string, unlike {@link JsonReader#nextString()} that also accepts numbers.
+   */
+  static @NotNull String nextString( JsonReader in ) throws IOException {
+
+    PluginDependencyTypeAdapter.expect( in, JsonToken.STRING );
+    return in.nextString( );
+
+  }
+
+  /**
+   * Reads the next value, that must be a string with an uuid.
+   */
+  static @NotNull UUID nextUuid( JsonReader in ) throws IOException {
+
+    String path = in.getPath( );
+    String value = PluginDependencyTypeAdapter.nextString( in );
+    if( !PluginSchema.isUuid( value ) ) {
+      throw new JsonParseException( "Expected an uuid at %s but was %s".formatted( path, value ) );
+    }
+    return UUID.fromString( value );
+
+  }
+
+  /**
+   * Checks that the next token is of the given kind.
+   */
+  static void expect( JsonReader in, JsonToken token ) throws IOException {
+
+    JsonToken actual = in.peek( );
+    if( actual != token ) {
+      throw new JsonParseException( "Expected %s at %s but was %s".formatted( token, in.getPath( ), actual ) );
+    }
+
+  }
+
+}
@@ -19,7 +19,7 @@ import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 import com.machinezoo.noexception.Exceptions;
 import com.vdurmont.semver4j.Semver;
-import com.vdurmont.semver4j.Semver.SemverType;
+import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
@@ -30,12 +30,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.Serial;
 import java.io.Serializable;
-import java.net.URI;
-import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -113,10 +112,16 @@ public final class PluginDescriptor implements Serializable {
 
   private transient Path path;
 
-  private final transient List< Path > jarPaths;
+  private final transient List< String > jarEntries;
 
   private transient Semver semverVersion;
 
+  /**
+   * The integrity manifest, with the checksum of each jar inside the plugin file, by jar entry name
+   *
+   */
+  private final transient Map< String, String > checksums;
+
   /**
    * Creates a new instance of PluginDescriptor.
    *
@@ -133,40 +138,92 @@ public final class PluginDescriptor implements Serializable {
   @Contract( "_, _, _, _, _, _, _ -> new" )
   public static @org.jetbrains.annotations.NotNull PluginDescriptor of( String name, UUID id, String description, String license, String version, List< PluginDependency > dependencies, Path path ) {
 
-    return new PluginDescriptor( name, id, description, license, version, dependencies, path );
+    return new PluginDescriptor( name, id, description, license, version, dependencies, path, PluginDescriptor.findJarEntries( path ), Map.of( ) );
 
   }
 
-  private PluginDescriptor( String name, UUID id, String description, String license, String version, List< PluginDependency > dependencies, Path path ) {
+  /**
+   * Creates a new instance of PluginDescriptor, with an already known list of jar entries, so the plugin file is not opened.
+   *
+   * @param name The name of the plugin.
+   * @param id The plugin id.
+   * @param description The plugin description.
+   * @param license The plugin license.
+   * @param version The plugin version.
+   * @param dependencies The plugin dependencies.
+   * @param path The plugin path.
+   * @param jarEntries The names of the jar entries inside the plugin file.
+   * @return A plugin descriptor.
+   */
+  @Contract( "_, _, _, _, _, _, _, _ -> new" )
+  public static @org.jetbrains.annotations.NotNull PluginDescriptor of( String name, UUID id, String description, String license, String version, List< PluginDependency > dependencies, Path path,
+      List< String > jarEntries ) {
+
+    return new PluginDescriptor( name, id, description, license, version, dependencies, path, jarEntries, Map.of( ) );
+
+  }
+
+  /**
+   * Creates a new instance of PluginDescriptor, with an already known list of jar entries and the integrity manifest of the
+   * plugin.
+   *
+   * @param name The name of the plugin.
+   * @param id The plugin id.
+   * @param description The plugin description.
+   * @param license The plugin license.
+   * @param version The plugin version.
+   * @param dependencies The plugin dependencies.
+   * @param path The plugin path.
+   * @param jarEntries The names of the jar entries inside the plugin file.
+   * @param checksums The checksum of each jar inside the plugin file, by jar entry name, empty if the plugin has no
+   *     integrity manifest.
+   * @return A plugin descriptor.
+   */
+  @Contract( "_, _, _, _, _, _, _, _, _ -> new" )
+  public static @org.jetbrains.annotations.NotNull PluginDescriptor of( String name, UUID id, String description, String license, String version, List< PluginDependency > dependencies, Path path,
+      List< String > jarEntries, Map< String, String > checksums ) {
+
+    return new PluginDescriptor( name, id, description, license, version, dependencies, path, jarEntries, checksums );
+
+  }
+
+  private PluginDescriptor( String name, UUID id, String description, String license, String version, List< PluginDependency > dependencies, Path path, List< String > jarEntries,
+      Map< String, String > checksums ) {
 
     this.name = name;
-    this.id = id;
+    this.id = PluginMetadataInterner.id( id );
     this.description = description;
-    this.license = license;
-    this.version = version;
-    this.dependencies = dependencies;
+    this.license = PluginMetadataInterner.license( license );
+    this.version = PluginMetadataInterner.version( version );
+    this.dependencies = dependencies == null ? List.of( ) : dependencies.stream( ).map( dependency -> PluginDependency.of( dependency.Id( ), dependency.Version( ) ) ).toList( );
     this.path = path;
-    this.jarPaths = new ArrayList<>( );
+    this.jarEntries = List.copyOf( jarEntries );
+    this.semverVersion = PluginMetadataInterner.semver( version );
+    this.checksums = checksums == null ? Map.of( ) : Map.copyOf( checksums );
+
+  }
 
+  /**
+   * Reads the central directory of the given plugin file, and returns the names of all the jar files inside it.
+   */
+  private static @org.jetbrains.annotations.NotNull List< String > findJarEntries( Path path ) {
+
+    List< String > jarEntries = new ArrayList<>( );
     Exceptions.log( LOGGER ).passing( ).run( ( ) -> Exceptions.wrap( ).run( ( ) -> {
-      URI uri = new URI( "jar:file:%s".formatted( this.path ) );
-      try( FileSystem pluginFS = FileSystems.newFileSystem( uri, Collections.emptyMap( ) ); ) {
-        var matcher = pluginFS.getPathMatcher( "glob:**/*.jar" );
-        Files.walkFileTree( pluginFS.getPath( "/" ), new SimpleFileVisitor<>( ) {
-
-          @Override
-          public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) {
-
-            if( matcher.matches( file ) ) {
-              jarPaths.add( file );
-            }
-            return FileVisitResult.CONTINUE;
-          }
-        } );
+      try( PluginArchive archive = PluginArchive.open( path ) ) {
+        jarEntries.addAll( PluginDescriptor.jarEntriesOf( archive ) );
       }
     } ) );
+    return jarEntries;
+
+  }
+
+  /**
+   * Returns the names of all the jar files inside the given plugin archive, prefixed with a slash.
+   */
+  static @org.jetbrains.annotations.NotNull List< String > jarEntriesOf( PluginArchive archive ) {
 
-    this.semverVersion = new Semver( version, SemverType.NPM );
+    return archive.find( "**/*.jar" ).stream( ).map( entry -> "/" + entry.Name( ) ).toList( );
 
   }
 
@@ -175,7 +232,8 @@ public final class PluginDescriptor implements Serializable {
    */
   private PluginDescriptor( ) {
 
-    this.jarPaths = Collections.emptyList( );
+    this.jarEntries = Collections.emptyList( );
+    this.checksums = Map.of( );
   }
 
   /**
@@ -249,12 +307,25 @@ public final class PluginDescriptor implements Serializable {
   }
 
   /**
-   * Returns the plugin jar paths.
+   * Returns the names of the jar entries inside the plugin file, prefixed with a slash.
+   */
+  @Contract( pure = true )
+  public @org.jetbrains.annotations.NotNull @UnmodifiableView List< String > JarEntries( ) {
+
+    return this.jarEntries;
+
+  }
+
+  /**
+   * Returns the checksum of each jar inside the plugin file, by jar entry name, as declared by the integrity manifest of
+   * the plugin.
+   *
+   * @return The declared checksums, empty if the plugin has no integrity manifest.
    */
   @Contract( pure = true )
-  public @org.jetbrains.annotations.NotNull @UnmodifiableView List< Path > JarPaths( ) {
+  public @org.jetbrains.annotations.NotNull @UnmodifiableView Map< String, String > Checksums( ) {
 
-    return Collections.unmodifiableList( this.jarPaths );
+    return this.checksums;
 
   }
 
@@ -267,7 +338,8 @@ public final class PluginDescriptor implements Serializable {
   @Contract( "_ -> new" )
   public @org.jetbrains.annotations.NotNull PluginDescriptor withPath( Path path ) {
 
-    return new PluginDescriptor( this.name, this.id, this.description, this.license, this.version, this.dependencies, path );
+    return new PluginDescriptor( this.name, this.id, this.description, this.license, this.version, this.dependencies, path, PluginDescriptor.findJarEntries( path ),
+        this.checksums );
 
   }
 
@@ -277,8 +349,15 @@ public final class PluginDescriptor implements Serializable {
     return semverVersion;
   }
 
-  @Contract( pure = true )
-  public void validate( ) {
+  /**
+   * Validates the plugin descriptor against its bean constraints, with a validator that is shared by every descriptor.
+   *
+   * @return The constraint violations found, empty if the descriptor is valid.
+   */
+  @Contract( " -> new" )
+  public @org.jetbrains.annotations.NotNull List< ConstraintViolation< PluginDescriptor > > validate( ) {
+
+    return new ArrayList<>( PluginDescriptorValidator.beanValidator( ).validate( this ) );
 
   }
 
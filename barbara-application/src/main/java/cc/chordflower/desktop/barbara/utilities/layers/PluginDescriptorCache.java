@@ -0,0 +1,406 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A persistent cache of plugin descriptors, so that unchanged plugins can be loaded without opening their archive.
+ *
+ * Each entry is keyed by the plugin path, and is valid while the plugin file keeps the same size and modification time.
+ * When only the modification time changes, the content hash is used to decide if the entry is still valid.
+ *
+ * @author carddamom
+ */
+public final class PluginDescriptorCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( PluginDescriptorCache.class );
+
+  /**
+   * The version of the cache file, the version 2 only keeps descriptors that were validated, the version 3 keeps their
+   * integrity manifest and uses the chunked plugin checksum.
+   */
+  private static final int FORMAT_VERSION = 3;
+
+  /**
+   * The statistics of the cache, this is an immutable class aka a value class.
+   */
+  public static final class Statistics {
+
+    private final long hits;
+
+    private final long misses;
+
+    private final long invalidations;
+
+    @Contract( pure = true )
+    private Statistics( long hits, long misses, long invalidations ) {
+
+      this.hits = hits;
+      this.misses = misses;
+      this.invalidations = invalidations;
+
+    }
+
+    /**
+     * Returns the number of descriptors loaded from the cache.
+     */
+    @Contract( pure = true )
+    public long Hits( ) {
+
+      return this.hits;
+
+    }
+
+    /**
+     * Returns the number of descriptors that were not in the cache, including the invalidated ones.
+     */
+    @Contract( pure = true )
+    public long Misses( ) {
+
+      return this.misses;
+
+    }
+
+    /**
+     * Returns the number of entries discarded because the plugin file changed.
+     */
+    @Contract( pure = true )
+    public long Invalidations( ) {
+
+      return this.invalidations;
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "hits", this.hits ).append( "misses", this.misses )
+          .append( "invalidations", this.invalidations ).build( );
+
+    }
+
+  }
+
+  /**
+   * The persisted form of the cache.
+   */
+  private static final class CacheFile {
+
+    private int version;
+
+    private List< CacheEntry > entries = new ArrayList<>( );
+
+  }
+
+  /**
+   * The persisted form of a cache entry, with the plugin fingerprint and the parsed descriptor.
+   */
+  private static final class CacheEntry {
+
+    private String path;
+
+    private long size;
+
+    private long modified;
+
+    private String hash;
+
+    private String name;
+
+    private UUID id;
+
+    private String description;
+
+    private String license;
+
+    private String version;
+
+    private List< PluginDependency > dependencies = new ArrayList<>( );
+
+    private List< String > jars = new ArrayList<>( );
+
+    private Map< String, String > checksums = new LinkedHashMap<>( );
+
+    /**
+     * The descriptor built from this entry, created on first use, the reload compares descriptors by identity so it is
+     * only ever built once.
+     */
+    private transient volatile PluginDescriptor descriptor;
+
+    private PluginDescriptor descriptor( Path plugin ) {
+
+      PluginDescriptor current = this.descriptor;
+      if( current == null ) {
+        synchronized( this ) {
+          current = this.descriptor;
+          if( current == null ) {
+            current = PluginDescriptor.of( this.name, this.id, this.description, this.license, this.version, this.dependencies, plugin, this.jars, this.checksums );
+            this.descriptor = current;
+          }
+        }
+      }
+      return current;
+
+    }
+
+    /**
+     * Returns true if the plugin file of this entry still exists, with the size and modification time of the entry.
+     */
+    private boolean matches( ) {
+
+      try {
+        BasicFileAttributes attributes = Files.readAttributes( Path.of( this.path ), BasicFileAttributes.class );
+        return attributes.isRegularFile( ) && this.size == attributes.size( ) && this.modified == attributes.lastModifiedTime( ).toMillis( );
+      } catch( IOException ex ) {
+        return false;
+      }
+
+    }
+
+  }
+
+  private final Path cacheFile;
+
+  private final Gson gayson;
+
+  private final Map< String, CacheEntry > entries;
+
+  private final AtomicBoolean dirty;
+
+  private final LongAdder hits;
+
+  private final LongAdder misses;
+
+  private final LongAdder invalidations;
+
+  /**
+   * Creates a new descriptor cache, loading the entries from the given file if it exists.
+   *
+   * @param cacheFile The file where the cache is persisted.
+   * @param gson The gson instance used to read and write the cache file.
+   */
+  public PluginDescriptorCache( Path cacheFile, Gson gson ) {
+
+    this.cacheFile = Objects.requireNonNull( cacheFile );
+    this.gayson = Objects.requireNonNull( gson );
+    this.entries = new ConcurrentHashMap<>( );
+    this.dirty = new AtomicBoolean( false );
+    this.hits = new LongAdder( );
+    this.misses = new LongAdder( );
+    this.invalidations = new LongAdder( );
+    this.load( );
+
+  }
+
+  /**
+   * Returns the cached descriptor of the given plugin, if the plugin did not change since it was cached.
+   *
+   * @param plugin The path of the plugin.
+   * @return The cached descriptor, or empty if there is no valid entry.
+   *
+   * @throws IOException If the plugin file attributes cannot be read.
+   */
+  public @NotNull Optional< PluginDescriptor > get( Path plugin ) throws IOException {
+
+    return this.get( plugin, null );
+
+  }
+
+  /**
+   * Returns the cached descriptor of the given plugin, if the plugin did not change since it was cached, using the
+   * already known attributes of the plugin file.
+   *
+   * @param plugin The path of the plugin.
+   * @param attributes The current attributes of the plugin file, or null to read them only when needed.
+   * @return The cached descriptor, or empty if there is no valid entry.
+   *
+   * @throws IOException If the plugin file attributes cannot be read.
+   */
+  public @NotNull Optional< PluginDescriptor > get( Path plugin, BasicFileAttributes attributes ) throws IOException {
+
+    String key = PluginDescriptorCache.keyOf( plugin );
+    CacheEntry entry = this.entries.get( key );
+    if( entry == null ) {
+      this.misses.increment( );
+      LOGGER.debug( "Plugin descriptor cache miss for {}", key );
+      return Optional.empty( );
+    }
+
+    if( attributes == null ) {
+      attributes = Files.readAttributes( plugin, BasicFileAttributes.class );
+    }
+    if( entry.size == attributes.size( ) && entry.modified == attributes.lastModifiedTime( ).toMillis( ) ) {
+      this.hits.increment( );
+      return Optional.of( entry.descriptor( plugin ) );
+    }
+
+    // The file was touched, only a different content invalidates the entry.
+    if( entry.size == attributes.size( ) && Objects.equals( entry.hash, PluginDescriptorCache.hashOf( plugin ) ) ) {
+      entry.modified = attributes.lastModifiedTime( ).toMillis( );
+      this.dirty.set( true );
+      this.hits.increment( );
+      return Optional.of( entry.descriptor( plugin ) );
+    }
+
+    this.entries.remove( key, entry );
+    this.dirty.set( true );
+    this.invalidations.increment( );
+    this.misses.increment( );
+    LOGGER.debug( "Plugin descriptor cache entry for {} invalidated", key );
+    return Optional.empty( );
+
+  }
+
+  /**
+   * Adds the given descriptor to the cache, replacing any existing entry for the same plugin path.
+   *
+   * @param descriptor The descriptor to add.
+   *
+   * @throws IOException If the plugin file cannot be read.
+   */
+  public void put( PluginDescriptor descriptor ) throws IOException {
+
+    Path plugin = Objects.requireNonNull( descriptor.Path( ) );
+    BasicFileAttributes attributes = Files.readAttributes( plugin, BasicFileAttributes.class );
+
+    CacheEntry entry = new CacheEntry( );
+    entry.path = PluginDescriptorCache.keyOf( plugin );
+    entry.size = attributes.size( );
+    entry.modified = attributes.lastModifiedTime( ).toMillis( );
+    entry.hash = PluginDescriptorCache.hashOf( plugin );
+    entry.name = descriptor.Name( );
+    entry.id = descriptor.Id( );
+    entry.description = descriptor.Description( );
+    entry.license = descriptor.License( );
+    entry.version = descriptor.Version( );
+    entry.dependencies = new ArrayList<>( descriptor.Dependencies( ) );
+    entry.jars = new ArrayList<>( descriptor.JarEntries( ) );
+    entry.checksums = new LinkedHashMap<>( descriptor.Checksums( ) );
+    entry.descriptor = descriptor;
+
+    this.entries.put( entry.path, entry );
+    this.dirty.set( true );
+
+  }
+
+  /**
+   * Writes the cache to its file, if anything changed since it was loaded or last saved, forgetting the plugins whose
+   * files were deleted or changed since they were cached.
+   *
+   * @throws IOException If the cache file cannot be written.
+   */
+  public synchronized void save( ) throws IOException {
+
+    if( this.entries.values( ).removeIf( entry -> !entry.matches( ) ) ) {
+      this.dirty.set( true );
+    }
+    if( !this.dirty.getAndSet( false ) ) {
+      return;
+    }
+
+    CacheFile file = new CacheFile( );
+    file.version = PluginDescriptorCache.FORMAT_VERSION;
+    file.entries = new ArrayList<>( this.entries.values( ) );
+
+    Files.createDirectories( this.cacheFile.toAbsolutePath( ).getParent( ) );
+    Path temporary = Files.createTempFile( this.cacheFile.toAbsolutePath( ).getParent( ), "descriptors", ".tmp" );
+    try {
+      try( Writer writer = Files.newBufferedWriter( temporary, StandardCharsets.UTF_8 ) ) {
+        this.gayson.toJson( file, writer );
+      }
+      Files.move( temporary, this.cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    } catch( IOException ex ) {
+      this.dirty.set( true );
+      Files.deleteIfExists( temporary );
+      throw ex;
+    }
+
+  }
+
+  /**
+   * Returns the current statistics of the cache.
+   */
+  @Contract( " -> new" )
+  public @NotNull Statistics Statistics( ) {
+
+    return new Statistics( this.hits.sum( ), this.misses.sum( ), this.invalidations.sum( ) );
+
+  }
+
+  private void load( ) {
+
+    if( !Files.isRegularFile( this.cacheFile ) ) {
+      return;
+    }
+
+    try( Reader reader = Files.newBufferedReader( this.cacheFile, StandardCharsets.UTF_8 ) ) {
+      CacheFile file = this.gayson.fromJson( reader, CacheFile.class );
+      if( file == null || file.version != PluginDescriptorCache.FORMAT_VERSION ) {
+        LOGGER.info( "Discarding the plugin descriptor cache in {}, it has an unknown format", this.cacheFile );
+        return;
+      }
+      for( CacheEntry entry : file.entries ) {
+        this.entries.put( entry.path, entry );
+      }
+    } catch( IOException | JsonParseException ex ) {
+      LOGGER.warn( "Unable to read the plugin descriptor cache in {}", this.cacheFile, ex );
+    }
+
+  }
+
+  private static @NotNull String keyOf( Path plugin ) {
+
+    return Objects.requireNonNull( plugin ).toAbsolutePath( ).normalize( ).toString( );
+
+  }
+
+  /**
+   * Returns the checksum of the contents of the given file.
+   */
+  static @NotNull String hashOf( Path file ) throws IOException {
+
+    return PluginIntegrity.checksum( file );
+
+  }
+
+}
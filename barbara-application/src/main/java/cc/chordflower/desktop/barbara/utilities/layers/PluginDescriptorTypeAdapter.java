@@ -0,0 +1,214 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.vdurmont.semver4j.SemverException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Reads and writes plugin descriptors straight from a json stream, without reflection or intermediate trees.
+ *
+ * The reader is strict, every value must have the type required by the plugin schema and the required properties must be
+ * present, so any descriptor it accepts would also be accepted by the schema. Unknown properties are skipped.
+ *
+ * The integrity manifest is only accepted with the checksum algorithm computed by {@link PluginIntegrity}.
+ *
+ * @author carddamom
+ */
+public final class PluginDescriptorTypeAdapter extends TypeAdapter< PluginDescriptor > {
+
+  private final PluginDependencyTypeAdapter dependencyAdapter;
+
+  /**
+   * Creates a new plugin descriptor type adapter.
+   */
+  public PluginDescriptorTypeAdapter( ) {
+
+    this.dependencyAdapter = new PluginDependencyTypeAdapter( );
+
+  }
+
+  @Override
+  public void write( JsonWriter out, PluginDescriptor descriptor ) throws IOException {
+
+    if( descriptor == null ) {
+      out.nullValue( );
+      return;
+    }
+    out.beginObject( );
+    out.name( "name" ).value( descriptor.Name( ) );
+    out.name( "$id" ).value( descriptor.Id( ).toString( ) );
+    if( descriptor.Description( ) != null ) {
+      out.name( "description" ).value( descriptor.Description( ) );
+    }
+    out.name( "license" ).value( descriptor.License( ) );
+    out.name( "version" ).value( descriptor.Version( ) );
+    out.name( "dependencies" ).beginArray( );
+    for( PluginDependency dependency : descriptor.Dependencies( ) ) {
+      this.dependencyAdapter.write( out, dependency );
+    }
+    out.endArray( );
+    if( !descriptor.Checksums( ).isEmpty( ) ) {
+      out.name( "integrity" ).beginObject( );
+      out.name( "algorithm" ).value( PluginIntegrity.ALGORITHM );
+      out.name( "files" ).beginObject( );
+      for( var checksum : descriptor.Checksums( ).entrySet( ) ) {
+        out.name( checksum.getKey( ) ).value( checksum.getValue( ) );
+      }
+      out.endObject( );
+      out.endObject( );
+    }
+    out.endObject( );
+
+  }
+
+  /**
+   * Reads a plugin descriptor that is not attached to any plugin file.
+   */
+  @Override
+  public PluginDescriptor read( JsonReader in ) throws IOException {
+
+    if( in.peek( ) == JsonToken.NULL ) {
+      in.nextNull( );
+      return null;
+    }
+    return this.read( in, null, List.of( ) );
+
+  }
+
+  /**
+   * Reads the plugin descriptor of the given plugin file, building it directly with its path and jar entries.
+   *
+   * @param in The reader positioned at the descriptor object.
+   * @param path The path of the plugin file.
+   * @param jarEntries The names of the jar entries inside the plugin file.
+   * @return The plugin descriptor.
+   *
+   * @throws IOException If the stream cannot be read, or is not valid json.
+   * @throws JsonParseException If the descriptor does not have the structure required by the plugin schema, or its
+   *     version is not valid.
+   */
+  public @NotNull PluginDescriptor read( JsonReader in, Path path, List< String > jarEntries ) throws IOException {
+
+    Objects.requireNonNull( jarEntries );
+
+    String name = null;
+    UUID id = null;
+    String description = null;
+    String license = null;
+    String version = null;
+    List< PluginDependency > dependencies = List.of( );
+    Map< String, String > checksums = Map.of( );
+
+    PluginDependencyTypeAdapter.expect( in, JsonToken.BEGIN_OBJECT );
+    in.beginObject( );
+    while( in.hasNext( ) ) {
+      switch( in.nextName( ) ) {
+        case "name" -> name = PluginDependencyTypeAdapter.nextString( in );
+        case "$id" -> id = PluginDependencyTypeAdapter.nextUuid( in );
+        case "description" -> description = PluginDependencyTypeAdapter.nextString( in );
+        case "license" -> license = PluginDependencyTypeAdapter.nextString( in );
+        case "version" -> version = PluginDependencyTypeAdapter.nextString( in );
+        case "dependencies" -> dependencies = this.readDependencies( in );
+        case "integrity" -> checksums = PluginDescriptorTypeAdapter.readIntegrity( in );
+        default -> in.skipValue( );
+      }
+    }
+    in.endObject( );
+
+    if( name == null || id == null || license == null || version == null ) {
+      throw new JsonParseException( "The plugin descriptor must have a name, an $id, a license and a version" );
+    }
+    try {
+      return PluginDescriptor.of( name, id, description, license, version, dependencies, path, jarEntries, checksums );
+    } catch( SemverException ex ) {
+      throw new JsonParseException( "The version %s of the plugin %s is not a valid semver version".formatted( version, name ), ex );
+    }
+
+  }
+
+  private @NotNull List< PluginDependency > readDependencies( JsonReader in ) throws IOException {
+
+    List< PluginDependency > dependencies = new ArrayList<>( );
+    PluginDependencyTypeAdapter.expect( in, JsonToken.BEGIN_ARRAY );
+    in.beginArray( );
+    while( in.hasNext( ) ) {
+      PluginDependencyTypeAdapter.expect( in, JsonToken.BEGIN_OBJECT );
+      dependencies.add( this.dependencyAdapter.read( in ) );
+    }
+    in.endArray( );
+    return dependencies;
+
+  }
+
+  private static @NotNull Map< String, String > readIntegrity( JsonReader in ) throws IOException {
+
+    String algorithm = null;
+    Map< String, String > checksums = null;
+    PluginDependencyTypeAdapter.expect( in, JsonToken.BEGIN_OBJECT );
+    in.beginObject( );
+    while( in.hasNext( ) ) {
+      switch( in.nextName( ) ) {
+        case "algorithm" -> algorithm = PluginDependencyTypeAdapter.nextString( in );
+        case "files" -> checksums = PluginDescriptorTypeAdapter.readChecksums( in );
+        default -> in.skipValue( );
+      }
+    }
+    in.endObject( );
+
+    if( algorithm == null || checksums == null ) {
+      throw new JsonParseException( "The plugin integrity manifest must have an algorithm and files" );
+    }
+    if( !PluginIntegrity.ALGORITHM.equals( algorithm ) ) {
+      throw new JsonParseException( "The plugin integrity algorithm %s is not supported".formatted( algorithm ) );
+    }
+    return checksums;
+
+  }
+
+  private static @NotNull Map< String, String > readChecksums( JsonReader in ) throws IOException {
+
+    Map< String, String > checksums = new LinkedHashMap<>( );
+    PluginDependencyTypeAdapter.expect( in, JsonToken.BEGIN_OBJECT );
+    in.beginObject( );
+    while( in.hasNext( ) ) {
+      String name = in.nextName( );
+      String checksum = PluginDependencyTypeAdapter.nextString( in );
+      if( !PluginIntegrity.isChecksum( checksum ) ) {
+        throw new JsonParseException( "The checksum of %s is not a lowercase sha-256 hex string".formatted( name ) );
+      }
+      checksums.put( name, checksum );
+    }
+    in.endObject( );
+    return checksums;
+
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import com.google.gson.JsonElement;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Validates the plugin descriptors, first the json document against the plugin schema, and then the parsed descriptor
+ * against its bean constraints.
+ *
+ * The schema is compiled, and the bean constraint metadata is built, only once, so validating a descriptor is a single
+ * walk over the document and the descriptor, and can be done by many threads at the same time.
+ *
+ * @author carddamom
+ */
+public final class PluginDescriptorValidator {
+
+  /**
+   * Holds the validator shared by every descriptor, it is only built the first time it is used.
+   */
+  private static final class Holder {
+
+    private static final Validator VALIDATOR = Holder.buildValidator( );
+
+    private static @NotNull Validator buildValidator( ) {
+
+      Validator validator = Validation.buildDefaultValidatorFactory( ).getValidator( );
+      // Builds the constraint metadata now, instead of on the first validation.
+      validator.getConstraintsForClass( PluginDescriptor.class );
+      validator.getConstraintsForClass( PluginDependency.class );
+      return validator;
+
+    }
+
+  }
+
+  private final PluginSchema schema;
+
+  /**
+   * Creates a new plugin descriptor validator.
+   *
+   * @param schema The compiled plugin schema.
+   */
+  public PluginDescriptorValidator( PluginSchema schema ) {
+
+    this.schema = Objects.requireNonNull( schema );
+
+  }
+
+  /**
+   * Creates a new plugin descriptor validator, with the plugin schema shipped with barbara-spi.
+   *
+   * @throws UncheckedIOException If the plugin schema cannot be compiled.
+   */
+  public PluginDescriptorValidator( ) {
+
+    this( PluginDescriptorValidator.compilePluginSchema( ) );
+
+  }
+
+  /**
+   * Validates the given plugin descriptor document against the plugin schema.
+   *
+   * @param document The parsed plugin.json file.
+   * @return The violations found, empty if the document is valid.
+   */
+  @Contract( "_ -> new" )
+  public @NotNull List< String > validate( JsonElement document ) {
+
+    return this.schema.validate( document );
+
+  }
+
+  /**
+   * Validates the given plugin descriptor against its bean constraints.
+   *
+   * @param descriptor The plugin descriptor.
+   * @return The violations found, empty if the descriptor is valid.
+   */
+  @Contract( "_ -> new" )
+  public @NotNull List< String > validate( PluginDescriptor descriptor ) {
+
+    return descriptor.validate( ).stream( )
+        .sorted( Comparator.comparing( violation -> violation.getPropertyPath( ).toString( ) ) )
+        .map( violation -> "%s: %s".formatted( violation.getPropertyPath( ), violation.getMessage( ) ) )
+        .toList( );
+
+  }
+
+  /**
+   * Returns the shared bean validator.
+   */
+  static @NotNull Validator beanValidator( ) {
+
+    return Holder.VALIDATOR;
+
+  }
+
+  private static @NotNull PluginSchema compilePluginSchema( ) {
+
+    try {
+      return PluginSchema.compilePluginSchema( );
+    } catch( IOException ex ) {
+      throw new UncheckedIOException( ex );
+    }
+
+  }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a plugin directory, and reloads the plugins whose zip files were created, changed or deleted.
+ *
+ * File events usually come in bursts while a plugin is being copied, so the changes are collected until the directory
+ * is quiet for the debounce period, and then handed to {@link BarbaraPluginManager#reloadPlugins(java.util.Collection)}
+ * at once.
+ *
+ * @author carddamom
+ */
+public final class PluginDirectoryWatcher implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( PluginDirectoryWatcher.class );
+
+  private final BarbaraPluginManager manager;
+
+  private final Path directory;
+
+  private final Duration debounce;
+
+  private final Consumer< PluginLoadReport > listener;
+
+  private final WatchService watchService;
+
+  private final ExecutorService watcher;
+
+  private final ScheduledExecutorService reloader;
+
+  private final Set< Path > changed;
+
+  private ScheduledFuture< ? > pendingReload;
+
+  /**
+   * Creates a new plugin directory watcher, it only starts watching when {@link #start()} is called.
+   *
+   * @param manager The plugin manager that reloads the plugins.
+   * @param directory The plugin directory.
+   * @param debounce How long the directory must be quiet before the changed plugins are reloaded.
+   * @param listener Receives the report of each reload, on the reload thread.
+   *
+   * @throws IOException If the directory cannot be watched.
+   */
+  public PluginDirectoryWatcher( BarbaraPluginManager manager, Path directory, Duration debounce, Consumer< PluginLoadReport > listener ) throws IOException {
+
+    this.manager = Objects.requireNonNull( manager );
+    this.directory = Objects.requireNonNull( directory ).toAbsolutePath( ).normalize( );
+    this.debounce = Objects.requireNonNull( debounce );
+    this.listener = Objects.requireNonNull( listener );
+    this.watchService = this.directory.getFileSystem( ).newWatchService( );
+    this.watcher = Executors.newSingleThreadExecutor( new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-plugin-watcher-%d" )
+        .daemon( true )
+        .build( ) );
+    this.reloader = Executors.newSingleThreadScheduledExecutor( new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-plugin-reloader-%d" )
+        .daemon( true )
+        .build( ) );
+    this.changed = new LinkedHashSet<>( );
+
+  }
+
+  /**
+   * Starts watching the plugin directory.
+   *
+   * @throws IOException If the directory cannot be registered with the watch service.
+   */
+  public void start( ) throws IOException {
+
+    this.directory.register( this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+        StandardWatchEventKinds.ENTRY_DELETE );
+    this.watcher.execute( this::watch );
+    LOGGER.info( "Watching the plugin directory {}", this.directory );
+
+  }
+
+  /**
+   * Returns the watched directory.
+   */
+  public @NotNull Path Directory( ) {
+
+    return this.directory;
+
+  }
+
+  @Override
+  public void close( ) throws IOException {
+
+    this.watchService.close( );
+    this.watcher.shutdownNow( );
+    this.reloader.shutdownNow( );
+
+  }
+
+  private void watch( ) {
+
+    try {
+      while( !Thread.currentThread( ).isInterrupted( ) ) {
+        WatchKey key = this.watchService.take( );
+        for( WatchEvent< ? > event : key.pollEvents( ) ) {
+          if( event.kind( ) == StandardWatchEventKinds.OVERFLOW ) {
+            // Some events were lost, so every plugin in the directory has to be checked.
+            this.rescan( );
+          } else if( event.context( ) instanceof Path name && name.getFileName( ).toString( ).endsWith( ".zip" ) ) {
+            this.schedule( List.of( this.directory.resolve( name ) ) );
+          }
+        }
+        if( !key.reset( ) ) {
+          LOGGER.warn( "The plugin directory {} can no longer be watched", this.directory );
+          return;
+        }
+      }
+    } catch( InterruptedException ex ) {
+      Thread.currentThread( ).interrupt( );
+    } catch( ClosedWatchServiceException ex ) {
+      LOGGER.debug( "Stopped watching the plugin directory {}", this.directory );
+    }
+
+  }
+
+  private void rescan( ) {
+
+    Set< Path > paths = new LinkedHashSet<>( this.manager.installedPaths( ) );
+    try( DirectoryStream< Path > stream = Files.newDirectoryStream( this.directory, "*.zip" ) ) {
+      stream.forEach( path -> paths.add( path.toAbsolutePath( ).normalize( ) ) );
+    } catch( IOException ex ) {
+      LOGGER.warn( "Unable to list the plugin directory {}", this.directory, ex );
+    }
+    this.schedule( paths.stream( ).filter( path -> path.startsWith( this.directory ) ).toList( ) );
+
+  }
+
+  private synchronized void schedule( List< Path > paths ) {
+
+    this.changed.addAll( paths );
+    if( this.pendingReload != null ) {
+      this.pendingReload.cancel( false );
+    }
+    this.pendingReload = this.reloader.schedule( this::reload, this.debounce.toMillis( ), TimeUnit.MILLISECONDS );
+
+  }
+
+  private void reload( ) {
+
+    List< Path > paths;
+    synchronized( this ) {
+      paths = List.copyOf( this.changed );
+      this.changed.clear( );
+      this.pendingReload = null;
+    }
+    if( paths.isEmpty( ) ) {
+      return;
+    }
+
+    try {
+      LOGGER.info( "Reloading the changed plugins {}", paths );
+      this.listener.accept( this.manager.reloadPlugins( paths ) );
+    } catch( InterruptedException ex ) {
+      Thread.currentThread( ).interrupt( );
+    } catch( RuntimeException ex ) {
+      LOGGER.error( "Unable to reload the changed plugins {}", paths, ex );
+    }
+
+  }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import cc.chordflower.desktop.barbara.spi.index.ExtensionIndex;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * An extension provided by a plugin, as listed in the plugin extension index.
+ *
+ * Listing the extensions does not load any class, nor create the plugin module layer, the provider class is only
+ * loaded and instantiated when {@link #load()} is called.
+ *
+ * @param <S> The type of the extension point.
+ * @author carddamom
+ */
+public final class PluginExtension< S > {
+
+  private final PluginDescriptor plugin;
+
+  private final Class< S > service;
+
+  private final ExtensionIndex.Entry entry;
+
+  private final Function< UUID, PluginLayer > layers;
+
+  @Contract( pure = true )
+  private PluginExtension( PluginDescriptor plugin, Class< S > service, ExtensionIndex.Entry entry, Function< UUID, PluginLayer > layers ) {
+
+    this.plugin = plugin;
+    this.service = service;
+    this.entry = entry;
+    this.layers = layers;
+
+  }
+
+  /**
+   * Creates a new plugin extension.
+   *
+   * @param plugin The plugin that provides the extension.
+   * @param service The extension point.
+   * @param entry The extension index entry.
+   * @param layers Returns the layer of an active plugin, or null if it is no longer active.
+   * @return The new extension.
+   */
+  @Contract( "_, _, _, _ -> new" )
+  static < S > @NotNull PluginExtension< S > of( PluginDescriptor plugin, Class< S > service, ExtensionIndex.Entry entry, Function< UUID, PluginLayer > layers ) {
+
+    return new PluginExtension<>( Objects.requireNonNull( plugin ), Objects.requireNonNull( service ), Objects.requireNonNull( entry ), Objects.requireNonNull( layers ) );
+
+  }
+
+  /**
+   * Returns the plugin that provides the extension.
+   */
+  @Contract( pure = true )
+  public PluginDescriptor Plugin( ) {
+
+    return this.plugin;
+
+  }
+
+  /**
+   * Returns the extension point.
+   */
+  @Contract( pure = true )
+  public Class< S > Service( ) {
+
+    return this.service;
+
+  }
+
+  /**
+   * Returns the binary name of the class that provides the extension.
+   */
+  @Contract( pure = true )
+  public String Provider( ) {
+
+    return this.entry.Provider( );
+
+  }
+
+  /**
+   * Returns the name of the extension shown to the user.
+   */
+  @Contract( pure = true )
+  public String Name( ) {
+
+    return this.entry.Name( );
+
+  }
+
+  /**
+   * Returns the description of the extension.
+   */
+  @Contract( pure = true )
+  public String Description( ) {
+
+    return this.entry.Description( );
+
+  }
+
+  /**
+   * Returns the priority of the extension, higher priorities are chosen first.
+   */
+  @Contract( pure = true )
+  public int Priority( ) {
+
+    return this.entry.Priority( );
+
+  }
+
+  /**
+   * Returns the tags of the extension.
+   */
+  @Contract( pure = true )
+  public @NotNull @UnmodifiableView List< String > Tags( ) {
+
+    return this.entry.Tags( );
+
+  }
+
+  /**
+   * Loads and instantiates the extension, creating the plugin module layer if it was not yet created.
+   *
+   * @return A new instance of the extension.
+   *
+   * @throws IllegalStateException If the plugin is no longer active.
+   * @throws ServiceConfigurationError If the plugin module does not provide the extension, or it cannot be instantiated.
+   */
+  public @NotNull S load( ) {
+
+    PluginLayer layer = this.layers.apply( this.plugin.Id( ) );
+    if( layer == null || layer.Descriptor( ) != this.plugin ) {
+      throw new IllegalStateException( "The plugin %s is no longer active".formatted( this.plugin.Name( ) ) );
+    }
+    // The service loader also returns the providers of the parent layers, only the listed one is instantiated.
+    return layer.services( this.service ).stream( )
+        .filter( provider -> provider.type( ).getName( ).equals( this.entry.Provider( ) ) )
+        .findFirst( )
+        .map( ServiceLoader.Provider::get )
+        .orElseThrow( ( ) -> new ServiceConfigurationError( "The plugin %s does not provide %s with %s".formatted( this.plugin.Name( ), this.service.getName( ),
+            this.entry.Provider( ) ) ) );
+
+  }
+
+  @Override
+  public String toString( ) {
+
+    return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "plugin", this.plugin.Name( ) ).append( "service", this.service.getName( ) )
+        .append( "provider", this.entry.Provider( ) ).append( "priority", this.entry.Priority( ) ).build( );
+
+  }
+
+}
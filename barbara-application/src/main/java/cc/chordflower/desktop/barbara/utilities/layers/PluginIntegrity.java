@@ -0,0 +1,717 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import cc.chordflower.desktop.barbara.exceptions.PluginIntegrityException;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Verifies the jars inside plugin files against the integrity manifest of their descriptors, before they are loaded.
+ *
+ * A single sha-256 cannot be split across cores, so the checksums are computed with the {@value #ALGORITHM} algorithm:
+ * the contents are split in chunks of {@value #CHUNK_SIZE} bytes, each chunk is hashed on its own, on a pool with a
+ * thread per core, and the checksum is the sha-256 of the concatenated chunk hashes. Stored entries and plugin files are
+ * hashed straight from memory mapped slices, compressed entries are inflated chunk by chunk while the previous chunks
+ * are being hashed.
+ *
+ * Every verified plugin is kept in a persistent cache, keyed by its path, that is valid while the plugin file keeps the
+ * same size and modification time, so an unchanged plugin costs a single stat. When only the modification time changes,
+ * the checksum of the whole plugin file decides if the entry is still valid.
+ *
+ * @author carddamom
+ */
+public final class PluginIntegrity {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( PluginIntegrity.class );
+
+  /**
+   * The name of the checksum algorithm, as written in the integrity manifest.
+   */
+  public static final String ALGORITHM = "sha256-chunked";
+
+  /**
+   * The size of each hashed chunk.
+   */
+  public static final int CHUNK_SIZE = 1024 * 1024;
+
+  /**
+   * The version of the cache file.
+   */
+  private static final int FORMAT_VERSION = 1;
+
+  private static final Pattern CHECKSUM = Pattern.compile( "[0-9a-f]{64}" );
+
+  /**
+   * How many inflated chunks of a compressed entry may be waiting to be hashed, per core.
+   */
+  private static final int CHUNKS_IN_FLIGHT = 2;
+
+  private static final ThreadLocal< MessageDigest > DIGESTS = ThreadLocal.withInitial( PluginIntegrity::sha256 );
+
+  /**
+   * The pool that hashes the chunks, it is shared by every verifier and only created when first needed.
+   */
+  private static final class Hashing {
+
+    private static final int THREADS = Runtime.getRuntime( ).availableProcessors( );
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool( Hashing.THREADS, new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-plugin-integrity-%d" )
+        .daemon( true )
+        .build( ) );
+
+  }
+
+  /**
+   * The statistics of the verifier, this is an immutable class aka a value class.
+   */
+  public static final class Statistics {
+
+    private final long hits;
+
+    private final long verified;
+
+    private final long unsigned;
+
+    private final long failures;
+
+    private final long hashedBytes;
+
+    private final Duration hashingTime;
+
+    @Contract( pure = true )
+    private Statistics( long hits, long verified, long unsigned, long failures, long hashedBytes, Duration hashingTime ) {
+
+      this.hits = hits;
+      this.verified = verified;
+      this.unsigned = unsigned;
+      this.failures = failures;
+      this.hashedBytes = hashedBytes;
+      this.hashingTime = hashingTime;
+
+    }
+
+    /**
+     * Returns the number of plugins accepted from the cache, without hashing any jar.
+     */
+    @Contract( pure = true )
+    public long Hits( ) {
+
+      return this.hits;
+
+    }
+
+    /**
+     * Returns the number of plugins whose jars were hashed and matched their integrity manifest.
+     */
+    @Contract( pure = true )
+    public long Verified( ) {
+
+      return this.verified;
+
+    }
+
+    /**
+     * Returns the number of plugins accepted without an integrity manifest.
+     */
+    @Contract( pure = true )
+    public long Unsigned( ) {
+
+      return this.unsigned;
+
+    }
+
+    /**
+     * Returns the number of plugins that failed the integrity check.
+     */
+    @Contract( pure = true )
+    public long Failures( ) {
+
+      return this.failures;
+
+    }
+
+    /**
+     * Returns the number of bytes hashed, both from jars and from plugin files.
+     */
+    @Contract( pure = true )
+    public long HashedBytes( ) {
+
+      return this.hashedBytes;
+
+    }
+
+    /**
+     * Returns the time spent verifying plugins that were not in the cache.
+     */
+    @Contract( pure = true )
+    public Duration HashingTime( ) {
+
+      return this.hashingTime;
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "hits", this.hits ).append( "verified", this.verified ).append( "unsigned", this.unsigned )
+          .append( "failures", this.failures ).append( "hashedBytes", this.hashedBytes ).append( "hashingTime", this.hashingTime.toMillis( ) ).build( );
+
+    }
+
+  }
+
+  /**
+   * The persisted form of the cache.
+   */
+  private static final class CacheFile {
+
+    private int version;
+
+    private List< CacheEntry > entries = new ArrayList<>( );
+
+  }
+
+  /**
+   * The persisted form of a cache entry, with the fingerprint of a verified plugin file.
+   */
+  private static final class CacheEntry {
+
+    private String path;
+
+    private long size;
+
+    private long modified;
+
+    private String checksum;
+
+  }
+
+  /**
+   * The chunk hashes of some content, computed in parallel and combined in order.
+   */
+  private static final class ChunkedChecksum {
+
+    private final List< CompletableFuture< byte[ ] > > chunks;
+
+    private long size;
+
+    private ChunkedChecksum( ) {
+
+      this.chunks = new ArrayList<>( );
+      this.size = 0;
+
+    }
+
+    /**
+     * Hashes the given chunk, the buffer must not be used by anyone else.
+     */
+    private void add( ByteBuffer chunk ) {
+
+      this.size += chunk.remaining( );
+      this.chunks.add( CompletableFuture.supplyAsync( ( ) -> PluginIntegrity.digest( chunk ), Hashing.EXECUTOR ) );
+
+    }
+
+    /**
+     * Maps and hashes the given region of the channel, the channel must stay open until the checksum is computed.
+     */
+    private void add( FileChannel channel, long offset, int length ) {
+
+      this.size += length;
+      this.chunks.add( CompletableFuture.supplyAsync( ( ) -> {
+        try {
+          return PluginIntegrity.digest( channel.map( FileChannel.MapMode.READ_ONLY, offset, length ) );
+        } catch( IOException ex ) {
+          throw new UncheckedIOException( ex );
+        }
+      }, Hashing.EXECUTOR ) );
+
+    }
+
+    /**
+     * Waits until at most the given number of chunks are still being hashed.
+     */
+    private void await( int pending ) {
+
+      if( this.chunks.size( ) > pending ) {
+        this.chunks.get( this.chunks.size( ) - pending - 1 ).join( );
+      }
+
+    }
+
+    private @NotNull String checksum( ) throws IOException {
+
+      MessageDigest digest = PluginIntegrity.sha256( );
+      try {
+        for( CompletableFuture< byte[ ] > chunk : this.chunks ) {
+          digest.update( chunk.join( ) );
+        }
+      } catch( CompletionException ex ) {
+        if( ex.getCause( ) instanceof UncheckedIOException unchecked ) {
+          throw unchecked.getCause( );
+        }
+        throw new IOException( "Unable to hash the contents", ex.getCause( ) );
+      }
+      return HexFormat.of( ).formatHex( digest.digest( ) );
+
+    }
+
+  }
+
+  private final Path cacheFile;
+
+  private final Gson gayson;
+
+  private final Map< String, CacheEntry > entries;
+
+  private final AtomicBoolean dirty;
+
+  private volatile boolean required;
+
+  private final LongAdder hits;
+
+  private final LongAdder verified;
+
+  private final LongAdder unsigned;
+
+  private final LongAdder failures;
+
+  private final LongAdder hashedBytes;
+
+  private final LongAdder hashingTime;
+
+  /**
+   * Creates a new integrity verifier, loading the verified plugins from the given cache file if it exists.
+   *
+   * @param cacheFile The file where the verified plugins are persisted.
+   * @param gson The gson instance used to read and write the cache file.
+   */
+  public PluginIntegrity( Path cacheFile, Gson gson ) {
+
+    this.cacheFile = Objects.requireNonNull( cacheFile );
+    this.gayson = Objects.requireNonNull( gson );
+    this.entries = new ConcurrentHashMap<>( );
+    this.dirty = new AtomicBoolean( false );
+    this.required = false;
+    this.hits = new LongAdder( );
+    this.verified = new LongAdder( );
+    this.unsigned = new LongAdder( );
+    this.failures = new LongAdder( );
+    this.hashedBytes = new LongAdder( );
+    this.hashingTime = new LongAdder( );
+    this.load( );
+
+  }
+
+  /**
+   * Returns true if plugins without an integrity manifest are rejected.
+   */
+  public boolean isRequired( ) {
+
+    return this.required;
+
+  }
+
+  /**
+   * Sets if plugins without an integrity manifest are rejected, by default they are accepted without any check.
+   */
+  public void setRequired( boolean required ) {
+
+    this.required = required;
+
+  }
+
+  /**
+   * Verifies the jars of the given plugin against its integrity manifest.
+   *
+   * @param descriptor The plugin descriptor, with the path of the plugin file.
+   *
+   * @throws PluginIntegrityException If the plugin does not match its integrity manifest.
+   * @throws IOException If the plugin file cannot be read.
+   * @see #verify(PluginDescriptor, BasicFileAttributes)
+   */
+  public void verify( PluginDescriptor descriptor ) throws IOException {
+
+    this.verify( descriptor, Files.readAttributes( descriptor.Path( ), BasicFileAttributes.class ) );
+
+  }
+
+  /**
+   * Verifies the jars of the given plugin against its integrity manifest, unless the plugin file did not change since it
+   * was last verified.
+   *
+   * Every jar inside the plugin file must have a matching checksum in the manifest, and every file in the manifest must
+   * exist, so a jar cannot be added to or removed from a plugin without updating its descriptor.
+   *
+   * @param descriptor The plugin descriptor, with the path of the plugin file.
+   * @param attributes The current attributes of the plugin file.
+   *
+   * @throws PluginIntegrityException If the plugin does not match its integrity manifest.
+   * @throws IOException If the plugin file cannot be read.
+   */
+  public void verify( PluginDescriptor descriptor, BasicFileAttributes attributes ) throws IOException {
+
+    Path plugin = Objects.requireNonNull( descriptor.Path( ) );
+    String key = PluginIntegrity.keyOf( plugin );
+    CacheEntry entry = this.entries.get( key );
+    if( entry != null && entry.size == attributes.size( ) && entry.modified == attributes.lastModifiedTime( ).toMillis( ) ) {
+      this.hits.increment( );
+      return;
+    }
+
+    if( descriptor.Checksums( ).isEmpty( ) ) {
+      if( this.required ) {
+        this.failures.increment( );
+        throw new PluginIntegrityException( plugin, List.of( "the plugin has no integrity manifest" ) );
+      }
+      this.unsigned.increment( );
+      return;
+    }
+
+    long start = System.nanoTime( );
+    try {
+      // The file was touched, only a different content requires the jars to be verified again.
+      if( entry != null && entry.size == attributes.size( ) ) {
+        String checksum = this.checksumOf( plugin );
+        if( checksum.equals( entry.checksum ) ) {
+          entry.modified = attributes.lastModifiedTime( ).toMillis( );
+          this.dirty.set( true );
+          this.hits.increment( );
+          return;
+        }
+      }
+
+      String checksum = this.verifyJars( plugin, descriptor.Checksums( ) );
+
+      CacheEntry verified = new CacheEntry( );
+      verified.path = key;
+      verified.size = attributes.size( );
+      verified.modified = attributes.lastModifiedTime( ).toMillis( );
+      verified.checksum = checksum;
+      this.entries.put( key, verified );
+      this.dirty.set( true );
+      this.verified.increment( );
+    } catch( PluginIntegrityException ex ) {
+      if( this.entries.remove( key ) != null ) {
+        this.dirty.set( true );
+      }
+      this.failures.increment( );
+      throw ex;
+    } finally {
+      this.hashingTime.add( System.nanoTime( ) - start );
+    }
+
+  }
+
+  /**
+   * Hashes every jar of the given plugin, together with the plugin file itself, and compares the jars with the given
+   * checksums.
+   *
+   * @return The checksum of the plugin file.
+   */
+  private @NotNull String verifyJars( Path plugin, Map< String, String > expected ) throws IOException {
+
+    Map< String, String > declared = new LinkedHashMap<>( );
+    expected.forEach( ( name, checksum ) -> declared.put( PluginIntegrity.entryNameOf( name ), checksum ) );
+
+    try( PluginArchive archive = PluginArchive.open( plugin ) ) {
+      List< String > mismatches = new ArrayList<>( );
+      Map< String, PluginArchive.Entry > jars = new LinkedHashMap<>( );
+      for( PluginArchive.Entry jar : archive.find( "**/*.jar" ) ) {
+        if( declared.containsKey( jar.Name( ) ) ) {
+          jars.put( jar.Name( ), jar );
+        } else {
+          mismatches.add( "%s has no checksum".formatted( jar.Name( ) ) );
+        }
+      }
+      for( String name : declared.keySet( ) ) {
+        if( !jars.containsKey( name ) ) {
+          mismatches.add( "%s is missing".formatted( name ) );
+        }
+      }
+      if( !mismatches.isEmpty( ) ) {
+        throw new PluginIntegrityException( plugin, mismatches );
+      }
+
+      // Every chunk of every stored jar is queued before the compressed jars are inflated, so all cores are busy.
+      try( FileChannel channel = FileChannel.open( plugin, StandardOpenOption.READ ) ) {
+        ChunkedChecksum file = PluginIntegrity.submit( channel );
+        Map< String, ChunkedChecksum > checksums = new LinkedHashMap<>( );
+        for( PluginArchive.Entry jar : jars.values( ) ) {
+          if( jar.isStored( ) ) {
+            checksums.put( jar.Name( ), PluginIntegrity.submit( archive, jar ) );
+          }
+        }
+        for( PluginArchive.Entry jar : jars.values( ) ) {
+          if( !jar.isStored( ) ) {
+            checksums.put( jar.Name( ), PluginIntegrity.submit( archive, jar ) );
+          }
+        }
+
+        for( var checksum : checksums.entrySet( ) ) {
+          String actual = checksum.getValue( ).checksum( );
+          this.hashedBytes.add( checksum.getValue( ).size );
+          if( !actual.equals( declared.get( checksum.getKey( ) ) ) ) {
+            mismatches.add( "%s has the checksum %s instead of %s".formatted( checksum.getKey( ), actual, declared.get( checksum.getKey( ) ) ) );
+          }
+        }
+        String checksum = file.checksum( );
+        this.hashedBytes.add( file.size );
+        if( !mismatches.isEmpty( ) ) {
+          throw new PluginIntegrityException( plugin, mismatches );
+        }
+        return checksum;
+      }
+    }
+
+  }
+
+  private @NotNull String checksumOf( Path plugin ) throws IOException {
+
+    try( FileChannel channel = FileChannel.open( plugin, StandardOpenOption.READ ) ) {
+      ChunkedChecksum checksum = PluginIntegrity.submit( channel );
+      String result = checksum.checksum( );
+      this.hashedBytes.add( checksum.size );
+      return result;
+    }
+
+  }
+
+  /**
+   * Writes the cache to its file, if anything changed since it was loaded or last saved.
+   *
+   * @throws IOException If the cache file cannot be written.
+   */
+  public synchronized void save( ) throws IOException {
+
+    if( !this.dirty.getAndSet( false ) ) {
+      return;
+    }
+
+    CacheFile file = new CacheFile( );
+    file.version = PluginIntegrity.FORMAT_VERSION;
+    file.entries = new ArrayList<>( this.entries.values( ) );
+
+    Files.createDirectories( this.cacheFile.toAbsolutePath( ).getParent( ) );
+    Path temporary = Files.createTempFile( this.cacheFile.toAbsolutePath( ).getParent( ), "integrity", ".tmp" );
+    try {
+      try( Writer writer = Files.newBufferedWriter( temporary, StandardCharsets.UTF_8 ) ) {
+        this.gayson.toJson( file, writer );
+      }
+      Files.move( temporary, this.cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    } catch( IOException ex ) {
+      this.dirty.set( true );
+      Files.deleteIfExists( temporary );
+      throw ex;
+    }
+
+  }
+
+  /**
+   * Returns the current statistics of the verifier.
+   */
+  @Contract( " -> new" )
+  public @NotNull Statistics Statistics( ) {
+
+    return new Statistics( this.hits.sum( ), this.verified.sum( ), this.unsigned.sum( ), this.failures.sum( ), this.hashedBytes.sum( ),
+        Duration.ofNanos( this.hashingTime.sum( ) ) );
+
+  }
+
+  /**
+   * Returns the {@value #ALGORITHM} checksum of the given file.
+   *
+   * @param file The file to hash.
+   * @return The checksum, as a lowercase hex string.
+   *
+   * @throws IOException If the file cannot be read.
+   */
+  public static @NotNull String checksum( Path file ) throws IOException {
+
+    try( FileChannel channel = FileChannel.open( Objects.requireNonNull( file ), StandardOpenOption.READ ) ) {
+      return PluginIntegrity.submit( channel ).checksum( );
+    }
+
+  }
+
+  /**
+   * Returns the {@value #ALGORITHM} checksum of every jar inside the given plugin file, that is the integrity manifest
+   * of the plugin, to be used when packaging it.
+   *
+   * @param plugin The plugin file.
+   * @return The checksum of each jar, by jar entry name.
+   *
+   * @throws IOException If the plugin file cannot be read.
+   */
+  public static @NotNull Map< String, String > checksums( Path plugin ) throws IOException {
+
+    try( PluginArchive archive = PluginArchive.open( plugin ) ) {
+      Map< String, ChunkedChecksum > pending = new LinkedHashMap<>( );
+      for( PluginArchive.Entry jar : archive.find( "**/*.jar" ) ) {
+        pending.put( jar.Name( ), PluginIntegrity.submit( archive, jar ) );
+      }
+      Map< String, String > checksums = new LinkedHashMap<>( );
+      for( var checksum : pending.entrySet( ) ) {
+        checksums.put( checksum.getKey( ), checksum.getValue( ).checksum( ) );
+      }
+      return checksums;
+    }
+
+  }
+
+  /**
+   * Returns true if the given string is a checksum, as written in the integrity manifest.
+   */
+  static boolean isChecksum( String checksum ) {
+
+    return checksum != null && PluginIntegrity.CHECKSUM.matcher( checksum ).matches( );
+
+  }
+
+  /**
+   * Queues the chunks of the whole channel to be hashed.
+   */
+  private static @NotNull ChunkedChecksum submit( FileChannel channel ) throws IOException {
+
+    ChunkedChecksum checksum = new ChunkedChecksum( );
+    long size = channel.size( );
+    for( long offset = 0; offset < size; offset += PluginIntegrity.CHUNK_SIZE ) {
+      checksum.add( channel, offset, ( int ) Math.min( PluginIntegrity.CHUNK_SIZE, size - offset ) );
+    }
+    return checksum;
+
+  }
+
+  /**
+   * Queues the chunks of the given entry to be hashed, a stored entry is split in slices of its mapped data, a compressed
+   * entry is inflated a chunk at a time, with a bounded number of chunks waiting to be hashed.
+   */
+  private static @NotNull ChunkedChecksum submit( PluginArchive archive, PluginArchive.Entry entry ) throws IOException {
+
+    ChunkedChecksum checksum = new ChunkedChecksum( );
+    if( entry.isStored( ) ) {
+      ByteBuffer data = archive.data( entry );
+      for( int offset = 0; offset < data.limit( ); offset += PluginIntegrity.CHUNK_SIZE ) {
+        checksum.add( data.slice( offset, Math.min( PluginIntegrity.CHUNK_SIZE, data.limit( ) - offset ) ) );
+      }
+      return checksum;
+    }
+
+    try( InputStream input = archive.open( entry ) ) {
+      byte[ ] chunk;
+      while( ( chunk = input.readNBytes( PluginIntegrity.CHUNK_SIZE ) ).length > 0 ) {
+        checksum.add( ByteBuffer.wrap( chunk ) );
+        checksum.await( Hashing.THREADS * PluginIntegrity.CHUNKS_IN_FLIGHT );
+      }
+    } catch( CompletionException ex ) {
+      throw new IOException( "Unable to hash the entry %s".formatted( entry.Name( ) ), ex.getCause( ) );
+    }
+    return checksum;
+
+  }
+
+  private static byte @NotNull [ ] digest( ByteBuffer chunk ) {
+
+    MessageDigest digest = PluginIntegrity.DIGESTS.get( );
+    digest.update( chunk );
+    return digest.digest( );
+
+  }
+
+  private static @NotNull MessageDigest sha256( ) {
+
+    try {
+      return MessageDigest.getInstance( "SHA-256" );
+    } catch( NoSuchAlgorithmException ex ) {
+      throw new IllegalStateException( "The SHA-256 algorithm is not available", ex );
+    }
+
+  }
+
+  private void load( ) {
+
+    if( !Files.isRegularFile( this.cacheFile ) ) {
+      return;
+    }
+
+    try( Reader reader = Files.newBufferedReader( this.cacheFile, StandardCharsets.UTF_8 ) ) {
+      CacheFile file = this.gayson.fromJson( reader, CacheFile.class );
+      if( file == null || file.version != PluginIntegrity.FORMAT_VERSION ) {
+        LOGGER.info( "Discarding the plugin integrity cache in {}, it has an unknown format", this.cacheFile );
+        return;
+      }
+      for( CacheEntry entry : file.entries ) {
+        this.entries.put( entry.path, entry );
+      }
+    } catch( IOException | JsonParseException ex ) {
+      LOGGER.warn( "Unable to read the plugin integrity cache in {}", this.cacheFile, ex );
+    }
+
+  }
+
+  private static @NotNull String keyOf( Path plugin ) {
+
+    return Objects.requireNonNull( plugin ).toAbsolutePath( ).normalize( ).toString( );
+
+  }
+
+  private static @NotNull String entryNameOf( String name ) {
+
+    return name.startsWith( "/" ) ? name.substring( 1 ) : name;
+
+  }
+
+}
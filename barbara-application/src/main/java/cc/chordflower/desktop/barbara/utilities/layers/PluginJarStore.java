@@ -0,0 +1,599 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * A content addressed store for the jars inside the plugins, since modules can only be read from the default file system.
+ *
+ * Every jar is stored once under objects/, named after its SHA-256, and each plugin version gets a directory under
+ * plugins/ with hard links to those objects, keeping the original jar names so automatic modules get the same names.
+ * Identical jars shipped by several plugins, or by several versions of the same plugin, share the same bytes on disk.
+ *
+ * The hash of every stored jar is kept in a persistent index, keyed by the plugin path, that is valid while the plugin
+ * file keeps the same size and modification time, so the jars of an unchanged plugin whose links are still in place are
+ * neither inflated nor hashed, and its archive is not even opened.
+ *
+ * @author carddamom
+ */
+public final class PluginJarStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( PluginJarStore.class );
+
+  /**
+   * The statistics of the store, this is an immutable class aka a value class.
+   */
+  public static final class Statistics {
+
+    private final long extracted;
+
+    private final long reused;
+
+    private final long copied;
+
+    private final long hashed;
+
+    @Contract( pure = true )
+    private Statistics( long extracted, long reused, long copied, long hashed ) {
+
+      this.extracted = extracted;
+      this.reused = reused;
+      this.copied = copied;
+      this.hashed = hashed;
+
+    }
+
+    /**
+     * Returns the number of jars that were written to the store.
+     */
+    @Contract( pure = true )
+    public long Extracted( ) {
+
+      return this.extracted;
+
+    }
+
+    /**
+     * Returns the number of jars that were already in the store.
+     */
+    @Contract( pure = true )
+    public long Reused( ) {
+
+      return this.reused;
+
+    }
+
+    /**
+     * Returns the number of jars that had to be copied, because the file system does not support hard links.
+     */
+    @Contract( pure = true )
+    public long Copied( ) {
+
+      return this.copied;
+
+    }
+
+    /**
+     * Returns the number of jars that had to be hashed, because their plugin was not in the index or changed.
+     */
+    @Contract( pure = true )
+    public long Hashed( ) {
+
+      return this.hashed;
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "extracted", this.extracted ).append( "reused", this.reused )
+          .append( "copied", this.copied ).append( "hashed", this.hashed ).build( );
+
+    }
+
+  }
+
+  /**
+   * The persisted form of the index.
+   */
+  private static final class IndexFile {
+
+    private int version;
+
+    private List< IndexEntry > entries = new ArrayList<>( );
+
+  }
+
+  /**
+   * The persisted form of an index entry, with the fingerprint of a plugin file and the hash of each of its jars.
+   */
+  private static final class IndexEntry {
+
+    private String path;
+
+    private long size;
+
+    private long modified;
+
+    private Map< String, String > jars = new LinkedHashMap<>( );
+
+  }
+
+  /**
+   * The version of the index file.
+   */
+  private static final int FORMAT_VERSION = 1;
+
+  private final Path objects;
+
+  private final Path plugins;
+
+  private final Path indexFile;
+
+  private final Gson gayson;
+
+  private final Map< String, IndexEntry > index;
+
+  private final AtomicBoolean dirty;
+
+  /**
+   * Extractions share this lock and {@link #prune()} takes it exclusively, so a stored jar is never deleted between being
+   * found or written and being linked.
+   */
+  private final ReadWriteLock objectsLock;
+
+  private final LongAdder extracted;
+
+  private final LongAdder reused;
+
+  private final LongAdder copied;
+
+  private final LongAdder hashed;
+
+  /**
+   * Creates a new jar store in the given directory, loading its index if it exists.
+   *
+   * @param root The directory of the store, it is created when needed.
+   * @param gson The gson instance used to read and write the index.
+   */
+  public PluginJarStore( Path root, Gson gson ) {
+
+    this.objects = Objects.requireNonNull( root ).resolve( "objects" );
+    this.plugins = root.resolve( "plugins" );
+    this.indexFile = root.resolve( "index.json" );
+    this.gayson = Objects.requireNonNull( gson );
+    this.index = new ConcurrentHashMap<>( );
+    this.dirty = new AtomicBoolean( false );
+    this.objectsLock = new ReentrantReadWriteLock( );
+    this.extracted = new LongAdder( );
+    this.reused = new LongAdder( );
+    this.copied = new LongAdder( );
+    this.hashed = new LongAdder( );
+    this.load( );
+
+  }
+
+  /**
+   * Extracts the jars of the given plugins in parallel, on a bounded executor, each plugin archive is opened at most
+   * once.
+   *
+   * @param descriptors The plugins whose jars are extracted.
+   * @param failures The map where to add the plugins whose jars could not be extracted, with the reason.
+   * @return The paths of the jars of each plugin that was extracted, in the same order as the plugin jar entries.
+   */
+  public @NotNull Map< PluginDescriptor, List< Path > > extractAll( Collection< PluginDescriptor > descriptors, Map< PluginDescriptor, IOException > failures ) {
+
+    Map< PluginDescriptor, List< Path > > result = new LinkedHashMap<>( );
+    List< PluginDescriptor > withJars = new ArrayList<>( );
+    for( PluginDescriptor descriptor : descriptors ) {
+      if( descriptor.JarEntries( ).isEmpty( ) ) {
+        result.put( descriptor, List.of( ) );
+      } else {
+        withJars.add( descriptor );
+      }
+    }
+    if( withJars.isEmpty( ) ) {
+      return result;
+    }
+
+    int threads = Math.max( 1, Math.min( Runtime.getRuntime( ).availableProcessors( ), withJars.size( ) ) );
+    ExecutorService executor = Executors.newFixedThreadPool( threads, new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-jar-store-%d" )
+        .daemon( true )
+        .build( ) );
+
+    try {
+      Map< PluginDescriptor, Future< List< Path > > > futures = new LinkedHashMap<>( );
+      for( PluginDescriptor descriptor : withJars ) {
+        futures.put( descriptor, executor.submit( ( ) -> this.extractLocked( descriptor ) ) );
+      }
+
+      for( var entry : futures.entrySet( ) ) {
+        try {
+          result.put( entry.getKey( ), entry.getValue( ).get( ) );
+        } catch( ExecutionException ex ) {
+          failures.put( entry.getKey( ), ex.getCause( ) instanceof IOException cause ? cause : new IOException( ex.getCause( ) ) );
+        } catch( InterruptedException ex ) {
+          Thread.currentThread( ).interrupt( );
+          failures.put( entry.getKey( ), new InterruptedIOException( "Interrupted while extracting the plugin jars" ) );
+        }
+      }
+    } finally {
+      executor.shutdownNow( );
+    }
+    LOGGER.debug( "Plugin jar store statistics: {}", this.Statistics( ) );
+    return result;
+
+  }
+
+  /**
+   * Extracts the jars of the given plugin.
+   *
+   * @param descriptor The plugin whose jars are extracted.
+   * @return The paths of the plugin jars, in the same order as the plugin jar entries.
+   *
+   * @throws IOException If a jar cannot be extracted.
+   */
+  public @NotNull List< Path > extract( PluginDescriptor descriptor ) throws IOException {
+
+    Map< PluginDescriptor, IOException > failures = new LinkedHashMap<>( );
+    var result = this.extractAll( List.of( descriptor ), failures );
+    if( !failures.isEmpty( ) ) {
+      throw failures.get( descriptor );
+    }
+    return result.get( descriptor );
+
+  }
+
+  /**
+   * Deletes the links to the jars of the given plugin version, its stored jars are only deleted by {@link #prune()}.
+   *
+   * @param descriptor The plugin version that was uninstalled.
+   *
+   * @throws IOException If a link cannot be deleted.
+   */
+  public void remove( PluginDescriptor descriptor ) throws IOException {
+
+    Path directory = this.directoryOf( descriptor );
+    if( !Files.isDirectory( directory ) ) {
+      return;
+    }
+    try( Stream< Path > files = Files.walk( directory ) ) {
+      for( Path file : files.sorted( Comparator.reverseOrder( ) ).toList( ) ) {
+        Files.deleteIfExists( file );
+      }
+    }
+    // The directory of the plugin id is kept while other versions are still there.
+    try {
+      Files.deleteIfExists( directory.getParent( ) );
+    } catch( DirectoryNotEmptyException ex ) {
+      LOGGER.trace( "Keeping {}, it has other versions", directory.getParent( ) );
+    }
+
+  }
+
+  /**
+   * Deletes the stored jars that are no longer linked from any plugin, when the file system reports the number of links.
+   *
+   * @return The number of deleted jars.
+   *
+   * @throws IOException If the store cannot be listed.
+   */
+  public int prune( ) throws IOException {
+
+    if( !Files.isDirectory( this.objects ) ) {
+      return 0;
+    }
+
+    int deleted = 0;
+    this.objectsLock.writeLock( ).lock( );
+    try( DirectoryStream< Path > shards = Files.newDirectoryStream( this.objects ) ) {
+      for( Path shard : shards ) {
+        try( DirectoryStream< Path > stream = Files.newDirectoryStream( shard, "*.jar" ) ) {
+          for( Path object : stream ) {
+            Object links;
+            try {
+              links = Files.getAttribute( object, "unix:nlink" );
+            } catch( UnsupportedOperationException | IllegalArgumentException ex ) {
+              return deleted;
+            }
+            if( links instanceof Integer count && count <= 1 && Files.deleteIfExists( object ) ) {
+              deleted++;
+            }
+          }
+        }
+      }
+    } finally {
+      this.objectsLock.writeLock( ).unlock( );
+    }
+    return deleted;
+
+  }
+
+  /**
+   * Writes the index to its file, if anything changed since it was loaded or last saved, forgetting the plugins whose
+   * files no longer exist.
+   *
+   * @throws IOException If the index file cannot be written.
+   */
+  public synchronized void save( ) throws IOException {
+
+    if( !this.dirty.getAndSet( false ) ) {
+      return;
+    }
+
+    this.index.values( ).removeIf( entry -> !Files.isRegularFile( Path.of( entry.path ) ) );
+    IndexFile file = new IndexFile( );
+    file.version = PluginJarStore.FORMAT_VERSION;
+    file.entries = new ArrayList<>( this.index.values( ) );
+
+    Files.createDirectories( this.indexFile.toAbsolutePath( ).getParent( ) );
+    Path temporary = Files.createTempFile( this.indexFile.toAbsolutePath( ).getParent( ), "index", ".tmp" );
+    try {
+      try( Writer writer = Files.newBufferedWriter( temporary, StandardCharsets.UTF_8 ) ) {
+        this.gayson.toJson( file, writer );
+      }
+      Files.move( temporary, this.indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    } catch( IOException ex ) {
+      this.dirty.set( true );
+      Files.deleteIfExists( temporary );
+      throw ex;
+    }
+
+  }
+
+  /**
+   * Returns the current statistics of the store.
+   */
+  @Contract( " -> new" )
+  public @NotNull Statistics Statistics( ) {
+
+    return new Statistics( this.extracted.sum( ), this.reused.sum( ), this.copied.sum( ), this.hashed.sum( ) );
+
+  }
+
+  /**
+   * Extracts the jars of the given plugin, while no prune is running.
+   */
+  private @NotNull List< Path > extractLocked( PluginDescriptor descriptor ) throws IOException {
+
+    this.objectsLock.readLock( ).lock( );
+    try {
+      return this.extractJars( descriptor );
+    } finally {
+      this.objectsLock.readLock( ).unlock( );
+    }
+
+  }
+
+  /**
+   * Stores the jars of the given plugin that are not already stored, and links them from the plugin directory.
+   *
+   * The hashes in the index are trusted while the plugin file keeps the same size and modification time, if every link
+   * still points to its stored jar, nothing else is done.
+   */
+  private @NotNull List< Path > extractJars( PluginDescriptor descriptor ) throws IOException {
+
+    Path directory = this.directoryOf( descriptor );
+    String key = PluginJarStore.keyOf( descriptor.Path( ) );
+    BasicFileAttributes attributes = Files.readAttributes( descriptor.Path( ), BasicFileAttributes.class );
+    IndexEntry indexed = this.index.get( key );
+    Map< String, String > known = indexed != null && indexed.size == attributes.size( ) && indexed.modified == attributes.lastModifiedTime( ).toMillis( )
+        ? indexed.jars : Map.of( );
+
+    List< Path > linked = this.linkedJars( directory, descriptor.JarEntries( ), known );
+    if( linked != null ) {
+      this.reused.add( linked.size( ) );
+      return linked;
+    }
+
+    IndexEntry updated = new IndexEntry( );
+    updated.path = key;
+    updated.size = attributes.size( );
+    updated.modified = attributes.lastModifiedTime( ).toMillis( );
+    List< Path > links = new ArrayList<>( );
+    try( PluginArchive archive = PluginArchive.open( descriptor.Path( ) ) ) {
+      for( String jarEntry : descriptor.JarEntries( ) ) {
+        var entry = archive.entry( jarEntry ).orElseThrow( ( ) -> new IOException( "Unable to find the jar %s in the plugin".formatted( jarEntry ) ) );
+        Path link = directory.resolve( entry.Name( ) ).normalize( );
+        if( !link.startsWith( directory ) ) {
+          throw new IOException( "The jar %s is outside of the plugin".formatted( jarEntry ) );
+        }
+
+        // Hash first, so the bytes of a jar that is already stored are never written again.
+        String hash = known.get( jarEntry );
+        if( hash == null ) {
+          try( InputStream input = archive.open( entry ) ) {
+            hash = PluginJarStore.hashOf( input );
+          }
+          this.hashed.increment( );
+        }
+        Path object = this.objectOf( hash );
+        if( Files.isRegularFile( object ) && Files.size( object ) == entry.Size( ) ) {
+          this.reused.increment( );
+        } else {
+          Files.createDirectories( object.getParent( ) );
+          Path temporary = Files.createTempFile( object.getParent( ), hash, ".tmp" );
+          try( InputStream input = archive.open( entry ) ) {
+            Files.copy( input, temporary, StandardCopyOption.REPLACE_EXISTING );
+            Files.move( temporary, object, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+          } finally {
+            Files.deleteIfExists( temporary );
+          }
+          this.extracted.increment( );
+        }
+
+        this.link( link, object );
+        updated.jars.put( jarEntry, hash );
+        links.add( link );
+      }
+    }
+    this.index.put( key, updated );
+    this.dirty.set( true );
+    return links;
+
+  }
+
+  /**
+   * Returns the links to the given jars, if every jar has a known hash and its link still points to the stored jar.
+   *
+   * @return The links, or null if any jar must be extracted again.
+   */
+  private List< Path > linkedJars( Path directory, List< String > jarEntries, Map< String, String > known ) throws IOException {
+
+    List< Path > links = new ArrayList<>( jarEntries.size( ) );
+    for( String jarEntry : jarEntries ) {
+      String hash = known.get( jarEntry );
+      if( hash == null ) {
+        return null;
+      }
+      Path link = directory.resolve( PluginJarStore.entryNameOf( jarEntry ) ).normalize( );
+      Path object = this.objectOf( hash );
+      if( !link.startsWith( directory ) || !Files.exists( link ) || !Files.exists( object ) || !Files.isSameFile( link, object ) ) {
+        return null;
+      }
+      links.add( link );
+    }
+    return links;
+
+  }
+
+  /**
+   * Makes the given link point to the given stored jar, copying the jar if hard links are not supported.
+   */
+  private void link( Path link, Path object ) throws IOException {
+
+    if( Files.isRegularFile( link ) && Files.isSameFile( link, object ) ) {
+      return;
+    }
+
+    Files.createDirectories( link.getParent( ) );
+    Files.deleteIfExists( link );
+    try {
+      Files.createLink( link, object );
+    } catch( UnsupportedOperationException | FileSystemException ex ) {
+      LOGGER.debug( "Unable to create a hard link to {}, copying it instead", object, ex );
+      Files.copy( object, link, StandardCopyOption.REPLACE_EXISTING );
+      this.copied.increment( );
+    }
+
+  }
+
+  private static @NotNull String hashOf( InputStream input ) throws IOException {
+
+    try {
+      MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+      byte[ ] buffer = new byte[ 64 * 1024 ];
+      int read;
+      while( ( read = input.read( buffer ) ) != -1 ) {
+        digest.update( buffer, 0, read );
+      }
+      return HexFormat.of( ).formatHex( digest.digest( ) );
+    } catch( NoSuchAlgorithmException ex ) {
+      throw new IOException( "Unable to hash the plugin jar", ex );
+    }
+
+  }
+
+  private @NotNull Path directoryOf( PluginDescriptor descriptor ) {
+
+    return this.plugins.resolve( descriptor.Id( ).toString( ) ).resolve( descriptor.Version( ) );
+
+  }
+
+  private @NotNull Path objectOf( String hash ) {
+
+    return this.objects.resolve( hash.substring( 0, 2 ) ).resolve( hash + ".jar" );
+
+  }
+
+  private void load( ) {
+
+    if( !Files.isRegularFile( this.indexFile ) ) {
+      return;
+    }
+
+    try( Reader reader = Files.newBufferedReader( this.indexFile, StandardCharsets.UTF_8 ) ) {
+      IndexFile file = this.gayson.fromJson( reader, IndexFile.class );
+      if( file == null || file.version != PluginJarStore.FORMAT_VERSION ) {
+        LOGGER.info( "Discarding the plugin jar store index in {}, it has an unknown format", this.indexFile );
+        return;
+      }
+      for( IndexEntry entry : file.entries ) {
+        this.index.put( entry.path, entry );
+      }
+    } catch( IOException | JsonParseException ex ) {
+      LOGGER.warn( "Unable to read the plugin jar store index in {}", this.indexFile, ex );
+    }
+
+  }
+
+  private static @NotNull String keyOf( Path plugin ) {
+
+    return Objects.requireNonNull( plugin ).toAbsolutePath( ).normalize( ).toString( );
+
+  }
+
+  private static @NotNull String entryNameOf( String name ) {
+
+    return name.startsWith( "/" ) ? name.substring( 1 ) : name;
+
+  }
+
+}
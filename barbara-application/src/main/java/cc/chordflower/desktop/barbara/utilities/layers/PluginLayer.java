@@ -0,0 +1,176 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.module.Configuration;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The module layer of a plugin.
+ *
+ * Only the module {@link Configuration} is resolved when the plugin is registered, the {@link ModuleLayer} and its
+ * class loader are only created the first time they are needed, creating the layers of the plugin dependencies
+ * on demand, so idle plugins do not use any metaspace.
+ *
+ * @author carddamom
+ */
+public final class PluginLayer {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( PluginLayer.class );
+
+  private final PluginDescriptor descriptor;
+
+  private final Configuration configuration;
+
+  private final List< PluginLayer > parents;
+
+  private volatile ModuleLayer layer;
+
+  @Contract( pure = true )
+  private PluginLayer( PluginDescriptor descriptor, Configuration configuration, List< PluginLayer > parents ) {
+
+    this.descriptor = descriptor;
+    this.configuration = configuration;
+    this.parents = parents;
+
+  }
+
+  /**
+   * Resolves the module configuration of the given plugin, without creating any class loader.
+   *
+   * @param descriptor The plugin descriptor.
+   * @param parents The layers of the plugin dependencies, or an empty list if the plugin only depends on the application.
+   * @param modulePath The paths of the plugin jars, in the default file system.
+   * @return The plugin layer.
+   *
+   * @throws java.lang.module.FindException If the plugin jars do not contain valid modules.
+   * @throws java.lang.module.ResolutionException If the plugin modules cannot be resolved.
+   */
+  @Contract( "_, _, _ -> new" )
+  public static @NotNull PluginLayer resolve( PluginDescriptor descriptor, Collection< PluginLayer > parents, Collection< Path > modulePath ) {
+
+    List< PluginLayer > parentLayers = List.copyOf( Objects.requireNonNull( parents ) );
+    List< Configuration > parentConfigurations = parentLayers.isEmpty( )
+        ? List.of( ModuleLayer.boot( ).configuration( ) )
+        : parentLayers.stream( ).map( PluginLayer::Configuration ).toList( );
+
+    ModuleFinder finder = ModuleFinder.of( modulePath.toArray( Path[ ]::new ) );
+    Set< String > roots = finder.findAll( ).stream( ).map( ModuleReference::descriptor ).map( java.lang.module.ModuleDescriptor::name ).collect( Collectors.toSet( ) );
+    Configuration configuration = Configuration.resolve( finder, parentConfigurations, ModuleFinder.of( ), roots );
+
+    return new PluginLayer( Objects.requireNonNull( descriptor ), configuration, parentLayers );
+
+  }
+
+  /**
+   * Returns the descriptor of the plugin.
+   */
+  @Contract( pure = true )
+  public PluginDescriptor Descriptor( ) {
+
+    return this.descriptor;
+
+  }
+
+  /**
+   * Returns the resolved module configuration of the plugin.
+   */
+  @Contract( pure = true )
+  public Configuration Configuration( ) {
+
+    return this.configuration;
+
+  }
+
+  /**
+   * Returns the layers of the plugin dependencies.
+   */
+  @Contract( pure = true )
+  public @NotNull @UnmodifiableView List< PluginLayer > Parents( ) {
+
+    return Collections.unmodifiableList( this.parents );
+
+  }
+
+  /**
+   * Returns true if the module layer of the plugin was already created.
+   */
+  @Contract( pure = true )
+  public boolean isInstantiated( ) {
+
+    return this.layer != null;
+
+  }
+
+  /**
+   * Returns the module layer of the plugin, creating it, and the layers of its dependencies, if needed.
+   */
+  public @NotNull ModuleLayer layer( ) {
+
+    ModuleLayer result = this.layer;
+    if( result == null ) {
+      synchronized( this ) {
+        result = this.layer;
+        if( result == null ) {
+          List< ModuleLayer > parentLayers = new ArrayList<>( );
+          for( PluginLayer parent : this.parents ) {
+            parentLayers.add( parent.layer( ) );
+          }
+          if( parentLayers.isEmpty( ) ) {
+            parentLayers.add( ModuleLayer.boot( ) );
+          }
+          result = ModuleLayer.defineModulesWithOneLoader( this.configuration, parentLayers, PluginLayer.class.getClassLoader( ) ).layer( );
+          this.layer = result;
+          LOGGER.debug( "Created the module layer of the plugin {} with the modules {}", this.descriptor.Name( ), this.configuration.modules( ) );
+        }
+      }
+    }
+    return result;
+
+  }
+
+  /**
+   * Returns a service loader for the given service, that only sees the providers of this plugin and its dependencies,
+   * creating the plugin module layer if needed.
+   *
+   * Note that the application module must declare that it uses the given service.
+   *
+   * @param service The service interface.
+   * @return The service loader.
+   */
+  public < S > @NotNull ServiceLoader< S > services( Class< S > service ) {
+
+    return ServiceLoader.load( this.layer( ), Objects.requireNonNull( service ) );
+
+  }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that the class loaders of an unloaded plugin are collected.
+ *
+ * Only weak references to the module layer and the class loaders of the plugin are kept, and the garbage collector is
+ * asked to run until they are cleared or the timeout elapses. When they are not cleared, the live threads are inspected
+ * for the usual roots that keep a plugin alive, threads started by the plugin, threads running its code and threads
+ * whose context class loader is one of its class loaders, and a heap dump is taken, if a directory was given, to find
+ * any other root.
+ *
+ * @author carddamom
+ */
+public final class PluginLeakDetector {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( PluginLeakDetector.class );
+
+  private static final DateTimeFormatter HEAP_DUMP_TIMESTAMP = DateTimeFormatter.ofPattern( "yyyyMMdd-HHmmss" );
+
+  private final Duration timeout;
+
+  private final ExecutorService detector;
+
+  private volatile Path heapDumpDirectory;
+
+  /**
+   * Creates a new leak detector.
+   *
+   * @param timeout How long to wait for the class loaders of a plugin to be collected.
+   */
+  public PluginLeakDetector( Duration timeout ) {
+
+    this.timeout = Objects.requireNonNull( timeout );
+    this.detector = Executors.newCachedThreadPool( new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-plugin-leak-detector-%d" )
+        .daemon( true )
+        .build( ) );
+
+  }
+
+  /**
+   * Sets the directory where a heap dump is written every time a plugin leaks, or null to not take heap dumps.
+   */
+  public void setHeapDumpDirectory( Path heapDumpDirectory ) {
+
+    this.heapDumpDirectory = heapDumpDirectory;
+
+  }
+
+  /**
+   * Starts checking that the class loaders of the given plugin layer are collected. The layer is not referenced after
+   * this method returns, so the caller must drop every reference it still has to it.
+   *
+   * @param layer The layer of the unloaded plugin.
+   * @return The unload report, when the class loaders are collected or the timeout elapses.
+   */
+  public @NotNull CompletableFuture< PluginUnloadReport > watch( PluginLayer layer ) {
+
+    PluginDescriptor descriptor = layer.Descriptor( );
+    if( !layer.isInstantiated( ) ) {
+      return CompletableFuture.completedFuture( PluginUnloadReport.of( descriptor, true, Duration.ZERO, List.of( ), null ) );
+    }
+
+    ModuleLayer moduleLayer = layer.layer( );
+    Set< String > modules = moduleLayer.modules( ).stream( ).map( Module::getName ).collect( Collectors.toUnmodifiableSet( ) );
+    List< WeakReference< Object > > references = new ArrayList<>( );
+    references.add( new WeakReference<>( moduleLayer ) );
+    moduleLayer.modules( ).stream( ).map( Module::getClassLoader ).filter( Objects::nonNull ).distinct( )
+        .forEach( loader -> references.add( new WeakReference<>( loader ) ) );
+    return CompletableFuture.supplyAsync( ( ) -> this.check( descriptor, modules, references ), this.detector );
+
+  }
+
+  /**
+   * Stops every running check.
+   */
+  public void close( ) {
+
+    this.detector.shutdownNow( );
+
+  }
+
+  private @NotNull PluginUnloadReport check( PluginDescriptor descriptor, Set< String > modules, List< WeakReference< Object > > references ) {
+
+    long start = System.nanoTime( );
+    long deadline = start + this.timeout.toNanos( );
+    long pause = 10;
+    try {
+      while( references.stream( ).anyMatch( reference -> reference.get( ) != null ) ) {
+        if( System.nanoTime( ) >= deadline ) {
+          return this.leaked( descriptor, modules, references, Duration.ofNanos( System.nanoTime( ) - start ) );
+        }
+        System.gc( );
+        TimeUnit.MILLISECONDS.sleep( pause );
+        pause = Math.min( pause * 2, 500 );
+      }
+    } catch( InterruptedException ex ) {
+      Thread.currentThread( ).interrupt( );
+      return this.leaked( descriptor, modules, references, Duration.ofNanos( System.nanoTime( ) - start ) );
+    }
+
+    Duration elapsed = Duration.ofNanos( System.nanoTime( ) - start );
+    LOGGER.debug( "The class loaders of the plugin {} were collected after {} ms", descriptor.Name( ), elapsed.toMillis( ) );
+    return PluginUnloadReport.of( descriptor, true, elapsed, List.of( ), null );
+
+  }
+
+  private @NotNull PluginUnloadReport leaked( PluginDescriptor descriptor, Set< String > modules, List< WeakReference< Object > > references, Duration elapsed ) {
+
+    List< String > roots = new ArrayList<>( );
+    String group = "barbara-plugin-" + descriptor.Id( ) + "@" + descriptor.Version( );
+    for( Map.Entry< Thread, StackTraceElement[ ] > entry : Thread.getAllStackTraces( ).entrySet( ) ) {
+      Thread thread = entry.getKey( );
+      if( thread.getThreadGroup( ) != null && group.equals( thread.getThreadGroup( ).getName( ) ) ) {
+        roots.add( "The thread %s, started by the plugin, is still alive".formatted( thread.getName( ) ) );
+      } else if( PluginLeakDetector.isReferenced( references, thread.getContextClassLoader( ) ) ) {
+        roots.add( "The thread %s has a class loader of the plugin as its context class loader".formatted( thread.getName( ) ) );
+      } else if( PluginLeakDetector.isReferenced( references, thread.getClass( ).getClassLoader( ) ) ) {
+        roots.add( "The thread %s is an instance of the plugin class %s".formatted( thread.getName( ), thread.getClass( ).getName( ) ) );
+      }
+      for( StackTraceElement frame : entry.getValue( ) ) {
+        if( frame.getModuleName( ) != null && modules.contains( frame.getModuleName( ) ) ) {
+          roots.add( "The thread %s is running the plugin code at %s".formatted( thread.getName( ), frame ) );
+          break;
+        }
+      }
+    }
+    if( roots.isEmpty( ) ) {
+      roots.add( "No thread holds the plugin, it is held by a static field or an object of the application or of another plugin" );
+    }
+
+    Path heapDump = this.dumpHeap( descriptor );
+    LOGGER.warn( "The class loaders of the plugin {} were not collected after {} ms, they are held by: {}{}", descriptor.Name( ), elapsed.toMillis( ),
+        roots, heapDump == null ? "" : ", see the heap dump " + heapDump );
+    return PluginUnloadReport.of( descriptor, false, elapsed, roots, heapDump );
+
+  }
+
+  private Path dumpHeap( PluginDescriptor descriptor ) {
+
+    Path directory = this.heapDumpDirectory;
+    if( directory == null ) {
+      return null;
+    }
+    try {
+      Files.createDirectories( directory );
+      Path file = directory.resolve( "%s-%s-%s.hprof".formatted( descriptor.Name( ).replaceAll( "\\W+", "-" ), descriptor.Version( ),
+          LocalDateTime.now( ).format( PluginLeakDetector.HEAP_DUMP_TIMESTAMP ) ) );
+      Files.deleteIfExists( file );
+      ManagementFactory.getPlatformMXBean( HotSpotDiagnosticMXBean.class ).dumpHeap( file.toString( ), true );
+      return file;
+    } catch( IOException | RuntimeException ex ) {
+      LOGGER.warn( "Unable to take a heap dump of the leaked plugin {}", descriptor.Name( ), ex );
+      return null;
+    }
+
+  }
+
+  private static boolean isReferenced( List< WeakReference< Object > > references, Object object ) {
+
+    return object != null && references.stream( ).anyMatch( reference -> reference.get( ) == object );
+
+  }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The result of adding several plugins at once to the plugin manager, it contains the plugins that were registered and
+ * every problem that prevented the others from being registered.
+ *
+ * @author carddamom
+ */
+public final class PluginLoadReport {
+
+  /**
+   * The kind of problem found while loading a plugin.
+   */
+  public enum ProblemKind {
+    /**
+     * The plugin file could not be opened or its descriptor could not be parsed.
+     */
+    UNREADABLE,
+    /**
+     * The plugin descriptor does not follow the plugin schema, or breaks one of its constraints.
+     */
+    INVALID_DESCRIPTOR,
+    /**
+     * The jars of the plugin do not match its integrity manifest, or the plugin has none when one is required.
+     */
+    CORRUPTED,
+    /**
+     * The same version of the plugin is already installed or appears more than once.
+     */
+    DUPLICATED,
+    /**
+     * The plugin declares a dependency on itself.
+     */
+    SELF_DEPENDENCY,
+    /**
+     * The plugin depends on a plugin that is neither installed nor being added.
+     */
+    MISSING_DEPENDENCY,
+    /**
+     * The plugin depends on a plugin whose version does not satisfy the requested range.
+     */
+    VERSION_MISMATCH,
+    /**
+     * The plugin is part of a dependency cycle.
+     */
+    CYCLIC_DEPENDENCY,
+    /**
+     * The plugin depends on another plugin that was rejected.
+     */
+    REJECTED_DEPENDENCY,
+    /**
+     * The modules of the plugin could not be resolved.
+     */
+    UNRESOLVABLE_MODULES
+  }
+
+  /**
+   * A problem found while loading a plugin, this is an immutable class aka a value class.
+   */
+  public static final class Problem {
+
+    private final ProblemKind kind;
+
+    private final Path path;
+
+    private final UUID id;
+
+    private final String message;
+
+    @Contract( pure = true )
+    private Problem( ProblemKind kind, Path path, UUID id, String message ) {
+
+      this.kind = kind;
+      this.path = path;
+      this.id = id;
+      this.message = message;
+
+    }
+
+    /**
+     * Creates a new problem.
+     *
+     * @param kind The kind of problem.
+     * @param path The path of the plugin with the problem.
+     * @param id The id of the plugin with the problem, or null if it is not known.
+     * @param message A description of the problem.
+     * @return A new problem.
+     */
+    @Contract( "_, _, _, _ -> new" )
+    public static @NotNull Problem of( ProblemKind kind, Path path, UUID id, String message ) {
+
+      return new Problem( kind, path, id, message );
+
+    }
+
+    /**
+     * Returns the kind of problem.
+     */
+    @Contract( pure = true )
+    public ProblemKind Kind( ) {
+
+      return this.kind;
+
+    }
+
+    /**
+     * Returns the path of the plugin with the problem.
+     */
+    @Contract( pure = true )
+    public Path Path( ) {
+
+      return this.path;
+
+    }
+
+    /**
+     * Returns the id of the plugin with the problem, or null if the descriptor could not be read.
+     */
+    @Contract( pure = true )
+    public UUID Id( ) {
+
+      return this.id;
+
+    }
+
+    /**
+     * Returns a description of the problem.
+     */
+    @Contract( pure = true )
+    public String Message( ) {
+
+      return this.message;
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "kind", this.kind ).append( "path", this.path ).append( "id", this.id )
+          .append( "message", this.message ).build( );
+
+    }
+
+  }
+
+  private final List< PluginDescriptor > registered;
+
+  private final List< Problem > problems;
+
+  @Contract( pure = true )
+  private PluginLoadReport( List< PluginDescriptor > registered, List< Problem > problems ) {
+
+    this.registered = registered;
+    this.problems = problems;
+
+  }
+
+  /**
+   * Creates a new plugin load report.
+   *
+   * @param registered The plugins that were registered, in registration order.
+   * @param problems The problems found.
+   * @return A new plugin load report.
+   */
+  @Contract( "_, _ -> new" )
+  public static @NotNull PluginLoadReport of( List< PluginDescriptor > registered, List< Problem > problems ) {
+
+    return new PluginLoadReport( new ArrayList<>( registered ), new ArrayList<>( problems ) );
+
+  }
+
+  /**
+   * Returns the plugins that were registered, in the order they were registered.
+   */
+  @Contract( pure = true )
+  public @NotNull @UnmodifiableView List< PluginDescriptor > Registered( ) {
+
+    return Collections.unmodifiableList( this.registered );
+
+  }
+
+  /**
+   * Returns every problem found while loading the plugins.
+   */
+  @Contract( pure = true )
+  public @NotNull @UnmodifiableView List< Problem > Problems( ) {
+
+    return Collections.unmodifiableList( this.problems );
+
+  }
+
+  /**
+   * Returns true if every plugin was registered.
+   */
+  @Contract( pure = true )
+  public boolean isSuccessful( ) {
+
+    return this.problems.isEmpty( );
+
+  }
+
+  @Override
+  public String toString( ) {
+
+    return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "registered", this.registered.size( ) ).append( "problems", this.problems ).build( );
+
+  }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.vdurmont.semver4j.Semver;
+import com.vdurmont.semver4j.Semver.SemverType;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Canonicalizes the metadata repeated across plugin descriptors, so a catalog with many plugins keeps a single copy of
+ * each plugin id, license id, version, parsed version and dependency.
+ *
+ * Each pool is bounded, an evicted value only stops being shared, and records its hit rate.
+ *
+ * @author carddamom
+ */
+public final class PluginMetadataInterner {
+
+  private static final int MAXIMUM_IDS = 16_384;
+
+  private static final int MAXIMUM_LICENSES = 1_024;
+
+  private static final int MAXIMUM_VERSIONS = 16_384;
+
+  private static final int MAXIMUM_DEPENDENCIES = 16_384;
+
+  private static final Cache< UUID, UUID > IDS = PluginMetadataInterner.pool( PluginMetadataInterner.MAXIMUM_IDS );
+
+  private static final Cache< String, String > LICENSES = PluginMetadataInterner.pool( PluginMetadataInterner.MAXIMUM_LICENSES );
+
+  private static final Cache< String, String > VERSIONS = PluginMetadataInterner.pool( PluginMetadataInterner.MAXIMUM_VERSIONS );
+
+  private static final Cache< String, Semver > SEMVERS = PluginMetadataInterner.pool( PluginMetadataInterner.MAXIMUM_VERSIONS );
+
+  private static final Cache< PluginDependency, PluginDependency > DEPENDENCIES = PluginMetadataInterner.pool( PluginMetadataInterner.MAXIMUM_DEPENDENCIES );
+
+  @Contract( pure = true )
+  private PluginMetadataInterner( ) {
+
+  }
+
+  /**
+   * Returns the canonical instance of the given plugin id.
+   */
+  public static UUID id( UUID id ) {
+
+    return PluginMetadataInterner.intern( PluginMetadataInterner.IDS, id, Function.identity( ) );
+
+  }
+
+  /**
+   * Returns the canonical instance of the given SPDX license id.
+   */
+  public static String license( String license ) {
+
+    return PluginMetadataInterner.intern( PluginMetadataInterner.LICENSES, license, Function.identity( ) );
+
+  }
+
+  /**
+   * Returns the canonical instance of the given version string.
+   */
+  public static String version( String version ) {
+
+    return PluginMetadataInterner.intern( PluginMetadataInterner.VERSIONS, version, Function.identity( ) );
+
+  }
+
+  /**
+   * Returns the parsed form of the given version string, parsing it only while it is in the pool.
+   *
+   * @throws com.vdurmont.semver4j.SemverException If the version is not valid.
+   */
+  public static Semver semver( String version ) {
+
+    return PluginMetadataInterner.intern( PluginMetadataInterner.SEMVERS, version, key -> new Semver( key, SemverType.NPM ) );
+
+  }
+
+  /**
+   * Returns the canonical instance of the given dependency, interning its id and version range as well.
+   */
+  public static PluginDependency dependency( PluginDependency dependency ) {
+
+    return PluginMetadataInterner.intern( PluginMetadataInterner.DEPENDENCIES, dependency, Function.identity( ) );
+
+  }
+
+  /**
+   * Returns the statistics of each pool, by pool name.
+   */
+  @Contract( " -> new" )
+  public static @NotNull Map< String, CacheStats > Statistics( ) {
+
+    Map< String, CacheStats > statistics = new LinkedHashMap<>( );
+    statistics.put( "ids", PluginMetadataInterner.IDS.stats( ) );
+    statistics.put( "licenses", PluginMetadataInterner.LICENSES.stats( ) );
+    statistics.put( "versions", PluginMetadataInterner.VERSIONS.stats( ) );
+    statistics.put( "semvers", PluginMetadataInterner.SEMVERS.stats( ) );
+    statistics.put( "dependencies", PluginMetadataInterner.DEPENDENCIES.stats( ) );
+    return statistics;
+
+  }
+
+  private static < K, V > V intern( Cache< K, V > pool, K key, Function< ? super K, ? extends V > canonical ) {
+
+    return key == null ? null : pool.get( key, canonical );
+
+  }
+
+  private static < K, V > Cache< K, V > pool( int maximumSize ) {
+
+    return Caffeine.newBuilder( ).maximumSize( maximumSize ).recordStats( ).build( );
+
+  }
+
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * The registry of installed and active plugins, kept as a sequence of immutable, versioned snapshots.
+ *
+ * Readers get the current snapshot without locking, and always see a consistent plugin graph. Writers apply a batch of
+ * changes to a copy of the current snapshot, and publish it with a compare and set, applying the changes again on the
+ * newer snapshot when another writer published first.
+ *
+ * @author carddamom
+ */
+public final class PluginRegistry {
+
+  private static final Comparator< PluginDescriptor > HIGHEST_FIRST = Comparator.comparing( PluginDescriptor::SemverVersion ).reversed( );
+
+  /**
+   * A consistent view of the registry, this is an immutable class aka a value class.
+   */
+  public static final class Snapshot {
+
+    private static final Snapshot EMPTY = new Snapshot( 0, Set.of( ), Map.of( ), Map.of( ) );
+
+    private final long version;
+
+    private final Set< PluginDescriptor > installed;
+
+    private final Map< UUID, PluginDescriptor > active;
+
+    private final Map< UUID, PluginLayer > layers;
+
+    private final Map< UUID, List< UUID > > dependents;
+
+    private final Map< UUID, List< PluginDescriptor > > versions;
+
+    private Snapshot( long version, Set< PluginDescriptor > installed, Map< UUID, PluginDescriptor > active, Map< UUID, PluginLayer > layers ) {
+
+      this.version = version;
+      this.installed = installed;
+      this.active = active;
+      this.layers = layers;
+
+      Map< UUID, List< UUID > > graph = new HashMap<>( );
+      for( PluginDescriptor descriptor : active.values( ) ) {
+        // A dependency listed twice still makes the descriptor a single dependent, the scheduler counts each one once.
+        for( UUID dependency : descriptor.Dependencies( ).stream( ).map( PluginDependency::Id ).distinct( ).toList( ) ) {
+          if( active.containsKey( dependency ) ) {
+            graph.computeIfAbsent( dependency, key -> new ArrayList<>( ) ).add( descriptor.Id( ) );
+          }
+        }
+      }
+      Map< UUID, List< UUID > > dependents = new HashMap<>( );
+      graph.forEach( ( id, list ) -> dependents.put( id, List.copyOf( list ) ) );
+      this.dependents = Map.copyOf( dependents );
+
+      Map< UUID, List< PluginDescriptor > > byId = new HashMap<>( );
+      for( PluginDescriptor descriptor : installed ) {
+        byId.computeIfAbsent( descriptor.Id( ), key -> new ArrayList<>( ) ).add( descriptor );
+      }
+      Map< UUID, List< PluginDescriptor > > versions = new HashMap<>( );
+      byId.forEach( ( id, list ) -> versions.put( id, list.stream( ).sorted( PluginRegistry.HIGHEST_FIRST ).toList( ) ) );
+      this.versions = Map.copyOf( versions );
+
+    }
+
+    /**
+     * Returns the version of this snapshot, every published change increments it.
+     */
+    @Contract( pure = true )
+    public long Version( ) {
+
+      return this.version;
+
+    }
+
+    /**
+     * Returns every installed version of every plugin, active or not.
+     */
+    @Contract( pure = true )
+    public @NotNull @UnmodifiableView Set< PluginDescriptor > Installed( ) {
+
+      return this.installed;
+
+    }
+
+    /**
+     * Returns the active version of each plugin.
+     */
+    @Contract( pure = true )
+    public @NotNull @UnmodifiableView Map< UUID, PluginDescriptor > Active( ) {
+
+      return this.active;
+
+    }
+
+    /**
+     * Returns every installed version of the given plugin, from the highest to the lowest.
+     */
+    public @NotNull @UnmodifiableView List< PluginDescriptor > versions( UUID id ) {
+
+      return this.versions.getOrDefault( id, List.of( ) );
+
+    }
+
+    /**
+     * Returns the active version of the given plugin.
+     */
+    public @NotNull Optional< PluginDescriptor > active( UUID id ) {
+
+      return Optional.ofNullable( this.active.get( id ) );
+
+    }
+
+    /**
+     * Returns the layer of the given active plugin.
+     */
+    public @NotNull Optional< PluginLayer > layer( UUID id ) {
+
+      return Optional.ofNullable( this.layers.get( id ) );
+
+    }
+
+    /**
+     * Returns the active plugins that depend directly on the given plugin.
+     */
+    public @NotNull @UnmodifiableView List< UUID > dependents( UUID id ) {
+
+      return this.dependents.getOrDefault( id, List.of( ) );
+
+    }
+
+    /**
+     * Returns the given active plugins, together with every active plugin that depends on them, directly or not.
+     */
+    public @NotNull Set< UUID > withDependents( Collection< UUID > ids ) {
+
+      Set< UUID > result = new LinkedHashSet<>( ids );
+      Deque< UUID > pending = new ArrayDeque<>( ids );
+      while( !pending.isEmpty( ) ) {
+        for( UUID dependent : this.dependents( pending.poll( ) ) ) {
+          if( result.add( dependent ) ) {
+            pending.add( dependent );
+          }
+        }
+      }
+      return result;
+
+    }
+
+    /**
+     * Returns true if the same version of the given plugin is installed.
+     */
+    public boolean isInstalled( PluginDescriptor descriptor ) {
+
+      return this.versions( descriptor.Id( ) ).stream( ).anyMatch( other -> PluginRegistry.isSameVersion( descriptor, other ) );
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "version", this.version ).append( "installed", this.installed.size( ) )
+          .append( "active", this.active.size( ) ).build( );
+
+    }
+
+  }
+
+  /**
+   * A batch of changes on top of a snapshot, it is not thread safe and is only used by a single writer.
+   */
+  public static final class Batch {
+
+    private final Snapshot base;
+
+    private final Set< PluginDescriptor > installed;
+
+    private final Map< UUID, PluginDescriptor > active;
+
+    private final Map< UUID, PluginLayer > layers;
+
+    private boolean modified;
+
+    private boolean discarded;
+
+    private Batch( Snapshot base ) {
+
+      this.base = base;
+      this.installed = new LinkedHashSet<>( base.installed );
+      this.active = new LinkedHashMap<>( base.active );
+      this.layers = new HashMap<>( base.layers );
+      this.modified = false;
+      this.discarded = false;
+
+    }
+
+    /**
+     * Returns the snapshot the changes are applied to.
+     */
+    @Contract( pure = true )
+    public @NotNull Snapshot Base( ) {
+
+      return this.base;
+
+    }
+
+    /**
+     * Returns every installed plugin, including the changes made so far.
+     */
+    public @NotNull @UnmodifiableView Set< PluginDescriptor > Installed( ) {
+
+      return Collections.unmodifiableSet( this.installed );
+
+    }
+
+    /**
+     * Returns the active plugins, including the changes made so far.
+     */
+    public @NotNull @UnmodifiableView Map< UUID, PluginDescriptor > Active( ) {
+
+      return Collections.unmodifiableMap( this.active );
+
+    }
+
+    /**
+     * Returns the layer of the given active plugin, including the changes made so far.
+     */
+    public @NotNull Optional< PluginLayer > layer( UUID id ) {
+
+      return Optional.ofNullable( this.layers.get( id ) );
+
+    }
+
+    /**
+     * Returns true if the same version of the given plugin is installed, including the changes made so far.
+     */
+    public boolean isInstalled( PluginDescriptor descriptor ) {
+
+      return this.installed.stream( ).anyMatch( other -> PluginRegistry.isSameVersion( descriptor, other ) );
+
+    }
+
+    /**
+     * Installs the given plugin, without activating it.
+     */
+    public void install( PluginDescriptor descriptor ) {
+
+      this.modified |= this.installed.add( Objects.requireNonNull( descriptor ) );
+
+    }
+
+    /**
+     * Uninstalls the given plugin, deactivating it if it is active.
+     */
+    public void uninstall( PluginDescriptor descriptor ) {
+
+      if( this.active.get( descriptor.Id( ) ) == descriptor ) {
+        this.deactivate( descriptor.Id( ) );
+      }
+      this.modified |= this.installed.remove( descriptor );
+
+    }
+
+    /**
+     * Makes the given installed plugin the active version of its plugin id, with the given layer.
+     */
+    public void activate( PluginDescriptor descriptor, PluginLayer layer ) {
+
+      this.install( descriptor );
+      this.active.put( descriptor.Id( ), descriptor );
+      this.layers.put( descriptor.Id( ), Objects.requireNonNull( layer ) );
+      this.modified = true;
+
+    }
+
+    /**
+     * Deactivates the given plugin, it stays installed.
+     */
+    public void deactivate( UUID id ) {
+
+      this.modified |= this.active.remove( id ) != null;
+      this.layers.remove( id );
+
+    }
+
+    /**
+     * Discards every change made to the batch, so nothing is published.
+     */
+    public void discard( ) {
+
+      this.discarded = true;
+
+    }
+
+    private @NotNull Snapshot build( ) {
+
+      return new Snapshot( this.base.version + 1, Collections.unmodifiableSet( new LinkedHashSet<>( this.installed ) ),
+          Collections.unmodifiableMap( new LinkedHashMap<>( this.active ) ), Map.copyOf( this.layers ) );
+
+    }
+
+  }
+
+  private final AtomicReference< Snapshot > current;
+
+  private final LongAdder retries;
+
+  /**
+   * Creates a new, empty, plugin registry.
+   */
+  public PluginRegistry( ) {
+
+    this.current = new AtomicReference<>( Snapshot.EMPTY );
+    this.retries = new LongAdder( );
+
+  }
+
+  /**
+   * Returns the current snapshot, without locking.
+   */
+  public @NotNull Snapshot Snapshot( ) {
+
+    return this.current.get( );
+
+  }
+
+  /**
+   * Applies the given changes atomically. The changes are applied to a batch on top of the current snapshot, and if
+   * another writer publishes a snapshot in the meantime, they are applied again on top of the newer one, so the given
+   * function must not have side effects outside of the batch, anything it has to report goes in its result.
+   *
+   * @param changes The function that applies the changes to the batch.
+   * @return The result of the function, on the batch that was published, or discarded.
+   */
+  public < R > R update( Function< Batch, R > changes ) {
+
+    while( true ) {
+      Snapshot base = this.current.get( );
+      Batch batch = new Batch( base );
+      R result = changes.apply( batch );
+      if( batch.discarded || !batch.modified || this.current.compareAndSet( base, batch.build( ) ) ) {
+        return result;
+      }
+      this.retries.increment( );
+    }
+
+  }
+
+  /**
+   * Returns how many times a batch had to be applied again, because another writer published first.
+   */
+  public long Retries( ) {
+
+    return this.retries.sum( );
+
+  }
+
+  @Contract( pure = true )
+  static boolean isSameVersion( PluginDescriptor first, PluginDescriptor second ) {
+
+    return first.Id( ).equals( second.Id( ) ) && first.SemverVersion( ).isEqualTo( second.SemverVersion( ) );
+
+  }
+
+}
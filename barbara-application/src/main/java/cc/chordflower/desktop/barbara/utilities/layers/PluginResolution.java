@@ -0,0 +1,126 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import cc.chordflower.desktop.barbara.utilities.layers.PluginLoadReport.Problem;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The result of resolving a set of plugin candidates, with the version selected for each plugin id and the problems that
+ * prevented the other plugins from being selected, this is an immutable class aka a value class.
+ *
+ * @author carddamom
+ */
+public final class PluginResolution {
+
+  private final Set< PluginDescriptor > candidates;
+
+  private final Map< UUID, PluginDescriptor > selected;
+
+  private final List< Problem > problems;
+
+  @Contract( pure = true )
+  private PluginResolution( Set< PluginDescriptor > candidates, Map< UUID, PluginDescriptor > selected, List< Problem > problems ) {
+
+    this.candidates = candidates;
+    this.selected = selected;
+    this.problems = problems;
+
+  }
+
+  /**
+   * Creates a new plugin resolution.
+   *
+   * @param candidates The candidates that were resolved.
+   * @param selected The selected version of each plugin id.
+   * @param problems The problems of the plugin ids without any selected version.
+   * @return A new plugin resolution.
+   */
+  @Contract( "_, _, _ -> new" )
+  public static @NotNull PluginResolution of( Set< PluginDescriptor > candidates, Map< UUID, PluginDescriptor > selected, List< Problem > problems ) {
+
+    return new PluginResolution( Set.copyOf( candidates ), Collections.unmodifiableMap( new LinkedHashMap<>( selected ) ), List.copyOf( problems ) );
+
+  }
+
+  /**
+   * Returns every candidate that was considered.
+   */
+  @Contract( pure = true )
+  public @NotNull @UnmodifiableView Set< PluginDescriptor > Candidates( ) {
+
+    return this.candidates;
+
+  }
+
+  /**
+   * Returns the selected version of each plugin id, ordered by plugin id.
+   */
+  @Contract( pure = true )
+  public @NotNull @UnmodifiableView Map< UUID, PluginDescriptor > Selected( ) {
+
+    return this.selected;
+
+  }
+
+  /**
+   * Returns the problems of the plugin ids for which no version could be selected.
+   */
+  @Contract( pure = true )
+  public @NotNull @UnmodifiableView List< Problem > Problems( ) {
+
+    return this.problems;
+
+  }
+
+  /**
+   * Returns the selected version of the given plugin id.
+   */
+  public @NotNull Optional< PluginDescriptor > selected( UUID id ) {
+
+    return Optional.ofNullable( this.selected.get( id ) );
+
+  }
+
+  /**
+   * Returns true if the given candidate is the selected version of its plugin id.
+   */
+  public boolean isSelected( PluginDescriptor candidate ) {
+
+    return candidate != null && this.selected.get( candidate.Id( ) ) == candidate;
+
+  }
+
+  @Override
+  public String toString( ) {
+
+    return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "selected", this.selected.values( ).stream( ).map( descriptor -> descriptor.Name( ) + "@" + descriptor.Version( ) ).toList( ) ).append( "problems", this.problems ).build( );
+
+  }
+
+}
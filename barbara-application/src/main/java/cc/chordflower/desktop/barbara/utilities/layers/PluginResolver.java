@@ -0,0 +1,454 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import cc.chordflower.desktop.barbara.utilities.layers.PluginLoadReport.Problem;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginLoadReport.ProblemKind;
+import com.vdurmont.semver4j.Requirement;
+import com.vdurmont.semver4j.SemverException;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Selects one version of each plugin id, out of every installed version, so that the dependency ranges of all the
+ * selected plugins are satisfied.
+ *
+ * Every plugin starts at its highest version, and only moves down to a lower version when the current one cannot be
+ * used, either because one of its dependencies cannot be satisfied, or because it does not satisfy the range requested by
+ * an already selected plugin. This greedy pass never reconsiders a version it passed over, so it runs in time close to
+ * linear on the number of candidates and dependencies, but it can leave out a plugin that would fit if another plugin had
+ * moved down first. When that happens, the versions that can never be used are pruned, and the remaining ones are
+ * searched with backtracking, highest versions first, for a selection that includes every remaining plugin id. The search
+ * is bounded by {@link #SEARCH_STEPS}, and the greedy selection is kept when it finds nothing. The parsed ranges, and
+ * whether each version satisfies them, are memoized, and the last resolution is kept, so resolving the same candidates
+ * again is free.
+ *
+ * @author carddamom
+ */
+public final class PluginResolver {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( PluginResolver.class );
+
+  private static final Comparator< PluginDescriptor > HIGHEST_FIRST = Comparator.comparing( PluginDescriptor::SemverVersion ).reversed( );
+
+  /**
+   * The maximum number of versions tried by the backtracking search, before keeping the greedy selection.
+   */
+  static final int SEARCH_STEPS = 100_000;
+
+  private final ConcurrentMap< String, Optional< Requirement > > requirements;
+
+  private final ConcurrentMap< String, ConcurrentMap< String, Boolean > > satisfied;
+
+  private final AtomicReference< PluginResolution > lastResolution;
+
+  /**
+   * Creates a new plugin resolver.
+   */
+  public PluginResolver( ) {
+
+    this.requirements = new ConcurrentHashMap<>( );
+    this.satisfied = new ConcurrentHashMap<>( );
+    this.lastResolution = new AtomicReference<>( );
+
+  }
+
+  /**
+   * Resolves the given candidates, returning the last resolution if the candidates did not change.
+   *
+   * @param candidates Every installed version of every plugin.
+   * @return The selected version of each plugin id, and the reasons why the remaining plugin ids have none.
+   */
+  public @NotNull PluginResolution resolve( Collection< PluginDescriptor > candidates ) {
+
+    Set< PluginDescriptor > candidateSet = Set.copyOf( Objects.requireNonNull( candidates ) );
+    PluginResolution last = this.lastResolution.get( );
+    if( last != null && last.Candidates( ).equals( candidateSet ) ) {
+      return last;
+    }
+
+    PluginResolution resolution = new Resolution( candidateSet ).run( );
+    this.lastResolution.set( resolution );
+    LOGGER.debug( "Resolved {} plugin candidates: {}", candidateSet.size( ), resolution );
+    return resolution;
+
+  }
+
+  /**
+   * Returns true if the given candidate is within the given range, an invalid range is never satisfied.
+   *
+   * Both the parsed range and the answer are memoized, since checking a range is much slower than a map lookup.
+   */
+  boolean satisfies( PluginDescriptor candidate, String range ) {
+
+    return this.satisfied.computeIfAbsent( range, key -> new ConcurrentHashMap<>( ) ).computeIfAbsent( candidate.Version( ),
+        version -> this.requirements.computeIfAbsent( range, PluginResolver::parseRequirement ).map( candidate.SemverVersion( )::satisfies ).orElse( false ) );
+
+  }
+
+  private static @NotNull Optional< Requirement > parseRequirement( String range ) {
+
+    try {
+      return Optional.of( Requirement.buildNPM( range ) );
+    } catch( SemverException | IllegalArgumentException ex ) {
+      LOGGER.warn( "Ignoring the invalid version range {}", range, ex );
+      return Optional.empty( );
+    }
+
+  }
+
+  /**
+   * The state of a single resolution.
+   */
+  private final class Resolution {
+
+    private final Set< PluginDescriptor > candidates;
+
+    /**
+     * The versions of each plugin id, from the highest to the lowest.
+     */
+    private final Map< UUID, List< PluginDescriptor > > versions;
+
+    /**
+     * The index of the highest version of each plugin id that was not passed over.
+     */
+    private final Map< UUID, Integer > next;
+
+    private final Map< UUID, PluginDescriptor > selected;
+
+    /**
+     * The selected plugins that depend on each plugin id.
+     */
+    private final Map< UUID, Set< UUID > > constrainers;
+
+    private final Map< UUID, Problem > reasons;
+
+    private final Deque< UUID > pending;
+
+    private final Set< UUID > queued;
+
+    private Resolution( Set< PluginDescriptor > candidates ) {
+
+      this.candidates = candidates;
+      this.versions = new TreeMap<>( );
+      for( PluginDescriptor candidate : candidates ) {
+        this.versions.computeIfAbsent( candidate.Id( ), key -> new ArrayList<>( ) ).add( candidate );
+      }
+      this.versions.values( ).forEach( list -> list.sort( PluginResolver.HIGHEST_FIRST ) );
+      this.next = new HashMap<>( );
+      this.selected = new HashMap<>( );
+      this.constrainers = new HashMap<>( );
+      this.reasons = new HashMap<>( );
+      this.pending = new ArrayDeque<>( );
+      this.queued = new HashSet<>( );
+
+    }
+
+    private @NotNull PluginResolution run( ) {
+
+      for( UUID id : this.versions.keySet( ) ) {
+        this.next.put( id, 0 );
+        this.enqueue( id );
+      }
+      while( !this.pending.isEmpty( ) ) {
+        UUID id = this.pending.poll( );
+        this.queued.remove( id );
+        this.select( id );
+      }
+
+      Map< UUID, PluginDescriptor > choices = this.selected;
+      Map< UUID, List< PluginDescriptor > > domains = this.prune( );
+      if( !choices.keySet( ).containsAll( domains.keySet( ) ) ) {
+        Map< UUID, PluginDescriptor > found = this.search( domains );
+        if( found != null ) {
+          choices = found;
+        } else {
+          LOGGER.debug( "Unable to find a selection with every one of the plugins {}, keeping {}", domains.keySet( ), choices.keySet( ) );
+        }
+      }
+
+      Map< UUID, PluginDescriptor > result = new LinkedHashMap<>( );
+      List< Problem > problems = new ArrayList<>( );
+      for( UUID id : this.versions.keySet( ) ) {
+        PluginDescriptor choice = choices.get( id );
+        if( choice != null ) {
+          result.put( id, choice );
+        } else {
+          problems.add( this.reasons.get( id ) );
+        }
+      }
+      return PluginResolution.of( this.candidates, result, problems );
+
+    }
+
+    private void enqueue( UUID id ) {
+
+      if( this.versions.containsKey( id ) && this.queued.add( id ) ) {
+        this.pending.add( id );
+      }
+
+    }
+
+    /**
+     * Selects the highest usable version of the given plugin id, and propagates the change to its dependencies and
+     * dependents.
+     */
+    private void select( UUID id ) {
+
+      List< PluginDescriptor > list = this.versions.get( id );
+      int index = this.next.get( id );
+      PluginDescriptor choice = null;
+      for( ; index < list.size( ); index++ ) {
+        Problem problem = this.check( list.get( index ) );
+        if( problem == null ) {
+          choice = list.get( index );
+          break;
+        }
+        this.reasons.put( id, problem );
+      }
+      this.next.put( id, index );
+
+      PluginDescriptor previous = this.selected.get( id );
+      if( choice == previous ) {
+        return;
+      }
+
+      if( previous != null ) {
+        for( PluginDependency dependency : previous.Dependencies( ) ) {
+          this.constrainers.getOrDefault( dependency.Id( ), Collections.emptySet( ) ).remove( id );
+        }
+      }
+      if( choice != null ) {
+        this.selected.put( id, choice );
+        for( PluginDependency dependency : choice.Dependencies( ) ) {
+          this.constrainers.computeIfAbsent( dependency.Id( ), key -> new LinkedHashSet<>( ) ).add( id );
+          this.enqueue( dependency.Id( ) );
+        }
+        if( choice != list.get( 0 ) ) {
+          LOGGER.debug( "Selected the version {} of the plugin {} instead of {}", choice.Version( ), choice.Name( ), list.get( 0 ).Version( ) );
+        }
+      } else {
+        // Every plugin that depended on this one has to move to another version.
+        this.selected.remove( id );
+        List.copyOf( this.constrainers.getOrDefault( id, Collections.emptySet( ) ) ).forEach( this::enqueue );
+      }
+
+    }
+
+    /**
+     * Removes, until nothing changes, every version with a dependency that no remaining version satisfies.
+     *
+     * @return The remaining versions of each plugin id that still has one, from the highest to the lowest.
+     */
+    private @NotNull Map< UUID, List< PluginDescriptor > > prune( ) {
+
+      Map< UUID, List< PluginDescriptor > > domains = new TreeMap<>( );
+      this.versions.forEach( ( id, list ) -> domains.put( id, new ArrayList<>( list ) ) );
+      boolean changed = true;
+      while( changed ) {
+        changed = false;
+        for( List< PluginDescriptor > list : domains.values( ) ) {
+          changed |= list.removeIf( candidate -> !this.isUsable( candidate, domains ) );
+        }
+        changed |= domains.values( ).removeIf( List::isEmpty );
+      }
+      return domains;
+
+    }
+
+    private boolean isUsable( PluginDescriptor candidate, Map< UUID, List< PluginDescriptor > > domains ) {
+
+      for( PluginDependency dependency : candidate.Dependencies( ) ) {
+        List< PluginDescriptor > targets = domains.get( dependency.Id( ) );
+        if( dependency.Id( ).equals( candidate.Id( ) ) || targets == null
+            || targets.stream( ).noneMatch( target -> PluginResolver.this.satisfies( target, dependency.Version( ) ) ) ) {
+          return false;
+        }
+      }
+      return true;
+
+    }
+
+    /**
+     * Searches for a version of every given plugin id, so that the selected versions satisfy each other ranges.
+     *
+     * Plugin ids are visited in order, each one trying its versions from the highest to the lowest, and going back to the
+     * previous plugin id when none fits.
+     *
+     * @return The first selection found, or null if there is none or the search ran out of steps.
+     */
+    private Map< UUID, PluginDescriptor > search( Map< UUID, List< PluginDescriptor > > domains ) {
+
+      List< UUID > order = new ArrayList<>( domains.keySet( ) );
+      Map< UUID, List< PluginDescriptor > > dependents = new HashMap<>( );
+      domains.values( ).forEach( list -> list.forEach( candidate -> candidate.Dependencies( )
+          .forEach( dependency -> dependents.computeIfAbsent( dependency.Id( ), key -> new ArrayList<>( ) ).add( candidate ) ) ) );
+
+      int[] positions = new int[ order.size( ) ];
+      Map< UUID, PluginDescriptor > assignment = new HashMap<>( );
+      int depth = 0;
+      int steps = 0;
+      while( depth >= 0 && depth < order.size( ) ) {
+        UUID id = order.get( depth );
+        List< PluginDescriptor > list = domains.get( id );
+        assignment.remove( id );
+        PluginDescriptor choice = null;
+        while( choice == null && positions[ depth ] < list.size( ) ) {
+          if( ++steps > PluginResolver.SEARCH_STEPS ) {
+            LOGGER.warn( "Gave up resolving {} plugins after {} steps", order.size( ), PluginResolver.SEARCH_STEPS );
+            return null;
+          }
+          PluginDescriptor candidate = list.get( positions[ depth ]++ );
+          if( this.fits( candidate, assignment, domains, dependents ) ) {
+            choice = candidate;
+          }
+        }
+        if( choice == null ) {
+          positions[ depth ] = 0;
+          depth--;
+        } else {
+          assignment.put( id, choice );
+          depth++;
+        }
+      }
+      return depth < 0 ? null : assignment;
+
+    }
+
+    /**
+     * Returns true if the given candidate satisfies the ranges of the selected plugins that depend on it, and each of its
+     * dependencies is either selected within range, or still has a version within range.
+     */
+    private boolean fits( PluginDescriptor candidate, Map< UUID, PluginDescriptor > assignment, Map< UUID, List< PluginDescriptor > > domains,
+                          Map< UUID, List< PluginDescriptor > > dependents ) {
+
+      for( PluginDescriptor dependent : dependents.getOrDefault( candidate.Id( ), Collections.emptyList( ) ) ) {
+        if( assignment.get( dependent.Id( ) ) != dependent ) {
+          continue;
+        }
+        for( PluginDependency dependency : dependent.Dependencies( ) ) {
+          if( dependency.Id( ).equals( candidate.Id( ) ) && !PluginResolver.this.satisfies( candidate, dependency.Version( ) ) ) {
+            return false;
+          }
+        }
+      }
+      for( PluginDependency dependency : candidate.Dependencies( ) ) {
+        PluginDescriptor target = assignment.get( dependency.Id( ) );
+        boolean satisfiable = target != null ? PluginResolver.this.satisfies( target, dependency.Version( ) )
+            : domains.get( dependency.Id( ) ).stream( ).anyMatch( version -> PluginResolver.this.satisfies( version, dependency.Version( ) ) );
+        if( !satisfiable ) {
+          return false;
+        }
+      }
+      return true;
+
+    }
+
+    /**
+     * Checks if the given candidate can be selected.
+     *
+     * @return The reason why the candidate cannot be selected, or null if it can.
+     */
+    private Problem check( PluginDescriptor candidate ) {
+
+      UUID id = candidate.Id( );
+      for( UUID dependent : this.constrainers.getOrDefault( id, Collections.emptySet( ) ) ) {
+        PluginDescriptor constrainer = this.selected.get( dependent );
+        for( PluginDependency dependency : constrainer.Dependencies( ) ) {
+          if( dependency.Id( ).equals( id ) && !PluginResolver.this.satisfies( candidate, dependency.Version( ) ) ) {
+            return Problem.of( ProblemKind.VERSION_MISMATCH, candidate.Path( ), id, "The version %s of the plugin %s does not satisfy the dependency of the plugin %s"
+                .formatted( candidate.Version( ), candidate.Name( ), constrainer.Name( ) ) );
+          }
+        }
+      }
+
+      for( PluginDependency dependency : candidate.Dependencies( ) ) {
+        List< PluginDescriptor > targets = this.versions.get( dependency.Id( ) );
+        if( dependency.Id( ).equals( id ) ) {
+          return Problem.of( ProblemKind.SELF_DEPENDENCY, candidate.Path( ), id, "A plugin cannot have a dependency on itself" );
+        } else if( targets == null ) {
+          return Problem.of( ProblemKind.MISSING_DEPENDENCY, candidate.Path( ), id,
+              "Unable to satisfy the dependency on %s of the plugin %s - Non-existing plugin".formatted( dependency.Id( ), candidate.Name( ) ) );
+        } else if( this.next.get( dependency.Id( ) ) >= targets.size( ) ) {
+          return Problem.of( ProblemKind.REJECTED_DEPENDENCY, candidate.Path( ), id,
+              "Unable to satisfy the dependency on %s of the plugin %s - Rejected plugin".formatted( targets.get( 0 ).Name( ), candidate.Name( ) ) );
+        } else if( !this.isSatisfiable( targets, dependency.Version( ), id ) ) {
+          return Problem.of( ProblemKind.VERSION_MISMATCH, candidate.Path( ), id,
+              "Unable to satisfy the dependency on %s of the plugin %s - Version mismatch".formatted( targets.get( 0 ).Name( ), candidate.Name( ) ) );
+        }
+      }
+      return null;
+
+    }
+
+    /**
+     * Returns true if one of the remaining versions is within the given range, and the ranges of the other selected
+     * plugins that depend on it.
+     */
+    private boolean isSatisfiable( List< PluginDescriptor > targets, String range, UUID requester ) {
+
+      UUID target = targets.get( 0 ).Id( );
+      for( int index = this.next.get( target ); index < targets.size( ); index++ ) {
+        PluginDescriptor version = targets.get( index );
+        if( PluginResolver.this.satisfies( version, range ) && this.satisfiesOthers( version, requester ) ) {
+          return true;
+        }
+      }
+      return false;
+
+    }
+
+    private boolean satisfiesOthers( PluginDescriptor version, UUID requester ) {
+
+      for( UUID dependent : this.constrainers.getOrDefault( version.Id( ), Collections.emptySet( ) ) ) {
+        if( dependent.equals( requester ) ) {
+          continue;
+        }
+        for( PluginDependency dependency : this.selected.get( dependent ).Dependencies( ) ) {
+          if( dependency.Id( ).equals( version.Id( ) ) && !PluginResolver.this.satisfies( version, dependency.Version( ) ) ) {
+            return false;
+          }
+        }
+      }
+      return true;
+
+    }
+
+  }
+
+}
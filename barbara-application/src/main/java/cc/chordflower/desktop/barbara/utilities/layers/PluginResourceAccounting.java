@@ -0,0 +1,643 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accounts the cpu time, allocated memory and threads used by each plugin.
+ *
+ * Every plugin gets its own thread group, and the threads of its {@link PluginBulkhead} are created in it, so any thread
+ * started by the plugin code is also created in it. The threads of each group are sampled periodically through the {@link
+ * ThreadMXBean}, and the threads created by the accounting also report their final figures when they end, so the work of
+ * short lived threads is not lost between samples. Work done by the plugin on other threads, like starting its entry
+ * classes, is charged to it with {@link #attribute(PluginDescriptor, Runnable)}.
+ *
+ * The last samples of each plugin are kept, to compute the rolling cpu load and allocation rate.
+ *
+ * @author carddamom
+ */
+public final class PluginResourceAccounting implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger( PluginResourceAccounting.class );
+
+  private static final String CSV_HEADER = "id,name,cpu_time_ms,cpu_load,allocated_bytes,allocation_rate,live_threads,queue_depth,completed_tasks,"
+      + "executor_saturation,rejected_tasks,failed_tasks,circuit_state";
+
+  private static volatile PluginResourceAccounting currentAccounting;
+
+  /**
+   * The resource usage of a plugin, this is an immutable class aka a value class.
+   */
+  public static final class Usage {
+
+    private final UUID id;
+
+    private final String name;
+
+    private final Duration cpuTime;
+
+    private final double cpuLoad;
+
+    private final long allocatedBytes;
+
+    private final double allocationRate;
+
+    private final int liveThreads;
+
+    private final PluginBulkhead.Statistics executor;
+
+    @Contract( pure = true )
+    private Usage( UUID id, String name, Duration cpuTime, double cpuLoad, long allocatedBytes, double allocationRate, int liveThreads,
+        PluginBulkhead.Statistics executor ) {
+
+      this.id = id;
+      this.name = name;
+      this.cpuTime = cpuTime;
+      this.cpuLoad = cpuLoad;
+      this.allocatedBytes = allocatedBytes;
+      this.allocationRate = allocationRate;
+      this.liveThreads = liveThreads;
+      this.executor = executor;
+
+    }
+
+    /**
+     * Returns the plugin id.
+     */
+    @Contract( pure = true )
+    public UUID Id( ) {
+
+      return this.id;
+
+    }
+
+    /**
+     * Returns the plugin name.
+     */
+    @Contract( pure = true )
+    public String Name( ) {
+
+      return this.name;
+
+    }
+
+    /**
+     * Returns the total cpu time used by the plugin.
+     */
+    @Contract( pure = true )
+    public Duration CpuTime( ) {
+
+      return this.cpuTime;
+
+    }
+
+    /**
+     * Returns the fraction of the available processors used by the plugin, over the sampling window.
+     */
+    @Contract( pure = true )
+    public double CpuLoad( ) {
+
+      return this.cpuLoad;
+
+    }
+
+    /**
+     * Returns the total bytes allocated by the plugin, or -1 if the jvm cannot measure allocations.
+     */
+    @Contract( pure = true )
+    public long AllocatedBytes( ) {
+
+      return this.allocatedBytes;
+
+    }
+
+    /**
+     * Returns the bytes allocated per second by the plugin, over the sampling window.
+     */
+    @Contract( pure = true )
+    public double AllocationRate( ) {
+
+      return this.allocationRate;
+
+    }
+
+    /**
+     * Returns the number of live threads in the thread group of the plugin.
+     */
+    @Contract( pure = true )
+    public int LiveThreads( ) {
+
+      return this.liveThreads;
+
+    }
+
+    /**
+     * Returns the number of tasks waiting in the executor of the plugin.
+     */
+    @Contract( pure = true )
+    public int QueueDepth( ) {
+
+      return this.executor == null ? 0 : this.executor.QueuedTasks( );
+
+    }
+
+    /**
+     * Returns the number of tasks completed by the executor of the plugin.
+     */
+    @Contract( pure = true )
+    public long CompletedTasks( ) {
+
+      return this.executor == null ? 0 : this.executor.Completed( );
+
+    }
+
+    /**
+     * Returns the statistics of the executor of the plugin, if the plugin used it.
+     */
+    @Contract( pure = true )
+    public @NotNull Optional< PluginBulkhead.Statistics > Executor( ) {
+
+      return Optional.ofNullable( this.executor );
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "id", this.id ).append( "name", this.name )
+          .append( "cpuTime", this.cpuTime.toMillis( ) ).append( "cpuLoad", this.cpuLoad ).append( "allocatedBytes", this.allocatedBytes )
+          .append( "allocationRate", this.allocationRate ).append( "liveThreads", this.liveThreads ).append( "executor", this.executor ).build( );
+
+    }
+
+  }
+
+  /**
+   * The accounting state of a single plugin, every access is synchronized on it.
+   */
+  private final class Account {
+
+    private final UUID id;
+
+    private final String name;
+
+    private final ThreadGroup group;
+
+    /**
+     * The cpu time and allocated bytes last seen for each live thread of the plugin.
+     */
+    private final Map< Long, long[ ] > threads;
+
+    /**
+     * The times, in nanoseconds, cpu times and allocated bytes of the last samples, as a ring buffer.
+     */
+    private final long[ ][ ] samples;
+
+    private int nextSample;
+
+    private int sampleCount;
+
+    private long cpuTime;
+
+    private long allocatedBytes;
+
+    private PluginBulkhead bulkhead;
+
+    private Account( PluginDescriptor descriptor ) {
+
+      this.id = descriptor.Id( );
+      this.name = descriptor.Name( );
+      this.group = new ThreadGroup( "barbara-plugin-" + descriptor.Id( ) + "@" + descriptor.Version( ) );
+      this.threads = new HashMap<>( );
+      this.samples = new long[ PluginResourceAccounting.this.window ][ ];
+      this.nextSample = 0;
+      this.sampleCount = 0;
+      this.cpuTime = 0;
+      this.allocatedBytes = 0;
+
+    }
+
+    private @NotNull ThreadFactory threadFactory( String pattern ) {
+
+      return new BasicThreadFactory.Builder( )
+          .wrappedFactory( runnable -> new Thread( this.group, ( ) -> {
+            try {
+              runnable.run( );
+            } finally {
+              this.retire( Thread.currentThread( ) );
+            }
+          } ) )
+          .namingPattern( pattern )
+          .daemon( true )
+          .build( );
+
+    }
+
+    private synchronized @NotNull PluginBulkhead bulkhead( PluginDescriptor descriptor ) {
+
+      if( this.bulkhead == null ) {
+        this.bulkhead = PluginBulkhead.of( descriptor, PluginResourceAccounting.this.bulkheadPolicy( this.id ),
+            this.threadFactory( "barbara-plugin-" + this.name.replaceAll( "\\W+", "-" ) + "-%d" ) );
+      }
+      return this.bulkhead;
+
+    }
+
+    /**
+     * Adds the last figures of the given thread, that is about to end.
+     */
+    private synchronized void retire( Thread thread ) {
+
+      long[ ] last = this.threads.remove( thread.getId( ) );
+      this.add( last, PluginResourceAccounting.this.threads.getCurrentThreadCpuTime( ), PluginResourceAccounting.this.currentThreadAllocatedBytes( ) );
+
+    }
+
+    private synchronized void charge( long cpu, long allocated ) {
+
+      this.cpuTime += Math.max( 0, cpu );
+      this.allocatedBytes += Math.max( 0, allocated );
+
+    }
+
+    private synchronized void sample( long now ) {
+
+      Thread[ ] live = new Thread[ this.group.activeCount( ) + 8 ];
+      int count = this.group.enumerate( live, true );
+      long[ ] ids = new long[ count ];
+      for( int index = 0; index < count; index++ ) {
+        ids[ index ] = live[ index ].getId( );
+      }
+      long[ ] cpu = PluginResourceAccounting.this.threadCpuTimes( ids );
+      long[ ] allocated = PluginResourceAccounting.this.threadAllocatedBytes( ids );
+
+      Map< Long, long[ ] > seen = new HashMap<>( );
+      for( int index = 0; index < count; index++ ) {
+        // A thread that ended after being enumerated reports -1, its figures are added when it retires.
+        if( cpu[ index ] < 0 ) {
+          continue;
+        }
+        long[ ] last = this.threads.get( ids[ index ] );
+        this.add( last, cpu[ index ], allocated[ index ] );
+        seen.put( ids[ index ], new long[ ] { cpu[ index ], allocated[ index ] } );
+      }
+      this.threads.clear( );
+      this.threads.putAll( seen );
+
+      this.samples[ this.nextSample ] = new long[ ] { now, this.cpuTime, this.allocatedBytes };
+      this.nextSample = ( this.nextSample + 1 ) % this.samples.length;
+      this.sampleCount = Math.min( this.sampleCount + 1, this.samples.length );
+
+    }
+
+    /**
+     * Adds the difference between the given figures and the last ones seen for the thread.
+     */
+    private void add( long[ ] last, long cpu, long allocated ) {
+
+      this.cpuTime += Math.max( 0, cpu - ( last == null ? 0 : last[ 0 ] ) );
+      this.allocatedBytes += Math.max( 0, allocated - ( last == null ? 0 : last[ 1 ] ) );
+
+    }
+
+    private synchronized @NotNull Usage usage( ) {
+
+      double cpuLoad = 0;
+      double allocationRate = 0;
+      if( this.sampleCount > 1 ) {
+        long[ ] newest = this.samples[ ( this.nextSample - 1 + this.samples.length ) % this.samples.length ];
+        long[ ] oldest = this.samples[ ( this.nextSample - this.sampleCount + this.samples.length ) % this.samples.length ];
+        double elapsed = newest[ 0 ] - oldest[ 0 ];
+        if( elapsed > 0 ) {
+          cpuLoad = ( newest[ 1 ] - oldest[ 1 ] ) / ( elapsed * Runtime.getRuntime( ).availableProcessors( ) );
+          allocationRate = ( newest[ 2 ] - oldest[ 2 ] ) / ( elapsed / TimeUnit.SECONDS.toNanos( 1 ) );
+        }
+      }
+      boolean measuresAllocations = PluginResourceAccounting.this.allocations != null;
+      return new Usage( this.id, this.name, Duration.ofNanos( this.cpuTime ), cpuLoad, measuresAllocations ? this.allocatedBytes : -1, allocationRate,
+          this.group.activeCount( ), this.bulkhead == null ? null : this.bulkhead.Statistics( ) );
+
+    }
+
+    private synchronized void shutdown( ) {
+
+      if( this.bulkhead != null ) {
+        this.bulkhead.shutdown( );
+      }
+
+    }
+
+  }
+
+  private final ThreadMXBean threads;
+
+  /**
+   * The thread bean, when the jvm can measure the memory allocated by each thread.
+   */
+  private final com.sun.management.ThreadMXBean allocations;
+
+  private final int window;
+
+  private final ConcurrentMap< UUID, Account > accounts;
+
+  private final ScheduledExecutorService sampler;
+
+  private final ConcurrentMap< UUID, PluginBulkheadPolicy > bulkheadPolicies;
+
+  private volatile PluginBulkheadPolicy defaultBulkheadPolicy;
+
+  /**
+   * Creates a new resource accounting, that samples the plugin threads with the given period.
+   *
+   * @param period The sampling period.
+   * @param window The number of samples used to compute the rolling figures.
+   */
+  public PluginResourceAccounting( Duration period, int window ) {
+
+    if( window < 2 ) {
+      throw new IllegalArgumentException( "The sampling window must have at least two samples" );
+    }
+    this.threads = ManagementFactory.getThreadMXBean( );
+    if( this.threads.isThreadCpuTimeSupported( ) && !this.threads.isThreadCpuTimeEnabled( ) ) {
+      this.threads.setThreadCpuTimeEnabled( true );
+    }
+    if( this.threads instanceof com.sun.management.ThreadMXBean extended && extended.isThreadAllocatedMemorySupported( ) ) {
+      extended.setThreadAllocatedMemoryEnabled( true );
+      this.allocations = extended;
+    } else {
+      LOGGER.info( "This jvm cannot measure the memory allocated by each thread, plugin allocations will not be accounted" );
+      this.allocations = null;
+    }
+    this.window = window;
+    this.accounts = new ConcurrentHashMap<>( );
+    this.bulkheadPolicies = new ConcurrentHashMap<>( );
+    this.defaultBulkheadPolicy = PluginBulkheadPolicy.defaults( );
+    this.sampler = Executors.newSingleThreadScheduledExecutor( new BasicThreadFactory.Builder( )
+        .namingPattern( "barbara-plugin-accounting-%d" )
+        .daemon( true )
+        .build( ) );
+    this.sampler.scheduleAtFixedRate( this::sample, period.toNanos( ), period.toNanos( ), TimeUnit.NANOSECONDS );
+
+  }
+
+  /**
+   * Returns the resource accounting shared by the whole application, sampling every second over the last minute.
+   */
+  public static @NotNull PluginResourceAccounting getCurrentAccounting( ) {
+
+    if( PluginResourceAccounting.currentAccounting == null ) {
+      synchronized( PluginResourceAccounting.class ) {
+        if( PluginResourceAccounting.currentAccounting == null ) {
+          PluginResourceAccounting.currentAccounting = new PluginResourceAccounting( Duration.ofSeconds( 1 ), 60 );
+        }
+      }
+    }
+    return PluginResourceAccounting.currentAccounting;
+
+  }
+
+  /**
+   * Returns a thread factory that creates threads owned by the given plugin.
+   *
+   * @param descriptor The plugin.
+   * @param pattern The naming pattern of the threads, as in {@link BasicThreadFactory.Builder#namingPattern(String)}.
+   */
+  public @NotNull ThreadFactory threadFactory( PluginDescriptor descriptor, String pattern ) {
+
+    return this.account( descriptor ).threadFactory( Objects.requireNonNull( pattern ) );
+
+  }
+
+  /**
+   * Returns the executor owned by the given plugin, creating it when first used.
+   */
+  public @NotNull PluginBulkhead bulkhead( PluginDescriptor descriptor ) {
+
+    return this.account( descriptor ).bulkhead( descriptor );
+
+  }
+
+  /**
+   * Sets the limits of the executors of the plugins without limits of their own, it only applies to executors created
+   * afterwards.
+   */
+  public void setDefaultBulkheadPolicy( PluginBulkheadPolicy policy ) {
+
+    this.defaultBulkheadPolicy = Objects.requireNonNull( policy );
+
+  }
+
+  /**
+   * Sets the limits of the executor of the given plugin, it only applies when the executor is created again, that is
+   * after the plugin is reloaded.
+   *
+   * @param id The plugin id.
+   * @param policy The limits, or null to use the default ones.
+   */
+  public void setBulkheadPolicy( UUID id, PluginBulkheadPolicy policy ) {
+
+    if( policy == null ) {
+      this.bulkheadPolicies.remove( Objects.requireNonNull( id ) );
+    } else {
+      this.bulkheadPolicies.put( Objects.requireNonNull( id ), policy );
+    }
+
+  }
+
+  /**
+   * Returns the limits of the executor of the given plugin.
+   */
+  public @NotNull PluginBulkheadPolicy bulkheadPolicy( UUID id ) {
+
+    return this.bulkheadPolicies.getOrDefault( id, this.defaultBulkheadPolicy );
+
+  }
+
+  /**
+   * Runs the given work on the current thread, charging the cpu time and memory it used to the given plugin.
+   */
+  public void attribute( PluginDescriptor descriptor, Runnable work ) {
+
+    Account account = this.account( descriptor );
+    long cpu = this.threads.getCurrentThreadCpuTime( );
+    long allocated = this.currentThreadAllocatedBytes( );
+    try {
+      work.run( );
+    } finally {
+      account.charge( this.threads.getCurrentThreadCpuTime( ) - cpu, this.currentThreadAllocatedBytes( ) - allocated );
+    }
+
+  }
+
+  /**
+   * Stops accounting the given plugin, and shuts down its executor, discarding its queued tasks.
+   */
+  public void release( UUID id ) {
+
+    Account account = this.accounts.remove( id );
+    if( account != null ) {
+      account.shutdown( );
+      LOGGER.debug( "Released the resources of the plugin {}: {}", account.name, account.usage( ) );
+    }
+
+  }
+
+  /**
+   * Stops accounting every plugin that is not one of the given ones.
+   */
+  public void retain( Collection< UUID > ids ) {
+
+    this.accounts.keySet( ).stream( ).filter( id -> !ids.contains( id ) ).toList( ).forEach( this::release );
+
+  }
+
+  /**
+   * Returns the resource usage of the given plugin.
+   */
+  public @NotNull Optional< Usage > usage( UUID id ) {
+
+    return Optional.ofNullable( this.accounts.get( id ) ).map( Account::usage );
+
+  }
+
+  /**
+   * Returns the resource usage of every accounted plugin, from the highest to the lowest cpu load.
+   */
+  public @NotNull @UnmodifiableView List< Usage > Usage( ) {
+
+    return this.accounts.values( ).stream( ).map( Account::usage ).sorted( Comparator.comparingDouble( Usage::CpuLoad ).reversed( ) ).toList( );
+
+  }
+
+  /**
+   * Samples the threads of every plugin, it is called periodically, but can be called to get up to date figures.
+   */
+  public void sample( ) {
+
+    long now = System.nanoTime( );
+    for( Account account : this.accounts.values( ) ) {
+      try {
+        account.sample( now );
+      } catch( RuntimeException ex ) {
+        LOGGER.warn( "Unable to sample the threads of the plugin {}", account.name, ex );
+      }
+    }
+
+  }
+
+  /**
+   * Writes the current resource usage of every plugin as csv.
+   */
+  public void export( Writer writer ) throws IOException {
+
+    writer.write( PluginResourceAccounting.CSV_HEADER );
+    writer.write( '\n' );
+    for( Usage usage : this.Usage( ) ) {
+      Optional< PluginBulkhead.Statistics > executor = usage.Executor( );
+      // The numbers must not depend on the default locale, and the lines end like the header does.
+      writer.write( String.format( Locale.ROOT, "%s,\"%s\",%d,%.4f,%d,%.0f,%d,%d,%d,%.4f,%d,%d,%s\n", usage.Id( ), usage.Name( ).replace( "\"", "\"\"" ),
+          usage.CpuTime( ).toMillis( ), usage.CpuLoad( ), usage.AllocatedBytes( ), usage.AllocationRate( ), usage.LiveThreads( ), usage.QueueDepth( ),
+          usage.CompletedTasks( ), executor.map( PluginBulkhead.Statistics::Saturation ).orElse( 0.0 ),
+          executor.map( PluginBulkhead.Statistics::Rejected ).orElse( 0L ), executor.map( PluginBulkhead.Statistics::Failed ).orElse( 0L ),
+          executor.map( PluginBulkhead.Statistics::State ).map( Enum::name ).orElse( "" ) ) );
+    }
+
+  }
+
+  /**
+   * Writes the current resource usage of every plugin as csv, to the given file.
+   */
+  public void export( Path file ) throws IOException {
+
+    Path temporary = file.resolveSibling( file.getFileName( ) + ".tmp" );
+    try( Writer writer = Files.newBufferedWriter( temporary, StandardCharsets.UTF_8 ) ) {
+      this.export( writer );
+    }
+    Files.move( temporary, file, StandardCopyOption.REPLACE_EXISTING );
+
+  }
+
+  @Override
+  public void close( ) {
+
+    this.sampler.shutdownNow( );
+    List.copyOf( this.accounts.keySet( ) ).forEach( this::release );
+
+  }
+
+  private @NotNull Account account( PluginDescriptor descriptor ) {
+
+    return this.accounts.computeIfAbsent( descriptor.Id( ), id -> new Account( descriptor ) );
+
+  }
+
+  private long currentThreadAllocatedBytes( ) {
+
+    return this.allocations == null ? 0 : this.allocations.getCurrentThreadAllocatedBytes( );
+
+  }
+
+  private long[ ] threadCpuTimes( long[ ] ids ) {
+
+    if( this.allocations != null ) {
+      return this.allocations.getThreadCpuTime( ids );
+    }
+    return Arrays.stream( ids ).map( this.threads::getThreadCpuTime ).toArray( );
+
+  }
+
+  private long[ ] threadAllocatedBytes( long[ ] ids ) {
+
+    return this.allocations == null ? new long[ ids.length ] : this.allocations.getThreadAllocatedBytes( ids );
+
+  }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * A json schema compiled into a tree of checks, so a document is validated with a single walk, without interpreting the
+ * schema again for each document.
+ *
+ * Only the keywords used by the plugin descriptor schema are supported: type, required, properties,
+ * additionalProperties, items, minLength, maxLength, pattern and the uuid format. The other keywords are annotations,
+ * and are ignored.
+ *
+ * @author carddamom
+ */
+public final class PluginSchema {
+
+  private static final Set< String > TYPES = Set.of( "object", "array", "string", "number", "integer", "boolean", "null" );
+
+  private final String type;
+
+  private final List< String > required;
+
+  private final Map< String, PluginSchema > properties;
+
+  private final boolean additionalProperties;
+
+  private final PluginSchema additionalSchema;
+
+  private final PluginSchema items;
+
+  private final int minLength;
+
+  private final int maxLength;
+
+  private final Pattern pattern;
+
+  private final boolean uuid;
+
+  private PluginSchema( JsonObject schema ) throws IOException {
+
+    this.type = schema.has( "type" ) ? schema.get( "type" ).getAsString( ) : null;
+    if( this.type != null && !PluginSchema.TYPES.contains( this.type ) ) {
+      throw new IOException( "Unsupported schema type %s".formatted( this.type ) );
+    }
+
+    this.required = new ArrayList<>( );
+    if( schema.has( "required" ) ) {
+      schema.getAsJsonArray( "required" ).forEach( name -> this.required.add( name.getAsString( ) ) );
+    }
+
+    this.properties = new LinkedHashMap<>( );
+    if( schema.has( "properties" ) ) {
+      for( var property : schema.getAsJsonObject( "properties" ).entrySet( ) ) {
+        this.properties.put( property.getKey( ), new PluginSchema( property.getValue( ).getAsJsonObject( ) ) );
+      }
+    }
+
+    JsonElement additional = schema.get( "additionalProperties" );
+    this.additionalProperties = additional == null || !additional.isJsonPrimitive( ) || additional.getAsBoolean( );
+    this.additionalSchema = additional != null && additional.isJsonObject( ) ? new PluginSchema( additional.getAsJsonObject( ) ) : null;
+    this.items = schema.has( "items" ) && schema.get( "items" ).isJsonObject( ) ? new PluginSchema( schema.getAsJsonObject( "items" ) ) : null;
+    this.minLength = schema.has( "minLength" ) ? schema.get( "minLength" ).getAsInt( ) : 0;
+    this.maxLength = schema.has( "maxLength" ) ? schema.get( "maxLength" ).getAsInt( ) : Integer.MAX_VALUE;
+    this.pattern = schema.has( "pattern" ) ? Pattern.compile( schema.get( "pattern" ).getAsString( ) ) : null;
+    this.uuid = schema.has( "format" ) && "uuid".equals( schema.get( "format" ).getAsString( ) );
+
+  }
+
+  /**
+   * Compiles the given json schema.
+   *
+   * @param reader The reader of the schema, it is not closed.
+   * @return The compiled schema.
+   *
+   * @throws IOException If the schema cannot be read, or uses an unsupported type.
+   */
+  public static @NotNull PluginSchema compile( Reader reader ) throws IOException {
+
+    try {
+      return new PluginSchema( new JsonParser( ).parse( reader ).getAsJsonObject( ) );
+    } catch( RuntimeException ex ) {
+      throw new IOException( "Unable to compile the json schema", ex );
+    }
+
+  }
+
+  /**
+   * Compiles the plugin descriptor schema, shipped with barbara-spi.
+   *
+   * @return The compiled schema.
+   *
+   * @throws IOException If the schema cannot be found or compiled.
+   */
+  public static @NotNull PluginSchema compilePluginSchema( ) throws IOException {
+
+    Module spi = cc.chordflower.desktop.barbara.spi.index.ExtensionIndex.class.getModule( );
+    try( InputStream input = spi.getResourceAsStream( "plugin.schema.json" ) ) {
+      if( input == null ) {
+        throw new IOException( "Unable to find the plugin schema" );
+      }
+      return PluginSchema.compile( new InputStreamReader( input, StandardCharsets.UTF_8 ) );
+    }
+
+  }
+
+  /**
+   * Validates the given json document.
+   *
+   * @param document The document.
+   * @return The violations found, each one prefixed with the json pointer of the offending value, empty if the document
+   *     is valid.
+   */
+  @Contract( "_ -> new" )
+  public @NotNull List< String > validate( JsonElement document ) {
+
+    List< String > violations = new ArrayList<>( );
+    this.validate( document, "", violations );
+    return violations;
+
+  }
+
+  private void validate( JsonElement value, String pointer, List< String > violations ) {
+
+    if( this.type != null && !PluginSchema.isOfType( value, this.type ) ) {
+      violations.add( "%s: must be of type %s".formatted( PluginSchema.path( pointer ), this.type ) );
+      return;
+    }
+
+    if( value.isJsonObject( ) ) {
+      JsonObject object = value.getAsJsonObject( );
+      for( String name : this.required ) {
+        if( !object.has( name ) ) {
+          violations.add( "%s: the property %s is required".formatted( PluginSchema.path( pointer ), name ) );
+        }
+      }
+      for( var property : object.entrySet( ) ) {
+        PluginSchema schema = this.properties.get( property.getKey( ) );
+        if( schema == null ) {
+          schema = this.additionalSchema;
+        }
+        if( schema != null ) {
+          schema.validate( property.getValue( ), pointer + "/" + property.getKey( ), violations );
+        } else if( !this.additionalProperties ) {
+          violations.add( "%s: the property %s is not allowed".formatted( PluginSchema.path( pointer ), property.getKey( ) ) );
+        }
+      }
+    } else if( value.isJsonArray( ) && this.items != null ) {
+      JsonArray array = value.getAsJsonArray( );
+      for( int index = 0; index < array.size( ); index++ ) {
+        this.items.validate( array.get( index ), pointer + "/" + index, violations );
+      }
+    } else if( value.isJsonPrimitive( ) && value.getAsJsonPrimitive( ).isString( ) ) {
+      String string = value.getAsString( );
+      int length = string.codePointCount( 0, string.length( ) );
+      if( length < this.minLength ) {
+        violations.add( "%s: must have at least %d characters".formatted( PluginSchema.path( pointer ), this.minLength ) );
+      }
+      if( length > this.maxLength ) {
+        violations.add( "%s: must have at most %d characters".formatted( PluginSchema.path( pointer ), this.maxLength ) );
+      }
+      if( this.pattern != null && !this.pattern.matcher( string ).find( ) ) {
+        violations.add( "%s: must match %s".formatted( PluginSchema.path( pointer ), this.pattern.pattern( ) ) );
+      }
+      if( this.uuid && !PluginSchema.isUuid( string ) ) {
+        violations.add( "%s: must be an uuid".formatted( PluginSchema.path( pointer ) ) );
+      }
+    }
+
+  }
+
+  private static boolean isOfType( JsonElement value, String type ) {
+
+    return switch( type ) {
+      case "object" -> value.isJsonObject( );
+      case "array" -> value.isJsonArray( );
+      case "null" -> value.isJsonNull( );
+      case "string" -> value.isJsonPrimitive( ) && value.getAsJsonPrimitive( ).isString( );
+      case "boolean" -> value.isJsonPrimitive( ) && value.getAsJsonPrimitive( ).isBoolean( );
+      case "number" -> value.isJsonPrimitive( ) && value.getAsJsonPrimitive( ).isNumber( );
+      case "integer" -> value.isJsonPrimitive( ) && value.getAsJsonPrimitive( ).isNumber( ) && PluginSchema.isInteger( value.getAsJsonPrimitive( ) );
+      default -> false;
+    };
+
+  }
+
+  private static boolean isInteger( JsonPrimitive number ) {
+
+    try {
+      number.getAsBigDecimal( ).toBigIntegerExact( );
+      return true;
+    } catch( ArithmeticException ex ) {
+      return false;
+    }
+
+  }
+
+  static boolean isUuid( String string ) {
+
+    // UUID.fromString accepts shorter groups, the schema format requires the canonical form.
+    if( string.length( ) != 36 ) {
+      return false;
+    }
+    try {
+      UUID.fromString( string );
+      return true;
+    } catch( IllegalArgumentException ex ) {
+      return false;
+    }
+
+  }
+
+  private static String path( String pointer ) {
+
+    return pointer.isEmpty( ) ? "/" : pointer;
+
+  }
+
+}
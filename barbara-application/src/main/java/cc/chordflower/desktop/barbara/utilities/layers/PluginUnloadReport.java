@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The result of unloading a plugin, it tells if the class loaders of the plugin were collected, and if not, what is
+ * still holding them. This is an immutable class aka a value class.
+ *
+ * @author carddamom
+ */
+public final class PluginUnloadReport {
+
+  private final PluginDescriptor descriptor;
+
+  private final boolean collected;
+
+  private final Duration elapsed;
+
+  private final List< String > roots;
+
+  private final Path heapDump;
+
+  @Contract( pure = true )
+  private PluginUnloadReport( PluginDescriptor descriptor, boolean collected, Duration elapsed, List< String > roots, Path heapDump ) {
+
+    this.descriptor = descriptor;
+    this.collected = collected;
+    this.elapsed = elapsed;
+    this.roots = roots;
+    this.heapDump = heapDump;
+
+  }
+
+  /**
+   * Creates a new unload report.
+   *
+   * @param descriptor The unloaded plugin.
+   * @param collected True if the class loaders of the plugin were collected, or were never created.
+   * @param elapsed How long it took for the class loaders to be collected, or how long it was waited for.
+   * @param roots A description of each object found holding the class loaders.
+   * @param heapDump The heap dump taken when the class loaders leaked, or null if none was taken.
+   * @return A new unload report.
+   */
+  @Contract( "_, _, _, _, _ -> new" )
+  public static @NotNull PluginUnloadReport of( PluginDescriptor descriptor, boolean collected, Duration elapsed, List< String > roots, Path heapDump ) {
+
+    return new PluginUnloadReport( descriptor, collected, elapsed, List.copyOf( roots ), heapDump );
+
+  }
+
+  /**
+   * Returns the unloaded plugin.
+   */
+  @Contract( pure = true )
+  public @NotNull PluginDescriptor Descriptor( ) {
+
+    return this.descriptor;
+
+  }
+
+  /**
+   * Returns true if the class loaders of the plugin were collected, or were never created.
+   */
+  @Contract( pure = true )
+  public boolean isCollected( ) {
+
+    return this.collected;
+
+  }
+
+  /**
+   * Returns how long it took for the class loaders to be collected, or how long it was waited for.
+   */
+  @Contract( pure = true )
+  public @NotNull Duration Elapsed( ) {
+
+    return this.elapsed;
+
+  }
+
+  /**
+   * Returns a description of each object found holding the class loaders of the plugin.
+   */
+  @Contract( pure = true )
+  public @NotNull @UnmodifiableView List< String > Roots( ) {
+
+    return this.roots;
+
+  }
+
+  /**
+   * Returns the heap dump taken when the class loaders leaked.
+   */
+  @Contract( pure = true )
+  public @NotNull Optional< Path > HeapDump( ) {
+
+    return Optional.ofNullable( this.heapDump );
+
+  }
+
+  @Override
+  public String toString( ) {
+
+    return new ToStringBuilder( this, ToStringStyle.JSON_STYLE ).append( "plugin", this.descriptor.Name( ) ).append( "version", this.descriptor.Version( ) )
+        .append( "collected", this.collected ).append( "elapsed", this.elapsed.toMillis( ) ).append( "roots", this.roots ).append( "heapDump", this.heapDump )
+        .build( );
+
+  }
+
+}
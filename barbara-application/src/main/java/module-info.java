@@ -14,6 +14,9 @@ module barbara.application {
   requires org.spongepowered.configurate.yaml;
   requires semver4j;
   requires org.controlsfx.controls;
+  requires com.github.benmanes.caffeine;
+  requires barbara.spi;
+  requires jdk.management;
 
   exports cc.chordflower.desktop.barbara;
   exports cc.chordflower.desktop.barbara.exceptions;
@@ -23,4 +26,8 @@ module barbara.application {
   exports cc.chordflower.desktop.barbara.utilities.i18n;
   exports cc.chordflower.desktop.barbara.utilities.layers;
   exports cc.chordflower.desktop.barbara.utilities.validator;
+
+  opens cc.chordflower.desktop.barbara.utilities.layers to gson, org.hibernate.validator;
+
+  uses cc.chordflower.desktop.barbara.spi.PluginEntry;
 }
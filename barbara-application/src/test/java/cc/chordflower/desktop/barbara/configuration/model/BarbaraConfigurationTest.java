@@ -0,0 +1,169 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.spongepowered.configurate.BasicConfigurationNode;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+
+/**
+ * These are the unit tests for the barbara configuration.
+ *
+ * @author carddamom
+ */
+@DisplayName( "BarbaraConfiguration:" )
+public class BarbaraConfigurationTest {
+
+  static BarbaraConfiguration layered( Path directory, Map< String, String > environment ) throws Exception {
+
+    Path system = directory.resolve( "system.json" );
+    Files.writeString( system, "{ \"paths\": { \"notes\": \"/system/notes\", \"music\": \"/system/music\" } }", StandardCharsets.UTF_8 );
+    Path source = directory.resolve( "config.json" );
+    Files.writeString( source, "{ \"paths\": { \"music\": \"/user/music\", \"email\": \"/user/emails\" } }", StandardCharsets.UTF_8 );
+    return BarbaraConfiguration.load( source, Files.readAttributes( source, BasicFileAttributes.class ), BarbaraConfiguration.loaderOf( source ),
+        ConfigurationSnapshot.of( directory.resolve( "configuration.snapshot" ) ), LayeredConfiguration.of( system, null, environment, Map.of( ) ) );
+  }
+
+  @Nested
+  @DisplayName( "When reloading the configuration" )
+  public class Reloading {
+
+    @Test
+    @DisplayName( "we should only report the keys whose value changed" )
+    public void testOne( ) throws Exception {
+
+      var configuration = new BarbaraConfiguration( );
+      var node = BasicConfigurationNode.root( );
+      configuration.saveTo( node );
+      node.node( "paths", "email" ).set( "/tmp/emails" );
+
+      var changes = configuration.reload( node );
+
+      Matchers.expect( changes.size( ) ).toEqual( 1 );
+      Matchers.expect( changes.get( 0 ).Key( ) ).toEqual( "paths.email" );
+      Matchers.expect( changes.get( 0 ).NewValue( ) ).toEqual( "/tmp/emails" );
+      Matchers.expect( configuration.Paths( ).getEmailPath( ) ).toEqual( Paths.get( "/tmp/emails" ) );
+    }
+
+    @Test
+    @DisplayName( "we should report nothing when the configuration is the same" )
+    public void testTwo( ) throws Exception {
+
+      var configuration = new BarbaraConfiguration( );
+      var node = BasicConfigurationNode.root( );
+      configuration.saveTo( node );
+
+      Matchers.expect( configuration.reload( node ).isEmpty( ) ).toBeTrue( );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When parsing a json configuration" )
+  public class Parsing {
+
+    @Test
+    @DisplayName( "we should stream the present values and keep the defaults of the others" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      Path source = directory.resolve( "config.json" );
+      Files.writeString( source, "{ \"paths\": { \"email\": \"/tmp/emails\", \"notes\": null, \"unknown\": [ 1, 2 ] }, \"other\": true }", StandardCharsets.UTF_8 );
+      var defaults = new BarbaraConfiguration( );
+
+      var configuration = BarbaraConfiguration.load( source, Files.readAttributes( source, BasicFileAttributes.class ), BarbaraConfiguration.loaderOf( source ),
+          ConfigurationSnapshot.of( directory.resolve( "configuration.snapshot" ) ) );
+
+      Matchers.expect( configuration.Paths( ).getEmailPath( ) ).toEqual( Paths.get( "/tmp/emails" ) );
+      Matchers.expect( configuration.Paths( ).getNotesPath( ) ).toEqual( defaults.Paths( ).getNotesPath( ) );
+      Matchers.expect( configuration.defaultNode( ).orElseThrow( ).node( "paths", "email" ).getString( ) ).toEqual( "/tmp/emails" );
+    }
+
+    @Test
+    @DisplayName( "we should read back what the registered adapters write" )
+    public void testTwo( ) {
+
+      var configuration = new BarbaraConfiguration( );
+      configuration.Paths( ).setMusicPath( Paths.get( "/tmp/music" ) );
+
+      var copy = BarbaraConfiguration.JSON.fromJson( BarbaraConfiguration.JSON.toJson( configuration ), BarbaraConfiguration.class );
+
+      Matchers.expect( copy.Paths( ).getMusicPath( ) ).toEqual( Paths.get( "/tmp/music" ) );
+      Matchers.expect( copy.Paths( ).getEmailPath( ) ).toEqual( configuration.Paths( ).getEmailPath( ) );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When the configuration is layered" )
+  public class Layering {
+
+    @Test
+    @DisplayName( "we should build the configuration from the merged layers" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      var configuration = BarbaraConfigurationTest.layered( directory, Map.of( "BARBARA_PATHS_EMAIL", "/environment/emails" ) );
+
+      Matchers.expect( configuration.Paths( ).getEmailPath( ) ).toEqual( Paths.get( "/environment/emails" ) );
+      Matchers.expect( configuration.Paths( ).getNotesPath( ) ).toEqual( Paths.get( "/system/notes" ) );
+      Matchers.expect( configuration.Paths( ).getMusicPath( ) ).toEqual( Paths.get( "/user/music" ) );
+    }
+
+    @Test
+    @DisplayName( "we should only report the keys of the user file whose merged value changed" )
+    public void testTwo( @TempDir Path directory ) throws Exception {
+
+      var configuration = BarbaraConfigurationTest.layered( directory, Map.of( "BARBARA_PATHS_EMAIL", "/environment/emails" ) );
+      var node = BasicConfigurationNode.root( );
+      node.node( "paths", "music" ).set( "/user/songs" );
+      node.node( "paths", "email" ).set( "/user/letters" );
+
+      var changes = configuration.reload( node );
+
+      Matchers.expect( changes.size( ) ).toEqual( 1 );
+      Matchers.expect( changes.get( 0 ).Key( ) ).toEqual( "paths.music" );
+      Matchers.expect( configuration.Paths( ).getMusicPath( ) ).toEqual( Paths.get( "/user/songs" ) );
+      Matchers.expect( configuration.Paths( ).getEmailPath( ) ).toEqual( Paths.get( "/environment/emails" ) );
+    }
+
+    @Test
+    @DisplayName( "we should only save the user layer and the changed values" )
+    public void testThree( @TempDir Path directory ) throws Exception {
+
+      var configuration = BarbaraConfigurationTest.layered( directory, Map.of( "BARBARA_PATHS_EMAIL", "/environment/emails" ) );
+      configuration.Paths( ).setVideosPath( Paths.get( "/tmp/videos" ) );
+
+      configuration.saveToDefault( );
+      var node = configuration.defaultNode( ).orElseThrow( ).node( "paths" );
+
+      Matchers.expect( node.node( "videos" ).getString( ) ).toEqual( "/tmp/videos" );
+      Matchers.expect( node.node( "email" ).getString( ) ).toEqual( "/user/emails" );
+      Matchers.expect( node.node( "notes" ).virtual( ) ).toBeTrue( );
+      Matchers.expect( node.childrenMap( ).size( ) ).toEqual( 3 );
+    }
+
+  }
+
+}
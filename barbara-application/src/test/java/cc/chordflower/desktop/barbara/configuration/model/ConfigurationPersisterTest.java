@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.spongepowered.configurate.BasicConfigurationNode;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * These are the unit tests for the configuration persister.
+ *
+ * @author carddamom
+ */
+@DisplayName( "ConfigurationPersister:" )
+public class ConfigurationPersisterTest {
+
+  private static BarbaraConfiguration configuration( Path emailPath ) {
+
+    var configuration = new BarbaraConfiguration( BasicConfigurationNode.root( ) );
+    configuration.Paths( ).setEmailPath( emailPath );
+    return configuration;
+  }
+
+  private static BarbaraConfiguration read( Path source ) throws Exception {
+
+    var configuration = new BarbaraConfiguration( );
+    configuration.loadFrom( BarbaraConfiguration.loaderOf( source ).load( ) );
+    return configuration;
+  }
+
+  private static List< Path > list( Path directory ) throws Exception {
+
+    try( Stream< Path > files = Files.list( directory ) ) {
+      return files.map( Path::getFileName ).toList( );
+    }
+  }
+
+  @Nested
+  @DisplayName( "When saving the configuration" )
+  public class Saving {
+
+    @Test
+    @DisplayName( "we should merge the saves requested during the debounce period into a single write" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      var persister = new ConfigurationPersister( ConfigurationPersisterTest.configuration( Paths.get( "/tmp/emails" ) ), directory.resolve( "config.json" ),
+          Duration.ofMillis( 200 ) );
+
+      var first = persister.save( );
+      var second = persister.save( );
+      var third = persister.save( );
+      third.get( 5, TimeUnit.SECONDS );
+
+      Matchers.expect( first == second && second == third ).toBeTrue( );
+      Matchers.expect( persister.Statistics( ).Requests( ) ).toEqual( 3L );
+      Matchers.expect( persister.Statistics( ).Writes( ) ).toEqual( 1L );
+    }
+
+    @Test
+    @DisplayName( "we should write the pending save at once when the persister is closed" )
+    public void testTwo( @TempDir Path directory ) throws Exception {
+
+      Path source = directory.resolve( "config.json" );
+      var persister = new ConfigurationPersister( ConfigurationPersisterTest.configuration( Paths.get( "/tmp/emails" ) ), source, Duration.ofHours( 1 ) );
+
+      var save = persister.save( );
+      persister.close( );
+
+      Matchers.expect( save.isDone( ) && !save.isCompletedExceptionally( ) ).toBeTrue( );
+      Matchers.expect( ConfigurationPersisterTest.read( source ).Paths( ).getEmailPath( ) ).toEqual( Paths.get( "/tmp/emails" ) );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When writing the configuration file" )
+  public class Writing {
+
+    @Test
+    @DisplayName( "we should replace the configuration file without leaving the temporary file behind" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      Path source = directory.resolve( "config.json" );
+      Files.writeString( source, "{ \"paths\": { \"email\": \"/tmp/emails\" } }", StandardCharsets.UTF_8 );
+      var persister = new ConfigurationPersister( ConfigurationPersisterTest.configuration( Paths.get( "/tmp/letter-box" ) ), source, Duration.ofMillis( 10 ) );
+
+      persister.save( ).get( 5, TimeUnit.SECONDS );
+      boolean ownWrite = persister.isOwnWrite( Files.readAttributes( source, BasicFileAttributes.class ) );
+      Files.writeString( source, "{ \"paths\": { \"email\": \"/tmp/other-emails\" } }", StandardCharsets.UTF_8 );
+
+      Matchers.expect( ConfigurationPersisterTest.list( directory ) ).toEqual( List.of( Paths.get( "config.json" ) ) );
+      Matchers.expect( ownWrite ).toBeTrue( );
+      Matchers.expect( persister.isOwnWrite( Files.readAttributes( source, BasicFileAttributes.class ) ) ).toBeFalse( );
+    }
+
+    @Test
+    @DisplayName( "we should fail the save and keep the current file when the configuration file cannot be replaced" )
+    public void testTwo( @TempDir Path directory ) throws Exception {
+
+      // A directory cannot be replaced by the rename, so the write fails after the temporary file is written.
+      Path source = Files.createDirectory( directory.resolve( "config.json" ) );
+      Files.writeString( source.resolve( "keep" ), "keep", StandardCharsets.UTF_8 );
+      var persister = new ConfigurationPersister( ConfigurationPersisterTest.configuration( Paths.get( "/tmp/emails" ) ), source, Duration.ofMillis( 10 ) );
+
+      Matchers.expect( ( ) -> persister.save( ).join( ) ).toThrow( CompletionException.class );
+      Matchers.expect( persister.Statistics( ).Failures( ) ).toEqual( 1L );
+      Matchers.expect( ConfigurationPersisterTest.list( directory ) ).toEqual( List.of( Paths.get( "config.json" ) ) );
+      Matchers.expect( Files.exists( source.resolve( "keep" ) ) ).toBeTrue( );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When the configuration is layered" )
+  public class Layering {
+
+    @Test
+    @DisplayName( "we should only write the user layer to the configuration file" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      var configuration = BarbaraConfigurationTest.layered( directory, Map.of( "BARBARA_PATHS_IMAGES", "/environment/images" ) );
+      configuration.Paths( ).setVideosPath( Paths.get( "/tmp/videos" ) );
+
+      configuration.Persister( ).save( ).get( 5, TimeUnit.SECONDS );
+      String written = Files.readString( directory.resolve( "config.json" ), StandardCharsets.UTF_8 );
+      configuration.close( );
+
+      Matchers.expect( written.contains( "/tmp/videos" ) && written.contains( "/user/music" ) ).toBeTrue( );
+      Matchers.expect( written.contains( "/environment/images" ) ).toBeFalse( );
+      Matchers.expect( written.contains( "/system/notes" ) ).toBeFalse( );
+    }
+
+  }
+
+}
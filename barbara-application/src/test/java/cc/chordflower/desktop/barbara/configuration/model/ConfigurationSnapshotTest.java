@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * These are the unit tests for the configuration snapshot.
+ *
+ * @author carddamom
+ */
+@DisplayName( "ConfigurationSnapshot:" )
+public class ConfigurationSnapshotTest {
+
+  private static BarbaraConfiguration load( Path source, ConfigurationSnapshot snapshot ) throws Exception {
+
+    return BarbaraConfiguration.load( source, Files.readAttributes( source, BasicFileAttributes.class ), BarbaraConfiguration.loaderOf( source ), snapshot );
+  }
+
+  @Nested
+  @DisplayName( "When loading a configuration" )
+  public class Loading {
+
+    @Test
+    @DisplayName( "we should load the snapshot written by the previous load, while the configuration file is unchanged" )
+    public void testOne( ) throws Exception {
+
+      Path directory = Files.createTempDirectory( "barbara-configuration" );
+      Path source = directory.resolve( "config.json" );
+      Files.writeString( source, "{ \"paths\": { \"email\": \"/tmp/emails\" } }", StandardCharsets.UTF_8 );
+      var snapshot = ConfigurationSnapshot.of( directory.resolve( "configuration.snapshot" ) );
+
+      ConfigurationSnapshotTest.load( source, snapshot );
+      var configuration = ConfigurationSnapshotTest.load( source, snapshot );
+
+      Matchers.expect( configuration.Paths( ).getEmailPath( ) ).toEqual( Paths.get( "/tmp/emails" ) );
+      Matchers.expect( snapshot.Statistics( ).Misses( ) ).toEqual( 1 );
+      Matchers.expect( snapshot.Statistics( ).Hits( ) ).toEqual( 1 );
+      Matchers.expect( configuration.defaultNode( ).isPresent( ) ).toBeTrue( );
+    }
+
+    @Test
+    @DisplayName( "we should parse the configuration file again once it changes" )
+    public void testTwo( ) throws Exception {
+
+      Path directory = Files.createTempDirectory( "barbara-configuration" );
+      Path source = directory.resolve( "config.json" );
+      Files.writeString( source, "{ \"paths\": { \"email\": \"/tmp/emails\" } }", StandardCharsets.UTF_8 );
+      var snapshot = ConfigurationSnapshot.of( directory.resolve( "configuration.snapshot" ) );
+
+      ConfigurationSnapshotTest.load( source, snapshot );
+      Files.writeString( source, "{ \"paths\": { \"email\": \"/tmp/letter-box\" } }", StandardCharsets.UTF_8 );
+      var configuration = ConfigurationSnapshotTest.load( source, snapshot );
+
+      Matchers.expect( configuration.Paths( ).getEmailPath( ) ).toEqual( Paths.get( "/tmp/letter-box" ) );
+      Matchers.expect( snapshot.Statistics( ).Misses( ) ).toEqual( 2 );
+      Matchers.expect( snapshot.Statistics( ).Hits( ) ).toEqual( 0 );
+    }
+
+  }
+
+}
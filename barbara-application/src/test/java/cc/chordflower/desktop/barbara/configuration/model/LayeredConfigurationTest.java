@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import cc.chordflower.desktop.barbara.configuration.model.LayeredConfiguration.Layer;
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+/**
+ * These are the unit tests for the layered configuration.
+ *
+ * @author carddamom
+ */
+@DisplayName( "LayeredConfiguration:" )
+public class LayeredConfigurationTest {
+
+  @Nested
+  @DisplayName( "When merging the layers" )
+  public class Merging {
+
+    @Test
+    @DisplayName( "we should take each value from the highest layer that has it" )
+    public void testOne( ) {
+
+      var configuration = new LayeredConfiguration( );
+      configuration.setLayer( Layer.DEFAULTS, Map.of( "paths.email", "/defaults/emails", "paths.notes", "/defaults/notes" ) );
+      configuration.setLayer( Layer.USER, Map.of( "paths.email", "/user/emails" ) );
+      configuration.setLayer( Layer.ENVIRONMENT, LayeredConfiguration.fromEnvironment( Map.of( "BARBARA_PATHS_NOTES", "/environment/notes", "HOME", "/home" ) ) );
+
+      Matchers.expect( configuration.get( "paths.email" ).orElseThrow( ) ).toEqual( "/user/emails" );
+      Matchers.expect( configuration.get( "paths.notes" ).orElseThrow( ) ).toEqual( "/environment/notes" );
+      Matchers.expect( configuration.originOf( configuration.keyOf( "paths.notes" ).orElseThrow( ) ).orElseThrow( ) ).toEqual( Layer.ENVIRONMENT );
+      Matchers.expect( configuration.get( "home" ).isPresent( ) ).toBeFalse( );
+    }
+
+    @Test
+    @DisplayName( "we should only report the keys whose merged value changed" )
+    public void testTwo( ) {
+
+      var configuration = new LayeredConfiguration( );
+      configuration.setLayer( Layer.SYSTEM, Map.of( "paths.email", "/system/emails", "paths.notes", "/system/notes" ) );
+      configuration.setLayer( Layer.USER, Map.of( "paths.notes", "/user/notes" ) );
+
+      var changes = configuration.setLayer( Layer.SYSTEM, Map.of( "paths.email", "/system/letters", "paths.notes", "/system/notebooks" ) );
+
+      Matchers.expect( changes.size( ) ).toEqual( 1 );
+      Matchers.expect( changes.get( 0 ).Key( ) ).toEqual( "paths.email" );
+      Matchers.expect( configuration.get( "paths.notes" ).orElseThrow( ) ).toEqual( "/user/notes" );
+    }
+
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.configuration.model;
+
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.spongepowered.configurate.BasicConfigurationNode;
+
+import java.io.File;
+import java.nio.file.Paths;
+
+/**
+ * These are the unit tests for the path configuration.
+ *
+ * @author carddamom
+ */
+@DisplayName( "PathConfiguration:" )
+public class PathConfigurationTest {
+
+  @Nested
+  @DisplayName( "When using the generated bindings" )
+  public class Bindings {
+
+    @Test
+    @DisplayName( "we should load the values saved to a node, and keep the ones missing from it" )
+    public void testOne( ) throws Exception {
+
+      var paths = new PathConfiguration( );
+      paths.setEmailPath( Paths.get( "/barbara/emails" ) );
+      var node = BasicConfigurationNode.root( );
+      paths.saveTo( node );
+      node.removeChild( PathConfiguration.NOTES_PROPERTY );
+
+      var loaded = new PathConfiguration( );
+      loaded.setNotesPath( Paths.get( "/barbara/notes" ) );
+      loaded.loadFrom( node );
+
+      Matchers.expect( node.node( PathConfiguration.EMAIL_PROPERTY ).getString( ) ).toEqual( "/barbara/emails" );
+      Matchers.expect( loaded.getEmailPath( ) ).toEqual( Paths.get( "/barbara/emails" ) );
+      Matchers.expect( loaded.getNotesPath( ) ).toEqual( Paths.get( "/barbara/notes" ) );
+      Matchers.expect( loaded.getMusicPath( ) ).toEqual( paths.getMusicPath( ) );
+    }
+
+    @Test
+    @DisplayName( "we should only write the properties to the configuration when they are saved" )
+    public void testTwo( ) {
+
+      var paths = new PathConfiguration( );
+      var properties = new PathConfigurationProperties( paths );
+      var previous = paths.getVideosPath( );
+      properties.VideosPath( ).set( new File( "/barbara/videos" ) );
+
+      Matchers.expect( paths.getVideosPath( ) ).toEqual( previous );
+      properties.save( );
+      Matchers.expect( paths.getVideosPath( ) ).toEqual( Paths.get( "/barbara/videos" ) );
+      paths.setVideosPath( previous );
+      properties.reset( );
+      Matchers.expect( properties.VideosPath( ).get( ) ).toEqual( previous.toFile( ) );
+    }
+
+  }
+
+}
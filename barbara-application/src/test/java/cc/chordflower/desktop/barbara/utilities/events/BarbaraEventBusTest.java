@@ -0,0 +1,207 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.events;
+
+import cc.chordflower.desktop.barbara.spi.PluginExecutor;
+import cc.chordflower.desktop.barbara.spi.event.EventBus.Delivery;
+import cc.chordflower.desktop.barbara.spi.event.EventType;
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * These are the unit tests for the event bus.
+ *
+ * @author carddamom
+ */
+@DisplayName( "BarbaraEventBus:" )
+public class BarbaraEventBusTest {
+
+  private static final EventType< Integer > NUMBERS = EventType.of( "Numbers", Integer.class );
+
+  private static final EventType< String > WORDS = EventType.of( "Words", String.class );
+
+  /**
+   * A plugin executor that discards the first tasks without running them, and runs the others on the submitting thread.
+   */
+  static final class DiscardingExecutor implements PluginExecutor {
+
+    private final AtomicInteger discards;
+
+    DiscardingExecutor( int discards ) {
+
+      this.discards = new AtomicInteger( discards );
+
+    }
+
+    @Override
+    public < T > CompletableFuture< T > submit( Callable< T > task ) {
+
+      if( this.discards.getAndDecrement( ) > 0 ) {
+        return CompletableFuture.failedFuture( new CancellationException( "discarded" ) );
+      }
+      try {
+        return CompletableFuture.completedFuture( task.call( ) );
+      } catch( Exception ex ) {
+        return CompletableFuture.failedFuture( ex );
+      }
+
+    }
+
+    @Override
+    public void execute( Runnable command ) {
+
+      this.submit( Executors.callable( command ) );
+
+    }
+
+    @Override
+    public boolean isAvailable( ) {
+
+      return true;
+
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When publishing events" )
+  public class Publishing {
+
+    @Test
+    @DisplayName( "we should only call the subscribers of the published type, on the publisher thread" )
+    public void testOne( ) {
+
+      var bus = new BarbaraEventBus( 1, 16 );
+      List< Integer > numbers = new ArrayList<>( );
+      List< String > words = new ArrayList<>( );
+      bus.subscribe( NUMBERS, Delivery.PUBLISHER, numbers::add );
+      bus.subscribe( WORDS, Delivery.PUBLISHER, words::add );
+
+      bus.publish( NUMBERS, 1 );
+      bus.publish( NUMBERS, 2 );
+
+      Matchers.expect( numbers ).toEqual( List.of( 1, 2 ) );
+      Matchers.expect( words.isEmpty( ) ).toBeTrue( );
+    }
+
+    @Test
+    @DisplayName( "we should stop calling a subscriber once its subscription is closed" )
+    public void testTwo( ) {
+
+      var bus = new BarbaraEventBus( 1, 16 );
+      List< Integer > numbers = new ArrayList<>( );
+      var subscription = bus.subscribe( NUMBERS, Delivery.PUBLISHER, numbers::add );
+
+      bus.publish( NUMBERS, 1 );
+      subscription.close( );
+      bus.publish( NUMBERS, 2 );
+
+      Matchers.expect( numbers ).toEqual( List.of( 1 ) );
+      Matchers.expect( bus.Statistics( ).Subscribers( ) ).toEqual( 0 );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When subscribing to batches" )
+  public class Batching {
+
+    @Test
+    @DisplayName( "we should deliver every queued event, in order, on the background thread" )
+    public void testOne( ) throws Exception {
+
+      var bus = new BarbaraEventBus( 1, 1024 );
+      List< Integer > received = new ArrayList<>( );
+      CountDownLatch done = new CountDownLatch( 1 );
+      bus.subscribeBatches( NUMBERS, Delivery.BACKGROUND, batch -> {
+        synchronized( received ) {
+          received.addAll( batch );
+          if( received.size( ) == 100 ) {
+            done.countDown( );
+          }
+        }
+      } );
+
+      for( int number = 0; number < 100; number++ ) {
+        bus.publish( NUMBERS, number );
+      }
+
+      Matchers.expect( done.await( 5, TimeUnit.SECONDS ) ).toBeTrue( );
+      synchronized( received ) {
+        Matchers.expect( received.get( 0 ) ).toEqual( 0 );
+        Matchers.expect( received.get( 99 ) ).toEqual( 99 );
+      }
+    }
+
+    @Test
+    @DisplayName( "we should refuse to call a batch subscriber on the publisher thread" )
+    public void testTwo( ) {
+
+      var bus = new BarbaraEventBus( 1, 16 );
+
+      Matchers.expect( ( ) -> bus.subscribeBatches( NUMBERS, Delivery.PUBLISHER, batch -> { } ) ).toThrow( IllegalArgumentException.class );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When the executor of a plugin discards a delivery" )
+  public class Discarding {
+
+    @Test
+    @DisplayName( "we should deliver the queued events with the next event" )
+    public void testOne( ) {
+
+      var bus = new BarbaraEventBus( 1, 16 );
+      List< Integer > numbers = new ArrayList<>( );
+      bus.scope( this, new DiscardingExecutor( 1 ) ).subscribe( NUMBERS, Delivery.BACKGROUND, numbers::add );
+
+      bus.publish( NUMBERS, 1 );
+      bus.publish( NUMBERS, 2 );
+
+      Matchers.expect( numbers ).toEqual( List.of( 1, 2 ) );
+    }
+
+    @Test
+    @DisplayName( "we should deliver the queued batches with the next event" )
+    public void testTwo( ) {
+
+      var bus = new BarbaraEventBus( 1, 16 );
+      List< List< Integer > > batches = new ArrayList<>( );
+      bus.scope( this, new DiscardingExecutor( 2 ) ).subscribeBatches( NUMBERS, Delivery.BACKGROUND, batch -> batches.add( List.copyOf( batch ) ) );
+
+      bus.publish( NUMBERS, 1 );
+      bus.publish( NUMBERS, 2 );
+      bus.publish( NUMBERS, 3 );
+
+      Matchers.expect( batches ).toEqual( List.of( List.of( 1, 2, 3 ) ) );
+    }
+
+  }
+
+}
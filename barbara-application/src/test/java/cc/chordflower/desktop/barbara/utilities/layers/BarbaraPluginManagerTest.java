@@ -0,0 +1,417 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import cc.chordflower.desktop.barbara.exceptions.InvalidDependencyException;
+import cc.chordflower.desktop.barbara.exceptions.PluginInUseException;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginLoadReport.Problem;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginLoadReport.ProblemKind;
+import com.google.gson.Gson;
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * These are the unit tests for the plugin manager.
+ *
+ * @author carddamom
+ */
+@DisplayName( "BarbaraPluginManager:" )
+public class BarbaraPluginManagerTest {
+
+  private static final UUID FIRST = UUID.fromString( "00000000-0000-0000-0000-000000000001" );
+
+  private static final UUID SECOND = UUID.fromString( "00000000-0000-0000-0000-000000000002" );
+
+  private static final UUID THIRD = UUID.fromString( "00000000-0000-0000-0000-000000000003" );
+
+  private static final UUID FOURTH = UUID.fromString( "00000000-0000-0000-0000-000000000004" );
+
+  static void writePlugin( Path file, UUID id, String version, String dependencies ) throws IOException {
+
+    String json = """
+        { "name": "plugin %s", "$id": "%s", "license": "Apache-2.0", "version": "%s", "dependencies": [ %s ] }
+        """.formatted( id, id, version, dependencies );
+    writeDescriptor( file, json );
+
+  }
+
+  static void writeDescriptor( Path file, String json ) throws IOException {
+
+    try( ZipOutputStream output = new ZipOutputStream( Files.newOutputStream( file ) ) ) {
+      output.putNextEntry( new ZipEntry( "plugin.json" ) );
+      output.write( json.getBytes( StandardCharsets.UTF_8 ) );
+      output.closeEntry( );
+    }
+
+  }
+
+  static String dependency( UUID id, String version ) {
+
+    return """
+        { "$id": "%s", "version": "%s" }
+        """.formatted( id, version );
+
+  }
+
+  @Nested
+  @DisplayName( "When adding several plugins at once" )
+  public class BulkDiscovery {
+
+    @Test
+    @DisplayName( "we should register them in dependency order, whatever the order of the files" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      writePlugin( directory.resolve( "a.zip" ), THIRD, "1.0.0", dependency( SECOND, "^1.0.0" ) );
+      writePlugin( directory.resolve( "b.zip" ), SECOND, "1.1.0", dependency( FIRST, "^1.0.0" ) );
+      writePlugin( directory.resolve( "c.zip" ), FIRST, "1.0.0", "" );
+
+      var report = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) ).addPlugins( directory );
+
+      Matchers.expect( report.isSuccessful( ) ).toBeTrue( );
+      Matchers.expect( report.Registered( ).size( ) ).toEqual( 3 );
+      Matchers.expect( report.Registered( ).get( 0 ).Id( ) ).toEqual( FIRST );
+      Matchers.expect( report.Registered( ).get( 2 ).Id( ) ).toEqual( THIRD );
+    }
+
+    @Test
+    @DisplayName( "we should report every cyclic and missing dependency at once" )
+    public void testTwo( @TempDir Path directory ) throws Exception {
+
+      UUID missing = UUID.randomUUID( );
+      writePlugin( directory.resolve( "a.zip" ), FIRST, "1.0.0", dependency( SECOND, "*" ) );
+      writePlugin( directory.resolve( "b.zip" ), SECOND, "1.0.0", dependency( FIRST, "*" ) );
+      writePlugin( directory.resolve( "c.zip" ), THIRD, "1.0.0", dependency( missing, "*" ) );
+      writePlugin( directory.resolve( "d.zip" ), FOURTH, "1.0.0", dependency( FIRST, "*" ) );
+
+      var report = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) ).addPlugins( directory );
+
+      Matchers.expect( report.Registered( ).isEmpty( ) ).toBeTrue( );
+      Matchers.expect( report.Problems( ).stream( ).filter( problem -> problem.Kind( ) == ProblemKind.CYCLIC_DEPENDENCY ).count( ) ).toEqual( 2 );
+      Matchers.expect( report.Problems( ).stream( ).map( Problem::Kind ).toList( ).contains( ProblemKind.MISSING_DEPENDENCY ) ).toBeTrue( );
+      Matchers.expect( report.Problems( ).stream( ).map( Problem::Kind ).toList( ).contains( ProblemKind.REJECTED_DEPENDENCY ) ).toBeTrue( );
+    }
+
+    @Test
+    @DisplayName( "we should reject the plugins whose descriptors are not valid" )
+    public void testThree( @TempDir Path directory ) throws Exception {
+
+      writePlugin( directory.resolve( "a.zip" ), FIRST, "1.0.0", "" );
+      writeDescriptor( directory.resolve( "b.zip" ), """
+          { "name": "abc", "$id": "not an uuid", "license": "Apache-2.0" }
+          """ );
+
+      var report = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) ).addPlugins( directory );
+
+      Matchers.expect( report.Registered( ).size( ) ).toEqual( 1 );
+      Matchers.expect( report.Problems( ).size( ) ).toEqual( 1 );
+      Matchers.expect( report.Problems( ).get( 0 ).Kind( ) ).toEqual( ProblemKind.INVALID_DESCRIPTOR );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When adding a single plugin" )
+  public class SingleDiscovery {
+
+    @Test
+    @DisplayName( "we should report a missing dependency as an invalid dependency" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      writePlugin( directory.resolve( "a.zip" ), FIRST, "1.0.0", dependency( SECOND, "*" ) );
+
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+
+      Matchers.expect( ( ) -> manager.addPlugin( directory.resolve( "a.zip" ) ) ).toThrow( InvalidDependencyException.class );
+    }
+
+    @Test
+    @DisplayName( "we should report a plugin whose modules cannot be resolved as an io problem" )
+    public void testTwo( @TempDir Path directory ) throws Exception {
+
+      String json = """
+          { "name": "plugin %s", "$id": "%s", "license": "Apache-2.0", "version": "1.0.0" }
+          """.formatted( FIRST, FIRST );
+      try( ZipOutputStream output = new ZipOutputStream( Files.newOutputStream( directory.resolve( "a.zip" ) ) ) ) {
+        output.putNextEntry( new ZipEntry( "plugin.json" ) );
+        output.write( json.getBytes( StandardCharsets.UTF_8 ) );
+        output.closeEntry( );
+        output.putNextEntry( new ZipEntry( "lib/a.jar" ) );
+        output.write( new byte[ ] { 1, 2, 3 } );
+        output.closeEntry( );
+      }
+
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+
+      Matchers.expect( ( ) -> manager.addPlugin( directory.resolve( "a.zip" ) ) ).toThrow( IOException.class );
+      Matchers.expect( manager.Snapshot( ).Active( ).isEmpty( ) ).toBeTrue( );
+    }
+
+    @Test
+    @DisplayName( "we should reject a descriptor that only a lenient json reader accepts" )
+    public void testThree( @TempDir Path directory ) throws Exception {
+
+      writeDescriptor( directory.resolve( "a.zip" ), """
+          { name: 'plugin', "$id": "%s", "license" = "Apache-2.0", "version": "1.0.0" }
+          """.formatted( FIRST ) );
+
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+
+      Matchers.expect( ( ) -> manager.addPlugin( directory.resolve( "a.zip" ) ) ).toThrow( IOException.class );
+      Matchers.expect( manager.Snapshot( ).Active( ).isEmpty( ) ).toBeTrue( );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When several versions of a plugin are installed" )
+  public class SideBySideVersions {
+
+    @Test
+    @DisplayName( "we should activate the highest version that satisfies every dependency" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      writePlugin( directory.resolve( "a1.zip" ), FIRST, "1.4.0", "" );
+      writePlugin( directory.resolve( "a2.zip" ), FIRST, "2.0.0", "" );
+      writePlugin( directory.resolve( "b.zip" ), SECOND, "1.0.0", dependency( FIRST, "^1.0.0" ) );
+
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+      var report = manager.addPlugins( directory );
+
+      Matchers.expect( report.isSuccessful( ) ).toBeTrue( );
+      Matchers.expect( manager.activeVersion( FIRST ).orElseThrow( ).Version( ) ).toEqual( "1.4.0" );
+      Matchers.expect( manager.installedVersions( FIRST ).size( ) ).toEqual( 2 );
+    }
+
+    @Test
+    @DisplayName( "we should only refuse the same version of a plugin" )
+    public void testTwo( @TempDir Path directory ) throws Exception {
+
+      writePlugin( directory.resolve( "a1.zip" ), FIRST, "1.0.0", "" );
+      writePlugin( directory.resolve( "a2.zip" ), FIRST, "1.0.0", "" );
+
+      var report = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) ).addPlugins( directory );
+
+      Matchers.expect( report.Registered( ).size( ) ).toEqual( 1 );
+      Matchers.expect( report.Problems( ).size( ) ).toEqual( 1 );
+      Matchers.expect( report.Problems( ).get( 0 ).Kind( ) ).toEqual( ProblemKind.DUPLICATED );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When reloading the changed plugins" )
+  public class Reloading {
+
+    @Test
+    @DisplayName( "we should keep a running plugin and its dependents when its new file cannot be read" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      writePlugin( directory.resolve( "a.zip" ), FIRST, "1.0.0", "" );
+      writePlugin( directory.resolve( "b.zip" ), SECOND, "1.0.0", dependency( FIRST, "^1.0.0" ) );
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+      manager.addPlugins( directory );
+
+      // A plugin that is still being copied.
+      byte[ ] contents = Files.readAllBytes( directory.resolve( "a.zip" ) );
+      Files.write( directory.resolve( "a.zip" ), Arrays.copyOf( contents, contents.length / 2 ) );
+      var report = manager.reloadPlugins( List.of( directory.resolve( "a.zip" ) ) );
+
+      Matchers.expect( report.Problems( ).get( 0 ).Kind( ) ).toEqual( ProblemKind.UNREADABLE );
+      Matchers.expect( manager.activeVersion( FIRST ).isPresent( ) ).toBeTrue( );
+      Matchers.expect( manager.activeVersion( SECOND ).isPresent( ) ).toBeTrue( );
+    }
+
+    @Test
+    @DisplayName( "we should unload a plugin whose file was deleted" )
+    public void testTwo( @TempDir Path directory ) throws Exception {
+
+      writePlugin( directory.resolve( "a.zip" ), FIRST, "1.0.0", "" );
+      writePlugin( directory.resolve( "b.zip" ), SECOND, "1.0.0", dependency( FIRST, "^1.0.0" ) );
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+      manager.addPlugins( directory );
+
+      Files.delete( directory.resolve( "b.zip" ) );
+      manager.reloadPlugins( List.of( directory.resolve( "b.zip" ) ) );
+
+      Matchers.expect( manager.activeVersion( FIRST ).isPresent( ) ).toBeTrue( );
+      Matchers.expect( manager.activeVersion( SECOND ).isPresent( ) ).toBeFalse( );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When removing a plugin" )
+  public class Removal {
+
+    @Test
+    @DisplayName( "we should refuse to remove a plugin that other plugins depend on" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      writePlugin( directory.resolve( "a.zip" ), FIRST, "1.0.0", "" );
+      writePlugin( directory.resolve( "b.zip" ), SECOND, "1.0.0", dependency( FIRST, "^1.0.0" ) );
+
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+      manager.addPlugins( directory );
+
+      Matchers.expect( ( ) -> manager.removePlugin( FIRST ) ).toThrow( PluginInUseException.class );
+      Matchers.expect( manager.activeVersion( FIRST ).isPresent( ) ).toBeTrue( );
+    }
+
+    @Test
+    @DisplayName( "we should uninstall every version of the plugin, once nothing depends on it" )
+    public void testTwo( @TempDir Path directory ) throws Exception {
+
+      writePlugin( directory.resolve( "a1.zip" ), FIRST, "1.0.0", "" );
+      writePlugin( directory.resolve( "a2.zip" ), FIRST, "1.1.0", "" );
+      writePlugin( directory.resolve( "b.zip" ), SECOND, "1.0.0", dependency( FIRST, "^1.0.0" ) );
+
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+      manager.addPlugins( directory );
+      manager.removePlugin( SECOND );
+      var report = manager.removePlugin( FIRST );
+
+      Matchers.expect( report.isCollected( ) ).toBeTrue( );
+      Matchers.expect( manager.installedVersions( FIRST ).isEmpty( ) ).toBeTrue( );
+      Matchers.expect( manager.Snapshot( ).Active( ).isEmpty( ) ).toBeTrue( );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When storing the plugin jars" )
+  public class JarStore {
+
+    private static void writePluginWithJar( Path file, String version, String content ) throws IOException {
+
+      ByteArrayOutputStream jar = new ByteArrayOutputStream( );
+      try( ZipOutputStream output = new ZipOutputStream( jar ) ) {
+        output.putNextEntry( new ZipEntry( "res/content.txt" ) );
+        output.write( content.getBytes( StandardCharsets.UTF_8 ) );
+        output.closeEntry( );
+      }
+      String json = """
+          { "name": "plugin %s", "$id": "%s", "license": "Apache-2.0", "version": "%s" }
+          """.formatted( FIRST, FIRST, version );
+      try( ZipOutputStream output = new ZipOutputStream( Files.newOutputStream( file ) ) ) {
+        output.putNextEntry( new ZipEntry( "plugin.json" ) );
+        output.write( json.getBytes( StandardCharsets.UTF_8 ) );
+        output.closeEntry( );
+        output.putNextEntry( new ZipEntry( "lib/content.jar" ) );
+        output.write( jar.toByteArray( ) );
+        output.closeEntry( );
+      }
+
+    }
+
+    @Test
+    @DisplayName( "we should not hash the jars of an unchanged plugin again after a restart" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      Path plugins = Files.createDirectories( directory.resolve( "plugins" ) );
+      writePluginWithJar( plugins.resolve( "a.zip" ), "1.0.0", "first" );
+
+      var first = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+      first.addPlugins( plugins );
+      var second = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+      var report = second.addPlugins( plugins );
+
+      Matchers.expect( report.isSuccessful( ) ).toBeTrue( );
+      Matchers.expect( first.JarStoreStatistics( ).Hashed( ) ).toEqual( 1 );
+      Matchers.expect( second.JarStoreStatistics( ).Hashed( ) ).toEqual( 0 );
+      Matchers.expect( second.JarStoreStatistics( ).Reused( ) ).toEqual( 1 );
+    }
+
+    @Test
+    @DisplayName( "we should delete the jars of the versions that are no longer installed" )
+    public void testTwo( @TempDir Path directory ) throws Exception {
+
+      Path plugins = Files.createDirectories( directory.resolve( "plugins" ) );
+      Path versions = directory.resolve( "cache" ).resolve( "jars" ).resolve( "plugins" ).resolve( FIRST.toString( ) );
+      writePluginWithJar( plugins.resolve( "a.zip" ), "1.0.0", "first" );
+
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+      manager.addPlugins( plugins );
+      writePluginWithJar( plugins.resolve( "a.zip" ), "2.0.0", "second" );
+      manager.reloadPlugins( List.of( plugins.resolve( "a.zip" ) ) );
+
+      Matchers.expect( Files.exists( versions.resolve( "1.0.0" ) ) ).toBeFalse( );
+      Matchers.expect( Files.exists( versions.resolve( "2.0.0" ) ) ).toBeTrue( );
+      manager.removePlugin( FIRST );
+      Matchers.expect( Files.exists( versions ) ).toBeFalse( );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When verifying the integrity of a plugin" )
+  public class Integrity {
+
+    @Test
+    @DisplayName( "we should reject a plugin whose jars do not match its integrity manifest" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      String json = """
+          { "name": "plugin %s", "$id": "%s", "license": "Apache-2.0", "version": "1.0.0",
+            "integrity": { "algorithm": "sha256-chunked", "files": { "lib/a.jar": "%s" } } }
+          """.formatted( FIRST, FIRST, "0".repeat( 64 ) );
+      try( ZipOutputStream output = new ZipOutputStream( Files.newOutputStream( directory.resolve( "a.zip" ) ) ) ) {
+        output.putNextEntry( new ZipEntry( "plugin.json" ) );
+        output.write( json.getBytes( StandardCharsets.UTF_8 ) );
+        output.closeEntry( );
+        output.putNextEntry( new ZipEntry( "lib/a.jar" ) );
+        output.write( new byte[ ] { 1, 2, 3 } );
+        output.closeEntry( );
+      }
+
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+      var report = manager.addPlugins( directory );
+
+      Matchers.expect( report.Problems( ).size( ) ).toEqual( 1 );
+      Matchers.expect( report.Problems( ).get( 0 ).Kind( ) ).toEqual( ProblemKind.CORRUPTED );
+      Matchers.expect( manager.IntegrityStatistics( ).Failures( ) ).toEqual( 1 );
+    }
+
+    @Test
+    @DisplayName( "we should reject a plugin without an integrity manifest, when one is required" )
+    public void testTwo( @TempDir Path directory ) throws Exception {
+
+      writePlugin( directory.resolve( "a.zip" ), FIRST, "1.0.0", "" );
+
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+      manager.Integrity( ).setRequired( true );
+      var report = manager.addPlugins( directory );
+
+      Matchers.expect( report.Problems( ).get( 0 ).Kind( ) ).toEqual( ProblemKind.CORRUPTED );
+      Matchers.expect( manager.Snapshot( ).Active( ).isEmpty( ) ).toBeTrue( );
+    }
+
+  }
+
+}
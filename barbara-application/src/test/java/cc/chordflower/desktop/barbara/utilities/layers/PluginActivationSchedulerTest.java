@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import cc.chordflower.desktop.barbara.spi.PluginEntry;
+import cc.chordflower.desktop.barbara.spi.index.ExtensionIndex;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginActivationReport.Activation;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginActivationReport.Outcome;
+import com.google.gson.Gson;
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * These are the unit tests for the plugin activation scheduler.
+ *
+ * @author carddamom
+ */
+@DisplayName( "PluginActivationScheduler:" )
+public class PluginActivationSchedulerTest {
+
+  private static final UUID FIRST = UUID.fromString( "00000000-0000-0000-0000-000000000001" );
+
+  private static final UUID SECOND = UUID.fromString( "00000000-0000-0000-0000-000000000002" );
+
+  private static final UUID THIRD = UUID.fromString( "00000000-0000-0000-0000-000000000003" );
+
+  /**
+   * Writes a plugin whose only entry class does not exist, so its activation fails.
+   */
+  static void writeFailingPlugin( Path file, UUID id ) throws IOException {
+
+    String json = """
+        { "name": "plugin %s", "$id": "%s", "license": "Apache-2.0", "version": "1.0.0", "dependencies": [ ] }
+        """.formatted( id, id );
+    try( ZipOutputStream output = new ZipOutputStream( Files.newOutputStream( file ) ) ) {
+      output.putNextEntry( new ZipEntry( "plugin.json" ) );
+      output.write( json.getBytes( StandardCharsets.UTF_8 ) );
+      output.closeEntry( );
+      output.putNextEntry( new ZipEntry( ExtensionIndex.FILE_NAME ) );
+      ExtensionIndex.of( List.of( ExtensionIndex.Entry.of( PluginEntry.class.getName( ), "org.example.Missing", "missing", "", 0, List.of( ) ) ) ).writeTo( output );
+      output.closeEntry( );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When a plugin lists the same dependency twice" )
+  public class DuplicatedDependencies {
+
+    @Test
+    @DisplayName( "we should wait for every other dependency before starting it" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      BarbaraPluginManagerTest.writePlugin( directory.resolve( "a.zip" ), FIRST, "1.0.0", "" );
+      BarbaraPluginManagerTest.writePlugin( directory.resolve( "b.zip" ), SECOND, "1.0.0", String.join( ",", BarbaraPluginManagerTest.dependency( FIRST, "*" ),
+          BarbaraPluginManagerTest.dependency( FIRST, "*" ), BarbaraPluginManagerTest.dependency( THIRD, "*" ) ) );
+      writeFailingPlugin( directory.resolve( "c.zip" ), THIRD );
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+      manager.addPlugins( directory );
+
+      // A single thread activates the first plugin before the third one fails.
+      var scheduler = new PluginActivationScheduler( manager, Duration.ofSeconds( 10 ), 1 );
+      var report = scheduler.activate( );
+      // The plugins that were started are not activated again, so the second plugin must still be pending.
+      var retry = scheduler.activate( );
+
+      Matchers.expect( report.activation( FIRST ).map( Activation::Outcome ).orElse( null ) ).toEqual( Outcome.ACTIVATED );
+      Matchers.expect( report.activation( THIRD ).map( Activation::Outcome ).orElse( null ) ).toEqual( Outcome.FAILED );
+      Matchers.expect( report.activation( SECOND ).map( Activation::Outcome ).orElse( null ) ).toEqual( Outcome.SKIPPED );
+      Matchers.expect( retry.activation( SECOND ).map( Activation::Outcome ).orElse( null ) ).toEqual( Outcome.SKIPPED );
+      Matchers.expect( retry.activation( FIRST ).isPresent( ) ).toBeFalse( );
+    }
+
+    @Test
+    @DisplayName( "we should list it once among the dependents of its dependency" )
+    public void testTwo( @TempDir Path directory ) throws Exception {
+
+      BarbaraPluginManagerTest.writePlugin( directory.resolve( "a.zip" ), FIRST, "1.0.0", "" );
+      BarbaraPluginManagerTest.writePlugin( directory.resolve( "b.zip" ), SECOND, "1.0.0", String.join( ",", BarbaraPluginManagerTest.dependency( FIRST, "*" ),
+          BarbaraPluginManagerTest.dependency( FIRST, "^1.0.0" ) ) );
+      var manager = new BarbaraPluginManager( new Gson( ), directory.resolve( "cache" ) );
+      manager.addPlugins( directory );
+
+      var report = new PluginActivationScheduler( manager, Duration.ofSeconds( 10 ), 1 ).activate( );
+
+      Matchers.expect( manager.Snapshot( ).dependents( FIRST ) ).toEqual( List.of( SECOND ) );
+      Matchers.expect( report.isSuccessful( ) ).toBeTrue( );
+      Matchers.expect( report.Activations( ).size( ) ).toEqual( 2 );
+    }
+
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * These are the unit tests for the plugin archive reader.
+ *
+ * @author carddamom
+ */
+@DisplayName( "PluginArchive:" )
+public class PluginArchiveTest {
+
+  private Path archive;
+
+  private byte[ ] library;
+
+  @BeforeEach
+  public void init( @TempDir Path directory ) throws IOException {
+
+    this.archive = directory.resolve( "plugin.zip" );
+    this.library = new byte[ 256 * 1024 ];
+    new Random( 42 ).nextBytes( this.library );
+
+    byte[ ] stored = { 7, 8, 9 };
+    CRC32 crc = new CRC32( );
+    crc.update( stored );
+
+    try( ZipOutputStream output = new ZipOutputStream( Files.newOutputStream( this.archive ) ) ) {
+      output.putNextEntry( new ZipEntry( "plugin.json" ) );
+      output.write( "{ \"name\": \"example\" }".getBytes( StandardCharsets.UTF_8 ) );
+      output.closeEntry( );
+      output.putNextEntry( new ZipEntry( "lib/" ) );
+      output.closeEntry( );
+      output.putNextEntry( new ZipEntry( "lib/library.jar" ) );
+      output.write( this.library );
+      output.closeEntry( );
+      ZipEntry entry = new ZipEntry( "stored.jar" );
+      entry.setMethod( ZipEntry.STORED );
+      entry.setSize( stored.length );
+      entry.setCrc( crc.getValue( ) );
+      output.putNextEntry( entry );
+      output.write( stored );
+      output.closeEntry( );
+      output.setComment( "A plugin archive" );
+    }
+
+  }
+
+  @Test
+  @DisplayName( "we should index every entry of the central directory" )
+  public void testOne( ) throws IOException {
+
+    try( PluginArchive pluginArchive = PluginArchive.open( this.archive ) ) {
+      Matchers.expect( pluginArchive.Entries( ).size( ) ).toEqual( 4 );
+      Matchers.expect( pluginArchive.entry( "/plugin.json" ).isPresent( ) ).toBeTrue( );
+      Matchers.expect( pluginArchive.entry( "missing.json" ).isPresent( ) ).toBeFalse( );
+    }
+  }
+
+  @Test
+  @DisplayName( "we should find the jars in every directory with a glob" )
+  public void testTwo( ) throws IOException {
+
+    try( PluginArchive pluginArchive = PluginArchive.open( this.archive ) ) {
+      var jars = pluginArchive.find( "**/*.jar" ).stream( ).map( PluginArchive.Entry::Name ).toList( );
+      Matchers.expect( jars.size( ) ).toEqual( 2 );
+      Matchers.expect( jars.contains( "lib/library.jar" ) ).toBeTrue( );
+      Matchers.expect( jars.contains( "stored.jar" ) ).toBeTrue( );
+    }
+  }
+
+  @Test
+  @DisplayName( "we should read deflated and stored entries" )
+  public void testThree( ) throws IOException {
+
+    try( PluginArchive pluginArchive = PluginArchive.open( this.archive ) ) {
+      try( InputStream input = pluginArchive.open( pluginArchive.entry( "lib/library.jar" ).orElseThrow( ) ) ) {
+        Matchers.expect( Arrays.equals( input.readAllBytes( ), this.library ) ).toBeTrue( );
+      }
+      try( InputStream input = pluginArchive.open( pluginArchive.entry( "stored.jar" ).orElseThrow( ) ) ) {
+        Matchers.expect( Arrays.equals( input.readAllBytes( ), new byte[ ] { 7, 8, 9 } ) ).toBeTrue( );
+      }
+    }
+  }
+
+}
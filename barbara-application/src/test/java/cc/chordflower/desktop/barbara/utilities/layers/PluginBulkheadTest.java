@@ -0,0 +1,321 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import cc.chordflower.desktop.barbara.utilities.layers.PluginBulkhead.CircuitState;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginBulkheadPolicy.RejectionPolicy;
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * These are the unit tests for the plugin bulkhead.
+ *
+ * @author carddamom
+ */
+@DisplayName( "PluginBulkhead:" )
+public class PluginBulkheadTest {
+
+  static PluginBulkhead bulkhead( int maxConcurrency, int queueCapacity, RejectionPolicy rejectionPolicy, int failureThreshold, Duration slowCallThreshold,
+      Duration openDuration ) {
+
+    PluginDescriptor descriptor = PluginDescriptor.of( "plugin", UUID.randomUUID( ), null, "Apache-2.0", "1.0.0", List.of( ), null, List.of( ) );
+    return PluginBulkhead.of( descriptor, PluginBulkheadPolicy.of( maxConcurrency, queueCapacity, rejectionPolicy, failureThreshold, slowCallThreshold,
+        openDuration ), Executors.defaultThreadFactory( ) );
+
+  }
+
+  static boolean awaitState( PluginBulkhead bulkhead, CircuitState state ) throws InterruptedException {
+
+    long deadline = System.nanoTime( ) + TimeUnit.SECONDS.toNanos( 5 );
+    while( bulkhead.Statistics( ).State( ) != state && System.nanoTime( ) < deadline ) {
+      Thread.sleep( 10 );
+    }
+    return bulkhead.Statistics( ).State( ) == state;
+
+  }
+
+  static Throwable errorOf( CompletableFuture< ? > future ) throws InterruptedException {
+
+    try {
+      future.get( 5, TimeUnit.SECONDS );
+      return null;
+    } catch( ExecutionException ex ) {
+      return ex.getCause( );
+    } catch( CancellationException | TimeoutException ex ) {
+      return ex;
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When the tasks of a plugin keep failing" )
+  public class CircuitBreaker {
+
+    @Test
+    @DisplayName( "we should open the circuit and reject the next tasks" )
+    public void testOne( ) throws Exception {
+
+      var bulkhead = bulkhead( 1, 4, RejectionPolicy.ABORT, 2, Duration.ofSeconds( 10 ), Duration.ofMinutes( 1 ) );
+      try {
+        errorOf( bulkhead.submit( ( ) -> {
+          throw new IllegalStateException( "first" );
+        } ) );
+        errorOf( bulkhead.submit( ( ) -> {
+          throw new IllegalStateException( "second" );
+        } ) );
+
+        Matchers.expect( awaitState( bulkhead, CircuitState.OPEN ) ).toBeTrue( );
+        Matchers.expect( ( ) -> bulkhead.submit( ( ) -> "third" ) ).toThrow( RejectedExecutionException.class );
+        Matchers.expect( bulkhead.Statistics( ).ShortCircuited( ) ).toEqual( 1L );
+        Matchers.expect( bulkhead.isAvailable( ) ).toBeFalse( );
+      } finally {
+        bulkhead.shutdown( );
+      }
+    }
+
+    @Test
+    @DisplayName( "we should close the circuit again when the trial task succeeds" )
+    public void testTwo( ) throws Exception {
+
+      var bulkhead = bulkhead( 1, 4, RejectionPolicy.ABORT, 1, Duration.ofSeconds( 10 ), Duration.ZERO );
+      try {
+        errorOf( bulkhead.submit( ( ) -> {
+          throw new IllegalStateException( "first" );
+        } ) );
+        Matchers.expect( awaitState( bulkhead, CircuitState.OPEN ) ).toBeTrue( );
+
+        Matchers.expect( bulkhead.submit( ( ) -> "trial" ).get( 5, TimeUnit.SECONDS ) ).toEqual( "trial" );
+        Matchers.expect( bulkhead.Statistics( ).State( ) ).toEqual( CircuitState.CLOSED );
+      } finally {
+        bulkhead.shutdown( );
+      }
+    }
+
+    @Test
+    @DisplayName( "we should complete the trial task and open the circuit again when it throws an error" )
+    public void testThree( ) throws Exception {
+
+      var bulkhead = bulkhead( 1, 4, RejectionPolicy.ABORT, 1, Duration.ofSeconds( 10 ), Duration.ZERO );
+      try {
+        errorOf( bulkhead.submit( ( ) -> {
+          throw new IllegalStateException( "first" );
+        } ) );
+        Matchers.expect( awaitState( bulkhead, CircuitState.OPEN ) ).toBeTrue( );
+
+        Throwable error = errorOf( bulkhead.submit( ( ) -> {
+          throw new StackOverflowError( "trial" );
+        } ) );
+
+        Matchers.expect( error instanceof StackOverflowError ).toBeTrue( );
+        Matchers.expect( bulkhead.Statistics( ).State( ) ).toEqual( CircuitState.OPEN );
+        Matchers.expect( bulkhead.submit( ( ) -> "next trial" ).get( 5, TimeUnit.SECONDS ) ).toEqual( "next trial" );
+      } finally {
+        bulkhead.shutdown( );
+      }
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When the trial task does not finish" )
+  public class Trial {
+
+    @Test
+    @DisplayName( "we should let the next task through when the trial was cancelled before it ran" )
+    public void testOne( ) throws Exception {
+
+      var bulkhead = bulkhead( 1, 4, RejectionPolicy.ABORT, 1, Duration.ofSeconds( 10 ), Duration.ZERO );
+      CountDownLatch fail = new CountDownLatch( 1 );
+      CountDownLatch release = new CountDownLatch( 1 );
+      try {
+        var failing = bulkhead.submit( ( ) -> {
+          fail.await( );
+          throw new IllegalStateException( "failing" );
+        } );
+        var blocking = bulkhead.submit( ( ) -> release.await( 5, TimeUnit.SECONDS ) );
+        fail.countDown( );
+        errorOf( failing );
+        Matchers.expect( awaitState( bulkhead, CircuitState.OPEN ) ).toBeTrue( );
+
+        // The trial waits behind the blocking task, and is cancelled before it runs.
+        var trial = bulkhead.submit( ( ) -> "trial" );
+        trial.cancel( false );
+        release.countDown( );
+        blocking.get( 5, TimeUnit.SECONDS );
+
+        Matchers.expect( awaitState( bulkhead, CircuitState.OPEN ) ).toBeTrue( );
+        Matchers.expect( bulkhead.submit( ( ) -> "next trial" ).get( 5, TimeUnit.SECONDS ) ).toEqual( "next trial" );
+        Matchers.expect( bulkhead.Statistics( ).State( ) ).toEqual( CircuitState.CLOSED );
+      } finally {
+        release.countDown( );
+        bulkhead.shutdown( );
+      }
+    }
+
+    @Test
+    @DisplayName( "we should open the circuit again when the trial takes longer than the slow call threshold" )
+    public void testTwo( ) throws Exception {
+
+      var bulkhead = bulkhead( 2, 4, RejectionPolicy.ABORT, 1, Duration.ofMillis( 100 ), Duration.ZERO );
+      CountDownLatch release = new CountDownLatch( 1 );
+      try {
+        errorOf( bulkhead.submit( ( ) -> {
+          throw new IllegalStateException( "failing" );
+        } ) );
+        Matchers.expect( awaitState( bulkhead, CircuitState.OPEN ) ).toBeTrue( );
+
+        var trial = bulkhead.submit( ( ) -> release.await( 5, TimeUnit.SECONDS ) );
+        Matchers.expect( ( ) -> bulkhead.submit( ( ) -> "rejected" ) ).toThrow( RejectedExecutionException.class );
+        Thread.sleep( 200 );
+
+        Matchers.expect( bulkhead.submit( ( ) -> "next trial" ).get( 5, TimeUnit.SECONDS ) ).toEqual( "next trial" );
+        Matchers.expect( bulkhead.Statistics( ).State( ) ).toEqual( CircuitState.CLOSED );
+        release.countDown( );
+        trial.get( 5, TimeUnit.SECONDS );
+      } finally {
+        release.countDown( );
+        bulkhead.shutdown( );
+      }
+    }
+
+    @Test
+    @DisplayName( "we should let the next task through when the trial was discarded by a shutdown" )
+    public void testThree( ) throws Exception {
+
+      var bulkhead = bulkhead( 1, 4, RejectionPolicy.ABORT, 1, Duration.ofSeconds( 10 ), Duration.ZERO );
+      CountDownLatch fail = new CountDownLatch( 1 );
+      CountDownLatch release = new CountDownLatch( 1 );
+      try {
+        var failing = bulkhead.submit( ( ) -> {
+          fail.await( );
+          throw new IllegalStateException( "failing" );
+        } );
+        bulkhead.submit( ( ) -> release.await( 5, TimeUnit.SECONDS ) );
+        fail.countDown( );
+        errorOf( failing );
+        Matchers.expect( awaitState( bulkhead, CircuitState.OPEN ) ).toBeTrue( );
+
+        var trial = bulkhead.submit( ( ) -> "trial" );
+        bulkhead.shutdown( );
+
+        Matchers.expect( errorOf( trial ) instanceof CancellationException ).toBeTrue( );
+        Matchers.expect( bulkhead.Statistics( ).State( ) ).toEqual( CircuitState.OPEN );
+        Matchers.expect( bulkhead.Statistics( ).Discarded( ) ).toEqual( 1L );
+      } finally {
+        release.countDown( );
+        bulkhead.shutdown( );
+      }
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When the bulkhead is saturated" )
+  public class Saturation {
+
+    @Test
+    @DisplayName( "we should reject the new task with the abort policy" )
+    public void testOne( ) throws Exception {
+
+      var bulkhead = bulkhead( 1, 1, RejectionPolicy.ABORT, 5, Duration.ofSeconds( 10 ), Duration.ofMinutes( 1 ) );
+      CountDownLatch started = new CountDownLatch( 1 );
+      CountDownLatch release = new CountDownLatch( 1 );
+      try {
+        bulkhead.submit( ( ) -> {
+          started.countDown( );
+          return release.await( 5, TimeUnit.SECONDS );
+        } );
+        started.await( 5, TimeUnit.SECONDS );
+        var queued = bulkhead.submit( ( ) -> "queued" );
+
+        Matchers.expect( ( ) -> bulkhead.submit( ( ) -> "rejected" ) ).toThrow( RejectedExecutionException.class );
+        Matchers.expect( bulkhead.Statistics( ).Rejected( ) ).toEqual( 1L );
+        release.countDown( );
+        Matchers.expect( queued.get( 5, TimeUnit.SECONDS ) ).toEqual( "queued" );
+      } finally {
+        release.countDown( );
+        bulkhead.shutdown( );
+      }
+    }
+
+    @Test
+    @DisplayName( "we should cancel the oldest queued task with the discard oldest policy" )
+    public void testTwo( ) throws Exception {
+
+      var bulkhead = bulkhead( 1, 1, RejectionPolicy.DISCARD_OLDEST, 5, Duration.ofSeconds( 10 ), Duration.ofMinutes( 1 ) );
+      CountDownLatch started = new CountDownLatch( 1 );
+      CountDownLatch release = new CountDownLatch( 1 );
+      try {
+        bulkhead.submit( ( ) -> {
+          started.countDown( );
+          return release.await( 5, TimeUnit.SECONDS );
+        } );
+        started.await( 5, TimeUnit.SECONDS );
+        var oldest = bulkhead.submit( ( ) -> "oldest" );
+        var newest = bulkhead.submit( ( ) -> "newest" );
+        release.countDown( );
+
+        Matchers.expect( errorOf( oldest ) instanceof CancellationException ).toBeTrue( );
+        Matchers.expect( newest.get( 5, TimeUnit.SECONDS ) ).toEqual( "newest" );
+        Matchers.expect( bulkhead.Statistics( ).Discarded( ) ).toEqual( 1L );
+      } finally {
+        release.countDown( );
+        bulkhead.shutdown( );
+      }
+    }
+
+    @Test
+    @DisplayName( "we should run the new task on the submitting thread with the caller runs policy" )
+    public void testThree( ) throws Exception {
+
+      var bulkhead = bulkhead( 1, 1, RejectionPolicy.CALLER_RUNS, 5, Duration.ofSeconds( 10 ), Duration.ofMinutes( 1 ) );
+      CountDownLatch started = new CountDownLatch( 1 );
+      CountDownLatch release = new CountDownLatch( 1 );
+      try {
+        bulkhead.submit( ( ) -> {
+          started.countDown( );
+          return release.await( 5, TimeUnit.SECONDS );
+        } );
+        started.await( 5, TimeUnit.SECONDS );
+        bulkhead.submit( ( ) -> "queued" );
+        var caller = bulkhead.submit( ( ) -> Thread.currentThread( ) );
+
+        Matchers.expect( caller.isDone( ) ).toBeTrue( );
+        Matchers.expect( caller.get( ) ).toEqual( Thread.currentThread( ) );
+        Matchers.expect( bulkhead.Statistics( ).Rejected( ) ).toEqual( 0L );
+      } finally {
+        release.countDown( );
+        bulkhead.shutdown( );
+      }
+    }
+
+  }
+
+}
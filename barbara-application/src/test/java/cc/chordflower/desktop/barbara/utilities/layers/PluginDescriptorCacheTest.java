@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * These are the unit tests for the plugin descriptor cache.
+ *
+ * @author carddamom
+ */
+@DisplayName( "PluginDescriptorCache:" )
+public class PluginDescriptorCacheTest {
+
+  private static final Gson GSON = new GsonBuilder( )
+      .registerTypeAdapter( PluginDescriptor.class, new PluginDescriptorTypeAdapter( ) )
+      .registerTypeAdapter( PluginDependency.class, new PluginDependencyTypeAdapter( ) )
+      .create( );
+
+  static PluginDescriptor cache( PluginDescriptorCache cache, Path plugin, String content ) throws Exception {
+
+    Files.writeString( plugin, content, StandardCharsets.UTF_8 );
+    UUID id = UUID.randomUUID( );
+    PluginDescriptor descriptor = PluginDescriptor.of( "plugin %s".formatted( id ), id, null, "Apache-2.0", "1.0.0", List.of( ), plugin, List.of( ) );
+    cache.put( descriptor );
+    return descriptor;
+
+  }
+
+  @Nested
+  @DisplayName( "When saving the cache" )
+  public class Pruning {
+
+    @Test
+    @DisplayName( "we should forget the plugins whose files were deleted" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      Path cacheFile = directory.resolve( "descriptors.json" );
+      var cache = new PluginDescriptorCache( cacheFile, GSON );
+      cache( cache, directory.resolve( "a.zip" ), "first" );
+      cache( cache, directory.resolve( "b.zip" ), "second" );
+
+      Files.delete( directory.resolve( "b.zip" ) );
+      cache.save( );
+      var loaded = new PluginDescriptorCache( cacheFile, GSON );
+
+      Matchers.expect( loaded.get( directory.resolve( "a.zip" ) ).isPresent( ) ).toBeTrue( );
+      Matchers.expect( loaded.get( directory.resolve( "b.zip" ) ).isPresent( ) ).toBeFalse( );
+      Matchers.expect( Files.readString( cacheFile, StandardCharsets.UTF_8 ).contains( "b.zip" ) ).toBeFalse( );
+    }
+
+    @Test
+    @DisplayName( "we should forget the plugins whose files changed, even when they were not looked up" )
+    public void testTwo( @TempDir Path directory ) throws Exception {
+
+      Path cacheFile = directory.resolve( "descriptors.json" );
+      var cache = new PluginDescriptorCache( cacheFile, GSON );
+      cache( cache, directory.resolve( "a.zip" ), "first" );
+      cache.save( );
+
+      Files.writeString( directory.resolve( "a.zip" ), "a different content", StandardCharsets.UTF_8 );
+      new PluginDescriptorCache( cacheFile, GSON ).save( );
+
+      Matchers.expect( Files.readString( cacheFile, StandardCharsets.UTF_8 ).contains( "a.zip" ) ).toBeFalse( );
+    }
+
+  }
+
+  @Nested
+  @DisplayName( "When several threads look up the same plugin" )
+  public class ConcurrentLookups {
+
+    @Test
+    @DisplayName( "we should build a single descriptor for the cached entry" )
+    public void testOne( @TempDir Path directory ) throws Exception {
+
+      Path cacheFile = directory.resolve( "descriptors.json" );
+      Path plugin = directory.resolve( "a.zip" );
+      var cache = new PluginDescriptorCache( cacheFile, GSON );
+      cache( cache, plugin, "first" );
+      cache.save( );
+
+      var loaded = new PluginDescriptorCache( cacheFile, GSON );
+      int readers = 8;
+      CountDownLatch start = new CountDownLatch( 1 );
+      ExecutorService executor = Executors.newFixedThreadPool( readers );
+      List< PluginDescriptor > descriptors = new ArrayList<>( );
+      try {
+        List< Future< PluginDescriptor > > futures = new ArrayList<>( );
+        for( int reader = 0; reader < readers; reader++ ) {
+          futures.add( executor.submit( ( ) -> {
+            start.await( );
+            return loaded.get( plugin ).orElseThrow( );
+          } ) );
+        }
+        start.countDown( );
+        for( Future< PluginDescriptor > future : futures ) {
+          descriptors.add( future.get( ) );
+        }
+      } finally {
+        executor.shutdownNow( );
+      }
+
+      Matchers.expect( descriptors.stream( ).allMatch( descriptor -> descriptor == descriptors.get( 0 ) ) ).toBeTrue( );
+    }
+
+  }
+
+}
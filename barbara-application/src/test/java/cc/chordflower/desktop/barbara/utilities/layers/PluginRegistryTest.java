@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * These are the unit tests for the plugin registry.
+ *
+ * @author carddamom
+ */
+@DisplayName( "PluginRegistry:" )
+public class PluginRegistryTest {
+
+  static PluginDescriptor descriptor( UUID id, String version ) {
+
+    return PluginDescriptor.of( "plugin %s".formatted( id ), id, null, "Apache-2.0", version, List.of( ), null, List.of( ) );
+
+  }
+
+  @Nested
+  @DisplayName( "When several writers update the registry" )
+  public class ConcurrentUpdates {
+
+    @Test
+    @DisplayName( "we should publish the changes of every writer" )
+    public void testOne( ) throws Exception {
+
+      var registry = new PluginRegistry( );
+      int writers = 8;
+      int updates = 200;
+      CountDownLatch start = new CountDownLatch( 1 );
+      ExecutorService executor = Executors.newFixedThreadPool( writers );
+      try {
+        List< Future< ? > > futures = new ArrayList<>( );
+        for( int writer = 0; writer < writers; writer++ ) {
+          futures.add( executor.submit( ( ) -> {
+            start.await( );
+            for( int update = 0; update < updates; update++ ) {
+              PluginDescriptor descriptor = descriptor( UUID.randomUUID( ), "1.0.0" );
+              registry.update( batch -> {
+                batch.install( descriptor );
+                return descriptor;
+              } );
+            }
+            return null;
+          } ) );
+        }
+        start.countDown( );
+        for( Future< ? > future : futures ) {
+          future.get( );
+        }
+      } finally {
+        executor.shutdownNow( );
+      }
+
+      Matchers.expect( registry.Snapshot( ).Installed( ).size( ) ).toEqual( writers * updates );
+      Matchers.expect( registry.Snapshot( ).Version( ) ).toEqual( ( long ) writers * updates );
+    }
+
+    @Test
+    @DisplayName( "we should apply the changes again on the newer snapshot, and return the result of the published attempt" )
+    public void testTwo( ) {
+
+      var registry = new PluginRegistry( );
+      PluginDescriptor first = descriptor( UUID.randomUUID( ), "1.0.0" );
+      PluginDescriptor second = descriptor( UUID.randomUUID( ), "1.0.0" );
+      AtomicInteger attempts = new AtomicInteger( );
+
+      int installed = registry.update( batch -> {
+        if( attempts.incrementAndGet( ) == 1 ) {
+          // Another writer publishes while this batch is being built.
+          registry.update( other -> {
+            other.install( first );
+            return null;
+          } );
+        }
+        batch.install( second );
+        return batch.Installed( ).size( );
+      } );
+
+      Matchers.expect( attempts.get( ) ).toEqual( 2 );
+      Matchers.expect( registry.Retries( ) ).toEqual( 1L );
+      Matchers.expect( installed ).toEqual( 2 );
+      Matchers.expect( registry.Snapshot( ).Installed( ).contains( first ) ).toBeTrue( );
+      Matchers.expect( registry.Snapshot( ).Installed( ).contains( second ) ).toBeTrue( );
+    }
+
+    @Test
+    @DisplayName( "we should not publish a discarded batch" )
+    public void testThree( ) {
+
+      var registry = new PluginRegistry( );
+
+      registry.update( batch -> {
+        batch.install( descriptor( UUID.randomUUID( ), "1.0.0" ) );
+        batch.discard( );
+        return null;
+      } );
+
+      Matchers.expect( registry.Snapshot( ).Version( ) ).toEqual( 0L );
+      Matchers.expect( registry.Snapshot( ).Installed( ).isEmpty( ) ).toBeTrue( );
+    }
+
+  }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.utilities.layers;
+
+import cc.chordflower.desktop.barbara.utilities.layers.PluginLoadReport.ProblemKind;
+import com.mscharhag.oleaster.matcher.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * These are the unit tests for the plugin resolver.
+ *
+ * @author carddamom
+ */
+@DisplayName( "PluginResolver:" )
+public class PluginResolverTest {
+
+  private static final UUID FIRST = UUID.fromString( "00000000-0000-0000-0000-000000000001" );
+
+  private static final UUID SECOND = UUID.fromString( "00000000-0000-0000-0000-000000000002" );
+
+  private static final UUID THIRD = UUID.fromString( "00000000-0000-0000-0000-000000000003" );
+
+  private static final UUID FOURTH = UUID.fromString( "00000000-0000-0000-0000-000000000004" );
+
+  static PluginDescriptor plugin( UUID id, String version, PluginDependency... dependencies ) {
+
+    return PluginDescriptor.of( "plugin %s".formatted( id ), id, null, "Apache-2.0", version, List.of( dependencies ), Path.of( "%s-%s.zip".formatted( id, version ) ), List.of( ) );
+
+  }
+
+  @Nested
+  @DisplayName( "When the dependency ranges conflict" )
+  public class Conflicts {
+
+    @Test
+    @DisplayName( "we should move down a plugin whose highest version needs a dependency version that another plugin excludes" )
+    public void testOne( ) {
+
+      var first = plugin( FIRST, "1.0.0" );
+      var second = plugin( SECOND, "1.0.0" );
+      var resolution = new PluginResolver( ).resolve( List.of(
+          plugin( FIRST, "2.0.0", PluginDependency.of( SECOND, "^2.0.0" ) ), first,
+          plugin( SECOND, "2.0.0" ), second,
+          plugin( THIRD, "1.0.0", PluginDependency.of( SECOND, "1.x" ) ) ) );
+
+      Matchers.expect( resolution.Problems( ).isEmpty( ) ).toBeTrue( );
+      Matchers.expect( resolution.Selected( ).size( ) ).toEqual( 3 );
+      Matchers.expect( resolution.isSelected( first ) ).toBeTrue( );
+      Matchers.expect( resolution.isSelected( second ) ).toBeTrue( );
+    }
+
+    @Test
+    @DisplayName( "we should keep the highest versions when they do not conflict" )
+    public void testTwo( ) {
+
+      var first = plugin( FIRST, "2.0.0", PluginDependency.of( SECOND, "^2.0.0" ) );
+      var second = plugin( SECOND, "2.1.0" );
+      var resolution = new PluginResolver( ).resolve( List.of( first, plugin( FIRST, "1.0.0" ), second, plugin( SECOND, "1.0.0" ) ) );
+
+      Matchers.expect( resolution.Problems( ).isEmpty( ) ).toBeTrue( );
+      Matchers.expect( resolution.isSelected( first ) ).toBeTrue( );
+      Matchers.expect( resolution.isSelected( second ) ).toBeTrue( );
+    }
+  }
+
+  @Nested
+  @DisplayName( "When two plugins share a dependency" )
+  public class Diamond {
+
+    @Test
+    @DisplayName( "we should select the highest version of the shared dependency within both ranges" )
+    public void testOne( ) {
+
+      var shared = plugin( FOURTH, "1.1.3" );
+      var resolution = new PluginResolver( ).resolve( List.of(
+          plugin( FIRST, "1.0.0", PluginDependency.of( SECOND, "^1.0.0" ), PluginDependency.of( THIRD, "^1.0.0" ) ),
+          plugin( SECOND, "1.0.0", PluginDependency.of( FOURTH, "^1.0.0" ) ),
+          plugin( THIRD, "1.0.0", PluginDependency.of( FOURTH, "~1.1.0" ) ),
+          plugin( FOURTH, "1.0.0" ), shared, plugin( FOURTH, "1.2.0" ) ) );
+
+      Matchers.expect( resolution.Problems( ).isEmpty( ) ).toBeTrue( );
+      Matchers.expect( resolution.Selected( ).size( ) ).toEqual( 4 );
+      Matchers.expect( resolution.isSelected( shared ) ).toBeTrue( );
+    }
+  }
+
+  @Nested
+  @DisplayName( "When a dependency range cannot be satisfied" )
+  public class Unsatisfiable {
+
+    @Test
+    @DisplayName( "we should reject only the plugin with that dependency" )
+    public void testOne( ) {
+
+      var second = plugin( SECOND, "1.0.0" );
+      var resolution = new PluginResolver( ).resolve( List.of( plugin( FIRST, "1.0.0", PluginDependency.of( SECOND, "^2.0.0" ) ), second ) );
+
+      Matchers.expect( resolution.selected( FIRST ).isPresent( ) ).toBeFalse( );
+      Matchers.expect( resolution.isSelected( second ) ).toBeTrue( );
+      Matchers.expect( resolution.Problems( ).size( ) ).toEqual( 1 );
+      Matchers.expect( resolution.Problems( ).get( 0 ).Kind( ) ).toEqual( ProblemKind.VERSION_MISMATCH );
+    }
+
+    @Test
+    @DisplayName( "we should reject both plugins when two exact ranges on a dependency conflict" )
+    public void testTwo( ) {
+
+      var resolution = new PluginResolver( ).resolve( List.of(
+          plugin( FIRST, "1.0.0", PluginDependency.of( THIRD, "2.0.0" ) ),
+          plugin( SECOND, "1.0.0", PluginDependency.of( THIRD, "1.0.0" ) ),
+          plugin( THIRD, "1.0.0" ), plugin( THIRD, "2.0.0" ) ) );
+
+      Matchers.expect( resolution.selected( THIRD ).isPresent( ) ).toBeTrue( );
+      Matchers.expect( resolution.Selected( ).size( ) ).toEqual( 2 );
+      Matchers.expect( resolution.Problems( ).size( ) ).toEqual( 1 );
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.benchmark;
+
+import cc.chordflower.desktop.barbara.configuration.model.BarbaraConfiguration;
+import cc.chordflower.desktop.barbara.configuration.model.BarbaraConfigurationTypeAdapter;
+import com.google.gson.stream.JsonReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spongepowered.configurate.gson.GsonConfigurationLoader;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways of turning the bytes of a config.json file into the barbara configuration.
+ *
+ * <ul>
+ *   <li>loader: parses the file into a configurate node with the json loader, and binds the node, which is how the other
+ *   configuration formats are still read.</li>
+ *   <li>streaming: reads the file with the configuration type adapter, straight into the configuration.</li>
+ * </ul>
+ *
+ * Run with {@code java -jar barbara-benchmark/target/benchmarks.jar ConfigurationParsingBenchmark}.
+ *
+ * @author carddamom
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ConfigurationParsingBenchmark {
+
+  private byte[ ] json;
+
+  private BarbaraConfigurationTypeAdapter adapter;
+
+  @Setup
+  public void setup( ) {
+
+    this.json = """
+        {
+          "paths": {
+            "email": "/home/benchmark/Documents/barbara/emails",
+            "notes": "/home/benchmark/Documents/barbara/notes",
+            "calendar": "/home/benchmark/Documents/barbara/calendar",
+            "contacts": "/home/benchmark/Documents/barbara/contacts",
+            "files": "/home/benchmark/Documents/barbara",
+            "music": "/home/benchmark/Music/barbara",
+            "images": "/home/benchmark/Pictures/barbara",
+            "videos": "/home/benchmark/Videos/barbara"
+          }
+        }
+        """.getBytes( StandardCharsets.UTF_8 );
+    this.adapter = new BarbaraConfigurationTypeAdapter( );
+
+  }
+
+  @Benchmark
+  public BarbaraConfiguration loader( ) throws IOException {
+
+    var loader = GsonConfigurationLoader.builder( )
+        .source( this::reader )
+        .lenient( true )
+        .build( );
+    BarbaraConfiguration configuration = new BarbaraConfiguration( );
+    configuration.loadFrom( loader.load( ) );
+    return configuration;
+
+  }
+
+  @Benchmark
+  public BarbaraConfiguration streaming( ) throws IOException {
+
+    try( JsonReader reader = new JsonReader( this.reader( ) ) ) {
+      reader.setLenient( true );
+      return this.adapter.read( reader, new BarbaraConfiguration( ) );
+    }
+
+  }
+
+  private BufferedReader reader( ) {
+
+    return new BufferedReader( new InputStreamReader( new ByteArrayInputStream( this.json ), StandardCharsets.UTF_8 ) );
+
+  }
+
+}
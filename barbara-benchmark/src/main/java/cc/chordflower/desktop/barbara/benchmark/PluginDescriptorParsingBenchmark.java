@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.benchmark;
+
+import cc.chordflower.desktop.barbara.utilities.layers.PluginDescriptor;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginDescriptorTypeAdapter;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Compares the ways of turning the bytes of a plugin.json entry into a plugin descriptor.
+ *
+ * <ul>
+ *   <li>lines: reads the lines into a string, binds it with reflection, and copies the result into the final descriptor,
+ *   which was how the plugin manager first read the descriptors.</li>
+ *   <li>tree: parses the entry into a json tree, as needed by the schema validation, binds the tree with reflection, and
+ *   copies the result into the final descriptor.</li>
+ *   <li>streaming: reads the entry with the streaming type adapter, straight into the final descriptor.</li>
+ * </ul>
+ *
+ * Run with {@code java -jar barbara-benchmark/target/benchmarks.jar PluginDescriptorParsingBenchmark}.
+ *
+ * @author carddamom
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class PluginDescriptorParsingBenchmark {
+
+  /**
+   * The number of dependencies of the plugin descriptor.
+   */
+  @Param( { "0", "10", "100" } )
+  public int dependencies;
+
+  private byte[ ] json;
+
+  private Path path;
+
+  private List< String > jarEntries;
+
+  private Gson gayson;
+
+  private PluginDescriptorTypeAdapter adapter;
+
+  @Setup
+  public void setup( ) {
+
+    String dependencyList = IntStream.range( 0, this.dependencies )
+        .mapToObj( index -> "    { \"$id\": \"%s\", \"version\": \"^%d.0.0\" }".formatted( UUID.nameUUIDFromBytes( ( "dependency" + index ).getBytes( StandardCharsets.UTF_8 ) ), index % 5 + 1 ) )
+        .collect( Collectors.joining( ",\n" ) );
+    this.json = """
+        {
+          "name": "benchmark plugin",
+          "$id": "%s",
+          "description": "A plugin used to measure the parsing of plugin descriptors",
+          "license": "Apache-2.0",
+          "version": "1.2.3",
+          "dependencies": [
+        %s
+          ]
+        }
+        """.formatted( UUID.nameUUIDFromBytes( "benchmark".getBytes( StandardCharsets.UTF_8 ) ), dependencyList ).getBytes( StandardCharsets.UTF_8 );
+    this.path = Paths.get( "benchmark.zip" ).toAbsolutePath( );
+    this.jarEntries = List.of( "/lib/benchmark.jar" );
+    this.gayson = new Gson( );
+    this.adapter = new PluginDescriptorTypeAdapter( );
+
+  }
+
+  @Benchmark
+  public PluginDescriptor lines( ) throws IOException {
+
+    String lines;
+    try( BufferedReader reader = new BufferedReader( new InputStreamReader( new ByteArrayInputStream( this.json ), StandardCharsets.UTF_8 ) ) ) {
+      lines = reader.lines( ).collect( Collectors.joining( ) );
+    }
+    return this.copy( this.gayson.fromJson( lines, PluginDescriptor.class ) );
+
+  }
+
+  @Benchmark
+  public PluginDescriptor tree( ) throws IOException {
+
+    JsonElement document;
+    try( InputStreamReader reader = new InputStreamReader( new ByteArrayInputStream( this.json ), StandardCharsets.UTF_8 ) ) {
+      document = new JsonParser( ).parse( reader );
+    }
+    return this.copy( this.gayson.fromJson( document, PluginDescriptor.class ) );
+
+  }
+
+  @Benchmark
+  public PluginDescriptor streaming( ) throws IOException {
+
+    try( JsonReader reader = new JsonReader( new InputStreamReader( new ByteArrayInputStream( this.json ), StandardCharsets.UTF_8 ) ) ) {
+      return this.adapter.read( reader, this.path, this.jarEntries );
+    }
+
+  }
+
+  private PluginDescriptor copy( PluginDescriptor parsed ) {
+
+    return PluginDescriptor.of( parsed.Name( ), parsed.Id( ), parsed.Description( ), parsed.License( ), parsed.Version( ), parsed.Dependencies( ), this.path,
+        this.jarEntries );
+
+  }
+
+}
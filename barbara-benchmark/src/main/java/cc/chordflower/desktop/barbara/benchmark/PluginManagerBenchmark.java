@@ -0,0 +1,243 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.benchmark;
+
+import cc.chordflower.desktop.barbara.benchmark.SyntheticPluginGenerator.Shape;
+import cc.chordflower.desktop.barbara.utilities.layers.BarbaraPluginManager;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginArchive;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginDescriptor;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginDescriptorTypeAdapter;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginLoadReport;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginResolution;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginResolver;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures how the plugin manager scales with the number of plugins and the shape of their dependency graph, on plugins
+ * written by the {@link SyntheticPluginGenerator}.
+ *
+ * <ul>
+ *   <li>discovery: lists the plugin directory and reads the attributes of each plugin file.</li>
+ *   <li>parsing: opens each plugin, and reads and validates its descriptor.</li>
+ *   <li>resolution: selects the versions of the parsed plugins.</li>
+ *   <li>registration: adds every plugin to a new plugin manager, with empty caches, as on the first start.</li>
+ *   <li>restart: adds every plugin to a new plugin manager, with the caches of a previous run.</li>
+ * </ul>
+ *
+ * Run with {@code java -jar barbara-benchmark/target/benchmarks.jar PluginManagerBenchmark -prof gc}, the gc profiler
+ * reports the allocation of each operation. The jar count, jar size and integrity manifest of the plugins can be changed
+ * with {@code -p jars=8 -p jarSize=1048576 -p signed=true}.
+ *
+ * @author carddamom
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class PluginManagerBenchmark {
+
+  /**
+   * The number of plugins.
+   */
+  @Param( { "10", "100", "1000" } )
+  public int plugins;
+
+  /**
+   * The shape of the dependency graph.
+   */
+  @Param( { "CHAIN", "FAN_OUT", "DIAMOND" } )
+  public Shape shape;
+
+  /**
+   * The number of jars of each plugin.
+   */
+  @Param( { "2" } )
+  public int jars;
+
+  /**
+   * The size of the resource inside each jar, in bytes.
+   */
+  @Param( { "16384" } )
+  public int jarSize;
+
+  /**
+   * If the plugins have an integrity manifest.
+   */
+  @Param( { "false" } )
+  public boolean signed;
+
+  private Path directory;
+
+  private Path pluginDirectory;
+
+  private Path warmCache;
+
+  private List< Path > paths;
+
+  private List< PluginDescriptor > descriptors;
+
+  private PluginDescriptorTypeAdapter adapter;
+
+  /**
+   * An empty cache directory for each invocation.
+   */
+  @State( Scope.Thread )
+  public static class ColdCache {
+
+    private Path directory;
+
+    @Setup( Level.Invocation )
+    public void setup( ) throws IOException {
+
+      this.directory = Files.createTempDirectory( "barbara-benchmark-cache" );
+
+    }
+
+    @TearDown( Level.Invocation )
+    public void tearDown( ) throws IOException {
+
+      PluginManagerBenchmark.delete( this.directory );
+
+    }
+
+  }
+
+  @Setup( Level.Trial )
+  public void setup( ) throws IOException, InterruptedException {
+
+    this.directory = Files.createTempDirectory( "barbara-benchmark" );
+    this.pluginDirectory = this.directory.resolve( "plugins" );
+    this.warmCache = this.directory.resolve( "cache" );
+    this.paths = SyntheticPluginGenerator.of( this.shape, this.jars, this.jarSize, this.signed ).generate( this.pluginDirectory, this.plugins );
+    this.adapter = new PluginDescriptorTypeAdapter( );
+
+    this.descriptors = new ArrayList<>( this.paths.size( ) );
+    for( Path path : this.paths ) {
+      this.descriptors.add( this.parse( path ) );
+    }
+
+    PluginLoadReport report = new BarbaraPluginManager( new Gson( ), this.warmCache ).addPlugins( this.pluginDirectory );
+    if( !report.isSuccessful( ) ) {
+      throw new IllegalStateException( "The synthetic plugins were not registered: " + report.Problems( ) );
+    }
+
+  }
+
+  @TearDown( Level.Trial )
+  public void tearDown( ) throws IOException {
+
+    PluginManagerBenchmark.delete( this.directory );
+
+  }
+
+  @Benchmark
+  public void discovery( Blackhole blackhole ) throws IOException {
+
+    try( DirectoryStream< Path > stream = Files.newDirectoryStream( this.pluginDirectory, "*.zip" ) ) {
+      for( Path path : stream ) {
+        blackhole.consume( Files.readAttributes( path, BasicFileAttributes.class ) );
+      }
+    }
+
+  }
+
+  @Benchmark
+  public void parsing( Blackhole blackhole ) throws IOException {
+
+    for( Path path : this.paths ) {
+      PluginDescriptor descriptor = this.parse( path );
+      blackhole.consume( descriptor.validate( ) );
+    }
+
+  }
+
+  @Benchmark
+  public PluginResolution resolution( ) {
+
+    return new PluginResolver( ).resolve( this.descriptors );
+
+  }
+
+  @Benchmark
+  public PluginLoadReport registration( ColdCache cache ) throws IOException, InterruptedException {
+
+    return new BarbaraPluginManager( new Gson( ), cache.directory ).addPlugins( this.pluginDirectory );
+
+  }
+
+  @Benchmark
+  public PluginLoadReport restart( ) throws IOException, InterruptedException {
+
+    return new BarbaraPluginManager( new Gson( ), this.warmCache ).addPlugins( this.pluginDirectory );
+
+  }
+
+  private PluginDescriptor parse( Path path ) throws IOException {
+
+    try( PluginArchive archive = PluginArchive.open( path ) ) {
+      var entry = archive.entry( "plugin.json" ).orElseThrow( ( ) -> new IOException( "Unable to open the plugin.json file" ) );
+      List< String > jarEntries = archive.find( "**/*.jar" ).stream( ).map( jar -> "/" + jar.Name( ) ).toList( );
+      try( JsonReader reader = new JsonReader( new InputStreamReader( archive.open( entry ), StandardCharsets.UTF_8 ) ) ) {
+        return this.adapter.read( reader, path, jarEntries );
+      }
+    }
+
+  }
+
+  private static void delete( Path directory ) throws IOException {
+
+    if( directory == null || !Files.exists( directory ) ) {
+      return;
+    }
+    try( Stream< Path > files = Files.walk( directory ) ) {
+      for( Path file : files.sorted( Comparator.reverseOrder( ) ).toList( ) ) {
+        Files.delete( file );
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.benchmark;
+
+import cc.chordflower.desktop.barbara.spi.index.ExtensionIndex;
+import cc.chordflower.desktop.barbara.utilities.layers.PluginIntegrity;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes synthetic plugin zips, with the layout produced by the plugin assembly of barbara-plugin-example: the
+ * plugin.json and plugin.index files and every jar at the root of the zip.
+ *
+ * Each jar is an automatic module, named after the plugin and the jar number, with a single resource of random bytes, so
+ * the plugins can be resolved into module layers without compiling any class. The plugin ids and contents only depend on
+ * the plugin number, so the same options always write the same plugins.
+ *
+ * This is an immutable class aka a value class.
+ *
+ * @author carddamom
+ */
+public final class SyntheticPluginGenerator {
+
+  /**
+   * The shape of the dependency graph of the generated plugins.
+   */
+  public enum Shape {
+    /**
+     * No plugin has dependencies.
+     */
+    INDEPENDENT,
+    /**
+     * Each plugin depends on the previous one, so the graph is as deep as there are plugins.
+     */
+    CHAIN,
+    /**
+     * Every plugin depends on the first one.
+     */
+    FAN_OUT,
+    /**
+     * Groups of four plugins, where the second and third depend on the first, the fourth depends on the second and the
+     * third, and the first depends on the fourth of the previous group.
+     */
+    DIAMOND
+  }
+
+  private final Shape shape;
+
+  private final int jars;
+
+  private final int jarSize;
+
+  private final boolean signed;
+
+  @Contract( pure = true )
+  private SyntheticPluginGenerator( Shape shape, int jars, int jarSize, boolean signed ) {
+
+    this.shape = shape;
+    this.jars = jars;
+    this.jarSize = jarSize;
+    this.signed = signed;
+
+  }
+
+  /**
+   * Creates a new generator.
+   *
+   * @param shape The shape of the dependency graph.
+   * @param jars The number of jars of each plugin.
+   * @param jarSize The size of the resource inside each jar, in bytes.
+   * @param signed If the plugins have an integrity manifest.
+   * @return A new generator.
+   */
+  @Contract( "_, _, _, _ -> new" )
+  public static @NotNull SyntheticPluginGenerator of( Shape shape, int jars, int jarSize, boolean signed ) {
+
+    if( jars < 1 || jarSize < 0 ) {
+      throw new IllegalArgumentException( "The plugins must have at least one jar, and the jar size cannot be negative" );
+    }
+    return new SyntheticPluginGenerator( shape, jars, jarSize, signed );
+
+  }
+
+  /**
+   * Returns the id of the plugin with the given number.
+   */
+  public static @NotNull UUID idOf( int plugin ) {
+
+    return UUID.nameUUIDFromBytes( ( "synthetic-plugin-" + plugin ).getBytes( StandardCharsets.UTF_8 ) );
+
+  }
+
+  /**
+   * Returns the numbers of the plugins that the plugin with the given number depends on.
+   */
+  public @NotNull List< Integer > dependenciesOf( int plugin ) {
+
+    return switch( this.shape ) {
+      case INDEPENDENT -> List.of( );
+      case CHAIN -> plugin == 0 ? List.of( ) : List.of( plugin - 1 );
+      case FAN_OUT -> plugin == 0 ? List.of( ) : List.of( 0 );
+      case DIAMOND -> switch( plugin % 4 ) {
+        case 0 -> plugin == 0 ? List.of( ) : List.of( plugin - 1 );
+        case 1, 2 -> List.of( plugin - plugin % 4 );
+        default -> List.of( plugin - 2, plugin - 1 );
+      };
+    };
+
+  }
+
+  /**
+   * Writes the given number of plugins to the given directory, as plugin-NNNN.zip files.
+   *
+   * @param directory The directory, it is created if needed.
+   * @param plugins The number of plugins.
+   * @return The paths of the written plugins, in plugin number order.
+   *
+   * @throws IOException If a plugin cannot be written.
+   */
+  public @NotNull List< Path > generate( Path directory, int plugins ) throws IOException {
+
+    Files.createDirectories( directory );
+    List< Path > paths = new ArrayList<>( plugins );
+    for( int plugin = 0; plugin < plugins; plugin++ ) {
+      paths.add( this.write( directory.resolve( "plugin-%04d.zip".formatted( plugin ) ), plugin ) );
+    }
+    return paths;
+
+  }
+
+  private @NotNull Path write( Path file, int plugin ) throws IOException {
+
+    List< byte[ ] > jars = new ArrayList<>( this.jars );
+    for( int jar = 0; jar < this.jars; jar++ ) {
+      jars.add( this.jar( plugin, jar ) );
+    }
+
+    this.write( file, plugin, jars, Map.of( ) );
+    if( this.signed ) {
+      this.write( file, plugin, jars, PluginIntegrity.checksums( file ) );
+    }
+    return file;
+
+  }
+
+  private void write( Path file, int plugin, List< byte[ ] > jars, Map< String, String > checksums ) throws IOException {
+
+    try( ZipOutputStream output = new ZipOutputStream( Files.newOutputStream( file ) ) ) {
+      output.putNextEntry( new ZipEntry( "plugin.json" ) );
+      output.write( this.descriptor( plugin, checksums ).getBytes( StandardCharsets.UTF_8 ) );
+      output.closeEntry( );
+
+      output.putNextEntry( new ZipEntry( ExtensionIndex.FILE_NAME ) );
+      ExtensionIndex.empty( ).writeTo( output );
+      output.closeEntry( );
+
+      for( int jar = 0; jar < jars.size( ); jar++ ) {
+        output.putNextEntry( new ZipEntry( SyntheticPluginGenerator.jarNameOf( plugin, jar ) ) );
+        output.write( jars.get( jar ) );
+        output.closeEntry( );
+      }
+    }
+
+  }
+
+  private @NotNull String descriptor( int plugin, Map< String, String > checksums ) {
+
+    String dependencies = this.dependenciesOf( plugin ).stream( )
+        .map( dependency -> "{ \"$id\": \"%s\", \"version\": \"^1.0.0\" }".formatted( SyntheticPluginGenerator.idOf( dependency ) ) )
+        .collect( Collectors.joining( ", " ) );
+    String integrity = checksums.isEmpty( ) ? "" : """
+        , "integrity": { "algorithm": "%s", "files": { %s } }""".formatted( PluginIntegrity.ALGORITHM, checksums.entrySet( ).stream( )
+        .map( checksum -> "\"%s\": \"%s\"".formatted( checksum.getKey( ), checksum.getValue( ) ) )
+        .collect( Collectors.joining( ", " ) ) );
+    return """
+        {
+          "name": "synthetic plugin %d",
+          "$id": "%s",
+          "description": "A synthetic plugin written by the benchmarks",
+          "license": "Apache-2.0",
+          "version": "1.0.%d",
+          "dependencies": [ %s ]%s
+        }
+        """.formatted( plugin, SyntheticPluginGenerator.idOf( plugin ), plugin, dependencies, integrity );
+
+  }
+
+  private byte @NotNull [ ] jar( int plugin, int jar ) throws IOException {
+
+    Manifest manifest = new Manifest( );
+    manifest.getMainAttributes( ).put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+    manifest.getMainAttributes( ).put( new Attributes.Name( "Automatic-Module-Name" ), "synthetic.plugin%d.jar%d".formatted( plugin, jar ) );
+
+    byte[ ] data = new byte[ this.jarSize ];
+    new Random( ( long ) plugin << 16 | jar ).nextBytes( data );
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream( this.jarSize + 1024 );
+    try( JarOutputStream output = new JarOutputStream( bytes, manifest ) ) {
+      output.putNextEntry( new ZipEntry( "data/blob.bin" ) );
+      output.write( data );
+      output.closeEntry( );
+    }
+    return bytes.toByteArray( );
+
+  }
+
+  private static @NotNull String jarNameOf( int plugin, int jar ) {
+
+    return "synthetic-plugin%d-jar%d.jar".formatted( plugin, jar );
+
+  }
+
+}
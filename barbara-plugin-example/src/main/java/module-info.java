@@ -1,2 +1,5 @@
 module barbara.plugin.example {
+  requires barbara.spi;
+
+  provides cc.chordflower.desktop.barbara.spi.PluginEntry with cc.chordflower.desktop.barbara.plugin.example.ExamplePlugin;
 }
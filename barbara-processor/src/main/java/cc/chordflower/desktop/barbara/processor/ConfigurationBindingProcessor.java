@@ -0,0 +1,541 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Generates the configuration bindings of the classes marked as configuration sections.
+ *
+ * For each section Foo, FooBinding has the loadFrom and saveTo code of its configuration properties, the same code that
+ * would be written by hand, with one hasChild check and one typed read for each property, and FooProperties has a javafx
+ * property for each configuration property, that is read from and written to the section through its getters and
+ * setters. When asked, FooTypeAdapter reads and writes the section straight from a gson json stream, with the same keys
+ * as the binding. Nothing is looked up by reflection at runtime.
+ *
+ * The annotations are matched by name, so the processor does not depend on the application.
+ *
+ * @author carddamom
+ */
+@SupportedAnnotationTypes( ConfigurationBindingProcessor.SECTION )
+@SupportedSourceVersion( SourceVersion.RELEASE_17 )
+public final class ConfigurationBindingProcessor extends AbstractProcessor {
+
+  static final String SECTION = "cc.chordflower.desktop.barbara.configuration.model.ConfigurationSection";
+
+  static final String PROPERTY = "cc.chordflower.desktop.barbara.configuration.model.ConfigurationProperty";
+
+  /**
+   * The supported kinds of configuration values, with the code that reads, writes, binds and streams each one.
+   */
+  enum Kind {
+    STRING( "java.lang.String", "%s.getString( \"\" )", "%s", "StringProperty", "SimpleStringProperty", "%s", "%s", "in.nextString( )" ),
+    PATH( "java.nio.file.Path", "Paths.get( %s.getString( \"\" ) )", "%1$s == null ? null : %1$s.toString( )", "ObjectProperty< File >", "SimpleObjectProperty<>",
+        "%1$s == null ? null : %1$s.toFile( )", "%1$s == null ? null : %1$s.toPath( )", "Paths.get( in.nextString( ) )" ),
+    BOOLEAN( "boolean", "%s.getBoolean( )", "%s", "BooleanProperty", "SimpleBooleanProperty", "%s", "%s", "in.nextBoolean( )" ),
+    INT( "int", "%s.getInt( )", "%s", "IntegerProperty", "SimpleIntegerProperty", "%s", "%s", "in.nextInt( )" ),
+    LONG( "long", "%s.getLong( )", "%s", "LongProperty", "SimpleLongProperty", "%s", "%s", "in.nextLong( )" ),
+    DOUBLE( "double", "%s.getDouble( )", "%s", "DoubleProperty", "SimpleDoubleProperty", "%s", "%s", "in.nextDouble( )" );
+
+    private final String type;
+
+    private final String read;
+
+    private final String write;
+
+    private final String propertyType;
+
+    private final String propertyClass;
+
+    private final String toProperty;
+
+    private final String fromProperty;
+
+    private final String next;
+
+    Kind( String type, String read, String write, String propertyType, String propertyClass, String toProperty, String fromProperty, String next ) {
+
+      this.type = type;
+      this.read = read;
+      this.write = write;
+      this.propertyType = propertyType;
+      this.propertyClass = propertyClass;
+      this.toProperty = toProperty;
+      this.fromProperty = fromProperty;
+      this.next = next;
+
+    }
+
+    static Optional< Kind > of( TypeMirror type ) {
+
+      for( Kind kind : Kind.values( ) ) {
+        if( kind.type.equals( type.toString( ) ) ) {
+          return Optional.of( kind );
+        }
+      }
+      return Optional.empty( );
+
+    }
+
+    /**
+     * Returns the simple name of the property interface, without type arguments.
+     */
+    String propertyInterface( ) {
+
+      int arguments = this.propertyType.indexOf( '<' );
+      return arguments < 0 ? this.propertyType : this.propertyType.substring( 0, arguments ).trim( );
+
+    }
+
+    /**
+     * Returns the simple name of the property class, without the diamond.
+     */
+    String propertyImplementation( ) {
+
+      return this.propertyClass.replace( "<>", "" );
+
+    }
+
+  }
+
+  /**
+   * A configuration property of a section.
+   */
+  private static final class Property {
+
+    private final String field;
+
+    private final String key;
+
+    private final Kind kind;
+
+    private final String getter;
+
+    private final String setter;
+
+    private Property( String field, String key, Kind kind, String getter, String setter ) {
+
+      this.field = field;
+      this.key = key;
+      this.kind = kind;
+      this.getter = getter;
+      this.setter = setter;
+
+    }
+
+    private String accessor( ) {
+
+      return Character.toUpperCase( this.field.charAt( 0 ) ) + this.field.substring( 1 );
+
+    }
+
+  }
+
+  @Override
+  public boolean process( Set< ? extends TypeElement > annotations, RoundEnvironment round ) {
+
+    for( TypeElement annotation : annotations ) {
+      for( Element element : round.getElementsAnnotatedWith( annotation ) ) {
+        if( element.getKind( ) != ElementKind.CLASS || element.getEnclosingElement( ).getKind( ) != ElementKind.PACKAGE ) {
+          this.error( element, "Only top level classes can be configuration sections" );
+          continue;
+        }
+        TypeElement section = ( TypeElement ) element;
+        List< Property > properties = this.propertiesOf( section );
+        if( properties == null ) {
+          continue;
+        }
+        try {
+          this.writeBinding( section, properties );
+          AnnotationMirror mirror = this.annotationOf( section, ConfigurationBindingProcessor.SECTION ).orElseThrow( );
+          if( this.isTrue( mirror, "properties" ) ) {
+            this.writeProperties( section, properties );
+          }
+          if( this.isTrue( mirror, "typeAdapter" ) ) {
+            this.writeTypeAdapter( section, properties );
+          }
+        } catch( IOException ex ) {
+          this.error( section, "Unable to write the configuration binding: " + ex.getMessage( ) );
+        }
+      }
+    }
+    return true;
+
+  }
+
+  /**
+   * Returns the configuration properties of the given section, or null if any of them cannot be bound.
+   */
+  private List< Property > propertiesOf( TypeElement section ) {
+
+    List< ExecutableElement > methods = ElementFilter.methodsIn( this.processingEnv.getElementUtils( ).getAllMembers( section ) );
+    List< Property > properties = new ArrayList<>( );
+    boolean valid = true;
+
+    for( VariableElement field : ElementFilter.fieldsIn( section.getEnclosedElements( ) ) ) {
+      Optional< ? extends AnnotationMirror > annotation = this.annotationOf( field, ConfigurationBindingProcessor.PROPERTY );
+      if( annotation.isEmpty( ) ) {
+        continue;
+      }
+      Optional< Kind > kind = Kind.of( field.asType( ) );
+      if( kind.isEmpty( ) ) {
+        this.error( field, "The configuration property type %s is not supported".formatted( field.asType( ) ) );
+        valid = false;
+        continue;
+      }
+
+      String name = field.getSimpleName( ).toString( );
+      String capitalized = Character.toUpperCase( name.charAt( 0 ) ) + name.substring( 1 );
+      String prefix = kind.get( ) == Kind.BOOLEAN && ConfigurationBindingProcessor.hasMethod( methods, "is" + capitalized, 0 ) ? "is" : "get";
+      if( !ConfigurationBindingProcessor.hasMethod( methods, prefix + capitalized, 0 ) || !ConfigurationBindingProcessor.hasMethod( methods, "set" + capitalized, 1 ) ) {
+        this.error( field, "The configuration property %s must have a getter and a setter".formatted( name ) );
+        valid = false;
+        continue;
+      }
+      properties.add( new Property( name, this.stringOf( annotation.get( ), "value" ), kind.get( ), prefix + capitalized, "set" + capitalized ) );
+    }
+    return valid ? properties : null;
+
+  }
+
+  private void writeBinding( TypeElement section, List< Property > properties ) throws IOException {
+
+    String packageName = this.packageOf( section );
+    String sectionName = section.getSimpleName( ).toString( );
+    String className = sectionName + "Binding";
+
+    Set< String > imports = new TreeSet<>( );
+    imports.add( "java.util.Objects" );
+    imports.add( "org.spongepowered.configurate.ScopedConfigurationNode" );
+    if( properties.stream( ).anyMatch( property -> property.kind == Kind.PATH ) ) {
+      imports.add( "java.nio.file.Path" );
+      imports.add( "java.nio.file.Paths" );
+    }
+
+    StringBuilder code = new StringBuilder( );
+    this.header( code, packageName, sectionName, imports );
+    code.append( "/**\n" )
+        .append( " * Loads and saves the configuration properties of {@link " ).append( sectionName ).append( "}.\n" )
+        .append( " */\n" )
+        .append( "public final class " ).append( className ).append( " {\n\n" )
+        .append( "  private " ).append( className ).append( "( ) {\n\n  }\n\n" );
+
+    code.append( "  /**\n" )
+        .append( "   * Loads the given section from the given node, the properties missing from the node keep their value.\n" )
+        .append( "   */\n" )
+        .append( "  public static void loadFrom( " ).append( sectionName ).append( " target, ScopedConfigurationNode< ? > node ) {\n\n" )
+        .append( "    Objects.requireNonNull( target );\n" )
+        .append( "    Objects.requireNonNull( node, \"The given node is null\" );\n\n" );
+    for( Property property : properties ) {
+      String key = this.processingEnv.getElementUtils( ).getConstantExpression( property.key );
+      code.append( "    if( node.hasChild( " ).append( key ).append( " ) ) {\n" )
+          .append( "      target." ).append( property.setter ).append( "( " ).append( property.kind.read.formatted( "node.node( " + key + " )" ) ).append( " );\n" )
+          .append( "    }\n" );
+    }
+    code.append( "\n  }\n\n" );
+
+    code.append( "  /**\n" )
+        .append( "   * Saves the given section to the given node.\n" )
+        .append( "   */\n" )
+        .append( "  public static void saveTo( " ).append( sectionName ).append( " source, ScopedConfigurationNode< ? > node ) {\n\n" )
+        .append( "    Objects.requireNonNull( source );\n" )
+        .append( "    Objects.requireNonNull( node, \"The given node is null\" );\n\n" );
+    for( Property property : properties ) {
+      String key = this.processingEnv.getElementUtils( ).getConstantExpression( property.key );
+      if( property.kind == Kind.PATH ) {
+        code.append( "    Path " ).append( property.field ).append( " = source." ).append( property.getter ).append( "( );\n" )
+            .append( "    node.node( " ).append( key ).append( " ).raw( " ).append( property.kind.write.formatted( property.field ) ).append( " );\n" );
+      } else {
+        code.append( "    node.node( " ).append( key ).append( " ).raw( " ).append( property.kind.write.formatted( "source." + property.getter + "( )" ) ).append( " );\n" );
+      }
+    }
+    code.append( "\n  }\n\n" )
+        .append( "}\n" );
+
+    this.write( section, packageName, className, code );
+
+  }
+
+  private void writeProperties( TypeElement section, List< Property > properties ) throws IOException {
+
+    String packageName = this.packageOf( section );
+    String sectionName = section.getSimpleName( ).toString( );
+    String className = sectionName + "Properties";
+
+    Set< String > imports = new TreeSet<>( );
+    imports.add( "java.util.Objects" );
+    for( Property property : properties ) {
+      imports.add( "javafx.beans.property." + property.kind.propertyInterface( ) );
+      imports.add( "javafx.beans.property." + property.kind.propertyImplementation( ) );
+      if( property.kind == Kind.PATH ) {
+        imports.add( "java.io.File" );
+        imports.add( "java.nio.file.Path" );
+      }
+    }
+
+    StringBuilder code = new StringBuilder( );
+    this.header( code, packageName, sectionName, imports );
+    code.append( "/**\n" )
+        .append( " * Has a javafx property for each configuration property of {@link " ).append( sectionName ).append( "}, for the view models.\n" )
+        .append( " */\n" )
+        .append( "public class " ).append( className ).append( " {\n\n" )
+        .append( "  private final " ).append( sectionName ).append( " section;\n\n" );
+    for( Property property : properties ) {
+      code.append( "  private final " ).append( property.kind.propertyType ).append( ' ' ).append( property.field ).append( ";\n\n" );
+    }
+
+    code.append( "  public " ).append( className ).append( "( " ).append( sectionName ).append( " section ) {\n\n" )
+        .append( "    this.section = Objects.requireNonNull( section );\n" );
+    for( Property property : properties ) {
+      code.append( "    this." ).append( property.field ).append( " = new " ).append( property.kind.propertyClass ).append( "( );\n" );
+    }
+    code.append( "    this.reset( );\n\n  }\n\n" );
+
+    for( Property property : properties ) {
+      code.append( "  /**\n" )
+          .append( "   * Returns the " ).append( property.key ).append( " property.\n" )
+          .append( "   */\n" )
+          .append( "  public final " ).append( property.kind.propertyType ).append( ' ' ).append( property.accessor( ) ).append( "( ) {\n\n" )
+          .append( "    return this." ).append( property.field ).append( ";\n\n" )
+          .append( "  }\n\n" );
+    }
+
+    code.append( "  /**\n" )
+        .append( "   * Sets every property to the current value of the section.\n" )
+        .append( "   */\n" )
+        .append( "  public final void reset( ) {\n\n" );
+    for( Property property : properties ) {
+      String value = "this.section." + property.getter + "( )";
+      if( property.kind == Kind.PATH ) {
+        code.append( "    Path " ).append( property.field ).append( " = " ).append( value ).append( ";\n" );
+        value = property.field;
+      }
+      code.append( "    this." ).append( property.field ).append( ".set( " ).append( property.kind.toProperty.formatted( value ) ).append( " );\n" );
+    }
+    code.append( "\n  }\n\n" );
+
+    code.append( "  /**\n" )
+        .append( "   * Writes the value of every property to the section.\n" )
+        .append( "   */\n" )
+        .append( "  public final void save( ) {\n\n" );
+    for( Property property : properties ) {
+      String value = "this." + property.field + ".get( )";
+      if( property.kind == Kind.PATH ) {
+        code.append( "    File " ).append( property.field ).append( " = " ).append( value ).append( ";\n" );
+        value = property.field;
+      }
+      code.append( "    this.section." ).append( property.setter ).append( "( " ).append( property.kind.fromProperty.formatted( value ) ).append( " );\n" );
+    }
+    code.append( "\n  }\n\n" )
+        .append( "}\n" );
+
+    this.write( section, packageName, className, code );
+
+  }
+
+  private void writeTypeAdapter( TypeElement section, List< Property > properties ) throws IOException {
+
+    String packageName = this.packageOf( section );
+    String sectionName = section.getSimpleName( ).toString( );
+    String className = sectionName + "TypeAdapter";
+    boolean instantiable = ElementFilter.constructorsIn( section.getEnclosedElements( ) ).stream( )
+        .anyMatch( constructor -> constructor.getParameters( ).isEmpty( ) && constructor.getModifiers( ).contains( Modifier.PUBLIC ) );
+    if( !instantiable ) {
+      this.error( section, "A configuration section with a type adapter must have a public constructor without parameters" );
+      return;
+    }
+
+    Set< String > imports = new TreeSet<>( );
+    imports.add( "com.google.gson.TypeAdapter" );
+    imports.add( "com.google.gson.stream.JsonReader" );
+    imports.add( "com.google.gson.stream.JsonToken" );
+    imports.add( "com.google.gson.stream.JsonWriter" );
+    imports.add( "java.io.IOException" );
+    imports.add( "java.util.Objects" );
+    if( properties.stream( ).anyMatch( property -> property.kind == Kind.PATH ) ) {
+      imports.add( "java.nio.file.Path" );
+      imports.add( "java.nio.file.Paths" );
+    }
+
+    StringBuilder code = new StringBuilder( );
+    this.header( code, packageName, sectionName, imports );
+    code.append( "/**\n" )
+        .append( " * Reads and writes {@link " ).append( sectionName ).append( "} straight from a json stream, with the same keys as {@link " )
+        .append( sectionName ).append( "Binding}.\n" )
+        .append( " */\n" )
+        .append( "public final class " ).append( className ).append( " extends TypeAdapter< " ).append( sectionName ).append( " > {\n\n" );
+
+    code.append( "  @Override\n" )
+        .append( "  public void write( JsonWriter out, " ).append( sectionName ).append( " source ) throws IOException {\n\n" )
+        .append( "    if( source == null ) {\n" )
+        .append( "      out.nullValue( );\n" )
+        .append( "      return;\n" )
+        .append( "    }\n" )
+        .append( "    out.beginObject( );\n" );
+    for( Property property : properties ) {
+      String key = this.processingEnv.getElementUtils( ).getConstantExpression( property.key );
+      if( property.kind == Kind.PATH ) {
+        code.append( "    Path " ).append( property.field ).append( " = source." ).append( property.getter ).append( "( );\n" )
+            .append( "    out.name( " ).append( key ).append( " ).value( " ).append( property.kind.write.formatted( property.field ) ).append( " );\n" );
+      } else {
+        code.append( "    out.name( " ).append( key ).append( " ).value( " ).append( property.kind.write.formatted( "source." + property.getter + "( )" ) ).append( " );\n" );
+      }
+    }
+    code.append( "    out.endObject( );\n\n" )
+        .append( "  }\n\n" );
+
+    code.append( "  @Override\n" )
+        .append( "  public " ).append( sectionName ).append( " read( JsonReader in ) throws IOException {\n\n" )
+        .append( "    if( in.peek( ) == JsonToken.NULL ) {\n" )
+        .append( "      in.nextNull( );\n" )
+        .append( "      return null;\n" )
+        .append( "    }\n" )
+        .append( "    return this.read( in, new " ).append( sectionName ).append( "( ) );\n\n" )
+        .append( "  }\n\n" );
+
+    code.append( "  /**\n" )
+        .append( "   * Reads the given section from the json object, the properties missing from the object, or null, keep their value.\n" )
+        .append( "   */\n" )
+        .append( "  public " ).append( sectionName ).append( " read( JsonReader in, " ).append( sectionName ).append( " target ) throws IOException {\n\n" )
+        .append( "    Objects.requireNonNull( target );\n" )
+        .append( "    in.beginObject( );\n" )
+        .append( "    while( in.hasNext( ) ) {\n" )
+        .append( "      String name = in.nextName( );\n" )
+        .append( "      if( in.peek( ) == JsonToken.NULL ) {\n" )
+        .append( "        in.nextNull( );\n" )
+        .append( "        continue;\n" )
+        .append( "      }\n" )
+        .append( "      switch( name ) {\n" );
+    for( Property property : properties ) {
+      String key = this.processingEnv.getElementUtils( ).getConstantExpression( property.key );
+      code.append( "        case " ).append( key ).append( " -> target." ).append( property.setter ).append( "( " ).append( property.kind.next ).append( " );\n" );
+    }
+    code.append( "        default -> in.skipValue( );\n" )
+        .append( "      }\n" )
+        .append( "    }\n" )
+        .append( "    in.endObject( );\n" )
+        .append( "    return target;\n\n" )
+        .append( "  }\n\n" )
+        .append( "}\n" );
+
+    this.write( section, packageName, className, code );
+
+  }
+
+  private void header( StringBuilder code, String packageName, String sectionName, Set< String > imports ) {
+
+    code.append( "// Generated by the barbara-processor from " ).append( sectionName ).append( ", do not edit.\n" );
+    if( !packageName.isEmpty( ) ) {
+      code.append( "package " ).append( packageName ).append( ";\n\n" );
+    }
+    String group = null;
+    for( String name : imports ) {
+      String current = name.startsWith( "java." ) ? "java" : "other";
+      if( group != null && !group.equals( current ) ) {
+        code.append( '\n' );
+      }
+      group = current;
+      code.append( "import " ).append( name ).append( ";\n" );
+    }
+    code.append( '\n' );
+
+  }
+
+  private void write( TypeElement section, String packageName, String className, StringBuilder code ) throws IOException {
+
+    String name = packageName.isEmpty( ) ? className : packageName + "." + className;
+    try( Writer writer = this.processingEnv.getFiler( ).createSourceFile( name, section ).openWriter( ) ) {
+      writer.write( code.toString( ) );
+    }
+
+  }
+
+  private String packageOf( TypeElement section ) {
+
+    PackageElement element = this.processingEnv.getElementUtils( ).getPackageOf( section );
+    return element.isUnnamed( ) ? "" : element.getQualifiedName( ).toString( );
+
+  }
+
+  private Optional< ? extends AnnotationMirror > annotationOf( Element element, String annotation ) {
+
+    return element.getAnnotationMirrors( ).stream( )
+        .filter( mirror -> ( ( TypeElement ) mirror.getAnnotationType( ).asElement( ) ).getQualifiedName( ).contentEquals( annotation ) )
+        .findFirst( );
+
+  }
+
+  private Object valueOf( AnnotationMirror annotation, String name ) {
+
+    for( Map.Entry< ? extends ExecutableElement, ? extends AnnotationValue > value : this.processingEnv.getElementUtils( ).getElementValuesWithDefaults( annotation ).entrySet( ) ) {
+      if( value.getKey( ).getSimpleName( ).contentEquals( name ) ) {
+        return value.getValue( ).getValue( );
+      }
+    }
+    return null;
+
+  }
+
+  private String stringOf( AnnotationMirror annotation, String name ) {
+
+    return String.valueOf( this.valueOf( annotation, name ) );
+
+  }
+
+  private boolean isTrue( AnnotationMirror annotation, String name ) {
+
+    return Boolean.TRUE.equals( this.valueOf( annotation, name ) );
+
+  }
+
+  private static boolean hasMethod( List< ExecutableElement > methods, String name, int parameters ) {
+
+    return methods.stream( ).anyMatch( method -> method.getSimpleName( ).contentEquals( name ) && method.getParameters( ).size( ) == parameters
+        && !method.getModifiers( ).contains( Modifier.PRIVATE ) && !method.getModifiers( ).contains( Modifier.STATIC ) );
+
+  }
+
+  private void error( Element element, String message ) {
+
+    this.processingEnv.getMessager( ).printMessage( Diagnostic.Kind.ERROR, message, element );
+
+  }
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.processor;
+
+import cc.chordflower.desktop.barbara.spi.Extension;
+import cc.chordflower.desktop.barbara.spi.ExtensionPoint;
+import cc.chordflower.desktop.barbara.spi.index.ExtensionIndex;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.ModuleElement;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Writes the extension index of a plugin, with every class annotated with {@link Extension}, while the plugin is built.
+ *
+ * The index is written to the class output, and the plugin assembly copies it to the plugin zip file, next to the
+ * plugin descriptor. The entries of an index left by a previous, incremental, build are kept while their classes still
+ * exist.
+ *
+ * @author carddamom
+ */
+@SupportedAnnotationTypes( "cc.chordflower.desktop.barbara.spi.Extension" )
+public final class ExtensionIndexProcessor extends AbstractProcessor {
+
+  private final Map< String, List< ExtensionIndex.Entry > > entries;
+
+  private final List< Element > originatingElements;
+
+  private Elements elements;
+
+  private Types types;
+
+  private Messager messager;
+
+  private Filer filer;
+
+  /**
+   * Creates a new extension index processor, it is created by the compiler.
+   */
+  public ExtensionIndexProcessor( ) {
+
+    this.entries = new LinkedHashMap<>( );
+    this.originatingElements = new ArrayList<>( );
+
+  }
+
+  @Override
+  public synchronized void init( ProcessingEnvironment processingEnv ) {
+
+    super.init( processingEnv );
+    this.elements = processingEnv.getElementUtils( );
+    this.types = processingEnv.getTypeUtils( );
+    this.messager = processingEnv.getMessager( );
+    this.filer = processingEnv.getFiler( );
+
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion( ) {
+
+    return SourceVersion.latestSupported( );
+
+  }
+
+  @Override
+  public boolean process( Set< ? extends TypeElement > annotations, RoundEnvironment roundEnv ) {
+
+    for( TypeElement type : ElementFilter.typesIn( roundEnv.getElementsAnnotatedWith( Extension.class ) ) ) {
+      this.collect( type );
+    }
+    if( roundEnv.processingOver( ) && !this.entries.isEmpty( ) ) {
+      this.write( );
+    }
+    return false;
+
+  }
+
+  private void collect( TypeElement type ) {
+
+    if( type.getKind( ) != ElementKind.CLASS || type.getModifiers( ).contains( Modifier.ABSTRACT ) || !type.getModifiers( ).contains( Modifier.PUBLIC )
+        || ( type.getNestingKind( ) == NestingKind.MEMBER && !type.getModifiers( ).contains( Modifier.STATIC ) ) ) {
+      this.messager.printMessage( Diagnostic.Kind.ERROR, "An extension must be a public, concrete, top level or static class", type );
+      return;
+    }
+    if( !this.hasProviderConstructor( type ) ) {
+      this.messager.printMessage( Diagnostic.Kind.ERROR, "An extension must have a public constructor without parameters, or a public static provider() method", type );
+      return;
+    }
+
+    AnnotationMirror annotation = this.annotationOf( type, Extension.class.getName( ) );
+    Set< TypeElement > services = new LinkedHashSet<>( );
+    for( AnnotationValue value : this.listValue( annotation, "value" ) ) {
+      if( value.getValue( ) instanceof DeclaredType declared && declared.asElement( ) instanceof TypeElement service ) {
+        services.add( service );
+      }
+    }
+    if( services.isEmpty( ) ) {
+      services.addAll( this.extensionPointsOf( type ) );
+    }
+    if( services.isEmpty( ) ) {
+      this.messager.printMessage( Diagnostic.Kind.ERROR, "The extension does not implement any extension point", type, annotation );
+      return;
+    }
+
+    String provider = this.elements.getBinaryName( type ).toString( );
+    String name = this.stringValue( annotation, "name" );
+    String description = this.stringValue( annotation, "description" );
+    Object priority = this.value( annotation, "priority" );
+    List< String > tags = this.listValue( annotation, "tags" ).stream( ).map( value -> value.getValue( ).toString( ) ).toList( );
+
+    List< ExtensionIndex.Entry > typeEntries = new ArrayList<>( );
+    for( TypeElement service : services ) {
+      if( !this.types.isAssignable( this.types.erasure( type.asType( ) ), this.types.erasure( service.asType( ) ) ) ) {
+        this.messager.printMessage( Diagnostic.Kind.ERROR, "The extension does not implement %s".formatted( service.getQualifiedName( ) ), type, annotation );
+        continue;
+      }
+      String serviceName = this.elements.getBinaryName( service ).toString( );
+      this.checkProvides( type, service );
+      typeEntries.add( ExtensionIndex.Entry.of( serviceName, provider, name.isEmpty( ) ? type.getSimpleName( ).toString( ) : name, description,
+          priority instanceof Integer value ? value : 0, tags ) );
+    }
+    this.entries.put( provider, typeEntries );
+    this.originatingElements.add( type );
+
+  }
+
+  private boolean hasProviderConstructor( TypeElement type ) {
+
+    for( ExecutableElement constructor : ElementFilter.constructorsIn( type.getEnclosedElements( ) ) ) {
+      if( constructor.getModifiers( ).contains( Modifier.PUBLIC ) && constructor.getParameters( ).isEmpty( ) ) {
+        return true;
+      }
+    }
+    for( ExecutableElement method : ElementFilter.methodsIn( type.getEnclosedElements( ) ) ) {
+      if( method.getSimpleName( ).contentEquals( "provider" ) && method.getModifiers( ).containsAll( Set.of( Modifier.PUBLIC, Modifier.STATIC ) )
+          && method.getParameters( ).isEmpty( ) ) {
+        return true;
+      }
+    }
+    return false;
+
+  }
+
+  /**
+   * Returns every supertype of the given type that is annotated with {@link ExtensionPoint}.
+   */
+  private Set< TypeElement > extensionPointsOf( TypeElement type ) {
+
+    Set< TypeElement > result = new LinkedHashSet<>( );
+    Set< TypeElement > visited = new HashSet<>( );
+    Deque< TypeMirror > pending = new ArrayDeque<>( this.types.directSupertypes( type.asType( ) ) );
+    while( !pending.isEmpty( ) ) {
+      TypeMirror supertype = pending.poll( );
+      if( supertype.getKind( ) != TypeKind.DECLARED || !( this.types.asElement( supertype ) instanceof TypeElement element ) || !visited.add( element ) ) {
+        continue;
+      }
+      if( this.annotationOf( element, ExtensionPoint.class.getName( ) ) != null ) {
+        result.add( element );
+      }
+      pending.addAll( this.types.directSupertypes( supertype ) );
+    }
+    return result;
+
+  }
+
+  /**
+   * Warns when the plugin module does not declare the extension, since the application could list it but never load it.
+   */
+  private void checkProvides( TypeElement type, TypeElement service ) {
+
+    ModuleElement module = this.elements.getModuleOf( type );
+    if( module == null || module.isUnnamed( ) ) {
+      return;
+    }
+    for( ModuleElement.ProvidesDirective provides : ElementFilter.providesIn( module.getDirectives( ) ) ) {
+      if( provides.getService( ).equals( service ) && provides.getImplementations( ).contains( type ) ) {
+        return;
+      }
+    }
+    this.messager.printMessage( Diagnostic.Kind.WARNING, "The module %s does not declare: provides %s with %s;".formatted( module.getQualifiedName( ),
+        service.getQualifiedName( ), type.getQualifiedName( ) ), type );
+
+  }
+
+  private void write( ) {
+
+    // Keep the entries of the previous build whose classes were not compiled again, but still exist.
+    Map< String, List< ExtensionIndex.Entry > > merged = new LinkedHashMap<>( );
+    try {
+      FileObject previous = this.filer.getResource( StandardLocation.CLASS_OUTPUT, "", ExtensionIndex.RESOURCE_NAME );
+      try( InputStream input = previous.openInputStream( ) ) {
+        for( ExtensionIndex.Entry entry : ExtensionIndex.readFrom( input ).Entries( ) ) {
+          if( !this.entries.containsKey( entry.Provider( ) ) && this.elements.getTypeElement( entry.Provider( ).replace( '$', '.' ) ) != null ) {
+            merged.computeIfAbsent( entry.Provider( ), key -> new ArrayList<>( ) ).add( entry );
+          }
+        }
+      }
+    } catch( IOException | IllegalArgumentException ex ) {
+      // There is no previous index, or it cannot be read, so it is written from scratch.
+    }
+    merged.putAll( this.entries );
+
+    List< ExtensionIndex.Entry > all = merged.values( ).stream( ).flatMap( List::stream ).toList( );
+    try {
+      FileObject resource = this.filer.createResource( StandardLocation.CLASS_OUTPUT, "", ExtensionIndex.RESOURCE_NAME,
+          this.originatingElements.toArray( Element[ ]::new ) );
+      try( OutputStream output = resource.openOutputStream( ) ) {
+        ExtensionIndex.of( all ).writeTo( output );
+      }
+      this.messager.printMessage( Diagnostic.Kind.NOTE, "Wrote %d extensions to %s".formatted( all.size( ), ExtensionIndex.RESOURCE_NAME ) );
+    } catch( IOException ex ) {
+      this.messager.printMessage( Diagnostic.Kind.ERROR, "Unable to write the extension index: %s".formatted( ex.getMessage( ) ) );
+    }
+
+  }
+
+  private AnnotationMirror annotationOf( Element element, String annotation ) {
+
+    for( AnnotationMirror mirror : element.getAnnotationMirrors( ) ) {
+      if( ( ( TypeElement ) mirror.getAnnotationType( ).asElement( ) ).getQualifiedName( ).contentEquals( annotation ) ) {
+        return mirror;
+      }
+    }
+    return null;
+
+  }
+
+  private Object value( AnnotationMirror annotation, String name ) {
+
+    for( var entry : this.elements.getElementValuesWithDefaults( annotation ).entrySet( ) ) {
+      if( entry.getKey( ).getSimpleName( ).contentEquals( name ) ) {
+        return entry.getValue( ).getValue( );
+      }
+    }
+    return null;
+
+  }
+
+  private String stringValue( AnnotationMirror annotation, String name ) {
+
+    return Objects.toString( this.value( annotation, name ), "" );
+
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private List< ? extends AnnotationValue > listValue( AnnotationMirror annotation, String name ) {
+
+    return this.value( annotation, name ) instanceof List< ? > list ? ( List< ? extends AnnotationValue > ) list : List.of( );
+
+  }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.spi;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.CLASS;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class as a provider of one or more extension points, it must also be declared in a {@code provides} clause of
+ * the plugin module.
+ *
+ * The annotation is only read when the plugin is built, the application reads the same information from the plugin
+ * extension index, without loading the class.
+ *
+ * @author carddamom
+ */
+@Documented
+@Retention( CLASS )
+@Target( TYPE )
+public @interface Extension {
+
+  /**
+   * The extension points provided by the class, when empty every extension point that the class implements is used.
+   */
+  Class< ? >[ ] value( ) default {};
+
+  /**
+   * The name of the extension that is shown to the user, when empty the simple name of the class is used.
+   */
+  String name( ) default "";
+
+  /**
+   * A small description of what the extension does.
+   */
+  String description( ) default "";
+
+  /**
+   * The priority of the extension, when there are several extensions of the same extension point the highest one is
+   * chosen first.
+   */
+  int priority( ) default 0;
+
+  /**
+   * Free form tags, that can be used to filter the extensions.
+   */
+  String[ ] tags( ) default {};
+
+}
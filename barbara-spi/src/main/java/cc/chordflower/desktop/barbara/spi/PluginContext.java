@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.spi;
+
+import cc.chordflower.desktop.barbara.spi.event.EventBus;
+
+import java.util.UUID;
+
+/**
+ * What the application gives to a plugin when it is started.
+ *
+ * @author carddamom
+ */
+public interface PluginContext {
+
+  /**
+   * Returns the plugin id.
+   */
+  UUID Id( );
+
+  /**
+   * Returns the plugin name.
+   */
+  String Name( );
+
+  /**
+   * Returns the executor of the plugin, every background work of the plugin should run on it.
+   */
+  PluginExecutor Executor( );
+
+  /**
+   * Returns the event bus of the application, the background subscribers of the plugin are called on its executor, and
+   * every subscription of the plugin is closed when the plugin is unloaded.
+   */
+  EventBus Events( );
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.spi;
+
+/**
+ * The entry class of a plugin, it is created and started after the plugin is registered, and stopped before the plugin
+ * is unloaded.
+ *
+ * @author carddamom
+ */
+@ExtensionPoint
+public interface PluginEntry {
+
+  /**
+   * Starts the plugin.
+   */
+  default void start( ) {
+
+  }
+
+  /**
+   * Starts the plugin, with access to what the application gives it, by default it calls {@link #start()}.
+   *
+   * @param context The context of the plugin, it can be kept until the plugin is stopped.
+   */
+  default void start( PluginContext context ) {
+
+    this.start( );
+
+  }
+
+  /**
+   * Stops the plugin, releasing every resource that it acquired.
+   */
+  default void stop( ) {
+
+  }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.spi;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An executor owned by a single plugin, with a bounded number of threads and a bounded queue, so the work of a plugin
+ * can never take the threads of the application or of other plugins.
+ *
+ * When the plugin keeps failing, the executor stops accepting work for a while, and every submission is rejected until
+ * it recovers.
+ *
+ * @author carddamom
+ */
+public interface PluginExecutor extends Executor {
+
+  /**
+   * Submits the given task.
+   *
+   * @param task The task to run.
+   * @return A future that completes with the result of the task, or exceptionally if the task fails or is discarded.
+   *
+   * @throws RejectedExecutionException If the executor is saturated, stopped, or is not accepting work from the plugin
+   *     because it kept failing.
+   */
+  < T > CompletableFuture< T > submit( Callable< T > task );
+
+  /**
+   * Returns true if the executor is accepting work, that is, if it is not stopped and the plugin is not failing.
+   */
+  boolean isAvailable( );
+
+}
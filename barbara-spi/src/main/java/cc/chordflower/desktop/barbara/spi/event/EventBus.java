@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.spi.event;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A typed event bus, shared by the application and its plugins.
+ *
+ * Publishing does not allocate: the subscribers of each event type are kept in a table that is looked up by the event
+ * type slot, and the subscribers that are not called on the publisher thread get the events through their own bounded
+ * queue, that is drained by a single task at a time.
+ *
+ * @author carddamom
+ */
+public interface EventBus {
+
+  /**
+   * Where the subscribers are called.
+   */
+  enum Delivery {
+    /**
+     * On the thread that publishes the event, before publish returns.
+     */
+    PUBLISHER,
+    /**
+     * On the user interface thread.
+     */
+    UI,
+    /**
+     * On a background thread, for plugins the thread of their executor.
+     */
+    BACKGROUND
+  }
+
+  /**
+   * A subscription to an event type, that stops the events from being delivered when closed.
+   */
+  interface Subscription extends AutoCloseable {
+
+    /**
+     * Stops delivering events to the subscriber, the events that are already queued are discarded.
+     */
+    @Override
+    void close( );
+
+    /**
+     * Returns true if the subscription was closed.
+     */
+    boolean isClosed( );
+
+  }
+
+  /**
+   * Publishes the given event to every subscriber of the given type.
+   *
+   * When the queue of a subscriber is full, the event is dropped for that subscriber.
+   *
+   * @param type The event type.
+   * @param event The event payload.
+   */
+  < E > void publish( EventType< E > type, E event );
+
+  /**
+   * Subscribes to the given event type, the subscriber gets each event on its own.
+   *
+   * @param type The event type.
+   * @param delivery Where the subscriber is called.
+   * @param subscriber The subscriber.
+   * @return The subscription.
+   */
+  < E > Subscription subscribe( EventType< E > type, Delivery delivery, Consumer< ? super E > subscriber );
+
+  /**
+   * Subscribes to the given event type, the subscriber gets every event queued since it was last called at once, which
+   * is meant for high rate events.
+   *
+   * The list given to the subscriber is reused, it is only valid during the call.
+   *
+   * @param type The event type.
+   * @param delivery Where the subscriber is called, it cannot be {@link Delivery#PUBLISHER}.
+   * @param subscriber The subscriber.
+   * @return The subscription.
+   *
+   * @throws IllegalArgumentException If the delivery is {@link Delivery#PUBLISHER}.
+   */
+  < E > Subscription subscribeBatches( EventType< E > type, Delivery delivery, Consumer< ? super List< E > > subscriber );
+
+}
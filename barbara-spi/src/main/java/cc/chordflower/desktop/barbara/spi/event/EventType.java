@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.spi.event;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The type of the events published on an {@link EventBus}, with the class of their payload.
+ *
+ * Event types are compared by identity, and each one gets a slot in the dispatch tables of every event bus, so they
+ * should be created once and kept in constants, never created for each event.
+ *
+ * @param <E> The type of the event payload.
+ * @author carddamom
+ */
+public final class EventType< E > {
+
+  private static final AtomicInteger COUNTER = new AtomicInteger( );
+
+  private final String name;
+
+  private final Class< E > payloadType;
+
+  private final int index;
+
+  private EventType( String name, Class< E > payloadType ) {
+
+    this.name = name;
+    this.payloadType = payloadType;
+    this.index = EventType.COUNTER.getAndIncrement( );
+
+  }
+
+  /**
+   * Creates a new event type.
+   *
+   * @param name The name of the event type, only used to describe it.
+   * @param payloadType The class of the event payload.
+   * @return A new event type, different from every other event type.
+   */
+  @Contract( "_, _ -> new" )
+  public static < E > @NotNull EventType< E > of( String name, Class< E > payloadType ) {
+
+    return new EventType<>( Objects.requireNonNull( name ), Objects.requireNonNull( payloadType ) );
+
+  }
+
+  /**
+   * Returns the name of the event type.
+   */
+  @Contract( pure = true )
+  public String Name( ) {
+
+    return this.name;
+
+  }
+
+  /**
+   * Returns the class of the event payload.
+   */
+  @Contract( pure = true )
+  public Class< E > PayloadType( ) {
+
+    return this.payloadType;
+
+  }
+
+  /**
+   * Returns the slot of the event type in the dispatch tables, it is unique and dense, starting at zero.
+   */
+  @Contract( pure = true )
+  public int Index( ) {
+
+    return this.index;
+
+  }
+
+  @Override
+  public String toString( ) {
+
+    return "%s<%s>".formatted( this.name, this.payloadType.getSimpleName( ) );
+
+  }
+
+}
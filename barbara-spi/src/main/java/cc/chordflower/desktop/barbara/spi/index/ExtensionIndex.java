@@ -0,0 +1,378 @@
+/*
+ * Copyright 2021 carddamom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cc.chordflower.desktop.barbara.spi.index;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The extensions provided by a plugin, as written by the annotation processor when the plugin is built.
+ *
+ * The index is a small binary file, with a table of the distinct strings followed by the entries, each entry referring to
+ * the strings by their position in the table, so the application can list the extensions of every plugin without
+ * loading their classes or scanning their jars.
+ *
+ * @author carddamom
+ */
+public final class ExtensionIndex {
+
+  /**
+   * The name of the index inside the plugin zip file, next to the plugin descriptor.
+   */
+  public static final String FILE_NAME = "plugin.index";
+
+  /**
+   * The name of the index in the class output, from where it is copied to the plugin zip file.
+   */
+  public static final String RESOURCE_NAME = "META-INF/barbara/" + ExtensionIndex.FILE_NAME;
+
+  private static final int MAGIC = 0x42584931;
+
+  private static final int FORMAT_VERSION = 1;
+
+  private static final int MAXIMUM_COUNT = 1 << 20;
+
+  private static final Comparator< Entry > HIGHEST_PRIORITY_FIRST = Comparator.comparingInt( Entry::Priority ).reversed( ).thenComparing( Entry::Provider );
+
+  private static final ExtensionIndex EMPTY = new ExtensionIndex( List.of( ) );
+
+  /**
+   * An extension of the index, this is an immutable class aka a value class.
+   */
+  public static final class Entry {
+
+    private final String service;
+
+    private final String provider;
+
+    private final String name;
+
+    private final String description;
+
+    private final int priority;
+
+    private final List< String > tags;
+
+    @Contract( pure = true )
+    private Entry( String service, String provider, String name, String description, int priority, List< String > tags ) {
+
+      this.service = service;
+      this.provider = provider;
+      this.name = name;
+      this.description = description;
+      this.priority = priority;
+      this.tags = tags;
+
+    }
+
+    /**
+     * Creates a new extension entry.
+     *
+     * @param service The binary name of the extension point.
+     * @param provider The binary name of the class that provides it.
+     * @param name The name of the extension shown to the user.
+     * @param description A small description of the extension.
+     * @param priority The priority of the extension.
+     * @param tags The tags of the extension.
+     * @return The new entry.
+     */
+    @Contract( "_, _, _, _, _, _ -> new" )
+    public static @NotNull Entry of( String service, String provider, String name, String description, int priority, Collection< String > tags ) {
+
+      return new Entry( Objects.requireNonNull( service ), Objects.requireNonNull( provider ), Objects.requireNonNull( name ), Objects.requireNonNullElse( description, "" ),
+          priority, List.copyOf( tags ) );
+
+    }
+
+    /**
+     * Returns the binary name of the extension point.
+     */
+    @Contract( pure = true )
+    public String Service( ) {
+
+      return this.service;
+
+    }
+
+    /**
+     * Returns the binary name of the class that provides the extension.
+     */
+    @Contract( pure = true )
+    public String Provider( ) {
+
+      return this.provider;
+
+    }
+
+    /**
+     * Returns the name of the extension shown to the user.
+     */
+    @Contract( pure = true )
+    public String Name( ) {
+
+      return this.name;
+
+    }
+
+    /**
+     * Returns the description of the extension.
+     */
+    @Contract( pure = true )
+    public String Description( ) {
+
+      return this.description;
+
+    }
+
+    /**
+     * Returns the priority of the extension, higher priorities are chosen first.
+     */
+    @Contract( pure = true )
+    public int Priority( ) {
+
+      return this.priority;
+
+    }
+
+    /**
+     * Returns the tags of the extension.
+     */
+    @Contract( pure = true )
+    public @NotNull @UnmodifiableView List< String > Tags( ) {
+
+      return this.tags;
+
+    }
+
+    @Override
+    public boolean equals( Object other ) {
+
+      if( this == other ) {
+        return true;
+      }
+      if( !( other instanceof Entry entry ) ) {
+        return false;
+      }
+      return this.priority == entry.priority && this.service.equals( entry.service ) && this.provider.equals( entry.provider ) && this.name.equals( entry.name )
+          && this.description.equals( entry.description ) && this.tags.equals( entry.tags );
+
+    }
+
+    @Override
+    public int hashCode( ) {
+
+      return Objects.hash( this.service, this.provider, this.name, this.description, this.priority, this.tags );
+
+    }
+
+    @Override
+    public String toString( ) {
+
+      return "{\"service\":\"%s\",\"provider\":\"%s\",\"name\":\"%s\",\"priority\":%d,\"tags\":%s}".formatted( this.service, this.provider, this.name, this.priority, this.tags );
+
+    }
+
+  }
+
+  private final List< Entry > entries;
+
+  private final Map< String, List< Entry > > byService;
+
+  private ExtensionIndex( List< Entry > entries ) {
+
+    this.entries = entries;
+    Map< String, List< Entry > > byService = new LinkedHashMap<>( );
+    for( Entry entry : entries ) {
+      byService.computeIfAbsent( entry.service, key -> new ArrayList<>( ) ).add( entry );
+    }
+    byService.replaceAll( ( service, list ) -> list.stream( ).sorted( ExtensionIndex.HIGHEST_PRIORITY_FIRST ).toList( ) );
+    this.byService = byService;
+
+  }
+
+  /**
+   * Creates a new index with the given entries.
+   */
+  @Contract( "_ -> new" )
+  public static @NotNull ExtensionIndex of( Collection< Entry > entries ) {
+
+    return new ExtensionIndex( List.copyOf( entries ) );
+
+  }
+
+  /**
+   * Returns an index without entries, used for the plugins that do not have an index.
+   */
+  @Contract( pure = true )
+  public static @NotNull ExtensionIndex empty( ) {
+
+    return ExtensionIndex.EMPTY;
+
+  }
+
+  /**
+   * Returns every entry of the index, in the order they were written.
+   */
+  @Contract( pure = true )
+  public @NotNull @UnmodifiableView List< Entry > Entries( ) {
+
+    return this.entries;
+
+  }
+
+  /**
+   * Returns the binary names of the extension points that have entries in the index.
+   */
+  public @NotNull @UnmodifiableView Set< String > Services( ) {
+
+    return Set.copyOf( this.byService.keySet( ) );
+
+  }
+
+  /**
+   * Returns the entries of the given extension point, from the highest to the lowest priority.
+   *
+   * @param service The binary name of the extension point.
+   */
+  public @NotNull @UnmodifiableView List< Entry > entries( String service ) {
+
+    return this.byService.getOrDefault( service, List.of( ) );
+
+  }
+
+  /**
+   * Writes the index to the given stream, the stream is not closed.
+   *
+   * @throws IOException If the index cannot be written.
+   */
+  public void writeTo( OutputStream stream ) throws IOException {
+
+    Map< String, Integer > strings = new LinkedHashMap<>( );
+    for( Entry entry : this.entries ) {
+      for( String string : List.of( entry.service, entry.provider, entry.name, entry.description ) ) {
+        strings.putIfAbsent( string, strings.size( ) );
+      }
+      entry.tags.forEach( tag -> strings.putIfAbsent( tag, strings.size( ) ) );
+    }
+
+    DataOutputStream output = new DataOutputStream( new BufferedOutputStream( stream ) );
+    output.writeInt( ExtensionIndex.MAGIC );
+    output.writeShort( ExtensionIndex.FORMAT_VERSION );
+    output.writeInt( strings.size( ) );
+    for( String string : strings.keySet( ) ) {
+      output.writeUTF( string );
+    }
+    output.writeInt( this.entries.size( ) );
+    for( Entry entry : this.entries ) {
+      output.writeInt( strings.get( entry.service ) );
+      output.writeInt( strings.get( entry.provider ) );
+      output.writeInt( strings.get( entry.name ) );
+      output.writeInt( strings.get( entry.description ) );
+      output.writeInt( entry.priority );
+      output.writeShort( entry.tags.size( ) );
+      for( String tag : entry.tags ) {
+        output.writeInt( strings.get( tag ) );
+      }
+    }
+    output.flush( );
+
+  }
+
+  /**
+   * Reads an index from the given stream, the stream is not closed.
+   *
+   * @return The index.
+   *
+   * @throws IOException If the index cannot be read, or is not valid.
+   */
+  public static @NotNull ExtensionIndex readFrom( InputStream stream ) throws IOException {
+
+    DataInputStream input = new DataInputStream( new BufferedInputStream( stream ) );
+    if( input.readInt( ) != ExtensionIndex.MAGIC ) {
+      throw new IOException( "The file is not an extension index" );
+    }
+    int version = input.readUnsignedShort( );
+    if( version != ExtensionIndex.FORMAT_VERSION ) {
+      throw new IOException( "Unsupported extension index version %d".formatted( version ) );
+    }
+
+    String[ ] strings = new String[ ExtensionIndex.readCount( input ) ];
+    for( int index = 0; index < strings.length; index++ ) {
+      strings[ index ] = input.readUTF( );
+    }
+    int count = ExtensionIndex.readCount( input );
+    List< Entry > entries = new ArrayList<>( count );
+    for( int index = 0; index < count; index++ ) {
+      String service = ExtensionIndex.readString( input, strings );
+      String provider = ExtensionIndex.readString( input, strings );
+      String name = ExtensionIndex.readString( input, strings );
+      String description = ExtensionIndex.readString( input, strings );
+      int priority = input.readInt( );
+      String[ ] tags = new String[ input.readUnsignedShort( ) ];
+      for( int tag = 0; tag < tags.length; tag++ ) {
+        tags[ tag ] = ExtensionIndex.readString( input, strings );
+      }
+      entries.add( new Entry( service, provider, name, description, priority, List.of( tags ) ) );
+    }
+    return new ExtensionIndex( List.copyOf( entries ) );
+
+  }
+
+  private static int readCount( DataInputStream input ) throws IOException {
+
+    int count = input.readInt( );
+    if( count < 0 || count > ExtensionIndex.MAXIMUM_COUNT ) {
+      throw new IOException( "Invalid extension index count %d".formatted( count ) );
+    }
+    return count;
+
+  }
+
+  private static String readString( DataInputStream input, String[ ] strings ) throws IOException {
+
+    int index = input.readInt( );
+    if( index < 0 || index >= strings.length ) {
+      throw new IOException( "Invalid extension index string reference %d".formatted( index ) );
+    }
+    return strings[ index ];
+
+  }
+
+  @Override
+  public String toString( ) {
+
+    return "{\"entries\":%s}".formatted( this.entries );
+
+  }
+
+}
@@ -1,2 +1,7 @@
 module barbara.spi {
+  requires static org.jetbrains.annotations;
+
+  exports cc.chordflower.desktop.barbara.spi;
+  exports cc.chordflower.desktop.barbara.spi.event;
+  exports cc.chordflower.desktop.barbara.spi.index;
 }